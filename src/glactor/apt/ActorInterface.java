@@ -0,0 +1,52 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.apt;
+
+import java.lang.annotation.*;
+
+/**
+ * Generate a typed actor proxy for the annotated interface.
+ * <p>
+ * For an interface Foo, ActorProxyProcessor generates class FooProxy
+ * implementing Foo on top of an IActorRef: void methods become
+ * sends, methods returning Future/FutureRef become calls (the actor
+ * implementation returns eg. a FutureDirect, or a FuturePromise
+ * completed by a later message), and other methods become blocking
+ * calls. Each method gets its own message class holding the
+ * arguments; no reflection is used at runtime.
+ * <pre>
+ * Usage:
+ *  &#64;ActorInterface
+ *  public interface Account {
+ *	void deposit(long amount);
+ *	Future&lt;Long> balance();
+ *  }
+ *  Account acc = AccountProxy.create(threadP, new AccountImpl());
+ *  acc.deposit(100);			//send
+ *  long b = acc.balance().get();	//call
+ * </pre>
+ * @see ActorProxyProcessor
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface ActorInterface
+{
+    /**
+     * @return simple name of generated class; default is
+     *	    interface name + "Proxy"
+     */
+    String value() default "";
+}
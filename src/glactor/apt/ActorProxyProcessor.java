@@ -0,0 +1,360 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.apt;
+
+import java.io.*;
+import java.util.*;
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.*;
+import javax.lang.model.util.*;
+import javax.tools.Diagnostic;
+
+/**
+ * Annotation processor generating actor proxies for
+ * &#64;ActorInterface interfaces.
+ * <p>
+ * Generated proxy for interface Foo (package of Foo):
+ * <pre>
+ *  public class FooProxy implements Foo {
+ *	public FooProxy(IActorRef&lt;? extends Foo> ref)
+ *	public static Foo create(ActorThreadPool threadP, Foo actorImpl)
+ *	public IActorRef&lt;Foo> getActorRef()
+ *	..one method per interface method, each sending its own
+ *	  (static, final) message class
+ *  }
+ * </pre>
+ * Methods returning a Future send a message holding a FuturePromise,
+ * completed from the implementation's future when that completes
+ * (FuturePromise.completeFrom), so the actor never blocks on it.
+ * Registered in META-INF/services, so it runs when glactor.jar is on
+ * the annotation processor path.
+ * @see ActorInterface
+ */
+@SupportedAnnotationTypes("glactor.apt.ActorInterface")
+public class ActorProxyProcessor extends AbstractProcessor
+{
+    private static final String IND = "    ";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+	return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations,
+	    RoundEnvironment roundEnv) {
+	for (Element e : roundEnv.getElementsAnnotatedWith(ActorInterface.class)) {
+	    if (e.getKind() != ElementKind.INTERFACE) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+			"@ActorInterface requires an interface", e);
+		continue;
+	    }
+	    try {
+		generate((TypeElement) e);
+	    } catch (IOException ex) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+			"actor proxy generation failed: " + ex, e);
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * How a method is mapped to messages
+     */
+    private enum Kind
+    {
+	SEND, CALL_FUTURE, CALL_BLOCKING
+    }
+
+    private void generate(TypeElement itf) throws IOException {
+	Elements elements = processingEnv.getElementUtils();
+	Types types = processingEnv.getTypeUtils();
+	String pkg = elements.getPackageOf(itf).getQualifiedName().toString();
+	String name = itf.getAnnotation(ActorInterface.class).value();
+	if (name.length() == 0) {
+	    name = nestedName(itf) + "Proxy";
+	}
+	String tparams = typeParams(itf.getTypeParameters());
+	String targs = typeArgs(itf.getTypeParameters());
+	String itfType = itf.getQualifiedName() + targs;
+	TypeMirror future = types.erasure(elements.getTypeElement(
+		"java.util.concurrent.Future").asType());
+	TypeMirror futureRef = types.erasure(elements.getTypeElement(
+		"glactor.core.FutureRef").asType());
+
+	StringBuilder sb = new StringBuilder();
+	if (pkg.length() > 0) {
+	    sb.append("package ").append(pkg).append(";\n\n");
+	}
+	sb.append("/**\n * Actor proxy for ").append(itf.getQualifiedName())
+		.append(".\n * Generated by ").append(getClass().getName())
+		.append("; do not edit.\n */\n");
+	sb.append("public class ").append(name).append(tparams)
+		.append(" implements ").append(itfType).append("\n{\n");
+	sb.append(IND).append("private final glactor.core.IActorRef<")
+		.append(itfType).append("> ref;\n\n");
+	sb.append(IND).append("@SuppressWarnings(\"unchecked\")\n");
+	sb.append(IND).append("public ").append(name)
+		.append("(glactor.core.IActorRef<? extends ").append(itfType)
+		.append("> ref) {\n");
+	sb.append(IND).append(IND).append("this.ref = (glactor.core.IActorRef<")
+		.append(itfType).append(">) ref;\n");
+	sb.append(IND).append("}\n\n");
+	sb.append(IND).append("public static ").append(tparams.length() > 0
+		? tparams + " " : "").append(itfType).append(" create(")
+		.append("glactor.core.ActorThreadPool threadP, ")
+		.append(itfType).append(" actorImpl) {\n");
+	sb.append(IND).append(IND).append("return new ").append(name)
+		.append(targs).append("(threadP.create(actorImpl));\n");
+	sb.append(IND).append("}\n\n");
+	sb.append(IND).append("public glactor.core.IActorRef<").append(itfType)
+		.append("> getActorRef() {\n");
+	sb.append(IND).append(IND).append("return ref;\n");
+	sb.append(IND).append("}\n");
+
+	int no = 0;
+	for (ExecutableElement m
+		: ElementFilter.methodsIn(elements.getAllMembers(itf))) {
+	    if (!m.getModifiers().contains(Modifier.ABSTRACT)
+		    || m.getEnclosingElement().getKind() != ElementKind.INTERFACE) {
+		continue;
+	    }
+	    ExecutableType mt = (ExecutableType) types.asMemberOf(
+		    (DeclaredType) itf.asType(), m);
+	    TypeMirror rt = mt.getReturnType();
+	    Kind kind;
+	    String valueType;
+	    if (rt.getKind() == TypeKind.VOID) {
+		kind = Kind.SEND;
+		valueType = "Object";
+	    } else if (types.isSameType(types.erasure(rt), future)
+		    || types.isSameType(types.erasure(rt), futureRef)) {
+		kind = Kind.CALL_FUTURE;
+		List<? extends TypeMirror> ta = ((DeclaredType) rt).getTypeArguments();
+		TypeMirror vt = ta.isEmpty() ? null : ta.get(0);
+		if (vt != null && vt.getKind() == TypeKind.WILDCARD) {
+		    vt = ((WildcardType) vt).getExtendsBound();
+		}
+		valueType = vt == null ? "Object" : vt.toString();
+	    } else {
+		kind = Kind.CALL_BLOCKING;
+		valueType = rt.getKind().isPrimitive()
+			? types.boxedClass((PrimitiveType) rt).getQualifiedName().toString()
+			: rt.toString();
+	    }
+	    generateMethod(sb, m, mt, kind, valueType, itf, itfType,
+		    "M" + (no++) + "_" + m.getSimpleName());
+	}
+	sb.append("}\n");
+
+	String qname = pkg.length() > 0 ? pkg + "." + name : name;
+	Writer w = processingEnv.getFiler().createSourceFile(qname, itf).openWriter();
+	try {
+	    w.write(sb.toString());
+	} finally {
+	    w.close();
+	}
+    }
+
+    private void generateMethod(StringBuilder sb, ExecutableElement m,
+	    ExecutableType mt, Kind kind, String valueType, TypeElement itf,
+	    String itfType, String msgName) {
+	List<? extends VariableElement> params = m.getParameters();
+	List<? extends TypeMirror> ptypes = mt.getParameterTypes();
+	String mtparams = typeParams(m.getTypeParameters());
+	//message class type parameters: interface's + method's
+	List<TypeParameterElement> allTp = new ArrayList<TypeParameterElement>(
+		itf.getTypeParameters());
+	allTp.addAll(m.getTypeParameters());
+	String msgParams = typeParams(allTp);
+	String msgType = msgName + typeArgs(allTp);
+	String args = "";
+	StringBuilder decl = new StringBuilder();
+	for (int i = 0; i < params.size(); i++) {
+	    String pt = ptypes.get(i).toString();
+	    if (i == params.size() - 1 && m.isVarArgs() && pt.endsWith("[]")) {
+		pt = pt.substring(0, pt.length() - 2) + "...";
+	    }
+	    decl.append(i > 0 ? ", " : "").append("final ").append(pt)
+		    .append(" a").append(i);
+	    args += (i > 0 ? ", " : "") + "a" + i;
+	}
+	String promise = "glactor.core.FuturePromise<" + valueType + ">";
+	String ctorDecl = decl.toString().replace("...", "[]");
+	if (kind == Kind.CALL_FUTURE) { //result passed through promise p
+	    ctorDecl = "final " + promise + " p" + (ctorDecl.length() > 0
+		    ? ", " + ctorDecl : "");
+	}
+	//message class
+	sb.append("\n").append(IND).append("private static final class ")
+		.append(msgName).append(msgParams)
+		.append(" implements glactor.core.IMessage<").append(itfType)
+		.append(", ").append(kind == Kind.CALL_FUTURE ? "Object" : valueType)
+		.append(">\n").append(IND).append("{\n");
+	if (kind == Kind.CALL_FUTURE) {
+	    sb.append(IND).append(IND).append("final ").append(promise)
+		    .append(" p;\n");
+	}
+	for (int i = 0; i < params.size(); i++) {
+	    sb.append(IND).append(IND).append("final ")
+		    .append(ptypes.get(i).toString()).append(" a").append(i)
+		    .append(";\n");
+	}
+	sb.append("\n").append(IND).append(IND).append(msgName).append("(")
+		.append(ctorDecl).append(") {\n");
+	if (kind == Kind.CALL_FUTURE) {
+	    sb.append(IND).append(IND).append(IND).append("this.p = p;\n");
+	}
+	for (int i = 0; i < params.size(); i++) {
+	    sb.append(IND).append(IND).append(IND).append("this.a").append(i)
+		    .append(" = a").append(i).append(";\n");
+	}
+	sb.append(IND).append(IND).append("}\n\n");
+	sb.append(IND).append(IND).append("public ")
+		.append(kind == Kind.CALL_FUTURE ? "Object" : valueType)
+		.append(" act(").append(itfType)
+		.append(" actorImpl) throws Exception {\n");
+	String invoke = "actorImpl." + m.getSimpleName() + "(" + args + ")";
+	sb.append(IND).append(IND).append(IND);
+	switch (kind) {
+	    case SEND:
+		sb.append(invoke).append(";\n").append(IND).append(IND)
+			.append(IND).append("return null;\n");
+		break;
+	    case CALL_FUTURE: {
+		String ind3 = IND + IND + IND;
+		sb.append("try {\n");
+		sb.append(ind3).append(IND).append("p.completeFrom(").append(invoke)
+			.append(");\n");
+		sb.append(ind3).append("} catch (Exception e) {\n");
+		sb.append(ind3).append(IND).append("p.fail(e);\n");
+		sb.append(ind3).append("} catch (Error e) {\n");
+		sb.append(ind3).append(IND).append("p.fail(e);\n");
+		sb.append(ind3).append(IND).append("throw e;\n");
+		sb.append(ind3).append("}\n");
+		sb.append(ind3).append("return null;\n");
+		break;
+	    }
+	    default:
+		sb.append("return ").append(invoke).append(";\n");
+	}
+	sb.append(IND).append(IND).append("}\n").append(IND).append("}\n\n");
+
+	//proxy method
+	sb.append(IND).append("public ").append(mtparams.length() > 0
+		? mtparams + " " : "").append(mt.getReturnType().toString())
+		.append(" ").append(m.getSimpleName()).append("(")
+		.append(decl).append(")");
+	List<? extends TypeMirror> thrown = mt.getThrownTypes();
+	for (int i = 0; i < thrown.size(); i++) {
+	    sb.append(i == 0 ? " throws " : ", ").append(thrown.get(i));
+	}
+	sb.append(" {\n").append(IND).append(IND);
+	String newMsg = "new " + msgType + "(" + args + ")";
+	switch (kind) {
+	    case SEND:
+		sb.append("ref.send(").append(newMsg).append(");\n");
+		break;
+	    case CALL_FUTURE:
+		sb.append(promise).append(" p = glactor.core.FuturePromise.forActor(ref, ")
+			.append(msgName).append(".class);\n");
+		sb.append(IND).append(IND).append("ref.send(new ").append(msgType)
+			.append("(p").append(args.length() > 0 ? ", " + args : "")
+			.append("));\n");
+		sb.append(IND).append(IND).append("return p.getRef();\n");
+		break;
+	    default:
+		sb.append("try {\n");
+		sb.append(IND).append(IND).append(IND).append("return ref.call(")
+			.append(newMsg).append(").get();\n");
+		sb.append(IND).append(IND).append("} catch (InterruptedException e) {\n");
+		sb.append(IND).append(IND).append(IND)
+			.append("Thread.currentThread().interrupt();\n");
+		sb.append(IND).append(IND).append(IND)
+			.append("throw new IllegalStateException(e);\n");
+		sb.append(IND).append(IND)
+			.append("} catch (java.util.concurrent.ExecutionException e) {\n");
+		sb.append(IND).append(IND).append(IND)
+			.append("Throwable c = e.getCause();\n");
+		List<String> rethrow = new ArrayList<String>();
+		rethrow.add("RuntimeException");
+		rethrow.add("Error");
+		for (TypeMirror t : thrown) {
+		    rethrow.add(t.toString());
+		}
+		for (String t : rethrow) {
+		    sb.append(IND).append(IND).append(IND).append("if (c instanceof ")
+			    .append(t).append(") throw (").append(t).append(") c;\n");
+		}
+		sb.append(IND).append(IND).append(IND)
+			.append("throw new IllegalStateException(c);\n");
+		sb.append(IND).append(IND).append("}\n");
+	}
+	sb.append(IND).append("}\n");
+    }
+
+    /**
+     * Outer_Inner name of (nested) type
+     */
+    private static String nestedName(TypeElement t) {
+	String n = t.getSimpleName().toString();
+	Element e = t.getEnclosingElement();
+	while (e instanceof TypeElement) {
+	    n = e.getSimpleName() + "_" + n;
+	    e = e.getEnclosingElement();
+	}
+	return n;
+    }
+
+    /**
+     * "&lt;T extends X, U>" declaration, or ""
+     */
+    private static String typeParams(List<? extends TypeParameterElement> tps) {
+	if (tps.isEmpty()) {
+	    return "";
+	}
+	StringBuilder sb = new StringBuilder("<");
+	for (int i = 0; i < tps.size(); i++) {
+	    TypeParameterElement tp = tps.get(i);
+	    sb.append(i > 0 ? ", " : "").append(tp.getSimpleName());
+	    String sep = " extends ";
+	    for (TypeMirror b : tp.getBounds()) {
+		if (!b.toString().equals("java.lang.Object")) {
+		    sb.append(sep).append(b);
+		    sep = " & ";
+		}
+	    }
+	}
+	return sb.append(">").toString();
+    }
+
+    /**
+     * "&lt;T, U>" arguments, or ""
+     */
+    private static String typeArgs(List<? extends TypeParameterElement> tps) {
+	if (tps.isEmpty()) {
+	    return "";
+	}
+	StringBuilder sb = new StringBuilder("<");
+	for (int i = 0; i < tps.size(); i++) {
+	    sb.append(i > 0 ? ", " : "").append(tps.get(i).getSimpleName());
+	}
+	return sb.append(">").toString();
+    }
+}
@@ -0,0 +1,298 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.bench;
+
+import glactor.core.*;
+import glactor.monitor.LatencyHistogram;
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+/**
+ * Runs benchmarks against each ActorThreadPool implementation, and
+ * reports throughput, latency percentiles (where recorded), allocation
+ * per operation and GC count and time per iteration.
+ * <p>
+ * Each benchmark runs warm-up iterations (JIT), then measured
+ * iterations of about iterMillis each; a fresh pool is used per
+ * benchmark. Allocation is summed over live threads (HotSpot
+ * com.sun.management.ThreadMXBean); ThrPoolBasicImpl workers are kept
+ * alive during measured iterations, so no allocating thread ends
+ * uncounted.
+ * <pre>
+ * Usage: BenchRunner [-w warmups] [-i iterations] [-t iterMillis]
+ *	[-p maxProducers] [-csv file] [name filter..]
+ * </pre>
+ */
+public class BenchRunner
+{
+    private int warmups = 3, iterations = 5;
+    private long iterMillis = 1000;
+    private PrintWriter csv;
+
+    /**
+     * Thread pool implementation under test
+     */
+    public interface IPoolFactory
+    {
+	String getName();
+
+	ActorThreadPool create();
+    }
+
+    /**
+     * Result of one benchmark on one pool
+     */
+    public static class Result
+    {
+	public String bench, pool;
+	/** operations per second: mean, standard deviation over iterations */
+	public double opsPerSec, opsStdDev;
+	public double allocBytesPerOp = Double.NaN;
+	public double gcCountPerIter, gcMillisPerIter;
+	public LatencyHistogram latency = new LatencyHistogram();
+
+	@Override
+	public String toString() {
+	    String s = String.format("%-16s %-8s %12.0f ops/s +-%4.1f%% %10.1f ns/op %9.1f B/op"
+		    + " gc %4.1f/iter %6.1f ms/iter", bench, pool, opsPerSec,
+		    100 * opsStdDev / opsPerSec, 1e9 / opsPerSec, allocBytesPerOp,
+		    gcCountPerIter, gcMillisPerIter);
+	    if (latency.getCount() > 0) {
+		s += String.format("  p50 %.1fus p99 %.1fus", latency.getPercentile(50) / 1e3,
+			latency.getPercentile(99) / 1e3);
+	    }
+	    return s;
+	}
+    }
+
+    /**
+     * @return default pools: ThrPoolBasicImpl and ThrPoolExecImpl with
+     *	one thread per cpu (at least 2)
+     */
+    public static List<IPoolFactory> defaultPools() {
+	final int n = Math.max(2, Runtime.getRuntime().availableProcessors());
+	List<IPoolFactory> lst = new ArrayList<IPoolFactory>();
+	lst.add(new IPoolFactory()
+	{
+	    public String getName() {
+		return "basic";
+	    }
+
+	    public ActorThreadPool create() {
+		return new ThrPoolBasicImpl(n);
+	    }
+	});
+	lst.add(new IPoolFactory()
+	{
+	    public String getName() {
+		return "exec";
+	    }
+
+	    public ActorThreadPool create() {
+		return new ThrPoolExecImpl(n);
+	    }
+	});
+	return lst;
+    }
+
+    public void setWarmups(int n) {
+	warmups = n;
+    }
+
+    public void setIterations(int n) {
+	iterations = n;
+    }
+
+    public void setIterMillis(long ms) {
+	iterMillis = ms;
+    }
+
+    /**
+     * @param out also write results as CSV here; or null
+     */
+    public void setCsv(PrintWriter out) {
+	csv = out;
+	if (csv != null) {
+	    csv.println("bench,pool,ops_per_sec,ops_stddev,alloc_bytes_per_op,"
+		    + "gc_count_per_iter,gc_ms_per_iter,p50_ns,p99_ns");
+	}
+    }
+
+    /**
+     * Run each benchmark on each pool, printing results
+     * @return results
+     */
+    public List<Result> run(List<Benchmark> benches, List<IPoolFactory> pools)
+	    throws Exception {
+	List<Result> res = new ArrayList<Result>();
+	for (Benchmark b : benches) {
+	    for (IPoolFactory pf : pools) {
+		Result r = run(b, pf);
+		System.out.println(r);
+		if (csv != null) {
+		    csv.printf(Locale.ROOT, "%s,%s,%.1f,%.1f,%.1f,%.2f,%.2f,%d,%d%n",
+			    r.bench, r.pool, r.opsPerSec, r.opsStdDev,
+			    r.allocBytesPerOp, r.gcCountPerIter, r.gcMillisPerIter,
+			    r.latency.getPercentile(50), r.latency.getPercentile(99));
+		    csv.flush();
+		}
+		res.add(r);
+	    }
+	}
+	return res;
+    }
+
+    /**
+     * Run one benchmark on a new pool
+     */
+    public Result run(Benchmark b, IPoolFactory pf) throws Exception {
+	ActorThreadPool pool = pf.create();
+	Result r = new Result();
+	r.bench = b.getName();
+	r.pool = pf.getName();
+	b.setup(pool);
+	try {
+	    for (int i = 0; i < warmups; i++) {
+		iteration(b, new LatencyHistogram());
+	    }
+	    double[] ops = new double[iterations];
+	    keepWorkers(pool, true);
+	    long alloc0 = allocatedBytes(), gc0 = gcCount(), gct0 = gcMillis();
+	    long totalOps = 0;
+	    for (int i = 0; i < iterations; i++) {
+		long t0 = System.nanoTime();
+		long n = iteration(b, r.latency);
+		ops[i] = n * 1e9 / (System.nanoTime() - t0);
+		totalOps += n;
+	    }
+	    long alloc = allocatedBytes() - alloc0;
+	    if (alloc0 >= 0) {
+		r.allocBytesPerOp = (double) alloc / totalOps;
+	    }
+	    r.gcCountPerIter = (double) (gcCount() - gc0) / iterations;
+	    r.gcMillisPerIter = (double) (gcMillis() - gct0) / iterations;
+	    double sum = 0, sq = 0;
+	    for (double x : ops) {
+		sum += x;
+	    }
+	    r.opsPerSec = sum / iterations;
+	    for (double x : ops) {
+		sq += (x - r.opsPerSec) * (x - r.opsPerSec);
+	    }
+	    r.opsStdDev = Math.sqrt(sq / iterations);
+	} finally {
+	    keepWorkers(pool, false);
+	    b.teardown();
+	    pool.shutdown();
+	}
+	return r;
+    }
+
+    /**
+     * Keep idle ThrPoolBasicImpl workers (which otherwise end after
+     * 5 ms) for the measured iterations, or restore
+     */
+    private void keepWorkers(ActorThreadPool pool, boolean keep) {
+	if (pool instanceof ThrPoolBasicImpl) {
+	    ((ThrPoolBasicImpl) pool).setIdleMillis(
+		    keep ? 2 * iterMillis * iterations + 1000 : 5);
+	}
+    }
+
+    /**
+     * Call run() until iterMillis has passed
+     * @return #operations
+     */
+    private long iteration(Benchmark b, LatencyHistogram latency) throws Exception {
+	long end = System.nanoTime() + iterMillis * 1000000;
+	long n = 0;
+	do {
+	    n += b.run(latency);
+	} while (System.nanoTime() < end);
+	return n;
+    }
+
+    /**
+     * @return bytes allocated by live threads, or -1 if not supported
+     */
+    static long allocatedBytes() {
+	ThreadMXBean tmx = ManagementFactory.getThreadMXBean();
+	if (!(tmx instanceof com.sun.management.ThreadMXBean)) {
+	    return -1;
+	}
+	com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) tmx;
+	if (!t.isThreadAllocatedMemorySupported() || !t.isThreadAllocatedMemoryEnabled()) {
+	    return -1;
+	}
+	long sum = 0;
+	for (long a : t.getThreadAllocatedBytes(t.getAllThreadIds())) {
+	    if (a > 0) {
+		sum += a;
+	    }
+	}
+	return sum;
+    }
+
+    static long gcCount() {
+	long n = 0;
+	for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+	    n += Math.max(0, gc.getCollectionCount());
+	}
+	return n;
+    }
+
+    static long gcMillis() {
+	long n = 0;
+	for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+	    n += Math.max(0, gc.getCollectionTime());
+	}
+	return n;
+    }
+
+    public static void main(String[] args) throws Exception {
+	BenchRunner runner = new BenchRunner();
+	int maxProducers = Math.max(2, Runtime.getRuntime().availableProcessors());
+	List<String> filters = new ArrayList<String>();
+	for (int i = 0; i < args.length; i++) {
+	    if (args[i].equals("-w")) {
+		runner.setWarmups(Integer.parseInt(args[++i]));
+	    } else if (args[i].equals("-i")) {
+		runner.setIterations(Integer.parseInt(args[++i]));
+	    } else if (args[i].equals("-t")) {
+		runner.setIterMillis(Long.parseLong(args[++i]));
+	    } else if (args[i].equals("-p")) {
+		maxProducers = Integer.parseInt(args[++i]);
+	    } else if (args[i].equals("-csv")) {
+		runner.setCsv(new PrintWriter(new FileWriter(args[++i])));
+	    } else {
+		filters.add(args[i]);
+	    }
+	}
+	List<Benchmark> benches = new ArrayList<Benchmark>();
+	for (Benchmark b : CoreBenchmarks.all(maxProducers)) {
+	    boolean match = filters.isEmpty();
+	    for (String f : filters) {
+		match |= b.getName().contains(f);
+	    }
+	    if (match) {
+		benches.add(b);
+	    }
+	}
+	runner.run(benches, defaultPools());
+	System.exit(0); //pool threads
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.bench;
+
+import glactor.core.ActorThreadPool;
+import glactor.monitor.LatencyHistogram;
+
+/**
+ * One benchmark, run by BenchRunner against each thread pool
+ * implementation. run() is called repeatedly; it returns the number of
+ * operations it did, so throughput is reported per operation
+ * (message, call, actor..).
+ */
+public abstract class Benchmark
+{
+    private final String name;
+
+    /**
+     * @param name name in reports
+     */
+    protected Benchmark(String name) {
+	this.name = name;
+    }
+
+    public String getName() {
+	return name;
+    }
+
+    /**
+     * Prepare (not timed)
+     * @param pool thread pool under test
+     */
+    public void setup(ActorThreadPool pool) throws Exception {
+    }
+
+    /**
+     * Do some operations (timed)
+     * @param latency record per-operation latency here (nanoseconds),
+     *	if meaningful; else ignore
+     * @return #operations done
+     */
+    public abstract long run(LatencyHistogram latency) throws Exception;
+
+    /**
+     * Release resources (not timed)
+     */
+    public void teardown() throws Exception {
+    }
+}
@@ -0,0 +1,446 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.bench;
+
+import glactor.core.*;
+import glactor.monitor.LatencyHistogram;
+import glactor.utils.ParallelArrays;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Benchmarks of the core messaging paths: send throughput with 1..N
+ * producers, call/get round trip, read-only queries with 1..N clients,
+ * ping-pong, fan-out/fan-in, the prime sieve actor chain, parallel
+ * sort and actor creation.
+ */
+public class CoreBenchmarks
+{
+    /**
+     * @param maxProducers max #producer threads of send benchmarks
+     * @return all benchmarks
+     */
+    public static List<Benchmark> all(int maxProducers) {
+	List<Benchmark> lst = new ArrayList<Benchmark>();
+	for (int p = 1; p <= maxProducers; p *= 2) {
+	    lst.add(new SendThroughput(p, 100000));
+	}
+	lst.add(new CallRoundTrip(10000));
+	for (int p = 1; p <= maxProducers; p *= 2) {
+	    lst.add(new Query(p, 10000, false));
+	    lst.add(new Query(p, 10000, true));
+	}
+	lst.add(new PingPong(100000));
+	lst.add(new FanOutIn(16, 10000));
+	lst.add(new PrimeSieve(10007));
+	lst.add(new ParallelSort(1000000));
+	lst.add(new ActorCreation(10000));
+	return lst;
+    }
+
+    static class Counter
+    {
+	long n;
+    }
+
+    static final IMessage<Counter, Void> INC = new IMessage<Counter, Void>()
+    {
+	public Void act(Counter c) {
+	    c.n++;
+	    return null;
+	}
+    };
+
+    /**
+     * Producer threads sending to one actor
+     */
+    static class SendThroughput extends Benchmark
+    {
+	private final int producers, perProducer;
+	private ActorRef<Counter> target;
+	private ExecutorService exec;
+
+	SendThroughput(int producers, int perProducer) {
+	    super("send-" + producers + "p");
+	    this.producers = producers;
+	    this.perProducer = perProducer;
+	}
+
+	@Override
+	public void setup(ActorThreadPool pool) {
+	    target = new ActorRef<Counter>(new Counter(), pool);
+	    exec = Executors.newFixedThreadPool(producers);
+	}
+
+	public long run(LatencyHistogram latency) throws Exception {
+	    final CountDownLatch done = new CountDownLatch(producers);
+	    for (int p = 0; p < producers; p++) {
+		exec.execute(new Runnable()
+		{
+		    public void run() {
+			for (int i = 0; i < perProducer; i++) {
+			    target.send(INC);
+			}
+			done.countDown();
+		    }
+		});
+	    }
+	    done.await();
+	    target.awaitMessages();
+	    return (long) producers * perProducer;
+	}
+
+	@Override
+	public void teardown() {
+	    exec.shutdown();
+	}
+    }
+
+    /**
+     * Sequential call(..).get() from an outside thread
+     */
+    static class CallRoundTrip extends Benchmark
+    {
+	private final int calls;
+	private ActorRef<Counter> target;
+	private final IMessage<Counter, Long> get = new IMessage<Counter, Long>()
+	{
+	    public Long act(Counter c) {
+		return ++c.n;
+	    }
+	};
+
+	CallRoundTrip(int calls) {
+	    super("call-get");
+	    this.calls = calls;
+	}
+
+	@Override
+	public void setup(ActorThreadPool pool) {
+	    target = new ActorRef<Counter>(new Counter(), pool);
+	}
+
+	public long run(LatencyHistogram latency) throws Exception {
+	    for (int i = 0; i < calls; i++) {
+		long t0 = System.nanoTime();
+		target.call(get).get();
+		latency.record(System.nanoTime() - t0);
+	    }
+	    return calls;
+	}
+    }
+
+    static final class Get implements IMessage<Counter, Long>, IReadOnly
+    {
+	public Long act(Counter c) {
+	    long h = c.n;
+	    for (int i = 0; i < 100; i++) { //some lookup work
+		h = h * 31 + i;
+	    }
+	    return h;
+	}
+    }
+
+    /**
+     * Client threads calling a read-only query, on ActorRef (serial)
+     * or ActorRefRW (concurrent)
+     */
+    static class Query extends Benchmark
+    {
+	private final int clients, perClient;
+	private final boolean rw;
+	private ActorRef<Counter> target;
+	private ExecutorService exec;
+
+	Query(int clients, int perClient, boolean rw) {
+	    super((rw ? "query-rw-" : "query-") + clients + "p");
+	    this.clients = clients;
+	    this.perClient = perClient;
+	    this.rw = rw;
+	}
+
+	@Override
+	public void setup(ActorThreadPool pool) {
+	    target = rw ? new ActorRefRW<Counter>(new Counter(), pool)
+		    : new ActorRef<Counter>(new Counter(), pool);
+	    exec = Executors.newFixedThreadPool(clients);
+	}
+
+	public long run(final LatencyHistogram latency) throws Exception {
+	    final Get get = new Get();
+	    List<Future<?>> fs = new ArrayList<Future<?>>();
+	    for (int c = 0; c < clients; c++) {
+		fs.add(exec.submit(new Callable<Void>()
+		{
+		    public Void call() throws Exception {
+			for (int i = 0; i < perClient; i++) {
+			    long t0 = System.nanoTime();
+			    target.call(get).get();
+			    latency.record(System.nanoTime() - t0);
+			}
+			return null;
+		    }
+		}));
+	    }
+	    for (Future<?> f : fs) {
+		f.get();
+	    }
+	    return (long) clients * perClient;
+	}
+
+	@Override
+	public void teardown() {
+	    exec.shutdown();
+	}
+    }
+
+    /**
+     * Two actors passing a ball back and forth
+     */
+    static class PingPong extends Benchmark
+    {
+	private final int hops;
+	private Player a, b;
+
+	class Player
+	{
+	    IActorRef<Player> self, other;
+	    CountDownLatch done;
+
+	    void hit(final int left) {
+		if (left == 0) {
+		    done.countDown();
+		    return;
+		}
+		other.send(new IMessage<Player, Void>()
+		{
+		    public Void act(Player p) {
+			p.hit(left - 1);
+			return null;
+		    }
+		});
+	    }
+	}
+
+	PingPong(int hops) {
+	    super("ping-pong");
+	    this.hops = hops;
+	}
+
+	@Override
+	public void setup(ActorThreadPool pool) {
+	    a = new Player();
+	    b = new Player();
+	    a.self = pool.create(a);
+	    b.self = pool.create(b);
+	    a.other = b.self;
+	    b.other = a.self;
+	}
+
+	public long run(LatencyHistogram latency) throws Exception {
+	    CountDownLatch done = new CountDownLatch(1);
+	    a.done = b.done = done;
+	    a.hit(hops);
+	    done.await();
+	    return hops;
+	}
+    }
+
+    /**
+     * Coordinator sends to N workers; each replies to one aggregator
+     */
+    static class FanOutIn extends Benchmark
+    {
+	private final int width, rounds;
+	private final List<IActorRef<Counter>> workers = new ArrayList<IActorRef<Counter>>();
+	private IActorRef<Counter> sink;
+	private CountDownLatch done;
+
+	FanOutIn(int width, int rounds) {
+	    super("fan-out-in-" + width);
+	    this.width = width;
+	    this.rounds = rounds;
+	}
+
+	@Override
+	public void setup(ActorThreadPool pool) {
+	    workers.clear();
+	    for (int i = 0; i < width; i++) {
+		workers.add(pool.create(new Counter()));
+	    }
+	    sink = pool.create(new Counter());
+	}
+
+	public long run(LatencyHistogram latency) throws Exception {
+	    final long total = (long) width * rounds;
+	    done = new CountDownLatch(1);
+	    final CountDownLatch d = done;
+	    final IMessage<Counter, Void> reply = new IMessage<Counter, Void>()
+	    {
+		public Void act(Counter c) {
+		    if (++c.n % total == 0) {
+			d.countDown();
+		    }
+		    return null;
+		}
+	    };
+	    IMessage<Counter, Void> work = new IMessage<Counter, Void>()
+	    {
+		public Void act(Counter c) {
+		    c.n++;
+		    sink.send(reply);
+		    return null;
+		}
+	    };
+	    for (int r = 0; r < rounds; r++) {
+		for (IActorRef<Counter> w : workers) {
+		    w.send(work);
+		}
+	    }
+	    done.await();
+	    return 2 * total;
+	}
+    }
+
+    /**
+     * Prime sieve: chain of filter actors, one per prime found
+     */
+    static class PrimeSieve extends Benchmark
+    {
+	private final int limit;
+	private ActorThreadPool pool;
+
+	class Filter
+	{
+	    final int prime;
+	    Filter nextImpl;
+	    IActorRef<Filter> next;
+	    long received;
+
+	    Filter(int prime) {
+		this.prime = prime;
+	    }
+
+	    void filter(final int n) {
+		received++;
+		if (n % prime == 0) {
+		    return;
+		}
+		if (next == null) {
+		    nextImpl = new Filter(n);
+		    next = pool.create(nextImpl);
+		} else {
+		    next.send(new IMessage<Filter, Void>()
+		    {
+			public Void act(Filter f) {
+			    f.filter(n);
+			    return null;
+			}
+		    });
+		}
+	    }
+	}
+
+	PrimeSieve(int limit) {
+	    super("prime-sieve");
+	    this.limit = limit;
+	}
+
+	@Override
+	public void setup(ActorThreadPool pool) {
+	    this.pool = pool;
+	}
+
+	public long run(LatencyHistogram latency) throws Exception {
+	    Filter first = new Filter(2);
+	    IActorRef<Filter> head = pool.create(first);
+	    for (int i = 3; i < limit; i++) {
+		final int n = i;
+		head.send(new IMessage<Filter, Void>()
+		{
+		    public Void act(Filter f) {
+			f.filter(n);
+			return null;
+		    }
+		});
+	    }
+	    long msgs = 0;
+	    for (Filter f = first; f != null; f = f.nextImpl) { //await chain in order
+		head.awaitMessages(0);
+		msgs += f.received;
+		head = f.next;
+	    }
+	    return msgs;
+	}
+    }
+
+    /**
+     * ParallelArrays.sort of an int[]
+     */
+    static class ParallelSort extends Benchmark
+    {
+	private final int[] values;
+	private ParallelArrays pa;
+
+	ParallelSort(int n) {
+	    super("parallel-sort");
+	    values = new int[n];
+	    Random r = new Random(1);
+	    for (int i = 0; i < n; i++) {
+		values[i] = r.nextInt();
+	    }
+	}
+
+	@Override
+	public void setup(ActorThreadPool pool) {
+	    pa = new ParallelArrays(pool);
+	}
+
+	public long run(LatencyHistogram latency) throws Exception {
+	    long t0 = System.nanoTime();
+	    pa.sort(values.clone());
+	    latency.record(System.nanoTime() - t0);
+	    return 1;
+	}
+    }
+
+    /**
+     * Create actors and send each one message, until all are processed
+     */
+    static class ActorCreation extends Benchmark
+    {
+	private final int actors;
+	private ActorThreadPool pool;
+
+	ActorCreation(int actors) {
+	    super("actor-create");
+	    this.actors = actors;
+	}
+
+	@Override
+	public void setup(ActorThreadPool pool) {
+	    this.pool = pool;
+	}
+
+	public long run(LatencyHistogram latency) throws Exception {
+	    for (int i = 0; i < actors; i++) {
+		pool.create(new Counter()).send(INC);
+	    }
+	    pool.awaitQuiescence(0); //all actors created and processed
+	    return actors;
+	}
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.bench;
+
+import glactor.core.*;
+
+/**
+ * Retained heap per idle actor: creates N actors (ActorRef with the
+ * default mailbox, sharing one implementation object, so only the
+ * framework's footprint counts), and measures used heap after full
+ * GCs before and after. Also measures actors that have processed one
+ * message (idle again, mailbox used once).
+ * <p>
+ * Needs a heap of about 150 bytes per actor (eg. -Xmx2g for 10M).
+ * <pre>
+ * Usage: Footprint [#actors]   (default 1000000)
+ * </pre>
+ */
+public class Footprint
+{
+    static long usedAfterGc() throws InterruptedException {
+	Runtime rt = Runtime.getRuntime();
+	long used = Long.MAX_VALUE;
+	for (int i = 0; i < 5; i++) {
+	    System.gc();
+	    Thread.sleep(50);
+	    used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+	}
+	return used;
+    }
+
+    static double measure(int n, boolean used, ActorThreadPool pool)
+	    throws Exception {
+	final Object impl = new Object();
+	long before = usedAfterGc();
+	IActorRef<?>[] actors = new IActorRef<?>[n];
+	long arr = usedAfterGc() - before; //the array itself
+	for (int i = 0; i < n; i++) {
+	    ActorRef<Object> a = new ActorRef<Object>(impl, pool);
+	    if (used) {
+		a.send(new Runnable()
+		{
+		    public void run() {
+		    }
+		});
+	    }
+	    actors[i] = a;
+	}
+	if (used) {
+	    for (IActorRef<?> a : actors) {
+		a.awaitMessages(0);
+	    }
+	}
+	long after = usedAfterGc();
+	double perActor = (double) (after - before - arr) / n;
+	if (actors[n - 1] == null) { //keep reachable
+	    System.out.println();
+	}
+	return perActor;
+    }
+
+    public static void main(String[] args) throws Exception {
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+	ActorThreadPool pool = new ThrPoolBasicImpl(2);
+	measure(n / 10, false, pool); //warm-up
+	System.out.println(String.format("%d idle actors:        %6.1f bytes/actor",
+		n, measure(n, false, pool)));
+	System.out.println(String.format("%d actors after 1 msg: %6.1f bytes/actor",
+		n, measure(n, true, pool)));
+	System.exit(0);
+    }
+}
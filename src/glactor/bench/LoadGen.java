@@ -0,0 +1,377 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.bench;
+
+import glactor.core.*;
+import glactor.monitor.LatencyHistogram;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator: sends requests into an actor topology at a
+ * fixed arrival rate, whether or not earlier requests have completed,
+ * and records latency from each request's intended start time to its
+ * completion (log-linear histogram). A generator falling behind sends
+ * late requests at once, still timed from their intended start, so
+ * queueing delay is not hidden (no coordinated omission).
+ * <p>
+ * sweep(..) doubles the offered rate until the topology saturates
+ * (completions fall below 95% of the offered rate, or p99 exceeds
+ * sloMillis), giving the knee per thread pool and mailbox type.
+ * <pre>
+ * Usage: LoadGen [-d durationMillis] [-r startRate] [-slo p99Millis]
+ *	[-s stages] [-w workMicros] [-csv file]
+ * </pre>
+ */
+public class LoadGen
+{
+    private long durationMillis = 2000;
+    private long drainMillis = 5000;
+    private double sloMillis = 100;
+
+    /**
+     * Actor topology under load
+     */
+    public interface ITopology
+    {
+	String getName();
+
+	/**
+	 * Create actors for a new run; nothing is shared with earlier runs
+	 * @param pool thread pool
+	 * @param boxes mailbox of each actor
+	 * @param done record completion: done.record(System.nanoTime() - intendedStart)
+	 */
+	void start(ActorThreadPool pool, IMailboxFactory boxes, LatencyHistogram done);
+
+	/**
+	 * Send one request (generator thread)
+	 * @param intendedStart System.nanoTime() the request was due
+	 */
+	void request(long intendedStart);
+
+	/**
+	 * End the current run: requests still queued are dropped
+	 * (neither processed nor recorded)
+	 */
+	void stop();
+    }
+
+    /**
+     * Mailbox type under test
+     */
+    public interface IMailboxFactory
+    {
+	String getName();
+
+	Mailbox<Runnable> create();
+    }
+
+    /**
+     * Result of one run at one rate
+     */
+    public static class Result
+    {
+	public String topology, pool, mailbox;
+	public double offeredRate, achievedRate;
+	public long sent;
+	/** intended start to completion, nanoseconds */
+	public final LatencyHistogram latency = new LatencyHistogram();
+
+	public boolean isSaturated(double sloMillis) {
+	    return achievedRate < 0.95 * offeredRate
+		    || latency.getCount() < sent
+		    || latency.getPercentile(99) > sloMillis * 1e6;
+	}
+
+	@Override
+	public String toString() {
+	    return String.format("%-14s %-6s %-10s %9.0f %9.0f %9.3f %9.3f %9.3f %9.3f %9.3f",
+		    topology, pool, mailbox, offeredRate, achievedRate,
+		    latency.getPercentile(50) / 1e6, latency.getPercentile(90) / 1e6,
+		    latency.getPercentile(99) / 1e6, latency.getPercentile(99.9) / 1e6,
+		    latency.getMax() / 1e6);
+	}
+
+	public static String header() {
+	    return String.format("%-14s %-6s %-10s %9s %9s %9s %9s %9s %9s %9s",
+		    "topology", "pool", "mailbox", "offered/s", "done/s",
+		    "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+	}
+
+	public String toCsv() {
+	    return String.format(Locale.ROOT, "%s,%s,%s,%.1f,%.1f,%d,%d,%d,%d,%d,%d,%d",
+		    topology, pool, mailbox, offeredRate, achievedRate, sent,
+		    latency.getCount(), latency.getPercentile(50),
+		    latency.getPercentile(90), latency.getPercentile(99),
+		    latency.getPercentile(99.9), latency.getMax());
+	}
+
+	public static final String CSV_HEADER = "topology,pool,mailbox,offered_per_sec,"
+		+ "done_per_sec,sent,done,p50_ns,p90_ns,p99_ns,p999_ns,max_ns";
+    }
+
+    /**
+     * Chain of actors; each stage does workNanos of cpu work and
+     * forwards to the next. Each run gets new actors, so messages left
+     * from an earlier run never reach them.
+     */
+    public static class Pipeline implements ITopology
+    {
+	private final int stages;
+	private final long workNanos;
+	private volatile Run run;
+
+	/**
+	 * Actors and histogram of one run
+	 */
+	class Run
+	{
+	    final List<IActorRef<Stage>> refs = new ArrayList<IActorRef<Stage>>();
+	    final LatencyHistogram done;
+	    volatile boolean stopped;
+
+	    Run(LatencyHistogram done) {
+		this.done = done;
+	    }
+
+	    void forward(int stage, final long intendedStart) {
+		refs.get(stage).send(new IMessage<Stage, Void>()
+		{
+		    public Void act(Stage s) {
+			s.handle(intendedStart);
+			return null;
+		    }
+		});
+	    }
+	}
+
+	class Stage
+	{
+	    final Run run;
+	    final int index;
+	    long sink;
+
+	    Stage(Run run, int index) {
+		this.run = run;
+		this.index = index;
+	    }
+
+	    void handle(long intendedStart) {
+		if (run.stopped) {
+		    return; //backlog of an ended run
+		}
+		long end = System.nanoTime() + workNanos;
+		while (System.nanoTime() < end) {
+		    sink++;
+		}
+		if (index + 1 < stages) {
+		    run.forward(index + 1, intendedStart);
+		} else {
+		    run.done.record(System.nanoTime() - intendedStart);
+		}
+	    }
+	}
+
+	public Pipeline(int stages, long workNanos) {
+	    this.stages = stages;
+	    this.workNanos = workNanos;
+	}
+
+	public String getName() {
+	    return "pipeline-" + stages;
+	}
+
+	public void start(ActorThreadPool pool, IMailboxFactory boxes, LatencyHistogram done) {
+	    Run r = new Run(done);
+	    for (int i = 0; i < stages; i++) {
+		r.refs.add(new ActorRef<Stage>(new Stage(r, i), pool, boxes.create()));
+	    }
+	    run = r;
+	}
+
+	public void request(long intendedStart) {
+	    run.forward(0, intendedStart);
+	}
+
+	public void stop() {
+	    run.stopped = true;
+	}
+    }
+
+    public void setDurationMillis(long ms) {
+	durationMillis = ms;
+    }
+
+    /**
+     * @param ms max wait for outstanding requests after a run, and
+     *	    again for the pool to drain the dropped rest
+     */
+    public void setDrainMillis(long ms) {
+	drainMillis = ms;
+    }
+
+    /**
+     * @param ms p99 latency above which a rate counts as saturated
+     */
+    public void setSloMillis(double ms) {
+	sloMillis = ms;
+    }
+
+    /**
+     * Run at one rate
+     * @param ratePerSec offered requests per second
+     */
+    public Result run(ITopology topo, BenchRunner.IPoolFactory pf,
+	    IMailboxFactory boxes, double ratePerSec) throws InterruptedException {
+	Result r = new Result();
+	r.topology = topo.getName();
+	r.pool = pf.getName();
+	r.mailbox = boxes.getName();
+	r.offeredRate = ratePerSec;
+	ActorThreadPool pool = pf.create();
+	topo.start(pool, boxes, r.latency);
+	long period = (long) (1e9 / ratePerSec);
+	long t0 = System.nanoTime();
+	long end = t0 + durationMillis * 1000000;
+	long n = 0;
+	for (long due = t0; due < end; due = t0 + ++n * period) {
+	    long wait;
+	    while ((wait = due - System.nanoTime()) > 0) {
+		if (wait > 100000) {
+		    LockSupport.parkNanos(wait - 50000);
+		} else {
+		    Thread.yield();
+		}
+	    }
+	    topo.request(due);
+	}
+	r.sent = n;
+	long last = System.nanoTime() + drainMillis * 1000000;
+	while (r.latency.getCount() < n && System.nanoTime() < last) {
+	    Thread.sleep(1);
+	}
+	r.achievedRate = r.latency.getCount() * 1e9 / Math.max(System.nanoTime() - t0, end - t0);
+	topo.stop(); //drop the backlog of a saturated run
+	if (!pool.awaitQuiescence(drainMillis)) {
+	    System.err.println("warning: " + r.pool + " not quiescent after run");
+	}
+	pool.shutdown();
+	return r;
+    }
+
+    /**
+     * Run at startRate, 2*startRate .. until saturated (at most maxSteps)
+     * @return results; the last one saturated (the knee is between the
+     *	last two)
+     */
+    public List<Result> sweep(ITopology topo, BenchRunner.IPoolFactory pf,
+	    IMailboxFactory boxes, double startRate, int maxSteps,
+	    PrintWriter csv) throws InterruptedException {
+	List<Result> res = new ArrayList<Result>();
+	double rate = startRate;
+	for (int i = 0; i < maxSteps; i++, rate *= 2) {
+	    Result r = run(topo, pf, boxes, rate);
+	    System.out.println(r);
+	    if (csv != null) {
+		csv.println(r.toCsv());
+		csv.flush();
+	    }
+	    res.add(r);
+	    if (r.isSaturated(sloMillis)) {
+		break;
+	    }
+	    System.gc(); //settle between runs
+	}
+	return res;
+    }
+
+    /**
+     * @return mailbox types: Mailbox.Fifo and ConflatingMailbox
+     *	(requests have no conflation key, so only its overhead shows)
+     */
+    public static List<IMailboxFactory> defaultMailboxes() {
+	List<IMailboxFactory> lst = new ArrayList<IMailboxFactory>();
+	lst.add(new IMailboxFactory()
+	{
+	    public String getName() {
+		return "fifo";
+	    }
+
+	    public Mailbox<Runnable> create() {
+		return new Mailbox.Fifo<Runnable>();
+	    }
+	});
+	lst.add(new IMailboxFactory()
+	{
+	    public String getName() {
+		return "conflating";
+	    }
+
+	    public Mailbox<Runnable> create() {
+		return new ConflatingMailbox<Runnable>();
+	    }
+	});
+	return lst;
+    }
+
+    public static void main(String[] args) throws Exception {
+	LoadGen gen = new LoadGen();
+	double startRate = 1000;
+	int stages = 4;
+	long workMicros = 5;
+	PrintWriter csv = null;
+	for (int i = 0; i < args.length; i++) {
+	    if (args[i].equals("-d")) {
+		gen.setDurationMillis(Long.parseLong(args[++i]));
+	    } else if (args[i].equals("-r")) {
+		startRate = Double.parseDouble(args[++i]);
+	    } else if (args[i].equals("-slo")) {
+		gen.setSloMillis(Double.parseDouble(args[++i]));
+	    } else if (args[i].equals("-s")) {
+		stages = Integer.parseInt(args[++i]);
+	    } else if (args[i].equals("-w")) {
+		workMicros = Long.parseLong(args[++i]);
+	    } else if (args[i].equals("-csv")) {
+		csv = new PrintWriter(new FileWriter(args[++i]));
+		csv.println(Result.CSV_HEADER);
+	    }
+	}
+	ITopology topo = new Pipeline(stages, workMicros * 1000);
+	List<String> knees = new ArrayList<String>();
+	System.out.println(Result.header());
+	for (BenchRunner.IPoolFactory pf : BenchRunner.defaultPools()) {
+	    for (IMailboxFactory mb : defaultMailboxes()) {
+		gen.run(topo, pf, mb, startRate); //warm-up
+		List<Result> res = gen.sweep(topo, pf, mb, startRate, 20, csv);
+		Result ok = res.size() > 1 ? res.get(res.size() - 2) : null;
+		knees.add(String.format("%-6s %-10s knee between %.0f/s and %.0f/s",
+			pf.getName(), mb.getName(), ok == null ? 0 : ok.offeredRate,
+			res.get(res.size() - 1).offeredRate));
+	    }
+	}
+	System.out.println();
+	for (String k : knees) {
+	    System.out.println(k);
+	}
+	if (csv != null) {
+	    csv.close();
+	}
+	System.exit(0);
+    }
+}
@@ -0,0 +1,441 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.codec;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary codec. Each value is a one byte tag followed by its
+ * fixed-size or length-prefixed content, read and written directly
+ * on the ByteBuffer (heap or direct) without intermediate streams.
+ * <p>
+ * Supported: null, boxed primitives, String (modified UTF-8, encoded
+ * by hand), byte[], int[], long[], double[], and classes registered
+ * with an id (the same id in all processes). Registered classes are
+ * encoded by an IClassCodec, either hand written or built by
+ * reflection over the non-static, non-transient fields
+ * (register(id, class)), sorted by name so the layout does not depend
+ * on JVM or compiler. A registered object is written with its class id
+ * and a schema hash (of the class name, or of the reflected field names
+ * and types), and decoding fails if the hash differs from the local
+ * registration. Other objects fall back to java serialization,
+ * if Serializable (restrict it with an allow-list for untrusted input:
+ * new BinaryCodec(new SerialCodec("com.acme.orders."))).
+ * <pre>
+ * Usage:
+ *  BinaryCodec codec = new BinaryCodec();
+ *  codec.register(1, Add.class);			//reflection
+ *  codec.register(2, Get.class, new IClassCodec&lt;Get>() {..});	//by hand
+ *  new RemoteNode(threadP, codec);
+ * </pre>
+ * Registration is thread safe, but should be done before use.
+ */
+public class BinaryCodec implements IMsgCodec
+{
+    /**
+     * Encoding of one registered class
+     * @param <T> message class
+     */
+    public interface IClassCodec<T>
+    {
+	/**
+	 * Write fields of msg (use codec.encode(..) for nested values)
+	 */
+	void encode(T msg, BinaryCodec codec, ByteBuffer out) throws IOException;
+
+	/**
+	 * Read fields written by encode, and create object
+	 */
+	T decode(BinaryCodec codec, ByteBuffer in) throws IOException;
+    }
+
+    static final byte NULL = 0, TRUE = 1, FALSE = 2, BYTE = 3, SHORT = 4,
+	    CHAR = 5, INT = 6, LONG = 7, FLOAT = 8, DOUBLE = 9, STRING = 10,
+	    BYTES = 11, INTS = 12, LONGS = 13, DOUBLES = 14, OBJECT = 15,
+	    SERIAL = 16;
+
+    private static final class Entry
+    {
+	final int id, schema;
+	final IClassCodec<Object> codec;
+
+	Entry(int id, int schema, IClassCodec<Object> codec) {
+	    this.id = id;
+	    this.schema = schema;
+	    this.codec = codec;
+	}
+    }
+    private final ConcurrentHashMap<Class<?>, Entry> byClass
+	    = new ConcurrentHashMap<Class<?>, Entry>();
+    private final ConcurrentHashMap<Integer, Entry> byId
+	    = new ConcurrentHashMap<Integer, Entry>();
+    private final SerialCodec serial;
+
+    /**
+     * Codec falling back to java serialization of any class
+     */
+    public BinaryCodec() {
+	this(new SerialCodec());
+    }
+
+    /**
+     * @param serial codec for unregistered Serializable values
+     */
+    public BinaryCodec(SerialCodec serial) {
+	this.serial = serial;
+    }
+
+    /**
+     * Register class with hand written codec
+     * @param id class id, same in all processes
+     * @param cz message class
+     * @param codec encoding of cz
+     */
+    public <T> void register(int id, Class<T> cz, IClassCodec<T> codec) {
+	register(id, cz, cz.getName().hashCode(), codec);
+    }
+
+    @SuppressWarnings("unchecked") //codec only gets instances of cz
+    private <T> void register(int id, Class<T> cz, int schema, IClassCodec<T> codec) {
+	Entry e = new Entry(id, schema, (IClassCodec<Object>) codec);
+	if (byId.putIfAbsent(id, e) != null) {
+	    throw new IllegalArgumentException("id in use: " + id);
+	}
+	byClass.put(cz, e);
+    }
+
+    /**
+     * Register class encoded by reflection over its fields.
+     * The class needs a no-argument constructor (may be private).
+     * @param id class id, same in all processes
+     * @param cz message class
+     */
+    public <T> void register(int id, Class<T> cz) {
+	FieldCodec<T> fc = new FieldCodec<T>(cz);
+	register(id, cz, fc.schema, fc);
+    }
+
+    public void encode(Object v, ByteBuffer out) throws IOException {
+	if (v == null) {
+	    out.put(NULL);
+	} else if (v instanceof Integer) {
+	    out.put(INT).putInt((Integer) v);
+	} else if (v instanceof Long) {
+	    out.put(LONG).putLong((Long) v);
+	} else if (v instanceof String) {
+	    out.put(STRING);
+	    putString((String) v, out);
+	} else if (v instanceof Double) {
+	    out.put(DOUBLE).putDouble((Double) v);
+	} else if (v instanceof Boolean) {
+	    out.put((Boolean) v ? TRUE : FALSE);
+	} else if (v instanceof byte[]) {
+	    byte[] a = (byte[]) v;
+	    out.put(BYTES).putInt(a.length).put(a);
+	} else if (v instanceof Float) {
+	    out.put(FLOAT).putFloat((Float) v);
+	} else if (v instanceof Byte) {
+	    out.put(BYTE).put((Byte) v);
+	} else if (v instanceof Short) {
+	    out.put(SHORT).putShort((Short) v);
+	} else if (v instanceof Character) {
+	    out.put(CHAR).putChar((Character) v);
+	} else if (v instanceof int[]) {
+	    int[] a = (int[]) v;
+	    out.put(INTS).putInt(a.length);
+	    for (int x : a) {
+		out.putInt(x);
+	    }
+	} else if (v instanceof long[]) {
+	    long[] a = (long[]) v;
+	    out.put(LONGS).putInt(a.length);
+	    for (long x : a) {
+		out.putLong(x);
+	    }
+	} else if (v instanceof double[]) {
+	    double[] a = (double[]) v;
+	    out.put(DOUBLES).putInt(a.length);
+	    for (double x : a) {
+		out.putDouble(x);
+	    }
+	} else {
+	    Entry e = byClass.get(v.getClass());
+	    if (e != null) {
+		out.put(OBJECT).putInt(e.id).putInt(e.schema);
+		e.codec.encode(v, this, out);
+	    } else if (v instanceof Serializable) {
+		out.put(SERIAL);
+		int pos = out.position();
+		out.putInt(0);
+		serial.encode(v, out);
+		out.putInt(pos, out.position() - pos - 4);
+	    } else {
+		throw new NotSerializableException(v.getClass().getName()
+			+ " (not registered)");
+	    }
+	}
+    }
+
+    public Object decode(ByteBuffer in) throws IOException {
+	try {
+	    byte tag = in.get();
+	    switch (tag) {
+		case NULL:
+		    return null;
+		case TRUE:
+		    return Boolean.TRUE;
+		case FALSE:
+		    return Boolean.FALSE;
+		case BYTE:
+		    return in.get();
+		case SHORT:
+		    return in.getShort();
+		case CHAR:
+		    return in.getChar();
+		case INT:
+		    return in.getInt();
+		case LONG:
+		    return in.getLong();
+		case FLOAT:
+		    return in.getFloat();
+		case DOUBLE:
+		    return in.getDouble();
+		case STRING:
+		    return getString(in);
+		case BYTES: {
+		    byte[] a = new byte[length(in, 1)];
+		    in.get(a);
+		    return a;
+		}
+		case INTS: {
+		    int[] a = new int[length(in, 4)];
+		    for (int i = 0; i < a.length; i++) {
+			a[i] = in.getInt();
+		    }
+		    return a;
+		}
+		case LONGS: {
+		    long[] a = new long[length(in, 8)];
+		    for (int i = 0; i < a.length; i++) {
+			a[i] = in.getLong();
+		    }
+		    return a;
+		}
+		case DOUBLES: {
+		    double[] a = new double[length(in, 8)];
+		    for (int i = 0; i < a.length; i++) {
+			a[i] = in.getDouble();
+		    }
+		    return a;
+		}
+		case OBJECT: {
+		    int id = in.getInt();
+		    Entry e = byId.get(id);
+		    if (e == null) {
+			throw new IOException("unknown class id " + id);
+		    }
+		    if (in.getInt() != e.schema) {
+			throw new IOException("class id " + id
+				+ ": schema mismatch (other class or fields)");
+		    }
+		    return e.codec.decode(this, in);
+		}
+		case SERIAL: {
+		    int len = length(in, 1);
+		    ByteBuffer b = in.duplicate();
+		    b.limit(in.position() + len);
+		    in.position(in.position() + len);
+		    return serial.decode(b);
+		}
+		default:
+		    throw new IOException("bad tag " + tag);
+	    }
+	} catch (BufferUnderflowException e) {
+	    throw new EOFException("truncated message");
+	}
+    }
+
+    private static int length(ByteBuffer in, int elemSize) throws IOException {
+	int n = in.getInt();
+	if (n < 0 || (long) n * elemSize > in.remaining()) {
+	    throw new IOException("bad length " + n);
+	}
+	return n;
+    }
+
+    /**
+     * Write string: int byte length, modified UTF-8 (as DataOutput)
+     */
+    public static void putString(String s, ByteBuffer out) {
+	int pos = out.position();
+	out.putInt(0);
+	int n = s.length();
+	for (int i = 0; i < n; i++) {
+	    char c = s.charAt(i);
+	    if (c > 0 && c < 0x80) {
+		out.put((byte) c);
+	    } else if (c < 0x800) {
+		out.put((byte) (0xc0 | (c >> 6)));
+		out.put((byte) (0x80 | (c & 0x3f)));
+	    } else {
+		out.put((byte) (0xe0 | (c >> 12)));
+		out.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+		out.put((byte) (0x80 | (c & 0x3f)));
+	    }
+	}
+	out.putInt(pos, out.position() - pos - 4);
+    }
+
+    /**
+     * Read string written by putString
+     */
+    public static String getString(ByteBuffer in) throws IOException {
+	int len = length(in, 1);
+	char[] cs = new char[len];
+	int n = 0, end = in.position() + len;
+	while (in.position() < end) {
+	    int b = in.get() & 0xff;
+	    if (b < 0x80) {
+		cs[n++] = (char) b;
+	    } else if (b < 0xe0) {
+		cs[n++] = (char) (((b & 0x1f) << 6) | (in.get() & 0x3f));
+	    } else {
+		cs[n++] = (char) (((b & 0x0f) << 12) | ((in.get() & 0x3f) << 6)
+			| (in.get() & 0x3f));
+	    }
+	}
+	return new String(cs, 0, n);
+    }
+
+    /**
+     * Reflection based class codec; superclass fields first, each
+     * class's fields sorted by name (getDeclaredFields() order is
+     * unspecified).
+     */
+    static class FieldCodec<T> implements IClassCodec<T>
+    {
+	private final Constructor<T> ctor;
+	private final Field[] fields;
+	final int schema;	//hash of class name, field names and types
+
+	FieldCodec(Class<T> cz) {
+	    try {
+		ctor = cz.getDeclaredConstructor();
+		ctor.setAccessible(true);
+	    } catch (NoSuchMethodException e) {
+		throw new IllegalArgumentException(cz + " has no default constructor");
+	    }
+	    List<Field> fs = new ArrayList<Field>();
+	    for (Class<?> c = cz; c != null && c != Object.class; c = c.getSuperclass()) {
+		List<Field> own = new ArrayList<Field>();
+		for (Field f : c.getDeclaredFields()) {
+		    int m = f.getModifiers();
+		    if (!Modifier.isStatic(m) && !Modifier.isTransient(m)
+			    && !f.isSynthetic()) {
+			f.setAccessible(true);
+			own.add(f);
+		    }
+		}
+		Collections.sort(own, new Comparator<Field>()
+		{
+		    public int compare(Field a, Field b) {
+			return a.getName().compareTo(b.getName());
+		    }
+		});
+		fs.addAll(0, own);
+	    }
+	    fields = fs.toArray(new Field[fs.size()]);
+	    StringBuilder sb = new StringBuilder(cz.getName());
+	    for (Field f : fields) {
+		sb.append(';').append(f.getName()).append(':')
+			.append(f.getType().getName());
+	    }
+	    schema = sb.toString().hashCode();
+	}
+
+	public void encode(T msg, BinaryCodec codec, ByteBuffer out)
+		throws IOException {
+	    try {
+		for (Field f : fields) {
+		    Class<?> t = f.getType();
+		    if (t == int.class) {
+			out.putInt(f.getInt(msg));
+		    } else if (t == long.class) {
+			out.putLong(f.getLong(msg));
+		    } else if (t == double.class) {
+			out.putDouble(f.getDouble(msg));
+		    } else if (t == boolean.class) {
+			out.put(f.getBoolean(msg) ? (byte) 1 : 0);
+		    } else if (t == float.class) {
+			out.putFloat(f.getFloat(msg));
+		    } else if (t == short.class) {
+			out.putShort(f.getShort(msg));
+		    } else if (t == byte.class) {
+			out.put(f.getByte(msg));
+		    } else if (t == char.class) {
+			out.putChar(f.getChar(msg));
+		    } else {
+			codec.encode(f.get(msg), out);
+		    }
+		}
+	    } catch (IllegalAccessException e) {
+		throw new IOException(e.toString());
+	    }
+	}
+
+	public T decode(BinaryCodec codec, ByteBuffer in) throws IOException {
+	    try {
+		T msg = ctor.newInstance();
+		for (Field f : fields) {
+		    Class<?> t = f.getType();
+		    if (t == int.class) {
+			f.setInt(msg, in.getInt());
+		    } else if (t == long.class) {
+			f.setLong(msg, in.getLong());
+		    } else if (t == double.class) {
+			f.setDouble(msg, in.getDouble());
+		    } else if (t == boolean.class) {
+			f.setBoolean(msg, in.get() != 0);
+		    } else if (t == float.class) {
+			f.setFloat(msg, in.getFloat());
+		    } else if (t == short.class) {
+			f.setShort(msg, in.getShort());
+		    } else if (t == byte.class) {
+			f.setByte(msg, in.get());
+		    } else if (t == char.class) {
+			f.setChar(msg, in.getChar());
+		    } else {
+			Object v = codec.decode(in);
+			if (v != null && !t.isInstance(v)) {
+			    throw new IOException("field " + f.getName()
+				    + ": " + v.getClass().getName());
+			}
+			f.set(msg, v);
+		    }
+		}
+		return msg;
+	    } catch (IOException e) {
+		throw e;
+	    } catch (Exception e) {
+		throw new IOException(e.toString());
+	    }
+	}
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.codec;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct ByteBuffers in power of 2 sizes.
+ * Direct buffers are costly to allocate and are freed only by GC,
+ * but can be handed to channels without copying; pooling keeps them.
+ * At most MAX_FREE buffers per size are kept.
+ */
+public class BufferPool
+{
+    /** shared pool */
+    public static final BufferPool DEFAULT = new BufferPool();
+    public static final int MIN_SIZE = 1 << 10, MAX_POOLED = 1 << 24;
+    private static final int MAX_FREE = 64;
+    private static final int MIN_SHIFT = 10, CLASSES = 15; //1K..16M
+    private final ConcurrentLinkedQueue<ByteBuffer>[] free = newQueues(CLASSES);
+    private final AtomicInteger[] freeCount = new AtomicInteger[CLASSES];
+
+    public BufferPool() {
+	for (int i = 0; i < CLASSES; i++) {
+	    free[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+	    freeCount[i] = new AtomicInteger();
+	}
+    }
+
+    @SuppressWarnings("unchecked") //no generic array creation; filled in constructor
+    private static ConcurrentLinkedQueue<ByteBuffer>[] newQueues(int n) {
+	return (ConcurrentLinkedQueue<ByteBuffer>[]) new ConcurrentLinkedQueue<?>[n];
+    }
+
+    private static int sizeClass(int size) {
+	int n = Math.max(size, MIN_SIZE) - 1;
+	return 32 - Integer.numberOfLeadingZeros(n) - MIN_SHIFT;
+    }
+
+    /**
+     * Get cleared direct buffer
+     * @param minSize minimum capacity
+     * @return buffer with capacity >= minSize (power of 2)
+     */
+    public ByteBuffer acquire(int minSize) {
+	int c = sizeClass(minSize);
+	if (c >= CLASSES) {
+	    return ByteBuffer.allocateDirect(minSize);
+	}
+	ByteBuffer b = free[c].poll();
+	if (b == null) {
+	    return ByteBuffer.allocateDirect(1 << (c + MIN_SHIFT));
+	}
+	freeCount[c].decrementAndGet();
+	b.clear();
+	return b;
+    }
+
+    /**
+     * Return buffer to pool. It must not be used afterwards.
+     * @param b buffer from acquire (others are ignored)
+     */
+    public void release(ByteBuffer b) {
+	int cap = b.capacity();
+	if (!b.isDirect() || Integer.bitCount(cap) != 1 || cap < MIN_SIZE
+		|| cap > MAX_POOLED) {
+	    return;
+	}
+	int c = sizeClass(cap);
+	if (freeCount[c].incrementAndGet() > MAX_FREE) {
+	    freeCount[c].decrementAndGet();
+	    return;
+	}
+	free[c].add(b);
+    }
+
+    /**
+     * Copy buffer into larger pooled buffer and release the old one
+     * @param b buffer in write mode
+     * @param minSize minimum new capacity
+     * @return new buffer in write mode, positioned after copied content
+     */
+    public ByteBuffer grow(ByteBuffer b, int minSize) {
+	ByteBuffer nb = acquire(Math.max(minSize, b.capacity() * 2));
+	b.flip();
+	nb.put(b);
+	release(b);
+	return nb;
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Message codec: converts messages to/from bytes, for transport
+ * between processes (glactor.remote) or storage.
+ * Implementations must be thread safe.
+ * @see SerialCodec
+ */
+public interface IMsgCodec
+{
+    /**
+     * Encode message at buffer position.
+     * @param msg message (may be null)
+     * @param out target; position is advanced past the encoding
+     * @throws java.nio.BufferOverflowException if out has too little room;
+     *	    caller grows the buffer and retries (position is undefined)
+     * @throws IOException if msg cannot be encoded
+     */
+    void encode(Object msg, ByteBuffer out) throws IOException;
+
+    /**
+     * Decode one message from buffer position to limit
+     * (exactly the bytes written by encode).
+     * @param in source
+     * @return message
+     * @throws IOException if bytes cannot be decoded
+     */
+    Object decode(ByteBuffer in) throws IOException;
+}
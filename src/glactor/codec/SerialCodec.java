@@ -0,0 +1,182 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.codec;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Codec using java serialization (messages must be Serializable).
+ * Simple and general, but slow and verbose.
+ * <p>
+ * Decoding java serialization instantiates any class named in the
+ * input, so data from untrusted peers (eg. a socket) must be decoded
+ * with an allow-list of the message classes:
+ * <pre>
+ *  new SerialCodec("com.acme.orders.", "com.acme.util.Money")
+ * </pre>
+ */
+public class SerialCodec implements IMsgCodec
+{
+    /** always allowed with an allow-list: boxed values, collections, exceptions */
+    static final String[] BASIC = {"java.lang.", "java.util.", "java.math.", "java.io."};
+    private final String[] allowed; //null: any class
+
+    /**
+     * Codec decoding any class; only for trusted input
+     */
+    public SerialCodec() {
+	allowed = null;
+    }
+
+    /**
+     * Codec decoding only the listed classes, and classes in java.lang,
+     * java.util, java.math and java.io (not subpackages)
+     * @param allowed class names, or package names ending with '.'
+     *	    (classes directly in the package, including nested classes)
+     */
+    public SerialCodec(String... allowed) {
+	this.allowed = new String[BASIC.length + allowed.length];
+	System.arraycopy(BASIC, 0, this.allowed, 0, BASIC.length);
+	System.arraycopy(allowed, 0, this.allowed, BASIC.length, allowed.length);
+    }
+
+    /**
+     * @param name class name as in ObjectStreamClass
+     * @return true if the class may be decoded
+     */
+    boolean accepts(String name) {
+	if (allowed == null) {
+	    return true;
+	}
+	int dims = 0;
+	while (name.charAt(dims) == '[') {
+	    dims++;
+	}
+	if (dims > 0) {
+	    if (name.charAt(dims) != 'L') {
+		return true; //primitive array
+	    }
+	    name = name.substring(dims + 1, name.length() - 1);
+	}
+	String pkg = name.substring(0, name.lastIndexOf('.') + 1);
+	for (String a : allowed) {
+	    if (a.equals(name) || a.equals(pkg)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    public void encode(Object msg, ByteBuffer out) throws IOException {
+	ObjectOutputStream os = new ObjectOutputStream(new BufOutput(out));
+	os.writeObject(msg);
+	os.flush();
+    }
+
+    public Object decode(ByteBuffer in) throws IOException {
+	ObjectInputStream is = allowed == null
+		? new ObjectInputStream(new BufInput(in))
+		: new FilteredInput(new BufInput(in));
+	try {
+	    return is.readObject();
+	} catch (ClassNotFoundException e) {
+	    throw new IOException(e.toString());
+	}
+    }
+
+    /**
+     * ObjectInputStream rejecting classes not in the allow-list
+     */
+    private class FilteredInput extends ObjectInputStream
+    {
+	FilteredInput(InputStream in) throws IOException {
+	    super(in);
+	}
+
+	@Override
+	protected Class<?> resolveClass(ObjectStreamClass desc)
+		throws IOException, ClassNotFoundException {
+	    if (!accepts(desc.getName())) {
+		throw new InvalidClassException(desc.getName(), "not allowed");
+	    }
+	    return super.resolveClass(desc);
+	}
+
+	@Override
+	protected Class<?> resolveProxyClass(String[] interfaces)
+		throws IOException {
+	    throw new InvalidClassException("proxy classes not allowed");
+	}
+    }
+
+    /**
+     * OutputStream writing to ByteBuffer (BufferOverflowException if full)
+     */
+    static class BufOutput extends OutputStream
+    {
+	private final ByteBuffer buf;
+
+	BufOutput(ByteBuffer buf) {
+	    this.buf = buf;
+	}
+
+	@Override
+	public void write(int b) {
+	    buf.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+	    buf.put(b, off, len);
+	}
+    }
+
+    /**
+     * InputStream reading from ByteBuffer
+     */
+    static class BufInput extends InputStream
+    {
+	private final ByteBuffer buf;
+
+	BufInput(ByteBuffer buf) {
+	    this.buf = buf;
+	}
+
+	@Override
+	public int read() {
+	    return buf.hasRemaining() ? buf.get() & 0xff : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+	    if (len == 0) {
+		return 0;
+	    }
+	    if (!buf.hasRemaining()) {
+		return -1;
+	    }
+	    len = Math.min(len, buf.remaining());
+	    buf.get(b, off, len);
+	    return len;
+	}
+
+	@Override
+	public int available() {
+	    return buf.remaining();
+	}
+    }
+}
@@ -15,8 +15,8 @@
  */
 package glactor.core;
 
-import java.util.LinkedList;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * Lightweight generic Actor base. One instance represents
@@ -43,11 +43,15 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * @author torcbek
  * @param <T> Message type
  */
-public abstract class ActorCore<T> implements Runnable
+public abstract class ActorCore<T> implements ActorThreadPool.IBusyTask
 {
-    protected final LinkedList<T> msgBox = new LinkedList<T>();
-    protected AtomicBoolean isScheduled = new AtomicBoolean();
-    protected AtomicBoolean isRunningCore = new AtomicBoolean();
+    protected final Mailbox<T> msgBox;
+    private volatile int state; //SCHEDULED | RUNNING bits
+    private static final int SCHEDULED = 1, RUNNING = 2;
+    @SuppressWarnings("unchecked") //no class literal for ActorCore<?>
+    private static final AtomicIntegerFieldUpdater<ActorCore<?>> STATE
+	    = AtomicIntegerFieldUpdater.newUpdater(
+		    (Class<ActorCore<?>>) (Class<?>) ActorCore.class, "state");
     protected ActorThreadPool threadPool;
 
     /* --------------------------------
@@ -70,29 +74,53 @@ public abstract class ActorCore<T> implements Runnable
      */
 
     public ActorCore(ActorThreadPool tp) {
+	this(tp, new Mailbox.Fifo<T>());
+    }
+
+    /**
+     * @param tp thread pool
+     * @param box message queue (eg. ConflatingMailbox)
+     */
+    public ActorCore(ActorThreadPool tp, Mailbox<T> box) {
 	threadPool = tp;
+	msgBox = box;
     }
 
     /**
      * Send a message to this actor
      * @param msg Message to be procesed later (null allowed).
      * see receive(T msg)
+     * @return true if queued, false if it replaced a pending message
+     *	    (see ConflatingMailbox)
      */
-    public void send(T msg) {//N-threaded
+    public boolean send(T msg) {//N-threaded
+	boolean added;
 	synchronized (msgBox) {
-	    msgBox.add(msg);
+	    added = msgBox.offer(msg);
+	}
+	if (added) { //else replaced a pending message; already scheduled
+	    schedule();
 	}
-	schedule();
+	return added;
     }
 
     /**
      * Sschedule = submit this actor to threadpool.
      * Returns without blocking if already scheduled.
+     * @throws RejectedExecutionException if the pool is shut down;
+     *	    the actor is then left unscheduled and idle
      */
     private void schedule() {
-	if (isScheduled.compareAndSet(false, true)) {
+	if (setBit(SCHEDULED)) {
+	    threadPool.actorBusy();
 	    onSubmit();
-	    threadPool.submit(this); //=> ready
+	    try {
+		threadPool.submit(this); //=> ready
+	    } catch (RejectedExecutionException e) { //undo
+		clearBit(SCHEDULED);
+		threadPool.actorIdle();
+		throw e;
+	    }
 	}
     }
 
@@ -103,18 +131,61 @@ public abstract class ActorCore<T> implements Runnable
      * call to threadPool.submit(this).
      */
     public void run() {
-	runCore();
-	isScheduled.set(false);
-	onRelease();
-	synchronized (msgBox) {
-	    if (msgBox.size() > 0) {
-		schedule();
-	    } else { //N->0 messages
-		onEmpty();
+	try {
+	    runCore();
+	    clearBit(SCHEDULED);
+	    onRelease();
+	    synchronized (msgBox) {
+		if (msgBox.size() > 0) {
+		    schedule();
+		} else { //N->0 messages
+		    onEmpty();
+		}
 	    }
+	} finally {
+	    threadPool.actorIdle(); //after reschedule => never 0 while pending
 	}
     }
 
+    /**
+     * Atomically set state bit
+     * @return true if it was clear
+     */
+    private boolean setBit(int bit) {
+	for (;;) {
+	    int s = state;
+	    if ((s & bit) != 0) {
+		return false;
+	    }
+	    if (STATE.compareAndSet(this, s, s | bit)) {
+		return true;
+	    }
+	}
+    }
+
+    private void clearBit(int bit) {
+	for (;;) {
+	    int s = state;
+	    if (STATE.compareAndSet(this, s, s & ~bit)) {
+		return;
+	    }
+	}
+    }
+
+    /**
+     * @return true if submitted to thread pool, and not yet released
+     */
+    public boolean isScheduled() {
+	return (state & SCHEDULED) != 0;
+    }
+
+    /**
+     * @return true if runCore() is processing messages
+     */
+    public boolean isRunning() {
+	return (state & RUNNING) != 0;
+    }
+
     /*
      * Protected methods, default implementations does nothing.  
      * Subclasses may override to invoke completion callbacks or
@@ -147,6 +218,15 @@ public abstract class ActorCore<T> implements Runnable
     protected void onException(Exception e) {
     }
 
+    /**
+     * End of a runCore() slice; all messages taken in this slice
+     * have been received. Called from the actor thread, so it may
+     * eg. flush work batched up in receive(..).
+     * @throws Exception
+     */
+    protected void onSliceEnd() throws Exception {
+    }
+
     /**
      * Run core if not already runnin and process messages.
      * <p>
@@ -159,21 +239,27 @@ public abstract class ActorCore<T> implements Runnable
      * by calling runCore() instead of just waiting. (liveness)
      * <p>
      * Single-threaded, non-blocking performance achieved
-     * with 'AtomicBoolean isRunning' flag.
+     * with the RUNNING bit of the state word.
      * 
      * @return true if accepted & executed (if not already 'isRunning')
      */
     public boolean runCore() {
-	if (isRunningCore.compareAndSet(false, true)) {
+	if (setBit(RUNNING)) {
 	    try {
 		int N;
 		synchronized (msgBox) {
 		    N = msgBox.size();
 		}
 		T msg;
+		Exception lost;
 		while (N-- > 0) {
 		    synchronized (msgBox) {
 			msg = msgBox.poll();
+			lost = msg == null ? msgBox.pollFailure() : null;
+		    }
+		    if (lost != null) {
+			onException(lost);
+			continue;
 		    }
 		    try {
 			receive(msg);
@@ -181,8 +267,13 @@ public abstract class ActorCore<T> implements Runnable
 			onException(e);
 		    }
 		}
+		try {
+		    onSliceEnd();
+		} catch (Exception e) {
+		    onException(e);
+		}
 	    } finally {
-		isRunningCore.set(false);
+		clearBit(RUNNING);
 	    }
 	    return true;
 	}
@@ -29,6 +29,8 @@ public class ActorRef<A> implements IActorRef<A>
 {
     protected final ActorCore<Runnable> core;
     protected final A actorImpl;
+    private volatile IActorProbe probe;
+    static volatile IActorTracer tracer;
 //    private CountDownLatch emptyLatch = new CountDownLatch(1);
     static final Logger logger = Logger.getLogger(ActorRef.class.toString());
 
@@ -48,34 +50,281 @@ public class ActorRef<A> implements IActorRef<A>
      * @param env Actor thread environment
      */
     public ActorRef(A impl, ActorThreadPool env) {
+	this(impl, env, new Mailbox.Fifo<Runnable>());
+    }
+
+    /**
+     *
+     * @param impl Actor user implementation
+     * @param env Actor thread environment
+     * @param box message queue (eg. ConflatingMailbox)
+     */
+    public ActorRef(A impl, ActorThreadPool env, Mailbox<Runnable> box) {
 	this.actorImpl = impl;
-	core = new ActorCore<Runnable>(env)
-	{
-	    @Override
-	    protected void receive(Runnable task)  {
-		synchronized (actorImpl)
-		{
-		    task.run();
-		}
+	core = new RefCore(env, box);
+    }
+
+    /**
+     * Actor core of an ActorRef
+     */
+    private class RefCore extends ActorCore<Runnable>
+    {
+	private volatile Thread runner; //last thread receiving
+
+	RefCore(ActorThreadPool env, Mailbox<Runnable> box) {
+	    super(env, box);
+	}
+
+	ActorRef<A> getRef() {
+	    return ActorRef.this;
+	}
+
+	@Override
+	public void run() {
+	    IActorTracer t = tracer;
+	    if (t == null) {
+		super.run();
+		return;
+	    }
+	    long t0 = System.nanoTime();
+	    try {
+		super.run();
+	    } finally {
+		t.slice(ActorRef.this, t0, System.nanoTime() - t0);
+	    }
+	}
+
+	@Override
+	protected void receive(Runnable task)  {
+	    Thread th = Thread.currentThread();
+	    if (runner != th) {
+		runner = th;
+	    }
+	    if (!WorkerActivity.enabled) {
+		ActorRef.this.receive(task);
+		return;
 	    }
+	    WorkerActivity.Slot s = WorkerActivity.slot();
+	    Object prevActor = s.actor;
+	    Runnable prevTask = s.task;
+	    long prevStart = s.start;
+	    s.set(ActorRef.this, task, System.nanoTime());
+	    try {
+		ActorRef.this.receive(task);
+	    } finally { //back to outer message, if nested (runCore)
+		s.set(prevActor, prevTask, prevStart);
+	    }
+	}
 
-//	    @Override
-//	    protected void onEmpty() {
+	@Override
+	protected void onSliceEnd() {
+	    ActorRef.this.onSliceEnd();
+	}
+
+	@Override
+	protected void onSubmit() {
+	    submitted();
+	}
+
+//	@Override
+//	protected void onEmpty() {
 //		emptyLatch.countDown();
-//	    }
+//	}
 	    
-//	    @Override
-//	    protected void onException(Exception e) {
+//	@Override
+//	protected void onException(Exception e) {
 //		handleException(e);
-//	    }
-	};
+//	}
+    }
+
+    /**
+     * Process message (from actor core, 1-threaded)
+     * @param task message
+     */
+    protected void receive(Runnable task) {
+	synchronized (actorImpl)
+	{
+	    task.run();
+	}
+    }
+
+    /**
+     * End of actor core slice (from actor core, 1-threaded).
+     * Default does nothing.
+     * @see ActorCore#onSliceEnd()
+     */
+    protected void onSliceEnd() {
     }
 
     public Class<A> getImplClass(){
 	return (Class<A>)actorImpl.getClass();
     }
 
+    /**
+     * Set instrumentation (eg. glactor.monitor.ActorMetrics)
+     * @param p probe, or null for none
+     */
+    public void setProbe(IActorProbe p) {
+	probe = p;
+    }
+
+    public IActorProbe getProbe() {
+	return probe;
+    }
+
+    /**
+     * Set tracer of all actors (eg. glactor.monitor.ThresholdTracer)
+     * @param t tracer, or null for none
+     */
+    public static void setTracer(IActorTracer t) {
+	tracer = t;
+    }
+
+    public static IActorTracer getTracer() {
+	return tracer;
+    }
+
+    /**
+     * Queue task (through probe and tracer, if any)
+     * @param task task to queue
+     * @param msg message as sent
+     */
+    protected final void post(Runnable task, Object msg) {
+	Runnable r = instrument(task, msg);
+	if (r != task && task instanceof IConflatable) { //keep key on wrapper
+	    r = new Keyed(r, ((IConflatable) task).conflationKey());
+	}
+	if (!core.send(r)) {
+	    IActorProbe p = probe;
+	    if (p != null) {
+		p.onConflated();
+	    }
+	}
+    }
+
+    /**
+     * Wrap task with probe and tracer, if any
+     * @param task task to run
+     * @param msg message as sent
+     * @return task, or wrapper running it
+     */
+    protected final Runnable instrument(Runnable task, Object msg) {
+	Runnable r = task;
+	IActorProbe p = probe;
+	if (p != null) {
+	    r = p.onSend(r, msg);
+	}
+	IActorTracer t = tracer;
+	if (t != null) {
+	    r = new Traced(r, msg.getClass(), t);
+	}
+	return r;
+    }
+
+    /**
+     * Work for this actor was submitted to the thread pool
+     */
+    final void submitted() {
+	IActorProbe p = probe;
+	if (p != null) {
+	    p.onSubmit();
+	}
+	IActorTracer t = tracer;
+	if (t != null) {
+	    t.scheduled(this);
+	}
+    }
+
+    /**
+     * Wrapped task with the conflation key of the wrapped message
+     */
+    private static final class Keyed implements Runnable, IConflatable
+    {
+	private final Runnable task;
+	private final Object key;
+
+	Keyed(Runnable task, Object key) {
+	    this.task = task;
+	    this.key = key;
+	}
+
+	public void run() {
+	    task.run();
+	}
+
+	public Object conflationKey() {
+	    return key;
+	}
+    }
+
+    /**
+     * Task reporting its processing time to tracer
+     */
+    private final class Traced implements Runnable
+    {
+	private final Runnable task;
+	private final Class<?> msgClass;
+	private final IActorTracer t;
+
+	Traced(Runnable task, Class<?> msgClass, IActorTracer t) {
+	    this.task = task;
+	    this.msgClass = msgClass;
+	    this.t = t;
+	}
+
+	public void run() {
+	    long t0 = System.nanoTime();
+	    try {
+		task.run();
+	    } finally {
+		t.message(ActorRef.this, msgClass, t0, System.nanoTime() - t0);
+	    }
+	}
+    }
+
+    /**
+     * @return actor for tracer events: ActorRef, or core
+     */
+    static Object owner(ActorCore<?> core) {
+	return core instanceof ActorRef.RefCore ? ((ActorRef.RefCore) core).getRef() : core;
+    }
+
+    /**
+     * @param task queued task
+     * @return class of the message as sent (IMessage, Runnable..)
+     */
+    static Class<?> messageClassOf(Runnable task) {
+	if (task instanceof Keyed) {
+	    return messageClassOf(((Keyed) task).task);
+	}
+	if (task instanceof ActorRef.Traced) {
+	    return ((ActorRef.Traced) task).msgClass;
+	}
+	if (task instanceof ActorRef.SendTask) {
+	    return ((ActorRef.SendTask) task).msg.getClass();
+	}
+	if (task instanceof FutureTaskA && ((FutureTaskA) task).msgClass != null) {
+	    return ((FutureTaskA) task).msgClass;
+	}
+	return task.getClass();
+    }
+
+    /**
+     * @return last thread that ran core's messages, or null if unknown
+     */
+    static Thread runner(ActorCore<?> core) {
+	return core instanceof ActorRef.RefCore ? ((ActorRef.RefCore) core).runner : null;
+    }
+
     protected void handleException(Exception e) {
+	IActorProbe p = probe;
+	if (p != null) {
+	    p.onException(e);
+	}
+	IActorTracer t = tracer;
+	if (t != null) {
+	    t.exception(this, e);
+	}
 	if (actorImpl instanceof IExceptHandler){
 	    ((IExceptHandler)actorImpl).handleException(e);
 	}else{
@@ -136,13 +385,15 @@ public class ActorRef<A> implements IActorRef<A>
     /**
      * Extended FutureTask.
      * With listener and threadlock avoidance (may call ActorCore.runCore()).
+     * core may be null (no threadlock avoidance), see FuturePromise.
      * @param <V> Future return type
      * @see java.util.concurrent.FutureTask
      */
     public static class FutureTaskA<V> extends FutureTask<V>
     {
 	private ActorCore<V> core;
-	private ISignal listener;
+	private volatile ISignal listener;
+	Class<?> msgClass; //for BlockedFutures
 	public FutureTaskA(Callable<V> callable, ActorCore core) {
 	    super(callable);
 	    this.core = core;
@@ -157,37 +408,89 @@ public class ActorRef<A> implements IActorRef<A>
 	 */
 	@Override
 	public V get() throws InterruptedException, ExecutionException {
-	    while (!super.isDone() && core.threadPool.isAllThreadsBusy()
+	    while (!super.isDone() && core != null
+		    && core.threadPool.isAllThreadsBusy()
 		    && core.runCore()) {
+		traceRunCore();
+	    }
+	    if (core == null || super.isDone()) {
+		return super.get();
+	    }
+	    long t0 = System.nanoTime();
+	    BlockedFutures.Wait w = BlockedFutures.enter(core, msgClass, t0);
+	    try {
+		return super.get();
+	    } finally {
+		BlockedFutures.exit(w);
+		traceBlocked(t0);
+	    }
+	}
+
+	private void traceBlocked(long t0) {
+	    IActorTracer t = tracer;
+	    if (t != null) {
+		t.futureBlocked(owner(core), t0, System.nanoTime() - t0);
+	    }
+	}
+
+	private void traceRunCore() {
+	    IActorTracer t = tracer;
+	    if (t != null) {
+		t.runCore(owner(core));
 	    }
-	    return super.get();
 	}
 
 	@Override
 	public V get(long timeout, TimeUnit unit) throws InterruptedException,
 		ExecutionException, TimeoutException {
 	    long tmax = System.currentTimeMillis() + unit.toMillis(timeout);
-	    while (!super.isDone() && core.threadPool.isAllThreadsBusy()
+	    while (!super.isDone() && core != null
+		    && core.threadPool.isAllThreadsBusy()
 		    && core.runCore()) {
+		traceRunCore();
 		if (System.currentTimeMillis() > tmax) {
 		    return super.get(0, TimeUnit.MILLISECONDS);
 		}
 	    }
-	    return super.get(timeout, unit);
+	    if (core == null || super.isDone()) {
+		return super.get(timeout, unit);
+	    }
+	    long t0 = System.nanoTime();
+	    BlockedFutures.Wait w = BlockedFutures.enter(core, msgClass, t0);
+	    try {
+		return super.get(timeout, unit);
+	    } finally {
+		BlockedFutures.exit(w);
+		traceBlocked(t0);
+	    }
 	}
 
-	public void setDoneListener(ISignal call){
-	    listener = call;
+	/**
+	 * Add listener, keeping the current one. It may not be called
+	 * if the future is already done; check isDone() after adding.
+	 * @param call listener
+	 */
+	synchronized void addDoneListener(final ISignal call) {
+	    final ISignal prev = listener;
+	    listener = prev == null ? call : new ISignal()
+	    {
+		public void signal() {
+		    prev.signal();
+		    call.signal();
+		}
+	    };
 	}
 	
 	@Override
 	protected void done() {
-	    listener.signal();
+	    if (listener != null) {
+		listener.signal();
+	    }
 	}
     }
 
     public void send(Runnable msg) {
-	core.send(msg);
+	post(msg, msg);
     }
 
     /**
@@ -200,32 +503,61 @@ public class ActorRef<A> implements IActorRef<A>
 	if (msg == null) {
             throw new NullPointerException("ICall message == null");
         }
-	core.send(new Runnable()
-	{
-	    public void run() {
-		try { 
-		    synchronized(msg) {
-			msg.act(actorImpl);
-		    }
-		} catch (Exception ex) {
-		    handleException(ex);
+	post(msg instanceof IConflatable
+		? new ConflatingTask(msg) : new SendTask(msg), msg);
+    }
+
+    /**
+     * Sent message
+     */
+    private class SendTask implements Runnable
+    {
+	final IMessage<A, ?> msg;
+
+	SendTask(IMessage<A, ?> msg) {
+	    this.msg = msg;
+	}
+
+	public void run() {
+	    try {
+		synchronized (msg) {
+		    msg.act(actorImpl);
 		}
+	    } catch (Exception ex) {
+		handleException(ex);
 	    }
-	});
+	}
+    }
+
+    /**
+     * Sent message with conflation key (see ConflatingMailbox)
+     */
+    private class ConflatingTask extends SendTask implements IConflatable
+    {
+	ConflatingTask(IMessage<A, ?> msg) {
+	    super(msg);
+	}
+
+	public Object conflationKey() {
+	    return ((IConflatable) msg).conflationKey();
+	}
     }
 
     public <V> FutureRef<V> call(final IMessage<A, V> msg) {
 	if (msg == null) {
             throw new NullPointerException("ICall message == null");
         }
-	return coreSendFuture(new Callable<V>(){
+	FutureTaskA<V> fMsg = new FutureTaskA<V>(new Callable<V>(){
 	    public V call() throws Exception {
 		synchronized (msg)
 		{
 		    return msg.act(actorImpl);
 		}
 	    }
-	});
+	}, core);
+	fMsg.msgClass = msg.getClass();
+	post(fMsg, msg);
+	return new FutureRef<V>(fMsg);
     }
 
     /**
@@ -236,7 +568,8 @@ public class ActorRef<A> implements IActorRef<A>
      */
     protected <V> FutureRef<V> coreSendFuture(Callable<V> call) {
 	FutureTaskA<V> fMsg = new FutureTaskA<V>(call, core);
-	core.send(fMsg);
+	fMsg.msgClass = call.getClass();
+	post(fMsg, call);
 	return new FutureRef<V>(fMsg);
     }
 
@@ -0,0 +1,262 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.core;
+
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Actor reference running read-only messages concurrently.
+ * <p>
+ * Messages marked IReadOnly that are sent or called while the actor is
+ * idle (no earlier message pending or running) skip the mailbox: they
+ * are submitted straight to the thread pool (through the same probe,
+ * tracer and watchdog hooks as queued messages), so any number of them
+ * run in parallel on the workers. Other messages act one at a time
+ * from the mailbox as usual, so they keep exclusive FIFO semantics,
+ * and a read sees every message sent before it. While the actor is
+ * busy, read-only messages are queued too, in order. A thread waiting
+ * for a read-only call runs it itself if all pool threads are busy.
+ * <p>
+ * A direct read takes one permit of a semaphore when it is submitted,
+ * in the sending thread, and releases it when done; a write takes all
+ * permits. So a write sent after a read (by any thread) waits for it,
+ * even if the read has not started yet: reads still pending in the
+ * pool are then run by the writing thread (the pool may have no other
+ * worker for them).
+ * <p>
+ * Idle check: the mailbox is empty, and afterwards no slice is
+ * running. Any earlier message was then taken by a slice that has
+ * since ended.
+ * <pre>
+ * Usage:
+ *  class Lookup implements IMessage&lt;Table, String>, IReadOnly {..}
+ *  IActorRef&lt;Table> table = threadP.createRW(new Table());
+ *  table.call(new Lookup(key)).get(); //concurrent with other lookups
+ * </pre>
+ * @param <A> actor implementation
+ * @see IReadOnly
+ */
+public class ActorRefRW<A> extends ActorRef<A>
+{
+    private static final int ALL = Integer.MAX_VALUE;
+    /**
+     * Direct reads hold one permit from submit to end, writes all
+     * (fair: a waiting write stops new direct reads)
+     */
+    private final Semaphore permits = new Semaphore(ALL, true);
+    /**
+     * Direct reads submitted, maybe not yet started
+     */
+    private final Queue<Read> pending = new ConcurrentLinkedQueue<Read>();
+
+    public ActorRefRW(A impl, ActorThreadPool env) {
+	super(impl, env);
+    }
+
+    public ActorRefRW(A impl, ActorThreadPool env, Mailbox<Runnable> box) {
+	super(impl, env, box);
+    }
+
+    @Override
+    protected void receive(Runnable task) {
+	acquireWrite();
+	try {
+	    super.receive(task);
+	} finally {
+	    permits.release(ALL);
+	}
+    }
+
+    /**
+     * Wait for direct reads submitted before; run those not yet started
+     */
+    private void acquireWrite() {
+	boolean interrupted = false;
+	for (;;) {
+	    Read r;
+	    while ((r = pending.poll()) != null) {
+		r.run();
+	    }
+	    try {
+		if (permits.tryAcquire(ALL, 1, TimeUnit.MILLISECONDS)) {
+		    break;
+		}
+	    } catch (InterruptedException e) {
+		interrupted = true;
+	    }
+	}
+	if (interrupted) {
+	    Thread.currentThread().interrupt();
+	}
+    }
+
+    /**
+     * @return true if no earlier message is pending or running
+     */
+    private boolean isIdle() {
+	int n;
+	synchronized (core.msgBox) {
+	    n = core.msgBox.size();
+	}
+	return n == 0 && !core.isRunning(); //in this order
+    }
+
+    /**
+     * @return true if a read-only message may skip the mailbox; it then
+     *	    holds a read permit
+     */
+    private boolean acquireRead(IMessage<A, ?> msg) {
+	if (!(msg instanceof IReadOnly) || !isIdle()) {
+	    return false;
+	}
+	try {
+	    return permits.tryAcquire(0, TimeUnit.SECONDS); //fair
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    return false;
+	}
+    }
+
+    @Override
+    public void send(final IMessage<A, ?> msg) {
+	if (!acquireRead(msg)) {
+	    super.send(msg);
+	    return;
+	}
+	read(new Runnable()
+	{
+	    public void run() {
+		try {
+		    msg.act(actorImpl);
+		} catch (Exception ex) {
+		    handleException(ex);
+		}
+	    }
+	}, msg, null);
+    }
+
+    @Override
+    public <V> FutureRef<V> call(final IMessage<A, V> msg) {
+	if (!acquireRead(msg)) {
+	    return super.call(msg);
+	}
+	ReadFuture<V> f = new ReadFuture<V>(new Callable<V>()
+	{
+	    public V call() throws Exception {
+		return msg.act(actorImpl);
+	    }
+	});
+	f.msgClass = msg.getClass();
+	read(f, msg, f);
+	return new FutureRef<V>(f);
+    }
+
+    /**
+     * Direct read holding a permit; runs once, by a worker, a waiting
+     * caller or a write, and then releases the permit
+     */
+    private final class Read implements Runnable
+    {
+	private final AtomicBoolean claimed = new AtomicBoolean();
+	private final Runnable task; //instrumented
+
+	Read(Runnable task) {
+	    this.task = task;
+	}
+
+	public void run() {
+	    if (!claimed.compareAndSet(false, true)) {
+		return;
+	    }
+	    try {
+		WorkerActivity.run(ActorRefRW.this, task);
+	    } finally {
+		permits.release();
+	    }
+	}
+    }
+
+    /**
+     * Read-only call. If all threads are busy, get() runs it in the
+     * waiting thread instead (no threadlock); it only runs once.
+     */
+    private class ReadFuture<V> extends FutureTaskA<V>
+    {
+	private volatile Read read;
+
+	ReadFuture(Callable<V> call) {
+	    super(call, core);
+	}
+
+	@Override
+	public V get() throws InterruptedException, ExecutionException {
+	    steal();
+	    return super.get();
+	}
+
+	@Override
+	public V get(long timeout, TimeUnit unit) throws InterruptedException,
+		ExecutionException, TimeoutException {
+	    steal();
+	    return super.get(timeout, unit);
+	}
+
+	private void steal() {
+	    Read r = read;
+	    if (!isDone() && r != null && core.threadPool.isAllThreadsBusy()) {
+		r.run();
+	    }
+	}
+    }
+
+    /**
+     * Run read-only task in a worker; the caller holds a read permit
+     * @param msg message as sent
+     * @param f task if it is a call, else null
+     */
+    private void read(Runnable task, Object msg, ReadFuture<?> f) {
+	final Read r = new Read(instrument(task, msg));
+	if (f != null) {
+	    f.read = r;
+	}
+	pending.add(r);
+	final ActorThreadPool tp = core.threadPool;
+	tp.actorBusy(); //for awaitQuiescence
+	submitted();
+	try {
+	    tp.submit(new ActorThreadPool.IBusyTask()
+	    {
+		public void run() {
+		    try {
+			r.run();
+		    } finally {
+			pending.remove(r);
+			tp.actorIdle();
+		    }
+		}
+	    });
+	} catch (RuntimeException e) { //rejected: undo
+	    if (r.claimed.compareAndSet(false, true)) {
+		pending.remove(r);
+		permits.release();
+	    }
+	    tp.actorIdle();
+	    throw e;
+	}
+    }
+}
@@ -15,7 +15,7 @@
  */
 package glactor.core;
 
-
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Thread pool for actor scheduling
@@ -23,6 +23,10 @@ package glactor.core;
  */
 public abstract class ActorThreadPool
 {
+    private final AtomicInteger busyActors = new AtomicInteger();
+    private final Object idleLock = new Object();
+    private volatile int idleWaiters;
+
     /**
      * Instantiate
      */
@@ -55,6 +59,74 @@ public abstract class ActorThreadPool
      */
     public abstract boolean isAllThreadsBusy();
 
+    /**
+     * @return #actors submitted to this pool and not yet released, ie.
+     *	    with pending messages or running a slice
+     */
+    public int getBusyActors() {
+	return busyActors.get();
+    }
+
+    /**
+     * Wait until all actors of this pool are idle: every mailbox is
+     * empty and no slice is running. Messages sent by actors while
+     * processing keep the pool busy, so this also waits for work they
+     * spread to other actors; messages sent from outside the pool
+     * while waiting may or may not be waited for.
+     * @param timeout max wait [ms]; 0 = no limit
+     * @return true if quiescent, false on timeout
+     * @throws InterruptedException
+     */
+    public boolean awaitQuiescence(long timeout) throws InterruptedException {
+	long end = System.currentTimeMillis() + timeout;
+	synchronized (idleLock) {
+	    idleWaiters++;
+	    try {
+		while (busyActors.get() > 0) {
+		    if (timeout <= 0) {
+			idleLock.wait();
+		    } else {
+			long left = end - System.currentTimeMillis();
+			if (left <= 0) {
+			    return false;
+			}
+			idleLock.wait(left);
+		    }
+		}
+		return true;
+	    } finally {
+		idleWaiters--;
+	    }
+	}
+    }
+
+    /**
+     * Task holding a busy count: actorBusy() was called before submit,
+     * and run() calls actorIdle(). A pool dropping it unrun (shutdown)
+     * must call actorIdle() instead.
+     */
+    interface IBusyTask extends Runnable
+    {
+    }
+
+    /**
+     * Actor was scheduled (before submit)
+     */
+    void actorBusy() {
+	busyActors.incrementAndGet();
+    }
+
+    /**
+     * Actor was released (after any reschedule)
+     */
+    void actorIdle() {
+	if (busyActors.decrementAndGet() == 0 && idleWaiters > 0) {
+	    synchronized (idleLock) {
+		idleLock.notifyAll();
+	    }
+	}
+    }
+
     /**
      * Create actor from implementation class.
      * @param <A> actor implementation class
@@ -75,11 +147,39 @@ public abstract class ActorThreadPool
      * @return new actor reference/proxy
      */
     public <A> IActorRef<A> create(A actorImpl) {
-	ActorRef<A> self = new ActorRef<A>(actorImpl, this);
+	return create(actorImpl, new Mailbox.Fifo<Runnable>());
+    }
+
+    /**
+     * Create actor from implementation instance, with given message queue
+     * @param <A> Any class
+     * @param actorImpl Actor implementation instance
+     * @param box message queue (eg. ConflatingMailbox)
+     * @return new actor reference/proxy
+     */
+    public <A> IActorRef<A> create(A actorImpl, Mailbox<Runnable> box) {
+	ActorRef<A> self = new ActorRef<A>(actorImpl, this, box);
+	initSelf(actorImpl, self);
+        return self;
+    }
+
+    /**
+     * Create actor running read-only messages concurrently
+     * @param <A> Any class
+     * @param actorImpl Actor implementation instance
+     * @return new actor reference/proxy (ActorRefRW)
+     * @see ActorRefRW
+     */
+    public <A> IActorRef<A> createRW(A actorImpl) {
+	ActorRefRW<A> self = new ActorRefRW<A>(actorImpl, this);
+	initSelf(actorImpl, self);
+	return self;
+    }
+
+    private static <A> void initSelf(A actorImpl, IActorRef<A> self) {
 	if (actorImpl instanceof IActSelf){
 	    ((IActSelf<A>)actorImpl).initSelf(self);
 	}
-        return self;
     }
 
 }
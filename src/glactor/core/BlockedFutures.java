@@ -0,0 +1,98 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.core;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Threads currently blocked in Future.get() on actor messages
+ * (ActorRef.FutureTaskA), for deadlock and threadlock detection
+ * (eg. glactor.monitor.DeadlockDetector).
+ * <p>
+ * Always on: a wait is recorded only when get() actually blocks, ie.
+ * after the threadlock avoidance in FutureTaskA.get() has failed, so
+ * the cost is small next to the blocking itself.
+ */
+public final class BlockedFutures
+{
+    private static final ConcurrentHashMap<Thread, Wait> waits
+	    = new ConcurrentHashMap<Thread, Wait>();
+
+    private BlockedFutures() {
+    }
+
+    /**
+     * A thread waiting for the reply to a message
+     */
+    public static final class Wait
+    {
+	public final Thread thread;
+	/** actor: ActorRef, or ActorCore if not owned by an ActorRef */
+	public final Object actor;
+	/** message class (IMessage, Callable..), or null */
+	public final Class<?> msgClass;
+	/** start of wait, System.nanoTime() */
+	public final long since;
+	private final ActorCore<?> core;
+
+	Wait(Thread thread, ActorCore<?> core, Class<?> msgClass, long since) {
+	    this.thread = thread;
+	    this.core = core;
+	    this.actor = ActorRef.owner(core);
+	    this.msgClass = msgClass;
+	    this.since = since;
+	}
+
+	/**
+	 * @return thread now running the awaited actor, or null if it is
+	 *	not running (queued or idle) or unknown
+	 */
+	public Thread getRunner() {
+	    return core.isRunning() ? ActorRef.runner(core) : null;
+	}
+
+	/**
+	 * @return thread pool of the awaited actor
+	 */
+	public ActorThreadPool getThreadPool() {
+	    return core.threadPool;
+	}
+
+	@Override
+	public String toString() {
+	    return thread.getName() + " waits on " + actor
+		    + (msgClass == null ? "" : " (" + msgClass.getName() + ")");
+	}
+    }
+
+    static Wait enter(ActorCore<?> core, Class<?> msgClass, long since) {
+	Wait w = new Wait(Thread.currentThread(), core, msgClass, since);
+	waits.put(w.thread, w);
+	return w;
+    }
+
+    static void exit(Wait w) {
+	waits.remove(w.thread, w);
+    }
+
+    /**
+     * @return current waits
+     */
+    public static List<Wait> snapshot() {
+	return new ArrayList<Wait>(waits.values());
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.core;
+
+import java.util.HashMap;
+
+/**
+ * Conflating mailbox: keeps only the latest pending message per key.
+ * <p>
+ * A message whose key equals that of a message still in the queue
+ * replaces it: the stale message is dropped at enqueue time, and the
+ * new one is appended at the tail, so it stays behind everything sent
+ * before it (per-sender FIFO holds). The queue is thus bounded by the
+ * number of distinct keys (plus messages without key, which are never
+ * conflated).
+ * <p>
+ * Keys are taken from IConflatable messages; override keyOf
+ * for other message types.
+ * @param <T> message type
+ * @see IConflatable
+ */
+public class ConflatingMailbox<T> extends Mailbox<T>
+{
+    /**
+     * Queue entry (doubly linked, so a replaced entry unlinks in O(1))
+     */
+    private static class Node
+    {
+	final Object key;	//null = never conflated
+	Object msg;
+	Node prev, next;
+
+	Node(Object key, Object msg) {
+	    this.key = key;
+	    this.msg = msg;
+	}
+    }
+
+    private Node head, tail;
+    private int size;
+    private final HashMap<Object, Node> pending = new HashMap<Object, Node>();
+    private long conflatedCount;
+
+    /**
+     * Get conflation key
+     * @param msg message
+     * @return key, or null if msg is never conflated
+     */
+    protected Object keyOf(T msg) {
+	return msg instanceof IConflatable
+		? ((IConflatable) msg).conflationKey() : null;
+    }
+
+    /**
+     * @return true if queued, false if msg replaced a pending message
+     */
+    public boolean offer(T msg) {
+	Object key = keyOf(msg);
+	if (key != null) {
+	    Node n = pending.get(key);
+	    if (n != null) { //drop stale, move to tail
+		unlink(n);
+		n.msg = msg;
+		link(n);
+		++conflatedCount;
+		return false;
+	    }
+	}
+	Node n = new Node(key, msg);
+	if (key != null) {
+	    pending.put(key, n);
+	}
+	link(n);
+	++size;
+	return true;
+    }
+
+    @SuppressWarnings("unchecked") //nodes hold offered T
+    public T poll() {
+	Node n = head;
+	if (n == null) {
+	    return null;
+	}
+	unlink(n);
+	--size;
+	if (n.key != null) {
+	    pending.remove(n.key);
+	}
+	return (T) n.msg;
+    }
+
+    private void link(Node n) {
+	n.prev = tail;
+	n.next = null;
+	if (tail == null) {
+	    head = n;
+	} else {
+	    tail.next = n;
+	}
+	tail = n;
+    }
+
+    private void unlink(Node n) {
+	if (n.prev == null) {
+	    head = n.next;
+	} else {
+	    n.prev.next = n.next;
+	}
+	if (n.next == null) {
+	    tail = n.prev;
+	} else {
+	    n.next.prev = n.prev;
+	}
+	n.prev = n.next = null;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    /**
+     * @return #messages replaced by a newer one
+     */
+    public synchronized long getConflatedCount() {
+	return conflatedCount;
+    }
+}
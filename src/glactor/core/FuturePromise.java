@@ -0,0 +1,209 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.core;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Future completed explicitly, with complete(value) or fail(exception),
+ * instead of by running a task. Used where the result is produced by
+ * one or more actor messages (eg. replies combined, or arriving
+ * from another process).
+ * <pre>
+ * Usage:
+ *  FuturePromise&lt;V> p = new FuturePromise&lt;V>();
+ *  ..send messages that eventually call p.complete(v)
+ *  return p.getRef();
+ * </pre>
+ * @param <V> result type
+ */
+public class FuturePromise<V> extends ActorRef.FutureTaskA<V>
+{
+    private static final Callable<Object> NOT_RUNNABLE = new Callable<Object>()
+    {
+	public Object call() {
+	    throw new IllegalStateException(
+		    "FuturePromise is completed by complete() or fail()");
+	}
+    };
+
+    private ActorCore<?>[] group; //waiters may run these, see FuturePromise(Collection)
+
+    public FuturePromise() {
+	this((ActorCore<?>) null);
+    }
+
+    /**
+     * @param core actor producing the result; waiting threads may run it
+     *	    to avoid threadlock (null: just wait)
+     */
+    @SuppressWarnings("unchecked") //NOT_RUNNABLE never returns a value
+    public FuturePromise(ActorCore<?> core) {
+	super((Callable<V>) (Callable<?>) NOT_RUNNABLE, core);
+    }
+
+    /**
+     * Promise for a result produced by a group of actors (eg. replies
+     * gathered); as for one actor, waiting threads may run any of
+     * them to avoid threadlock.
+     * @param group actors producing the result
+     */
+    public FuturePromise(Collection<? extends IActorRef<?>> group) {
+	this((ActorCore<?>) null);
+	List<ActorCore<?>> cores = new ArrayList<ActorCore<?>>();
+	for (IActorRef<?> ref : group) {
+	    if (ref instanceof ActorRef) {
+		cores.add(((ActorRef<?>) ref).core);
+	    }
+	}
+	this.group = cores.toArray(new ActorCore<?>[cores.size()]);
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+	runGroup(0);
+	return super.get();
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit) throws InterruptedException,
+	    ExecutionException, TimeoutException {
+	long tmax = System.currentTimeMillis() + unit.toMillis(timeout);
+	runGroup(tmax);
+	return super.get(Math.max(0, tmax - System.currentTimeMillis()),
+		TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * While not done and all threads are busy, run group actors
+     * (see FutureTaskA.get)
+     * @param tmax time limit, 0 for none
+     */
+    private void runGroup(long tmax) {
+	if (group == null) {
+	    return;
+	}
+	boolean ran = true;
+	while (ran) {
+	    ran = false;
+	    for (ActorCore<?> c : group) {
+		if (isDone() || tmax != 0 && System.currentTimeMillis() > tmax) {
+		    return;
+		}
+		if (c.threadPool.isAllThreadsBusy() && c.runCore()) {
+		    ran = true;
+		}
+	    }
+	}
+    }
+
+    /**
+     * Set result, if not already done
+     * @param value result
+     * @return true if this call completed the future
+     */
+    public synchronized boolean complete(V value) {
+	if (isDone()) {
+	    return false;
+	}
+	set(value);
+	return true;
+    }
+
+    /**
+     * Set exception (get() throws ExecutionException), if not already done
+     * @param e cause
+     * @return true if this call completed the future
+     */
+    public synchronized boolean fail(Throwable e) {
+	if (isDone()) {
+	    return false;
+	}
+	setException(e);
+	return true;
+    }
+
+    /**
+     * Promise for the result of a message to ref. If ref is an ActorRef,
+     * threads waiting on it may run ref's messages (threadlock
+     * avoidance) and are seen by BlockedFutures, as for ref.call(..).
+     * @param ref actor producing the result
+     * @param msgClass class of the message (for BlockedFutures)
+     * @return new promise
+     */
+    public static <V> FuturePromise<V> forActor(IActorRef<?> ref, Class<?> msgClass) {
+	FuturePromise<V> p = new FuturePromise<V>(
+		ref instanceof ActorRef ? ((ActorRef<?>) ref).core : null);
+	p.msgClass = msgClass;
+	return p;
+    }
+
+    /**
+     * Complete with the outcome of f, without blocking: at once if f is
+     * null (result null) or done, else when f completes. A pending f
+     * must be an actor future (FutureRef, FutureTaskA, FuturePromise);
+     * other pending futures fail this promise with
+     * IllegalStateException, as waiting for them would block.
+     * @param f future, or null
+     */
+    public void completeFrom(Future<? extends V> f) {
+	if (f == null) {
+	    complete(null);
+	} else if (f.isDone()) {
+	    copy(f);
+	} else if (f instanceof FutureRef || f instanceof ActorRef.FutureTaskA) {
+	    final ActorRef.FutureTaskA<? extends V> t = f instanceof FutureRef
+		    ? ((FutureRef<? extends V>) f).fut
+		    : (ActorRef.FutureTaskA<? extends V>) f;
+	    t.addDoneListener(new ActorRef.ISignal()
+	    {
+		public void signal() {
+		    copy(t);
+		}
+	    });
+	    if (t.isDone()) { //done before listener was added
+		copy(t);
+	    }
+	} else {
+	    fail(new IllegalStateException("cannot wait for pending "
+		    + f.getClass().getName() + " without blocking"));
+	}
+    }
+
+    /**
+     * Copy outcome of done future
+     */
+    private void copy(Future<? extends V> f) {
+	try {
+	    complete(f.get());
+	} catch (ExecutionException e) {
+	    fail(e.getCause());
+	} catch (CancellationException e) {
+	    fail(e);
+	} catch (InterruptedException e) { //not while done
+	    Thread.currentThread().interrupt();
+	    fail(e);
+	}
+    }
+
+    /**
+     * @return FutureRef view (hides complete/fail)
+     */
+    public FutureRef<V> getRef() {
+	return new FutureRef<V>(this);
+    }
+}
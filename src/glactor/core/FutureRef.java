@@ -27,7 +27,7 @@ import java.util.concurrent.*;
  */
 public class FutureRef<V> implements Future<V>
 {
-    private ActorRef.FutureTaskA<V> fut;
+    final ActorRef.FutureTaskA<V> fut;
     
     /**
      * @param fut  FutureTaskA<V> -> FutureTask<V> -> RunnableFuture<V>
@@ -81,7 +81,7 @@ public class FutureRef<V> implements Future<V>
 	final int[] res = new int[1];
 	for (int i = 0; i < lst.length; i++) {
 	    final int ii = i;
-	    lst[i].fut.setDoneListener(new ActorRef.ISignal()
+	    lst[i].fut.addDoneListener(new ActorRef.ISignal()
 	    {
 		public void signal() {
 		    if (latch.getCount() > 0) {
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.core;
+
+/**
+ * Instrumentation hooks of an ActorRef (see ActorRef.setProbe).
+ * No probe is set by default, and then the hooks cost one null check.
+ * Implementations must be fast and thread safe.
+ * @see ActorRef#setProbe(IActorProbe)
+ */
+public interface IActorProbe
+{
+    /**
+     * Message about to be queued (sender thread).
+     * @param task queued task
+     * @param msg message as sent by the user (IMessage, Runnable..)
+     * @return task to queue: task, or a wrapper running it
+     */
+    Runnable onSend(Runnable task, Object msg);
+
+    /**
+     * Actor was submitted to its thread pool (see ActorCore.onSubmit)
+     */
+    void onSubmit();
+
+    /**
+     * A pending message was replaced by a newer one (ConflatingMailbox),
+     * so one task returned by onSend will not run.
+     */
+    void onConflated();
+
+    /**
+     * Exception thrown by a message (see ActorRef.handleException)
+     * @param e exception
+     */
+    void onException(Exception e);
+}
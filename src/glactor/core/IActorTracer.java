@@ -0,0 +1,69 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.core;
+
+/**
+ * Receives actor scheduling and message events, for profiling (see
+ * ActorRef.setTracer). No tracer is set by default, and then tracing
+ * costs one null check per event; with a tracer, timed events cost
+ * two System.nanoTime() calls. Implementations filter by duration
+ * (eg. glactor.monitor.ThresholdTracer), and must be fast and thread
+ * safe.
+ * <p>
+ * actor is the ActorRef, or the ActorCore if not owned by an ActorRef.
+ * Times are System.nanoTime() values.
+ */
+public interface IActorTracer
+{
+    /**
+     * Actor submitted to its thread pool (has pending messages)
+     */
+    void scheduled(Object actor);
+
+    /**
+     * Actor ran one slice in a pool thread
+     * @param start slice start
+     * @param nanos slice duration
+     */
+    void slice(Object actor, long start, long nanos);
+
+    /**
+     * Actor processed a message
+     * @param msgClass class of message as sent (IMessage, Runnable..)
+     * @param start processing start
+     * @param nanos processing duration
+     */
+    void message(Object actor, Class<?> msgClass, long start, long nanos);
+
+    /**
+     * A thread blocked in Future.get() on a message to actor
+     * @param start start of wait
+     * @param nanos wait duration
+     */
+    void futureBlocked(Object actor, long start, long nanos);
+
+    /**
+     * A thread waiting on a Future ran the actor's messages itself
+     * (threadlock avoidance, ActorCore.runCore())
+     */
+    void runCore(Object actor);
+
+    /**
+     * A message to actor threw an exception
+     * @param e exception
+     */
+    void exception(Object actor, Exception e);
+}
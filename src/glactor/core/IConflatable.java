@@ -0,0 +1,30 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.core;
+
+/**
+ * Message with a conflation key.
+ * In a ConflatingMailbox, a new message replaces a still pending
+ * message with an equal key.
+ * @see ConflatingMailbox
+ */
+public interface IConflatable
+{
+    /**
+     * @return conflation key (equals/hashCode), or null to never conflate
+     */
+    Object conflationKey();
+}
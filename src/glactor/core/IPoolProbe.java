@@ -0,0 +1,30 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.core;
+
+/**
+ * Thread pool instrumentation hook (see ThrPoolBasicImpl.setProbe).
+ * Called in the submitting thread; must be thread safe and cheap.
+ */
+public interface IPoolProbe
+{
+    /**
+     * Task submitted to run queue
+     * @param task actor task
+     * @return task to queue (task, or a wrapper running it)
+     */
+    Runnable onSubmit(Runnable task);
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.core;
+
+/**
+ * Actor message queue (ActorCore.msgBox).
+ * Not thread safe; all calls are made by ActorCore while
+ * synchronized on the mailbox.
+ * @param <T> message type
+ * @see ActorCore
+ */
+public abstract class Mailbox<T>
+{
+    /**
+     * Add message
+     * @param msg message (null allowed)
+     * @return true if added as a new entry, false if it replaced
+     *	    a pending message (which is then never received)
+     */
+    public abstract boolean offer(T msg);
+
+    /**
+     * Remove next message
+     * @return message, or null if empty
+     */
+    public abstract T poll();
+
+    /**
+     * @return #pending messages
+     */
+    public abstract int size();
+
+    /**
+     * Failure behind the last poll() returning null for a pending
+     * message that could not be handed out (eg. an unreadable spilled
+     * message); the message is dropped. ActorCore passes it to
+     * onException instead of receiving null.
+     * @return exception, cleared by this call; null if none
+     */
+    protected Exception pollFailure() {
+	return null;
+    }
+
+    /**
+     * Default mailbox: unbounded FIFO.
+     * Array ring, allocated at the first message (new actors carry
+     * no queue); a grown array is released when emptied.
+     * @param <T> message type
+     */
+    public static class Fifo<T> extends Mailbox<T>
+    {
+	private static final int INITIAL = 4, KEEP = 16;
+	private Object[] buf;
+	private int head, size;
+
+	public boolean offer(T msg) {
+	    if (buf == null) {
+		buf = new Object[INITIAL];
+	    } else if (size == buf.length) {
+		Object[] b = new Object[size * 2];
+		int n = buf.length - head;
+		System.arraycopy(buf, head, b, 0, n);
+		System.arraycopy(buf, 0, b, n, head);
+		buf = b;
+		head = 0;
+	    }
+	    buf[(head + size++) & (buf.length - 1)] = msg;
+	    return true;
+	}
+
+	@SuppressWarnings("unchecked") //buf only holds offered T
+	public T poll() {
+	    if (size == 0) {
+		return null;
+	    }
+	    T msg = (T) buf[head];
+	    buf[head] = null;
+	    head = (head + 1) & (buf.length - 1);
+	    if (--size == 0) {
+		head = 0;
+		if (buf.length > KEEP) {
+		    buf = null;
+		}
+	    }
+	    return msg;
+	}
+
+	public int size() {
+	    return size;
+	}
+    }
+}
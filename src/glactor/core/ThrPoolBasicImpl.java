@@ -34,7 +34,18 @@ public class ThrPoolBasicImpl extends ActorThreadPool{
 	    work = new LinkedBlockingDeque<Runnable>();
     private static final Logger
 	    logger = Logger.getLogger(ThrPoolBasicImpl.class.toString());
-    protected int submitCount;
+    protected final AtomicInteger submitCount = new AtomicInteger();
+    private final AtomicLong spawned = new AtomicLong();
+    private final AtomicLong retired = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final long[] lifetime = new long[3]; //retired nanos, #live, sum of live start times
+    private volatile IPoolProbe probe;
+    private volatile long idleMillis = 5;
+    private static final Runnable WAKE = new Runnable()
+    {
+	public void run() {
+	}
+    };
 
     public ThrPoolBasicImpl(int maxNumThreads) {
         maxThreads = maxNumThreads;
@@ -48,20 +59,63 @@ public class ThrPoolBasicImpl extends ActorThreadPool{
 	maxNoThreads.set(0);
     }
 
+    /**
+     * Set instrumentation (eg. glactor.monitor.PoolMetrics)
+     * @param p probe, or null for none
+     */
+    public void setProbe(IPoolProbe p) {
+	probe = p;
+    }
+
+    public IPoolProbe getProbe() {
+	return probe;
+    }
+
+    /**
+     * Set how long an idle worker waits for work before it ends
+     * (default 5 ms). Eg. benchmarks keep workers alive to measure
+     * their allocation. Waiting workers are woken, so a shorter time
+     * applies at once.
+     * @param ms idle time, milliseconds
+     */
+    public void setIdleMillis(long ms) {
+	idleMillis = ms;
+	for (int i = noThreads.get(); i > 0; i--) {
+	    work.add(WAKE);
+	}
+    }
+
     private class Worker implements Runnable {
         
         public void run() {
+           long start = System.nanoTime();
+           synchronized (lifetime) {
+               lifetime[1]++;
+               lifetime[2] += start;
+           }
            for(;;) {
                 Runnable act = null;
                 try {
-                    act = work.poll(5, TimeUnit.MILLISECONDS);
+                    act = work.poll(idleMillis, TimeUnit.MILLISECONDS);
                     if (act == null) break;
-                    act.run();
+                    long t0 = System.nanoTime();
+                    try {
+                        act.run();
+                    } finally {
+                        busyNanos.addAndGet(System.nanoTime() - t0);
+                    }
                 } catch (Exception ex) {
 		    logger.log(Level.SEVERE, "Unexpected exception", ex);
 		    break;
 		}
             }
+            long end = System.nanoTime();
+            synchronized (lifetime) {
+                lifetime[0] += end - start;
+                lifetime[1]--;
+                lifetime[2] -= start;
+            }
+            retired.incrementAndGet();
             int N = noThreads.decrementAndGet();
             if (N < 1){
 		noThreads.set(0);
@@ -71,12 +125,13 @@ public class ThrPoolBasicImpl extends ActorThreadPool{
     }
 
     public void submit(Runnable act) {
-	++submitCount;
+	submitCount.incrementAndGet();
 	if (maxThreads == 0){
 	    act.run();
 	    return;
 	}
-        work.add(act);
+        IPoolProbe p = probe;
+        work.add(p == null ? act : probed(p, act));
 	int sz = work.size();
 	while (maxWorkSize.get() < sz) {
 	    maxWorkSize.set(sz);
@@ -87,6 +142,7 @@ public class ThrPoolBasicImpl extends ActorThreadPool{
 		if (n > maxNoThreads.get()) {
 		    maxNoThreads.set(n);
 		}
+		spawned.incrementAndGet();
 		Thread tr = new Thread(new Worker());
 //                    tr.setDaemon(true);
 		tr.start();
@@ -94,8 +150,79 @@ public class ThrPoolBasicImpl extends ActorThreadPool{
 	}
     }
 
+    /**
+     * Probe wrapper of task, still marked IBusyTask if task is
+     */
+    private static Runnable probed(IPoolProbe p, Runnable task) {
+	final Runnable w = p.onSubmit(task);
+	if (w instanceof IBusyTask || !(task instanceof IBusyTask)) {
+	    return w;
+	}
+	return new IBusyTask()
+	{
+	    public void run() {
+		w.run();
+	    }
+	};
+    }
+
+    /**
+     * Start an extra worker thread, even beyond the thread limit
+     * (compensates for workers blocked on futures). It retires when
+     * idle, as other workers.
+     */
+    public void addWorker() {
+	synchronized (noThreads) {
+	    int n = noThreads.incrementAndGet();
+	    if (n > maxNoThreads.get()) {
+		maxNoThreads.set(n);
+	    }
+	    spawned.incrementAndGet();
+	    new Thread(new Worker()).start();
+	}
+    }
+
     public int getSubmitCount() {
-	return submitCount;
+	return submitCount.get();
+    }
+
+    /**
+     * @return #tasks in run queue
+     */
+    public int getQueueSize() {
+	return work.size();
+    }
+
+    /**
+     * @return #worker threads started
+     */
+    public long getSpawnCount() {
+	return spawned.get();
+    }
+
+    /**
+     * @return #worker threads ended (idle timeout)
+     */
+    public long getRetireCount() {
+	return retired.get();
+    }
+
+    /**
+     * @return total time workers spent running tasks, nanoseconds
+     */
+    public long getBusyNanos() {
+	return busyNanos.get();
+    }
+
+    /**
+     * @return total time workers spent waiting for tasks, nanoseconds
+     */
+    public long getIdleNanos() {
+	long total;
+	synchronized (lifetime) {
+	    total = lifetime[0] + lifetime[1] * System.nanoTime() - lifetime[2];
+	}
+	return Math.max(0, total - busyNanos.get());
     }
 
     public int getMaxWorkSize(){// max(work.size())
@@ -129,8 +256,17 @@ public class ThrPoolBasicImpl extends ActorThreadPool{
     public void onFinish(){
     }
 
+    /**
+     * Drop queued tasks; actors dropped unrun no longer count as busy
+     * (see awaitQuiescence). Running tasks complete.
+     */
     public void shutdown() {
-        work.clear();
+        Runnable r;
+        while ((r = work.poll()) != null) {
+            if (r instanceof IBusyTask) {
+                actorIdle();
+            }
+        }
         //List<Runnable> shutdownNow = ex.shutdownNow();
     }
 }
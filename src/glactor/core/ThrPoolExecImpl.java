@@ -69,11 +69,19 @@ public class ThrPoolExecImpl extends ActorThreadPool{
         Runnable wr = new Runnable(){
             public void run() {
                 noThreads.incrementAndGet();
-                act.run();
-                noThreads.decrementAndGet();
-                noTasks.decrementAndGet();
+                try {
+                    act.run();
+                } finally {
+                    noThreads.decrementAndGet();
+                    noTasks.decrementAndGet();
+                }
             }
         };
-        ex.submit(wr);
+        try {
+            ex.submit(wr);
+        } catch (RejectedExecutionException e) { //shut down
+            noTasks.decrementAndGet();
+            throw e;
+        }
     }
 }
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.core;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Current actor message of each thread, for watchdogs (eg.
+ * glactor.monitor.Watchdog). Off by default, when it costs one
+ * volatile read per message; when enabled, a thread-local lookup and
+ * a few field writes per message.
+ */
+public final class WorkerActivity
+{
+    static volatile boolean enabled;
+    private static int users; //of acquire(), guarded by WorkerActivity.class
+    private static final ConcurrentHashMap<Thread, Slot> slots
+	    = new ConcurrentHashMap<Thread, Slot>();
+    private static final ThreadLocal<Slot> local = new ThreadLocal<Slot>()
+    {
+	@Override
+	protected Slot initialValue() {
+	    Slot s = new Slot(Thread.currentThread());
+	    slots.put(s.thread, s);
+	    return s;
+	}
+    };
+
+    private WorkerActivity() {
+    }
+
+    /**
+     * Activity of one thread. Written by the thread only; read
+     * consistently by others with read().
+     */
+    public static final class Slot
+    {
+	public final Thread thread;
+	volatile Object actor;
+	volatile Runnable task;
+	volatile long start;
+	private volatile long version; //odd while being written
+
+	Slot(Thread thread) {
+	    this.thread = thread;
+	}
+
+	void set(Object actor, Runnable task, long start) {
+	    version++;
+	    this.actor = actor;
+	    this.task = task;
+	    this.start = start;
+	    version++;
+	}
+
+	/**
+	 * @return current message, or null if none (or being changed)
+	 */
+	public Activity read() {
+	    long v = version;
+	    if ((v & 1) != 0) {
+		return null;
+	    }
+	    Object a = actor;
+	    Runnable t = task;
+	    long st = start;
+	    if (t == null || version != v) {
+		return null;
+	    }
+	    return new Activity(thread, a, ActorRef.messageClassOf(t), st, v);
+	}
+    }
+
+    /**
+     * A message being processed
+     */
+    public static final class Activity
+    {
+	public final Thread thread;
+	/** actor: ActorRef */
+	public final Object actor;
+	/** message class (IMessage, Runnable..) */
+	public final Class<?> msgClass;
+	/** processing start, System.nanoTime() */
+	public final long start;
+	/** changes with each message of the thread */
+	public final long version;
+
+	Activity(Thread thread, Object actor, Class<?> msgClass, long start, long version) {
+	    this.thread = thread;
+	    this.actor = actor;
+	    this.msgClass = msgClass;
+	    this.start = start;
+	    this.version = version;
+	}
+    }
+
+    /**
+     * Enable or disable tracking (running messages may be missed)
+     */
+    public static void setEnabled(boolean on) {
+	enabled = on;
+    }
+
+    public static boolean isEnabled() {
+	return enabled;
+    }
+
+    /**
+     * Enable tracking for one more user (eg. a running watchdog)
+     */
+    public static synchronized void acquire() {
+	if (users++ == 0) {
+	    enabled = true;
+	}
+    }
+
+    /**
+     * Undo acquire(). The last user disables tracking and drops the
+     * slots of ended threads; no slots are added while disabled.
+     */
+    public static synchronized void release() {
+	if (users > 0 && --users == 0) {
+	    enabled = false;
+	    slots(); //prune
+	}
+    }
+
+    static Slot slot() {
+	return local.get();
+    }
+
+    /**
+     * Run task in the calling thread as the current message of actor,
+     * then restore the outer message, if nested
+     */
+    static void run(Object actor, Runnable task) {
+	if (!enabled) {
+	    task.run();
+	    return;
+	}
+	Slot s = slot();
+	Object prevActor = s.actor;
+	Runnable prevTask = s.task;
+	long prevStart = s.start;
+	s.set(actor, task, System.nanoTime());
+	try {
+	    task.run();
+	} finally {
+	    s.set(prevActor, prevTask, prevStart);
+	}
+    }
+
+    /**
+     * @return slots of live threads that have processed messages
+     */
+    public static List<Slot> slots() {
+	List<Slot> lst = new ArrayList<Slot>();
+	for (Iterator<Slot> it = slots.values().iterator(); it.hasNext();) {
+	    Slot s = it.next();
+	    if (s.thread.isAlive()) {
+		lst.add(s);
+	    } else {
+		it.remove();
+	    }
+	}
+	return lst;
+    }
+}
@@ -11,6 +11,7 @@ import glactor.utils.CallProxy;
 import glactor.utils.FutureDirect;
 import glactor.utils.FutureSL;
 import glactor.utils.MsgSend;
+import glactor.utils.ParallelArrays;
 import glactor.utils.SendProxy;
 
 /**
@@ -149,6 +150,60 @@ public class ActorExamples
 	}
     }
 
+    /**
+     * ParallelArrays.sort (in place, RangeTask based) compared to
+     * Arrays.sort
+     * @throws Exception
+     */
+    public static void ParallelArraysTst() throws Exception {
+	log("\nParallelArraysTst..");
+	int noThr = 4;
+	ParallelArrays pa = new ParallelArrays(new ThrPoolBasicImpl(noThr));
+	int num_values = 2000000;
+	Random r = new Random();
+	int[] ints = makeRandomIntArr(num_values);
+	long[] longs = new long[num_values];
+	double[] doubles = new double[num_values];
+	for (int i = 0; i < num_values; i++) {
+	    longs[i] = r.nextLong();
+	    doubles[i] = r.nextDouble();
+	}
+	log("#values = " + num_values + " #threads = " + noThr);
+	for (int round = 0; round < 3; round++) { //first rounds: warm-up
+	    long[] t = new long[6];
+	    int[] a;
+	    long[] b;
+	    double[] c;
+	    long t0 = System.nanoTime();
+	    Arrays.sort(a = ints.clone());
+	    t[0] = System.nanoTime() - t0;
+	    t0 = System.nanoTime();
+	    pa.sort(a = ints.clone());
+	    t[1] = System.nanoTime() - t0;
+	    if (!isAscending(a)) {
+		log("   -> ERR: int[] not sorted !");
+	    }
+	    t0 = System.nanoTime();
+	    Arrays.sort(b = longs.clone());
+	    t[2] = System.nanoTime() - t0;
+	    t0 = System.nanoTime();
+	    pa.sort(b = longs.clone());
+	    t[3] = System.nanoTime() - t0;
+	    t0 = System.nanoTime();
+	    Arrays.sort(c = doubles.clone());
+	    t[4] = System.nanoTime() - t0;
+	    t0 = System.nanoTime();
+	    pa.sort(c = doubles.clone());
+	    t[5] = System.nanoTime() - t0;
+	    String[] types = {"int[]   ", "long[]  ", "double[]"};
+	    for (int i = 0; i < 3; i++) {
+		log(String.format(" %d %s  sort:%4dms  ParallelArrays:%4dms",
+			round, types[i], t[2 * i] / 1000000,
+			t[2 * i + 1] / 1000000));
+	    }
+	}
+    }
+
     /**
      * Copy array
      * @param arr array
@@ -265,35 +320,6 @@ public class ActorExamples
 		}});
 	}
 
-	/**
-	 * 'Recursive' countdown. Sends a countdown message travelling
-	 * the full chain of actors via 'next' actor references.
-	 * Use before calling msg.latch.await()
-	 * @param latch Latch wrapped as message; sent through actor chain.
-	 */
-	private void countDown(final CountDownLatch latch) {
-	    async.send(new Runnable() {
-		public void run() {
-		    if (next != null) {
-			next.countDown(latch);
-		    }else{
-			latch.countDown();
-			//all msgBoxes in chain empty => done
-		    }
-		}
-	    });
-	}
-
-	/**
-	 * Wait for completion
-	 * @throws InterruptedException if current thread was interrupted
-	 */
-	public void await() throws InterruptedException {
-	    CountDownLatch latch = new CountDownLatch(1);
-	    countDown(latch);
-	    latch.await();
-	}
-
 	static void Tst() throws InterruptedException {
 	    log("\nPrimeNumber.Tst..");
 	    ThrPoolBasicImpl threadP = new ThrPoolBasicImpl(4);
@@ -310,7 +336,7 @@ public class ActorExamples
 	    for (int i = 3; i < limit; i++) {
 		primeActor.send(i);
 	    }
-	    primeActor.await();
+	    threadP.awaitQuiescence(0); //whole chain done
 //	    log(" -- Prime counters: --");
 	    int msgCount = 0, lastPrime = 0, actorCount = 0;
 	    PrimeNumActor curr = primeActor;
@@ -424,6 +450,7 @@ public class ActorExamples
 	ActorProxyTst();
 	PrimeNumActor.Tst();
 	SortRecursiveFutureTst();
+	ParallelArraysTst();
 
 	/*
 	 * TODO?
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.examples;
+
+import glactor.codec.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Message codec benchmark: java serialization (ObjectOutputStream)
+ * vs BinaryCodec with reflection and hand written class codecs.
+ * Encodes and decodes one small message per operation, in a pooled
+ * direct buffer; several rounds warm up the JIT.
+ */
+public class CodecExamples
+{
+    static class Quote implements Serializable
+    {
+	private static final long serialVersionUID = 1L;
+
+	int id;
+	String symbol;
+	long qty;
+	double price;
+	boolean buy;
+
+	Quote() {
+	}
+
+	Quote(int id, String symbol, long qty, double price, boolean buy) {
+	    this.id = id;
+	    this.symbol = symbol;
+	    this.qty = qty;
+	    this.price = price;
+	    this.buy = buy;
+	}
+    }
+
+    static class QuoteCodec implements BinaryCodec.IClassCodec<Quote>
+    {
+	public void encode(Quote q, BinaryCodec c, ByteBuffer out) {
+	    out.putInt(q.id);
+	    BinaryCodec.putString(q.symbol, out);
+	    out.putLong(q.qty).putDouble(q.price).put(q.buy ? (byte) 1 : 0);
+	}
+
+	public Quote decode(BinaryCodec c, ByteBuffer in) throws IOException {
+	    return new Quote(in.getInt(), BinaryCodec.getString(in),
+		    in.getLong(), in.getDouble(), in.get() != 0);
+	}
+    }
+
+    static long sink;
+
+    static void bench(String name, IMsgCodec codec, int n) throws IOException {
+	ByteBuffer b = BufferPool.DEFAULT.acquire(4096);
+	Quote q = new Quote(1, "ACME", 100, 12.5, true);
+	int size = 0;
+	long t0 = System.nanoTime();
+	for (int i = 0; i < n; i++) {
+	    b.clear();
+	    q.id = i;
+	    codec.encode(q, b);
+	    size = b.position();
+	    b.flip();
+	    sink += ((Quote) codec.decode(b)).id;
+	}
+	long t = System.nanoTime() - t0;
+	BufferPool.DEFAULT.release(b);
+	System.out.println(String.format("%-18s %7.0f ns/msg  %4d bytes/msg",
+		name, (double) t / n, size));
+    }
+
+    public static void main(String[] args) throws Exception {
+	BinaryCodec reflect = new BinaryCodec();
+	reflect.register(1, Quote.class);
+	BinaryCodec hand = new BinaryCodec();
+	hand.register(1, Quote.class, new QuoteCodec());
+	for (int round = 0; round < 3; round++) {
+	    bench("ObjectOutputStream", new SerialCodec(), 50000);
+	    bench("Binary/reflection", reflect, 1000000);
+	    bench("Binary/hand coded", hand, 1000000);
+	}
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.examples;
+
+import glactor.codec.BinaryCodec;
+import glactor.core.*;
+import glactor.persist.*;
+import java.io.File;
+
+/**
+ * Persistent actor benchmark: journal throughput and recovery time
+ * (replay without snapshot).
+ * <pre>
+ *  java glactor.examples.PersistExamples [events] [dir]
+ * </pre>
+ */
+public class PersistExamples
+{
+    public static class Counter
+    {
+	long sum;
+    }
+
+    static class Add implements IMessage<Counter, Long>, IPersistent
+    {
+	long v;
+
+	Add() {
+	}
+
+	Add(long v) {
+	    this.v = v;
+	}
+
+	public Long act(Counter c) {
+	    return c.sum += v;
+	}
+    }
+
+    public static void main(String[] args) throws Exception {
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+	File dir = args.length > 1 ? new File(args[1])
+		: new File(System.getProperty("java.io.tmpdir"), "glactor-persist-bench");
+	ActorThreadPool threadP = new ThrPoolBasicImpl(2);
+	BinaryCodec codec = new BinaryCodec();
+	codec.register(1, Add.class);
+	deleteAll(dir);
+
+	long t0 = System.nanoTime();
+	PersistentActorRef<Counter> c = new PersistentActorRef<Counter>(
+		new Counter(), threadP, dir, codec, Integer.MAX_VALUE);
+	for (int i = 0; i < n; i++) {
+	    c.send(new Add(1));
+	}
+	long sum = c.call(new Add(0)).get(); //durable
+	long t1 = System.nanoTime();
+	c.close();
+	System.out.println(String.format("journaled %d events: %.0f events/s",
+		sum, n * 1e9 / (t1 - t0)));
+
+	long t2 = System.nanoTime();
+	Counter impl = new Counter();
+	PersistentActorRef<Counter> r = new PersistentActorRef<Counter>(
+		impl, threadP, dir, codec, Integer.MAX_VALUE);
+	long t3 = System.nanoTime();
+	System.out.println(String.format("recovered %d events in %.2f s (sum %d)",
+		r.getRecoveredCount(), (t3 - t2) / 1e9, impl.sum));
+	r.close();
+	deleteAll(dir);
+	threadP.shutdown();
+    }
+
+    static void deleteAll(File dir) {
+	File[] fs = dir.listFiles();
+	if (fs != null) {
+	    for (File f : fs) {
+		f.delete();
+	    }
+	}
+	dir.delete();
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.examples;
+
+import glactor.codec.SerialCodec;
+import glactor.core.*;
+import glactor.remote.*;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+/**
+ * Remote actor throughput and latency benchmark.
+ * <pre>
+ *  java glactor.examples.RemoteExamples		  //two nodes, one process
+ *  java glactor.examples.RemoteExamples server 7070  //two processes
+ *  java glactor.examples.RemoteExamples client localhost 7070
+ * </pre>
+ */
+public class RemoteExamples
+{
+    /** decodes only the messages below (and JDK basics) */
+    static final SerialCodec codec = new SerialCodec("glactor.examples.");
+
+    public static class Counter
+    {
+	long sum;
+    }
+
+    static class Add implements IMessage<Counter, Void>, Serializable
+    {
+	private static final long serialVersionUID = 1L;
+	final long v;
+
+	Add(long v) {
+	    this.v = v;
+	}
+
+	public Void act(Counter c) {
+	    c.sum += v;
+	    return null;
+	}
+    }
+
+    static class Get implements IMessage<Counter, Long>, Serializable
+    {
+	private static final long serialVersionUID = 1L;
+
+	public Long act(Counter c) {
+	    return c.sum;
+	}
+    }
+
+    static InetSocketAddress server(RemoteNode node, InetSocketAddress addr)
+	    throws Exception {
+	node.getRegistry().register("counter",
+		node.getThreadPool().create(new Counter()));
+	InetSocketAddress a = node.bind(addr);
+	log("server at " + a);
+	return a;
+    }
+
+    static void client(ActorThreadPool threadP, InetSocketAddress addr)
+	    throws Exception {
+	RemoteNode node = new RemoteNode(threadP, codec);
+	IActorRef<Counter> c = node.lookup(addr, "counter", Counter.class);
+	for (int round = 0; round < 3; round++) {
+	    //throughput: one-way sends, then one call to wait for them
+	    int n = 200000;
+	    long t0 = System.nanoTime();
+	    for (int i = 0; i < n; i++) {
+		c.send(new Add(1));
+	    }
+	    c.call(new Get()).get();
+	    long t1 = System.nanoTime();
+	    //latency: sequential round trips
+	    int m = 10000;
+	    long[] rtt = new long[m];
+	    for (int i = 0; i < m; i++) {
+		long s = System.nanoTime();
+		c.call(new Get()).get();
+		rtt[i] = System.nanoTime() - s;
+	    }
+	    Arrays.sort(rtt);
+	    log(String.format("send: %.0f msg/s   call rtt(us): p50 %.1f  p99 %.1f  max %.1f",
+		    n * 1e9 / (t1 - t0), rtt[m / 2] / 1e3,
+		    rtt[m * 99 / 100] / 1e3, rtt[m - 1] / 1e3));
+	}
+	node.close();
+    }
+
+    static void log(String s) {
+	System.out.println(s);
+    }
+
+    public static void main(String[] args) throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(4);
+	if (args.length >= 2 && args[0].equals("server")) {
+	    server(new RemoteNode(threadP, codec), new InetSocketAddress(Integer.parseInt(args[1])));
+	    Thread.sleep(Long.MAX_VALUE);
+	} else if (args.length >= 3 && args[0].equals("client")) {
+	    client(threadP, new InetSocketAddress(args[1], Integer.parseInt(args[2])));
+	} else {
+	    RemoteNode s = new RemoteNode(threadP, codec);
+	    client(threadP, server(s, new InetSocketAddress("localhost", 0)));
+	    s.close();
+	}
+	threadP.shutdown();
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.examples;
+
+import glactor.codec.SerialCodec;
+import glactor.core.*;
+import glactor.remote.*;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Arrays;
+
+/**
+ * Shared memory ring vs loopback socket: one-way latency
+ * (half round trip of 16 byte messages) and actor message throughput.
+ */
+public class ShmExamples
+{
+    static final int MSG = 16;
+
+    static File dir() {
+	File shm = new File("/dev/shm");
+	return shm.isDirectory() ? shm : new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    static void report(String what, long[] rtt) {
+	Arrays.sort(rtt);
+	int m = rtt.length;
+	log(String.format("%-8s one-way latency(us): p50 %.2f  p99 %.2f  max %.1f",
+		what, rtt[m / 2] / 2e3, rtt[m * 99 / 100] / 2e3, rtt[m - 1] / 2e3));
+    }
+
+    static ByteBuffer spinPeek(ShmRing r) {
+	ByteBuffer b;
+	for (int i = 0; (b = r.peek()) == null; i++) {
+	    if ((i & 1023) == 1023) {
+		Thread.yield();
+	    }
+	}
+	return b;
+    }
+
+    static void ringPingPong(int n) throws Exception {
+	File fa = new File(dir(), "glactor-ping"), fb = new File(dir(), "glactor-pong");
+	final ShmRing a = ShmRing.create(fa, 1 << 16), b = ShmRing.create(fb, 1 << 16);
+	final ShmRing a2 = ShmRing.open(fa), b2 = ShmRing.open(fb);
+	final int count = n;
+	Thread echo = new Thread()
+	{
+	    @Override
+	    public void run() {
+		for (int i = 0; i < count; i++) {
+		    ByteBuffer m = spinPeek(a2);
+		    while (!b.offer(m)) {
+		    }
+		    a2.release();
+		}
+	    }
+	};
+	echo.start();
+	ByteBuffer msg = ByteBuffer.allocate(MSG);
+	long[] rtt = new long[n];
+	for (int i = 0; i < n; i++) {
+	    long s = System.nanoTime();
+	    msg.clear();
+	    msg.putLong(0, s);
+	    a.offer(msg);
+	    spinPeek(b2);
+	    b2.release();
+	    rtt[i] = System.nanoTime() - s;
+	}
+	echo.join();
+	report("shm", rtt);
+	fa.delete();
+	fb.delete();
+    }
+
+    static void socketPingPong(int n) throws Exception {
+	final ServerSocketChannel ssc = ServerSocketChannel.open();
+	ssc.socket().bind(new InetSocketAddress("localhost", 0));
+	final int count = n;
+	Thread echo = new Thread()
+	{
+	    @Override
+	    public void run() {
+		try {
+		    SocketChannel ch = ssc.accept();
+		    ch.socket().setTcpNoDelay(true);
+		    ByteBuffer m = ByteBuffer.allocateDirect(MSG);
+		    for (int i = 0; i < count; i++) {
+			m.clear();
+			while (m.hasRemaining()) {
+			    ch.read(m);
+			}
+			m.flip();
+			ch.write(m);
+		    }
+		    ch.close();
+		} catch (IOException e) {
+		    e.printStackTrace();
+		}
+	    }
+	};
+	echo.start();
+	SocketChannel ch = SocketChannel.open(ssc.socket().getLocalSocketAddress());
+	ch.socket().setTcpNoDelay(true);
+	ByteBuffer msg = ByteBuffer.allocateDirect(MSG);
+	long[] rtt = new long[n];
+	for (int i = 0; i < n; i++) {
+	    long s = System.nanoTime();
+	    msg.clear();
+	    msg.putLong(0, s);
+	    ch.write(msg);
+	    msg.clear();
+	    while (msg.hasRemaining()) {
+		ch.read(msg);
+	    }
+	    rtt[i] = System.nanoTime() - s;
+	}
+	echo.join();
+	ch.close();
+	ssc.close();
+	report("socket", rtt);
+    }
+
+    public static class Counter
+    {
+	long sum;
+    }
+
+    static class Add implements IMessage<Counter, Void>, Serializable
+    {
+	private static final long serialVersionUID = 1L;
+	final long v;
+
+	Add(long v) {
+	    this.v = v;
+	}
+
+	public Void act(Counter c) {
+	    c.sum += v;
+	    return null;
+	}
+    }
+
+    /**
+     * Actor messages (java serialization) through shm ring and socket
+     */
+    static void actorThroughput(ActorThreadPool threadP, int n) throws Exception {
+	ActorRegistry reg = new ActorRegistry();
+	IActorRef<Counter> counter = threadP.create(new Counter());
+	reg.register("counter", counter);
+	File f = new File(dir(), "glactor-actor");
+	ShmReceiver r = new ShmReceiver(f, 1 << 20, new SerialCodec(), reg);
+	ShmSender s = new ShmSender(f, new SerialCodec());
+	long t0 = System.nanoTime();
+	for (int i = 0; i < n; i++) {
+	    s.send("counter", new Add(1));
+	}
+	while (r.getReceived() < n) {
+	    Thread.yield();
+	}
+	counter.awaitMessages(0);
+	long t1 = System.nanoTime();
+	r.close();
+	f.delete();
+
+	SerialCodec codec = new SerialCodec("glactor.examples.");
+	RemoteNode server = new RemoteNode(threadP, codec), client = new RemoteNode(threadP, codec);
+	server.getRegistry().register("counter", counter);
+	InetSocketAddress addr = server.bind(new InetSocketAddress("localhost", 0));
+	IActorRef<Counter> rc = client.lookup(addr, "counter", Counter.class);
+	long t2 = System.nanoTime();
+	for (int i = 0; i < n; i++) {
+	    rc.send(new Add(1));
+	}
+	rc.awaitMessages(0);
+	long t3 = System.nanoTime();
+	client.close();
+	server.close();
+	log(String.format("actor send: shm %.0f msg/s  socket %.0f msg/s",
+		n * 1e9 / (t1 - t0), n * 1e9 / (t3 - t2)));
+    }
+
+    static void log(String s) {
+	System.out.println(s);
+    }
+
+    public static void main(String[] args) throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(4);
+	for (int round = 0; round < 3; round++) {
+	    ringPingPong(100000);
+	    socketPingPong(20000);
+	    actorThroughput(threadP, 100000);
+	}
+	threadP.shutdown();
+    }
+}
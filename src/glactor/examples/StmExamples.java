@@ -0,0 +1,107 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.examples;
+
+import glactor.core.*;
+import glactor.stm.*;
+import java.util.*;
+
+/**
+ * Transfers between account actors with STM transactions: throughput
+ * by #threads and #accounts (fewer accounts = more conflicts).
+ * <pre>
+ *  java glactor.examples.StmExamples [transfers]
+ * </pre>
+ */
+public class StmExamples
+{
+    public static class Account
+    {
+	final TxVar<Long> balance = new TxVar<Long>(1000L);
+    }
+
+    /**
+     * Transfer from the receiving account to another one
+     */
+    static class Transfer implements IMessage<Account, Void>, ITxBlock<Void>
+    {
+	private final Account to;
+	private final long amount;
+	private Account from;
+
+	Transfer(Account to, long amount) {
+	    this.to = to;
+	    this.amount = amount;
+	}
+
+	public Void act(Account from) throws Exception {
+	    this.from = from;
+	    return Transaction.atomic(this);
+	}
+
+	public Void run(Transaction tx) {
+	    long b = tx.get(from.balance);
+	    if (b >= amount && from != to) {
+		tx.set(from.balance, b - amount);
+		tx.set(to.balance, tx.get(to.balance) + amount);
+	    }
+	    return null;
+	}
+    }
+
+    static double run(int threads, int accounts, int n) throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(threads);
+	Account[] accs = new Account[accounts];
+	List<IActorRef<Account>> refs = new ArrayList<IActorRef<Account>>(accounts);
+	for (int i = 0; i < accounts; i++) {
+	    accs[i] = new Account();
+	    refs.add(threadP.create(accs[i]));
+	}
+	Transfer[] ts = new Transfer[n];
+	Random rnd = new Random(n);
+	for (int i = 0; i < n; i++) {
+	    ts[i] = new Transfer(accs[rnd.nextInt(accounts)], rnd.nextInt(100));
+	}
+	long t0 = System.nanoTime();
+	for (int i = 0; i < n; i++) {
+	    refs.get(i % accounts).send(ts[i]);
+	}
+	threadP.awaitQuiescence(0);
+	long dt = System.nanoTime() - t0;
+	long sum = 0;
+	for (Account a : accs) {
+	    sum += a.balance.get();
+	}
+	threadP.shutdown();
+	if (sum != 1000L * accounts) {
+	    throw new IllegalStateException("total " + sum);
+	}
+	return n * 1e9 / dt;
+    }
+
+    public static void main(String[] args) throws Exception {
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+	int cpus = Runtime.getRuntime().availableProcessors();
+	System.out.println("threads  accounts  transfers/s");
+	for (int accounts : new int[]{4, 1024}) {
+	    for (int threads = 1; threads <= cpus; threads *= 2) {
+		run(threads, accounts, n / 4); //warmup
+		System.out.println(String.format("%7d %9d %12.0f",
+			threads, accounts, run(threads, accounts, n)));
+	    }
+	}
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.flow;
+
+import glactor.core.*;
+import java.util.LinkedList;
+
+/**
+ * Flow.Processor with its own actor: transforms items from an upstream
+ * publisher and publishes the results.
+ * <p>
+ * Upstream demand is bounded by the buffer size; more is only requested
+ * as buffered items are taken by downstream demand, so a chain of
+ * processors runs with bounded memory end to end.
+ * @param <T> subscribed item type
+ * @param <R> published item type
+ */
+public abstract class ActorProcessor<T, R> extends ActorPublisher<R>
+	implements Flow.Processor<T, R>
+{
+    private final int bufferSize;
+    private final int refillLimit;
+    private final LinkedList<R> buffer = new LinkedList<R>();
+    private Flow.Subscription upstream;
+    private int consumed; //taken from buffer or filtered, not yet requested
+
+    /**
+     * @param threadP actor thread pool
+     * @param bufferSize max #items requested from upstream, not yet
+     *	    delivered downstream
+     */
+    public ActorProcessor(ActorThreadPool threadP, int bufferSize) {
+	super(threadP);
+	this.bufferSize = bufferSize;
+	refillLimit = Math.max(1, bufferSize / 2);
+    }
+
+    /**
+     * Transform item; called from my actor.
+     * @param item received item
+     * @return item to publish, or null to drop it
+     * @throws Exception cancels upstream and fails downstream
+     */
+    protected abstract R transform(T item) throws Exception;
+
+    @Override
+    protected R next() {
+	R item = buffer.poll();
+	if (item != null) {
+	    consumed();
+	}
+	return item;
+    }
+
+    @Override
+    protected boolean hasPending() {
+	return !buffer.isEmpty();
+    }
+
+    private void consumed() {
+	if (++consumed >= refillLimit && upstream != null) {
+	    upstream.request(consumed);
+	    consumed = 0;
+	}
+    }
+
+    @Override
+    protected void onCancel() {
+	if (upstream != null) {
+	    upstream.cancel();
+	    upstream = null;
+	}
+	buffer.clear();
+    }
+
+    public void onSubscribe(final Flow.Subscription s) {
+	if (s == null) {
+	    throw new NullPointerException("subscription == null");
+	}
+	self.send(new Runnable()
+	{
+	    public void run() {
+		if (upstream != null || isTerminated()) {
+		    s.cancel(); //already subscribed, or cancelled
+		    return;
+		}
+		upstream = s;
+		s.request(bufferSize);
+	    }
+	});
+    }
+
+    public void onNext(final T item) {
+	if (item == null) {
+	    throw new NullPointerException("item == null");
+	}
+	self.send(new Runnable()
+	{
+	    public void run() {
+		if (upstream == null) {
+		    return; //cancelled
+		}
+		R r;
+		try {
+		    r = transform(item);
+		} catch (Exception e) {
+		    fail(e);
+		    return;
+		}
+		if (r == null) {
+		    consumed();
+		} else {
+		    buffer.add(r);
+		    pump();
+		}
+	    }
+	});
+    }
+
+    public void onError(final Throwable e) {
+	if (e == null) {
+	    throw new NullPointerException("throwable == null");
+	}
+	self.send(new Runnable()
+	{
+	    public void run() {
+		upstream = null;
+		fail(e);
+	    }
+	});
+    }
+
+    public void onComplete() {
+	self.send(new Runnable()
+	{
+	    public void run() {
+		upstream = null;
+		complete();
+	    }
+	});
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.flow;
+
+import glactor.core.*;
+
+/**
+ * Flow.Publisher driven by its own actor.
+ * <p>
+ * All signals from the subscriber (request, cancel) are handled as
+ * messages to this actor, and items are emitted from it, so
+ * implementations are single-threaded. Items are pulled from next()
+ * only while there is outstanding demand.
+ * <p>
+ * Single subscriber (unicast); further subscribers are refused
+ * with onError.
+ * <pre>
+ * Usage:
+ *  Flow.Publisher&lt;Integer> counter = new ActorPublisher&lt;Integer>(threadP) {
+ *	int i;
+ *	protected Integer next() {
+ *	    if (i == 1000) complete();
+ *	    return i &lt; 1000 ? i++ : null;
+ *	}
+ *  };
+ * </pre>
+ * @param <T> published item type
+ */
+public abstract class ActorPublisher<T> implements Flow.Publisher<T>
+{
+    /** max items emitted per message, before other messages are let in */
+    static final int EMIT_MAX = 128;
+    protected final IActorRef<ActorPublisher<T>> self;
+    private Flow.Subscriber<? super T> subscriber;
+    private long demand;
+    private boolean cancelled, completing, done;
+    private Throwable error;
+    private boolean pumpScheduled;
+    private final Runnable pumpMsg = new Runnable()
+    {
+	public void run() {
+	    pumpScheduled = false;
+	    pump();
+	}
+    };
+
+    public ActorPublisher(ActorThreadPool threadP) {
+	self = threadP.create(this);
+    }
+
+    /**
+     * Get next item to publish; called from my actor when there is demand.
+     * @return item, or null if none available now (call pump() later
+     *	    when more is available) or when complete() was called.
+     * @throws Exception sent as onError to subscriber
+     */
+    protected abstract T next() throws Exception;
+
+    /**
+     * Subscription was cancelled (or publisher failed).
+     * Override to release resources.
+     */
+    protected void onCancel() {
+    }
+
+    public void subscribe(final Flow.Subscriber<? super T> s) {
+	if (s == null) {
+	    throw new NullPointerException("subscriber == null");
+	}
+	self.send(new Runnable()
+	{
+	    public void run() {
+		if (subscriber != null || cancelled || done) {
+		    s.onSubscribe(new Flow.Subscription()
+		    {
+			public void request(long n) {
+			}
+
+			public void cancel() {
+			}
+		    });
+		    s.onError(error != null ? error : new IllegalStateException(
+			    "ActorPublisher allows one subscriber only"));
+		    return;
+		}
+		subscriber = s;
+		s.onSubscribe(new Subscription());
+		if (completing) {
+		    pump(); //may complete without any request
+		}
+	    }
+	});
+    }
+
+    /**
+     * Subscription given to my subscriber; signals become messages.
+     */
+    private class Subscription implements Flow.Subscription
+    {
+	public void request(final long n) {
+	    self.send(new Runnable()
+	    {
+		public void run() {
+		    if (cancelled || done) {
+			return;
+		    }
+		    if (n <= 0) {
+			fail(new IllegalArgumentException(
+				"request(n) requires n > 0: " + n));
+			return;
+		    }
+		    demand += n;
+		    if (demand < 0) {
+			demand = Long.MAX_VALUE; //unbounded
+		    }
+		    pump();
+		}
+	    });
+	}
+
+	public void cancel() {
+	    self.send(new Runnable()
+	    {
+		public void run() {
+		    if (!cancelled && !done) {
+			cancelled = true;
+			subscriber = null;
+			onCancel();
+		    }
+		}
+	    });
+	}
+    }
+
+    /**
+     * Emit items while there is demand; call from my actor.
+     * Also completes the stream when complete() was called and next()
+     * has nothing more to give.
+     */
+    protected void pump() {
+	if (cancelled || done || subscriber == null) {
+	    return;
+	}
+	int n = 0;
+	while (demand > 0) {
+	    T item;
+	    try {
+		item = next();
+	    } catch (Exception e) {
+		fail(e);
+		return;
+	    }
+	    if (item == null) {
+		break;
+	    }
+	    if (demand != Long.MAX_VALUE) {
+		--demand;
+	    }
+	    subscriber.onNext(item);
+	    if (cancelled || done) {
+		return;
+	    }
+	    if (++n >= EMIT_MAX) {
+		schedulePump();
+		return;
+	    }
+	}
+	if (completing && !hasPending()) {
+	    done = true;
+	    Flow.Subscriber<? super T> s = subscriber;
+	    subscriber = null;
+	    s.onComplete();
+	}
+    }
+
+    /**
+     * Run pump() later, as a message to my actor
+     */
+    protected void schedulePump() {
+	if (!pumpScheduled) {
+	    pumpScheduled = true;
+	    self.send(pumpMsg);
+	}
+    }
+
+    /**
+     * @return true if next() has more (buffered) items; used to decide
+     *	    when to complete after complete() was called
+     */
+    protected boolean hasPending() {
+	return false;
+    }
+
+    /**
+     * No more items; subscriber is completed once pending items
+     * are delivered. Call from my actor.
+     */
+    protected void complete() {
+	completing = true;
+	schedulePump();
+    }
+
+    /**
+     * Terminate with error (pending items are discarded).
+     * Call from my actor.
+     * @param e error
+     */
+    protected void fail(Throwable e) {
+	if (done || cancelled) {
+	    return;
+	}
+	done = true;
+	error = e;
+	Flow.Subscriber<? super T> s = subscriber;
+	subscriber = null;
+	onCancel();
+	if (s != null) {
+	    s.onError(e);
+	}
+    }
+
+    /**
+     * @return true if cancelled, completed or failed (call from my actor)
+     */
+    protected boolean isTerminated() {
+	return cancelled || done;
+    }
+
+    /**
+     * @return current outstanding demand (call from my actor)
+     */
+    protected long getDemand() {
+	return demand;
+    }
+}
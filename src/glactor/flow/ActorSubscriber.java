@@ -0,0 +1,147 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.flow;
+
+import glactor.core.*;
+
+/**
+ * Flow.Subscriber with its own actor.
+ * <p>
+ * Signals are handled as messages to this actor. Demand is kept within
+ * a window of bufferSize items: the window is requested on subscribe,
+ * and refilled as items are processed, so at most bufferSize items
+ * wait in this actor's message queue.
+ * <pre>
+ * Usage:
+ *  publisher.subscribe(new ActorSubscriber&lt;Integer>(threadP, 64) {
+ *	protected void onItem(Integer item) {..}
+ *	protected void onDone(Throwable error) {..}
+ *  });
+ * </pre>
+ * @param <T> item type
+ */
+public abstract class ActorSubscriber<T> implements Flow.Subscriber<T>
+{
+    protected final IActorRef<ActorSubscriber<T>> self;
+    private final int bufferSize;
+    private final int refillLimit;
+    private Flow.Subscription subscription;
+    private int consumed;
+    private boolean done;
+
+    /**
+     * @param threadP actor thread pool
+     * @param bufferSize max #requested items not yet processed
+     */
+    public ActorSubscriber(ActorThreadPool threadP, int bufferSize) {
+	self = threadP.create(this);
+	this.bufferSize = bufferSize;
+	refillLimit = Math.max(1, bufferSize / 2);
+    }
+
+    /**
+     * Process item; called from my actor.
+     * @param item item
+     * @throws Exception cancels the subscription, then onDone(exception)
+     */
+    protected abstract void onItem(T item) throws Exception;
+
+    /**
+     * Stream terminated; called once from my actor.
+     * @param error error, or null if completed normally
+     */
+    protected abstract void onDone(Throwable error);
+
+    /**
+     * Cancel subscription; call from my actor.
+     * onDone is not called.
+     */
+    protected void cancel() {
+	if (subscription != null) {
+	    subscription.cancel();
+	}
+	done = true;
+    }
+
+    public void onSubscribe(final Flow.Subscription s) {
+	if (s == null) {
+	    throw new NullPointerException("subscription == null");
+	}
+	self.send(new Runnable()
+	{
+	    public void run() {
+		if (subscription != null || done) {
+		    s.cancel(); //already subscribed
+		    return;
+		}
+		subscription = s;
+		s.request(bufferSize);
+	    }
+	});
+    }
+
+    public void onNext(final T item) {
+	if (item == null) {
+	    throw new NullPointerException("item == null");
+	}
+	self.send(new Runnable()
+	{
+	    public void run() {
+		if (done) {
+		    return;
+		}
+		try {
+		    onItem(item);
+		} catch (Exception e) {
+		    cancel();
+		    onDone(e);
+		    return;
+		}
+		if (++consumed >= refillLimit && !done) {
+		    subscription.request(consumed);
+		    consumed = 0;
+		}
+	    }
+	});
+    }
+
+    public void onError(final Throwable e) {
+	if (e == null) {
+	    throw new NullPointerException("throwable == null");
+	}
+	self.send(new Runnable()
+	{
+	    public void run() {
+		if (!done) {
+		    done = true;
+		    onDone(e);
+		}
+	    }
+	});
+    }
+
+    public void onComplete() {
+	self.send(new Runnable()
+	{
+	    public void run() {
+		if (!done) {
+		    done = true;
+		    onDone(null);
+		}
+	    }
+	});
+    }
+}
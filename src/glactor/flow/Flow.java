@@ -0,0 +1,93 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.flow;
+
+/**
+ * Reactive streams interfaces.
+ * Same shape and rules as java.util.concurrent.Flow (Java 9), which
+ * this library can not depend on; bridging to it is a one-line
+ * delegation per method.
+ * <pre>
+ *  Publisher.subscribe(Subscriber)
+ *	-> Subscriber.onSubscribe(Subscription)
+ *	-> Subscription.request(n)
+ *	-> Subscriber.onNext(item)  (at most n times)
+ *	-> Subscriber.onComplete() | onError(e)
+ * </pre>
+ * @see ActorPublisher
+ * @see ActorSubscriber
+ * @see ActorProcessor
+ */
+public final class Flow
+{
+    private Flow() {
+    }
+
+    /**
+     * Producer of items, to one or more Subscribers
+     * @param <T> item type
+     */
+    public interface Publisher<T>
+    {
+	/**
+	 * Add subscriber. Results in subscriber.onSubscribe(..),
+	 * or onError(..) if refused.
+	 * @param subscriber subscriber (not null)
+	 */
+	void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * Receiver of items. Signals are never invoked concurrently.
+     * @param <T> item type
+     */
+    public interface Subscriber<T>
+    {
+	void onSubscribe(Subscription subscription);
+
+	void onNext(T item);
+
+	void onError(Throwable throwable);
+
+	void onComplete();
+    }
+
+    /**
+     * Link between one Publisher and one Subscriber
+     */
+    public interface Subscription
+    {
+	/**
+	 * Add n to demand. n &lt;= 0 is an error signalled via onError.
+	 * @param n #items
+	 */
+	void request(long n);
+
+	/**
+	 * Stop sending items (eventually)
+	 */
+	void cancel();
+    }
+
+    /**
+     * Both Subscriber and Publisher
+     * @param <T> subscribed item type
+     * @param <R> published item type
+     */
+    public interface Processor<T, R> extends Subscriber<T>, Publisher<R>
+    {
+    }
+}
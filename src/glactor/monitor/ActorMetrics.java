@@ -0,0 +1,203 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.monitor;
+
+import glactor.core.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of one actor, collected as its IActorProbe:
+ * backlog (messages queued, not yet started), queue wait time,
+ * processing time per message class, CPU (processing) time,
+ * #scheduling slices and #exceptions.
+ * <p>
+ * Enabled per actor with ActorMonitor.instrument(..) or
+ * ActorRef.setProbe(..); each message is then wrapped to time it.
+ * Messages sent before enabling are not counted.
+ * @see ActorMonitor
+ */
+public class ActorMetrics implements IActorProbe
+{
+    private final String name;
+    private final StripedCounter enqueued = new StripedCounter();
+    private final AtomicLong dequeued = new AtomicLong();
+    private final AtomicLong conflated = new AtomicLong();
+    private final AtomicLong cpuNanos = new AtomicLong();
+    private final StripedCounter slices = new StripedCounter();
+    private final AtomicLong exceptions = new AtomicLong();
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+    private final ConcurrentHashMap<Class<?>, LatencyHistogram> byClass
+	    = new ConcurrentHashMap<Class<?>, LatencyHistogram>();
+
+    public ActorMetrics(String name) {
+	this.name = name;
+    }
+
+    public String getName() {
+	return name;
+    }
+
+    public Runnable onSend(Runnable task, Object msg) {
+	enqueued.increment();
+	return new Timed(task, msg.getClass(), System.nanoTime());
+    }
+
+    public void onSubmit() {
+	slices.increment();
+    }
+
+    public void onException(Exception e) {
+	exceptions.incrementAndGet();
+    }
+
+    public void onConflated() {
+	conflated.incrementAndGet();
+    }
+
+    /**
+     * Queued task with timestamp
+     */
+    private final class Timed implements Runnable
+    {
+	private final Runnable task;
+	private final Class<?> msgClass;
+	private final long queued;
+
+	Timed(Runnable task, Class<?> msgClass, long queued) {
+	    this.task = task;
+	    this.msgClass = msgClass;
+	    this.queued = queued;
+	}
+
+	public void run() {
+	    long t0 = System.nanoTime();
+	    waitTime.record(t0 - queued);
+	    dequeued.incrementAndGet();
+	    try {
+		task.run();
+		if (task instanceof Future && failed((Future<?>) task)) {
+		    exceptions.incrementAndGet(); //call(): kept in the future
+		}
+	    } catch (RuntimeException e) {
+		exceptions.incrementAndGet();
+		throw e;
+	    } finally {
+		long t = System.nanoTime() - t0;
+		cpuNanos.addAndGet(t);
+		histogram(msgClass).record(t);
+	    }
+	}
+    }
+
+    /**
+     * @param f future task, just run
+     * @return true if it completed with an exception
+     */
+    private static boolean failed(Future<?> f) {
+	if (!f.isDone() || f.isCancelled()) {
+	    return false;
+	}
+	try {
+	    f.get(); //done; does not block
+	    return false;
+	} catch (ExecutionException e) {
+	    return true;
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    return false;
+	}
+    }
+
+    private LatencyHistogram histogram(Class<?> cz) {
+	LatencyHistogram h = byClass.get(cz);
+	if (h == null) {
+	    LatencyHistogram h2 = byClass.putIfAbsent(cz, h = new LatencyHistogram());
+	    if (h2 != null) {
+		h = h2;
+	    }
+	}
+	return h;
+    }
+
+    /**
+     * @return #messages queued but not started
+     */
+    public long getBacklog() {
+	return Math.max(0, enqueued.sum() - dequeued.get() - conflated.get());
+    }
+
+    /**
+     * @return #messages replaced by a newer one before they started
+     */
+    public long getConflated() {
+	return conflated.get();
+    }
+
+    /**
+     * @return #messages started
+     */
+    public long getProcessed() {
+	return dequeued.get();
+    }
+
+    /**
+     * @return total message processing time, nanoseconds
+     */
+    public long getCpuNanos() {
+	return cpuNanos.get();
+    }
+
+    /**
+     * @return #times scheduled to run
+     */
+    public long getSlices() {
+	return slices.sum();
+    }
+
+    /**
+     * @return #exceptions thrown by messages, including call() messages
+     *	    whose exception is passed on in the returned future
+     */
+    public long getExceptions() {
+	return exceptions.get();
+    }
+
+    /**
+     * @return time from send to start of processing, nanoseconds
+     */
+    public LatencyHistogram getWaitTime() {
+	return waitTime;
+    }
+
+    /**
+     * @return processing time per message class, nanoseconds
+     */
+    public Map<Class<?>, LatencyHistogram> getProcessingTime() {
+	return Collections.unmodifiableMap(byClass);
+    }
+
+    @Override
+    public String toString() {
+	return String.format("%s: backlog=%d processed=%d cpu=%.3fms slices=%d"
+		+ " exceptions=%d wait(ns)[%s]", name, getBacklog(),
+		getProcessed(), cpuNanos.get() / 1e6, getSlices(),
+		getExceptions(), waitTime);
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.monitor;
+
+import glactor.core.ActorRef;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Set of instrumented actors, with top-N queries for finding hot ones.
+ * <pre>
+ * Usage:
+ *  ActorMonitor mon = new ActorMonitor();
+ *  mon.instrument(orders, "orders");
+ *  ..
+ *  for (ActorMetrics m : mon.topByCpu(5)) System.out.println(m);
+ * </pre>
+ * @see ActorMetrics
+ */
+public class ActorMonitor
+{
+    private final CopyOnWriteArrayList<ActorMetrics> actors
+	    = new CopyOnWriteArrayList<ActorMetrics>();
+
+    private static final Comparator<ActorMetrics> BY_BACKLOG
+	    = new Comparator<ActorMetrics>()
+    {
+	public int compare(ActorMetrics a, ActorMetrics b) {
+	    long x = a.getBacklog(), y = b.getBacklog();
+	    return x > y ? -1 : x < y ? 1 : 0;
+	}
+    };
+    private static final Comparator<ActorMetrics> BY_CPU
+	    = new Comparator<ActorMetrics>()
+    {
+	public int compare(ActorMetrics a, ActorMetrics b) {
+	    long x = a.getCpuNanos(), y = b.getCpuNanos();
+	    return x > y ? -1 : x < y ? 1 : 0;
+	}
+    };
+
+    /**
+     * Enable metrics for actor
+     * @param ref actor
+     * @param name actor name in reports
+     * @return metrics
+     */
+    public ActorMetrics instrument(ActorRef<?> ref, String name) {
+	ActorMetrics m = new ActorMetrics(name);
+	ref.setProbe(m);
+	actors.add(m);
+	return m;
+    }
+
+    /**
+     * Disable metrics for actor
+     * @param ref actor
+     */
+    public void remove(ActorRef<?> ref) {
+	Object p = ref.getProbe();
+	if (p instanceof ActorMetrics) {
+	    actors.remove((ActorMetrics) p);
+	    ref.setProbe(null);
+	}
+    }
+
+    public List<ActorMetrics> getAll() {
+	return new ArrayList<ActorMetrics>(actors);
+    }
+
+    public List<ActorMetrics> topByBacklog(int n) {
+	return top(n, BY_BACKLOG);
+    }
+
+    /**
+     * @param n max #actors
+     * @return actors with most processing time, most first
+     */
+    public List<ActorMetrics> topByCpu(int n) {
+	return top(n, BY_CPU);
+    }
+
+    private List<ActorMetrics> top(int n, Comparator<ActorMetrics> order) {
+	List<ActorMetrics> all = getAll();
+	Collections.sort(all, order);
+	return all.subList(0, Math.min(n, all.size()));
+    }
+
+    /**
+     * @param n max #actors per list
+     * @return text report of top actors by cpu and by backlog
+     */
+    public String report(int n) {
+	StringBuilder sb = new StringBuilder("top cpu:\n");
+	for (ActorMetrics m : topByCpu(n)) {
+	    sb.append("  ").append(m).append('\n');
+	}
+	sb.append("top backlog:\n");
+	for (ActorMetrics m : topByBacklog(n)) {
+	    sb.append("  ").append(m).append('\n');
+	}
+	return sb.toString();
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.monitor;
+
+import glactor.core.*;
+import glactor.core.BlockedFutures.Wait;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Background detector of threads hung on actor futures (see
+ * BlockedFutures). Builds the wait-for graph (waiting thread -&gt;
+ * awaited actor -&gt; thread running that actor) and reports:
+ * <ul>
+ * <li>DEADLOCK: a cycle, eg. actor A waits on B while B waits on A.
+ * <li>STARVATION: a thread waited longer than starvationMillis on an
+ * actor that is not running while its pool has no free thread
+ * (threadlock). Optionally a compensating worker is added to the pool
+ * (ThrPoolBasicImpl.addWorker()).
+ * </ul>
+ * Each problem is reported once, to report(..), which logs it
+ * (SEVERE); override to handle it otherwise.
+ * <pre>
+ * Usage:
+ *  DeadlockDetector dd = new DeadlockDetector(1000, 5000);
+ *  dd.setCompensate(true);
+ *  dd.start();
+ * </pre>
+ */
+public class DeadlockDetector
+{
+    static final Logger logger = Logger.getLogger(DeadlockDetector.class.toString());
+    private final long intervalMillis;
+    private final long starvationMillis;
+    private volatile boolean compensate;
+    private final Set<Wait> reported = new HashSet<Wait>();
+    private Thread thread;
+
+    public enum Kind
+    {
+	DEADLOCK, STARVATION
+    }
+
+    /**
+     * A detected problem
+     */
+    public static class Report
+    {
+	public final Kind kind;
+	/** waits involved; for DEADLOCK in cycle order */
+	public final List<Wait> waits;
+	/** true if a compensating worker was added */
+	public final boolean compensated;
+
+	Report(Kind kind, List<Wait> waits, boolean compensated) {
+	    this.kind = kind;
+	    this.waits = waits;
+	    this.compensated = compensated;
+	}
+
+	@Override
+	public String toString() {
+	    StringBuilder sb = new StringBuilder(kind.toString());
+	    if (compensated) {
+		sb.append(" (added worker)");
+	    }
+	    for (Wait w : waits) {
+		sb.append("\n  ").append(w.thread.getName()).append(" waits on ")
+			.append(TraceEvent.actorName(w.actor));
+		if (w.msgClass != null) {
+		    sb.append(" (").append(w.msgClass.getName()).append(')');
+		}
+	    }
+	    return sb.toString();
+	}
+    }
+
+    /**
+     * @param intervalMillis time between checks
+     * @param starvationMillis min wait on a non-running actor to report
+     */
+    public DeadlockDetector(long intervalMillis, long starvationMillis) {
+	this.intervalMillis = intervalMillis;
+	this.starvationMillis = starvationMillis;
+    }
+
+    /**
+     * @param on add a worker to a starved ThrPoolBasicImpl
+     */
+    public void setCompensate(boolean on) {
+	compensate = on;
+    }
+
+    /**
+     * Start checking in a daemon thread
+     */
+    public synchronized void start() {
+	if (thread != null) {
+	    return;
+	}
+	thread = new Thread(new Runnable()
+	{
+	    public void run() {
+		try {
+		    while (!Thread.currentThread().isInterrupted()) {
+			Thread.sleep(intervalMillis);
+			check();
+		    }
+		} catch (InterruptedException e) { //stop
+		}
+	    }
+	}, "glactor-deadlock-detector");
+	thread.setDaemon(true);
+	thread.start();
+    }
+
+    public synchronized void stop() {
+	if (thread != null) {
+	    thread.interrupt();
+	    thread = null;
+	}
+    }
+
+    /**
+     * Check now; report new problems
+     * @return new problems
+     */
+    public synchronized List<Report> check() {
+	List<Wait> ws = BlockedFutures.snapshot();
+	Map<Thread, Wait> byThread = new HashMap<Thread, Wait>();
+	for (Wait w : ws) {
+	    byThread.put(w.thread, w);
+	}
+	reported.retainAll(ws); //forget ended waits
+	List<Report> res = new ArrayList<Report>();
+	long now = System.nanoTime();
+	Set<Wait> done = new HashSet<Wait>();
+	for (Wait w : ws) {
+	    if (done.contains(w)) {
+		continue;
+	    }
+	    //follow wait -> runner thread -> its wait ..
+	    List<Wait> path = new ArrayList<Wait>();
+	    Wait x = w;
+	    while (x != null && !done.contains(x) && !path.contains(x)) {
+		path.add(x);
+		Thread r = x.getRunner();
+		x = r == null ? null : byThread.get(r);
+	    }
+	    done.addAll(path);
+	    if (x != null && path.contains(x)) { //cycle
+		List<Wait> cycle = new ArrayList<Wait>(path.subList(path.indexOf(x), path.size()));
+		if (!reported.containsAll(cycle)) {
+		    reported.addAll(cycle);
+		    res.add(new Report(Kind.DEADLOCK, cycle, false));
+		}
+	    }
+	}
+	for (Wait w : ws) {
+	    ActorThreadPool pool = w.getThreadPool();
+	    if (!reported.contains(w) && w.getRunner() == null
+		    && now - w.since >= starvationMillis * 1000000
+		    && pool != null && pool.isAllThreadsBusy()) {
+		reported.add(w);
+		boolean add = compensate && pool instanceof ThrPoolBasicImpl;
+		if (add) {
+		    ((ThrPoolBasicImpl) pool).addWorker();
+		}
+		res.add(new Report(Kind.STARVATION, Collections.singletonList(w), add));
+	    }
+	}
+	for (Report r : res) {
+	    report(r);
+	}
+	return res;
+    }
+
+    /**
+     * Handle new problem (detector thread). Default logs it.
+     * @param r problem
+     */
+    protected void report(Report r) {
+	logger.log(Level.SEVERE, "{0}", r);
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.monitor;
+
+import glactor.core.*;
+import glactor.monitor.TraceEvent.Kind;
+import glactor.utils.RingBuf;
+import java.io.*;
+import java.lang.ref.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Always-on actor flight recorder: keeps the last N scheduling,
+ * slice, message, blocking and exception events per thread pool in
+ * lock-free RingBufs, for post-mortem analysis of latency spikes.
+ * Dump on demand with dump(..), or automatically (logged, WARNING, from
+ * a background thread) when a message throws, at most once per
+ * minDumpInterval.
+ * <p>
+ * Thread pools are held weakly, and events hold actor names rather
+ * than actors, so recording does not keep shut down pools or
+ * passivated actors alive.
+ * <p>
+ * Records all events by default (thresholds 0); raise thresholds of
+ * the frequent kinds (see ThresholdTracer) to keep more history.
+ * <pre>
+ * Usage:
+ *  FlightRecorder rec = new FlightRecorder(4096);
+ *  rec.setDumpOnException(true);
+ *  ActorRef.setTracer(rec);
+ *  ..
+ *  rec.dump(new PrintWriter(System.err));
+ * </pre>
+ */
+public class FlightRecorder extends ThresholdTracer
+{
+    static final Logger logger = Logger.getLogger(FlightRecorder.class.toString());
+    private final int size;
+    private final ConcurrentHashMap<Object, RingBuf<TraceEvent>> pools
+	    = new ConcurrentHashMap<Object, RingBuf<TraceEvent>>(); //PoolKey keys
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+    private static final Object NO_POOL = new Object();
+    private volatile boolean dumpOnException;
+    private volatile long minDumpInterval = 1000;
+    private final AtomicLong lastDump = new AtomicLong();
+
+    /**
+     * @param size #events kept per thread pool
+     */
+    public FlightRecorder(int size) {
+	this.size = size;
+	for (Kind k : Kind.values()) {
+	    setThreshold(k, 0);
+	}
+    }
+
+    /**
+     * @param on log a dump when a message throws an exception
+     */
+    public void setDumpOnException(boolean on) {
+	dumpOnException = on;
+    }
+
+    /**
+     * @param millis minimum time between automatic dumps
+     */
+    public void setMinDumpInterval(long millis) {
+	minDumpInterval = millis;
+    }
+
+    @Override
+    protected void emit(Object actor, TraceEvent e) {
+	Object pool = actor instanceof ActorRef
+		? ((ActorRef<?>) actor).getThreadPool() : null;
+	ring(pool == null ? NO_POOL : pool).add(e);
+	if (e.kind == Kind.EXCEPTION && dumpOnException) {
+	    long now = System.currentTimeMillis(), last = lastDump.get();
+	    if (now - last >= minDumpInterval && lastDump.compareAndSet(last, now)) {
+		Thread t = new Thread(new Runnable()
+		{
+		    public void run() {
+			StringWriter sw = new StringWriter();
+			dump(new PrintWriter(sw));
+			logger.log(Level.WARNING, "actor exception; flight recording:\n{0}", sw);
+		    }
+		}, "glactor-flight-dump");
+		t.setDaemon(true);
+		t.start();
+	    }
+	}
+    }
+
+    private RingBuf<TraceEvent> ring(Object pool) {
+	Reference<?> ref;
+	while ((ref = collected.poll()) != null) {
+	    pools.remove(ref); //pool collected
+	}
+	RingBuf<TraceEvent> r = pools.get(new Lookup(pool));
+	if (r == null) {
+	    RingBuf<TraceEvent> r2 = pools.putIfAbsent(new PoolKey(pool, collected),
+		    r = new RingBuf<TraceEvent>(size));
+	    if (r2 != null) {
+		r = r2;
+	    }
+	}
+	return r;
+    }
+
+    /**
+     * Weak map key of a thread pool
+     */
+    private static final class PoolKey extends WeakReference<Object>
+    {
+	private final int hash;
+
+	PoolKey(Object pool, ReferenceQueue<Object> q) {
+	    super(pool, q);
+	    hash = System.identityHashCode(pool);
+	}
+
+	@Override
+	public int hashCode() {
+	    return hash;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+	    Object p = get();
+	    return o == this || p != null && o instanceof PoolKey
+		    && ((PoolKey) o).get() == p;
+	}
+    }
+
+    /**
+     * Key for looking up a pool's PoolKey without allocating a Reference
+     */
+    private static final class Lookup
+    {
+	private final Object pool;
+
+	Lookup(Object pool) {
+	    this.pool = pool;
+	}
+
+	@Override
+	public int hashCode() {
+	    return System.identityHashCode(pool);
+	}
+
+	@Override
+	public boolean equals(Object o) { //called with map keys
+	    return o instanceof PoolKey && ((PoolKey) o).get() == pool;
+	}
+    }
+
+    /**
+     * @param pool thread pool, or null for actors without one
+     * @return recorded events of pool, oldest first
+     */
+    public List<TraceEvent> getEvents(ActorThreadPool pool) {
+	RingBuf<TraceEvent> r = pools.get(new Lookup(pool == null ? NO_POOL : pool));
+	return r == null ? new ArrayList<TraceEvent>() : r.snapshot();
+    }
+
+    /**
+     * Write recorded events, per thread pool
+     * @param out destination (flushed)
+     */
+    public void dump(PrintWriter out) {
+	for (Map.Entry<Object, RingBuf<TraceEvent>> en : pools.entrySet()) {
+	    RingBuf<TraceEvent> r = en.getValue();
+	    Object pool = ((PoolKey) en.getKey()).get();
+	    if (pool == null) {
+		continue; //collected
+	    }
+	    pool = pool == NO_POOL ? "-" : pool;
+	    out.printf("pool %s: last %d of %d events%n", pool, r.size(), r.getAddCount());
+	    for (TraceEvent e : r) {
+		out.print("  ");
+		out.println(e);
+	    }
+	}
+	out.flush();
+    }
+
+    /**
+     * Drop recorded events
+     */
+    public void clear() {
+	pools.clear();
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.monitor;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Concurrent histogram of non-negative values (eg. nanoseconds) with
+ * log-linear buckets: each power of 2 range is split into 16 linear
+ * sub-buckets, so values are kept with at most 1/16 relative error,
+ * over the full long range, in a fixed 976 counters.
+ * Recording is one array increment; no allocation or locks.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BITS = 4, SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    static int index(long v) {
+	if (v < SUB) {
+	    return (int) v;
+	}
+	int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+	return (shift + 1) * SUB + (int) ((v >>> shift) & (SUB - 1));
+    }
+
+    /**
+     * @return largest value in bucket
+     */
+    static long upperBound(int index) {
+	if (index < SUB) {
+	    return index;
+	}
+	int shift = index / SUB - 1;
+	long lower = (long) (SUB + index % SUB) << shift;
+	return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * Record value (negative values count as 0)
+     * @param v value
+     */
+    public void record(long v) {
+	if (v < 0) {
+	    v = 0;
+	}
+	counts.incrementAndGet(index(v));
+	sum.addAndGet(v);
+	long m;
+	while (v > (m = max.get()) && !max.compareAndSet(m, v)) {
+	}
+    }
+
+    public long getCount() {
+	long n = 0;
+	for (int i = 0; i < BUCKETS; i++) {
+	    n += counts.get(i);
+	}
+	return n;
+    }
+
+    public long getSum() {
+	return sum.get();
+    }
+
+    public long getMax() {
+	return max.get();
+    }
+
+    public double getMean() {
+	long n = getCount();
+	return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @param p percentile, 0..100
+     * @return value at or above the p'th percentile (bucket upper
+     *	    bound, at most max), or 0 if empty
+     */
+    public long getPercentile(double p) {
+	long[] c = new long[BUCKETS];
+	long n = 0;
+	for (int i = 0; i < BUCKETS; i++) {
+	    n += c[i] = counts.get(i);
+	}
+	if (n == 0) {
+	    return 0;
+	}
+	long rank = Math.max(1, (long) Math.ceil(p / 100 * n));
+	long seen = 0;
+	for (int i = 0; i < BUCKETS; i++) {
+	    seen += c[i];
+	    if (seen >= rank) {
+		return Math.min(upperBound(i), max.get());
+	    }
+	}
+	return max.get();
+    }
+
+    public void reset() {
+	for (int i = 0; i < BUCKETS; i++) {
+	    counts.set(i, 0);
+	}
+	sum.set(0);
+	max.set(0);
+    }
+
+    /**
+     * Add counts of other histogram to this
+     * @param h other histogram
+     */
+    public void add(LatencyHistogram h) {
+	for (int i = 0; i < BUCKETS; i++) {
+	    long c = h.counts.get(i);
+	    if (c != 0) {
+		counts.addAndGet(i, c);
+	    }
+	}
+	sum.addAndGet(h.sum.get());
+	long m, v = h.max.get();
+	while (v > (m = max.get()) && !max.compareAndSet(m, v)) {
+	}
+    }
+
+    @Override
+    public String toString() {
+	return String.format("n=%d mean=%.0f p50=%d p99=%d max=%d", getCount(),
+		getMean(), getPercentile(50), getPercentile(99), getMax());
+    }
+}
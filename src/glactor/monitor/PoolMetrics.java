@@ -0,0 +1,188 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.monitor;
+
+import glactor.core.*;
+import java.lang.management.ManagementFactory;
+import javax.management.*;
+
+/**
+ * Telemetry of a ThrPoolBasicImpl: run queue length, queue wait time
+ * (submit to start) percentiles, worker busy and idle time, and worker
+ * threads spawned and retired. The pool keeps the counters; this class
+ * adds the wait time histogram as the pool's IPoolProbe.
+ * <p>
+ * Registered as a JMX MBean with register() (ObjectName
+ * "glactor:type=ThreadPool,name=..."), and exported in Prometheus text
+ * format by PrometheusExporter.
+ * <pre>
+ * Usage:
+ *  ThrPoolBasicImpl threadP = new ThrPoolBasicImpl(4);
+ *  PoolMetrics pm = new PoolMetrics("main", threadP);
+ *  pm.register();
+ * </pre>
+ * The pool has one shared run queue, so there is no work stealing to
+ * count.
+ * <p>
+ * Only ThrPoolBasicImpl is supported. ThrPoolExecImpl hands each task to
+ * a cached ExecutorService, which has no run queue of its own and no
+ * probe hook, so it has no queue, spawn, busy or wait counters to report.
+ * The same holds for the MBean and PrometheusExporter, which read
+ * PoolMetrics.
+ */
+public class PoolMetrics implements IPoolProbe, PoolMetricsMBean
+{
+    private final String name;
+    private final ThrPoolBasicImpl pool;
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private ObjectName objectName;
+
+    /**
+     * Start collecting (sets probe of pool)
+     * @param name pool name in reports
+     * @param pool thread pool
+     */
+    public PoolMetrics(String name, ThrPoolBasicImpl pool) {
+	this.name = name;
+	this.pool = pool;
+	pool.setProbe(this);
+    }
+
+    public String getName() {
+	return name;
+    }
+
+    public Runnable onSubmit(final Runnable task) {
+	final long queued = System.nanoTime();
+	return new Runnable()
+	{
+	    public void run() {
+		queueWait.record(System.nanoTime() - queued);
+		task.run();
+	    }
+	};
+    }
+
+    /**
+     * Register as platform MBean
+     * @return object name
+     * @throws JMException if already registered
+     */
+    public synchronized ObjectName register() throws JMException {
+	ObjectName on = new ObjectName("glactor:type=ThreadPool,name="
+		+ ObjectName.quote(name));
+	ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+	objectName = on;
+	return on;
+    }
+
+    /**
+     * Unregister MBean (if registered) and stop collecting
+     */
+    public synchronized void close() {
+	if (pool.getProbe() == this) {
+	    pool.setProbe(null);
+	}
+	if (objectName != null) {
+	    try {
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+	    } catch (JMException e) { //already gone
+	    }
+	    objectName = null;
+	}
+    }
+
+    /**
+     * @return queue wait times, nanoseconds
+     */
+    public LatencyHistogram getQueueWait() {
+	return queueWait;
+    }
+
+    public int getQueueSize() {
+	return pool.getQueueSize();
+    }
+
+    public int getMaxQueueSize() {
+	return pool.getMaxWorkSize();
+    }
+
+    public int getThreads() {
+	return pool.getNoThreads();
+    }
+
+    public int getMaxThreads() {
+	return pool.getMaxNoThreads();
+    }
+
+    public int getThreadLimit() {
+	return pool.getThreadLimit();
+    }
+
+    public long getSubmitCount() {
+	return pool.getSubmitCount();
+    }
+
+    public long getSpawnCount() {
+	return pool.getSpawnCount();
+    }
+
+    public long getRetireCount() {
+	return pool.getRetireCount();
+    }
+
+    public long getBusyMillis() {
+	return pool.getBusyNanos() / 1000000;
+    }
+
+    public long getIdleMillis() {
+	return pool.getIdleNanos() / 1000000;
+    }
+
+    public long getQueueWaitCount() {
+	return queueWait.getCount();
+    }
+
+    public long getQueueWaitP50Micros() {
+	return queueWait.getPercentile(50) / 1000;
+    }
+
+    public long getQueueWaitP99Micros() {
+	return queueWait.getPercentile(99) / 1000;
+    }
+
+    public long getQueueWaitP999Micros() {
+	return queueWait.getPercentile(99.9) / 1000;
+    }
+
+    public long getQueueWaitMaxMicros() {
+	return queueWait.getMax() / 1000;
+    }
+
+    public void reset() {
+	queueWait.reset();
+	pool.resetStatistics();
+    }
+
+    @Override
+    public String toString() {
+	return String.format("%s: queue=%d threads=%d/%d submits=%d"
+		+ " spawned=%d retired=%d busy=%dms idle=%dms wait(ns)[%s]",
+		name, getQueueSize(), getThreads(), getThreadLimit(),
+		getSubmitCount(), getSpawnCount(), getRetireCount(),
+		getBusyMillis(), getIdleMillis(), queueWait);
+    }
+}
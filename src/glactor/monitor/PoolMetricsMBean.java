@@ -0,0 +1,57 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.monitor;
+
+/**
+ * JMX view of PoolMetrics. Times in microseconds or milliseconds.
+ */
+public interface PoolMetricsMBean
+{
+    int getQueueSize();
+
+    int getMaxQueueSize();
+
+    int getThreads();
+
+    int getMaxThreads();
+
+    int getThreadLimit();
+
+    long getSubmitCount();
+
+    long getSpawnCount();
+
+    long getRetireCount();
+
+    long getBusyMillis();
+
+    long getIdleMillis();
+
+    long getQueueWaitCount();
+
+    long getQueueWaitP50Micros();
+
+    long getQueueWaitP99Micros();
+
+    long getQueueWaitP999Micros();
+
+    long getQueueWaitMaxMicros();
+
+    /**
+     * Reset queue wait histogram and max counters
+     */
+    void reset();
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.monitor;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Serves pool and actor metrics in Prometheus text format (version
+ * 0.0.4), optionally over HTTP at "/metrics" using the JDK's embedded
+ * HTTP server. Queue wait times are exported as summaries (quantiles
+ * 0.5, 0.99, 0.999), in seconds. Pool metrics need a ThrPoolBasicImpl
+ * (see PoolMetrics).
+ * <pre>
+ * Usage:
+ *  PrometheusExporter exp = new PrometheusExporter();
+ *  exp.add(poolMetrics);
+ *  exp.add(actorMonitor);
+ *  exp.start(new InetSocketAddress(9404));
+ * </pre>
+ */
+public class PrometheusExporter
+{
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private final List<PoolMetrics> pools = new CopyOnWriteArrayList<PoolMetrics>();
+    private final List<ActorMonitor> monitors = new CopyOnWriteArrayList<ActorMonitor>();
+    private HttpServer server;
+
+    public void add(PoolMetrics pool) {
+	pools.add(pool);
+    }
+
+    public void add(ActorMonitor mon) {
+	monitors.add(mon);
+    }
+
+    /**
+     * Start HTTP endpoint
+     * @param addr bind address; port 0 = any free port
+     * @return bound address
+     * @throws IOException
+     */
+    public synchronized InetSocketAddress start(InetSocketAddress addr)
+	    throws IOException {
+	if (server != null) {
+	    throw new IllegalStateException("started");
+	}
+	server = HttpServer.create(addr, 0);
+	server.createContext("/metrics", new HttpHandler()
+	{
+	    public void handle(HttpExchange ex) throws IOException {
+		try {
+		    byte[] body = scrape().getBytes("UTF-8");
+		    ex.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+		    ex.sendResponseHeaders(200, body.length);
+		    OutputStream os = ex.getResponseBody();
+		    os.write(body);
+		    os.close();
+		} finally {
+		    ex.close();
+		}
+	    }
+	});
+	server.start(); //default executor: the server thread
+	return server.getAddress();
+    }
+
+    /**
+     * Stop HTTP endpoint
+     */
+    public synchronized void stop() {
+	if (server != null) {
+	    server.stop(0);
+	    server = null;
+	}
+    }
+
+    /**
+     * @return current metrics in Prometheus text format
+     */
+    public String scrape() {
+	StringBuilder sb = new StringBuilder(4096);
+	if (!pools.isEmpty()) {
+	    scrapePools(sb);
+	}
+	List<ActorMetrics> actors = new ArrayList<ActorMetrics>();
+	for (ActorMonitor m : monitors) {
+	    actors.addAll(m.getAll());
+	}
+	if (!actors.isEmpty()) {
+	    scrapeActors(sb, actors);
+	}
+	return sb.toString();
+    }
+
+    private void scrapePools(StringBuilder sb) {
+	header(sb, "glactor_pool_queue_length", "gauge", "Tasks in run queue");
+	for (PoolMetrics p : pools) {
+	    sample(sb, "glactor_pool_queue_length", "pool", p.getName(), p.getQueueSize());
+	}
+	header(sb, "glactor_pool_threads", "gauge", "Live worker threads");
+	for (PoolMetrics p : pools) {
+	    sample(sb, "glactor_pool_threads", "pool", p.getName(), p.getThreads());
+	}
+	header(sb, "glactor_pool_submitted_total", "counter", "Tasks submitted");
+	for (PoolMetrics p : pools) {
+	    sample(sb, "glactor_pool_submitted_total", "pool", p.getName(), p.getSubmitCount());
+	}
+	header(sb, "glactor_pool_threads_spawned_total", "counter", "Worker threads started");
+	for (PoolMetrics p : pools) {
+	    sample(sb, "glactor_pool_threads_spawned_total", "pool", p.getName(), p.getSpawnCount());
+	}
+	header(sb, "glactor_pool_threads_retired_total", "counter", "Worker threads ended");
+	for (PoolMetrics p : pools) {
+	    sample(sb, "glactor_pool_threads_retired_total", "pool", p.getName(), p.getRetireCount());
+	}
+	header(sb, "glactor_pool_busy_seconds_total", "counter", "Worker time running tasks");
+	for (PoolMetrics p : pools) {
+	    sample(sb, "glactor_pool_busy_seconds_total", "pool", p.getName(), p.getBusyMillis() / 1e3);
+	}
+	header(sb, "glactor_pool_idle_seconds_total", "counter", "Worker time waiting for tasks");
+	for (PoolMetrics p : pools) {
+	    sample(sb, "glactor_pool_idle_seconds_total", "pool", p.getName(), p.getIdleMillis() / 1e3);
+	}
+	header(sb, "glactor_pool_queue_wait_seconds", "summary", "Time from submit to start");
+	for (PoolMetrics p : pools) {
+	    summary(sb, "glactor_pool_queue_wait_seconds", "pool", p.getName(), p.getQueueWait());
+	}
+    }
+
+    private void scrapeActors(StringBuilder sb, List<ActorMetrics> actors) {
+	header(sb, "glactor_actor_backlog", "gauge", "Messages queued, not started");
+	for (ActorMetrics a : actors) {
+	    sample(sb, "glactor_actor_backlog", "actor", a.getName(), a.getBacklog());
+	}
+	header(sb, "glactor_actor_processed_total", "counter", "Messages processed");
+	for (ActorMetrics a : actors) {
+	    sample(sb, "glactor_actor_processed_total", "actor", a.getName(), a.getProcessed());
+	}
+	header(sb, "glactor_actor_cpu_seconds_total", "counter", "Message processing time");
+	for (ActorMetrics a : actors) {
+	    sample(sb, "glactor_actor_cpu_seconds_total", "actor", a.getName(), a.getCpuNanos() / 1e9);
+	}
+	header(sb, "glactor_actor_exceptions_total", "counter", "Exceptions thrown by messages");
+	for (ActorMetrics a : actors) {
+	    sample(sb, "glactor_actor_exceptions_total", "actor", a.getName(), a.getExceptions());
+	}
+	header(sb, "glactor_actor_queue_wait_seconds", "summary", "Time from send to start");
+	for (ActorMetrics a : actors) {
+	    summary(sb, "glactor_actor_queue_wait_seconds", "actor", a.getName(), a.getWaitTime());
+	}
+    }
+
+    private static void header(StringBuilder sb, String metric, String type, String help) {
+	sb.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+	sb.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String metric, String label,
+	    String value, double v) {
+	sb.append(metric).append('{').append(label).append("=\"");
+	escape(sb, value);
+	sb.append("\"} ");
+	if (v == (long) v) {
+	    sb.append((long) v);
+	} else {
+	    sb.append(v);
+	}
+	sb.append('\n');
+    }
+
+    private static void summary(StringBuilder sb, String metric, String label,
+	    String value, LatencyHistogram h) {
+	for (double q : QUANTILES) {
+	    sb.append(metric).append('{').append(label).append("=\"");
+	    escape(sb, value);
+	    sb.append("\",quantile=\"").append(q).append("\"} ")
+		    .append(h.getPercentile(q * 100) / 1e9).append('\n');
+	}
+	sample(sb, metric + "_sum", label, value, h.getSum() / 1e9);
+	sample(sb, metric + "_count", label, value, h.getCount());
+    }
+
+    private static void escape(StringBuilder sb, String s) {
+	for (int i = 0; i < s.length(); i++) {
+	    char c = s.charAt(i);
+	    if (c == '\\' || c == '"') {
+		sb.append('\\').append(c);
+	    } else if (c == '\n') {
+		sb.append("\\n");
+	    } else {
+		sb.append(c);
+	    }
+	}
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.monitor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter for frequent updates from many threads. Each thread adds to
+ * one of several cells (on separate cache lines), chosen by thread id,
+ * so concurrent updates rarely contend; sum() adds up the cells.
+ */
+public class StripedCounter
+{
+    private static final int PAD = 8; //longs per cache line
+    private static final int STRIPES = stripes();
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+    private static int stripes() {
+	int n = Runtime.getRuntime().availableProcessors() * 2;
+	return Integer.highestOneBit(Math.max(n - 1, 1)) << 1;
+    }
+
+    public void add(long x) {
+	int i = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PAD;
+	cells.addAndGet(i, x);
+    }
+
+    public void increment() {
+	add(1);
+    }
+
+    /**
+     * @return current sum (not an atomic snapshot under concurrent updates)
+     */
+    public long sum() {
+	long s = 0;
+	for (int i = 0; i < STRIPES; i++) {
+	    s += cells.get(i * PAD);
+	}
+	return s;
+    }
+
+    public void reset() {
+	for (int i = 0; i < STRIPES; i++) {
+	    cells.set(i * PAD, 0);
+	}
+    }
+
+    @Override
+    public String toString() {
+	return Long.toString(sum());
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.monitor;
+
+import glactor.core.*;
+import glactor.monitor.TraceEvent.Kind;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Actor tracer reporting events lasting at least a threshold per
+ * event kind, so only slow slices, messages and blocking waits are
+ * reported; events below the threshold cost a comparison.
+ * Default thresholds: SLICE, MESSAGE and FUTURE_BLOCKED 10 ms,
+ * RUN_CORE and EXCEPTION always, SCHEDULED never.
+ * <p>
+ * Reported events go to emit(..), which logs them (INFO); override to
+ * record them elsewhere (or emit(actor, event) to also get the actor).
+ * <pre>
+ * Usage:
+ *  ThresholdTracer tr = new ThresholdTracer();
+ *  tr.setThreshold(TraceEvent.Kind.MESSAGE, 1000000); //1 ms
+ *  ActorRef.setTracer(tr);
+ * </pre>
+ */
+public class ThresholdTracer implements IActorTracer
+{
+    static final Logger logger = Logger.getLogger(ThresholdTracer.class.toString());
+    public static final long OFF = Long.MAX_VALUE;
+    private final long[] threshold = new long[Kind.values().length];
+
+    public ThresholdTracer() {
+	threshold[Kind.SCHEDULED.ordinal()] = OFF;
+	threshold[Kind.SLICE.ordinal()] = 10000000;
+	threshold[Kind.MESSAGE.ordinal()] = 10000000;
+	threshold[Kind.FUTURE_BLOCKED.ordinal()] = 10000000;
+	threshold[Kind.RUN_CORE.ordinal()] = 0;
+	threshold[Kind.EXCEPTION.ordinal()] = 0;
+    }
+
+    /**
+     * @param kind event kind
+     * @param nanos minimum duration to report; 0 = all, OFF = none
+     */
+    public void setThreshold(Kind kind, long nanos) {
+	threshold[kind.ordinal()] = nanos;
+    }
+
+    public long getThreshold(Kind kind) {
+	return threshold[kind.ordinal()];
+    }
+
+    private void check(Kind kind, Object actor, Class<?> msgClass, long nanos) {
+	long th = threshold[kind.ordinal()];
+	if (th != OFF && nanos >= th) {
+	    emit(actor, new TraceEvent(kind, System.currentTimeMillis(),
+		    Thread.currentThread().getName(), actor, msgClass, nanos));
+	}
+    }
+
+    public void scheduled(Object actor) {
+	check(Kind.SCHEDULED, actor, null, 0);
+    }
+
+    public void slice(Object actor, long start, long nanos) {
+	check(Kind.SLICE, actor, null, nanos);
+    }
+
+    public void message(Object actor, Class<?> msgClass, long start, long nanos) {
+	check(Kind.MESSAGE, actor, msgClass, nanos);
+    }
+
+    public void futureBlocked(Object actor, long start, long nanos) {
+	check(Kind.FUTURE_BLOCKED, actor, null, nanos);
+    }
+
+    public void runCore(Object actor) {
+	check(Kind.RUN_CORE, actor, null, 0);
+    }
+
+    public void exception(Object actor, Exception e) {
+	if (threshold[Kind.EXCEPTION.ordinal()] != OFF) {
+	    emit(actor, new TraceEvent(Kind.EXCEPTION, System.currentTimeMillis(),
+		    Thread.currentThread().getName(), actor, null, 0, e));
+	}
+    }
+
+    /**
+     * Report event (calling thread). Default logs it.
+     * @param e event over threshold
+     */
+    protected void emit(TraceEvent e) {
+	logger.log(Level.INFO, "{0}", e);
+    }
+
+    /**
+     * Report event (calling thread). Default calls emit(e).
+     * @param actor actor of e (ActorRef or ActorCore); not held by e
+     * @param e event over threshold
+     */
+    protected void emit(Object actor, TraceEvent e) {
+	emit(e);
+    }
+}
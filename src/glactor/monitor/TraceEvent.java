@@ -0,0 +1,92 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.monitor;
+
+import glactor.core.*;
+
+/**
+ * Actor event reported by a tracer (see IActorTracer). Holds the
+ * actor's name and class, not the actor, so recorded events do not
+ * keep actors alive.
+ */
+public class TraceEvent
+{
+    public enum Kind
+    {
+	SCHEDULED, SLICE, MESSAGE, FUTURE_BLOCKED, RUN_CORE, EXCEPTION
+    }
+    public final Kind kind;
+    /** time of event end, System.currentTimeMillis() */
+    public final long time;
+    public final String thread;
+    /** actor implementation class and identity, eg. "Account@1b2c3d" */
+    public final String actorName;
+    /** actor implementation class (ActorCore class if not an ActorRef), or null */
+    public final Class<?> actorClass;
+    /** message class, or null */
+    public final Class<?> msgClass;
+    /** duration, nanoseconds (0 for instant events) */
+    public final long nanos;
+    /** exception (EXCEPTION events), or null */
+    public final Throwable error;
+
+    public TraceEvent(Kind kind, long time, String thread, Object actor,
+	    Class<?> msgClass, long nanos) {
+	this(kind, time, thread, actor, msgClass, nanos, null);
+    }
+
+    public TraceEvent(Kind kind, long time, String thread, Object actor,
+	    Class<?> msgClass, long nanos, Throwable error) {
+	this.kind = kind;
+	this.time = time;
+	this.thread = thread;
+	this.actorName = actorName(actor);
+	this.actorClass = actorClass(actor);
+	this.msgClass = msgClass;
+	this.nanos = nanos;
+	this.error = error;
+    }
+
+    /**
+     * @return actor implementation class and identity, eg. "Account@1b2c3d"
+     */
+    public String getActorName() {
+	return actorName;
+    }
+
+    static String actorName(Object actor) {
+	if (actor == null) {
+	    return "-";
+	}
+	return actorClass(actor).getSimpleName() + "@"
+		+ Integer.toHexString(System.identityHashCode(actor));
+    }
+
+    static Class<?> actorClass(Object actor) {
+	if (actor == null) {
+	    return null;
+	}
+	return actor instanceof ActorRef ? ((ActorRef<?>) actor).getImplClass()
+		: actor.getClass();
+    }
+
+    @Override
+    public String toString() {
+	return String.format("%tT.%<tL %s %s %s%s %.3fms", time, thread, kind,
+		getActorName(), msgClass == null ? "" : " " + msgClass.getName(),
+		nanos / 1e6) + (error == null ? "" : " " + error);
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.monitor;
+
+import glactor.core.*;
+import glactor.core.WorkerActivity.Activity;
+import glactor.core.WorkerActivity.Slot;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watchdog thread reporting messages that run longer than a threshold.
+ * It polls the current message of each thread (WorkerActivity, enabled
+ * from start() until the last running watchdog stops); when a message has run for thresholdMillis, the
+ * thread's stack is captured and reported to the listeners, and again
+ * every sampleMillis while the message still runs, and a final report
+ * when it completes.
+ * <p>
+ * Overhead of the actor threads is a few field writes per message;
+ * stacks are only taken of slow threads. Without listeners, reports
+ * are logged (WARNING).
+ * <pre>
+ * Usage:
+ *  Watchdog wd = new Watchdog(2000, 1000);
+ *  wd.addListener(new Watchdog.IListener() {..});
+ *  wd.start();
+ * </pre>
+ */
+public class Watchdog
+{
+    static final Logger logger = Logger.getLogger(Watchdog.class.toString());
+    private final long thresholdNanos;
+    private final long sampleNanos;
+    private final List<IListener> listeners = new CopyOnWriteArrayList<IListener>();
+    private final Map<Thread, Slow> slow = new HashMap<Thread, Slow>();
+    private Thread thread;
+
+    /**
+     * Receives slow message reports (watchdog thread)
+     */
+    public interface IListener
+    {
+	/**
+	 * A message has run over the threshold (first sample), or still
+	 * runs (later samples)
+	 */
+	void slow(SlowMessage m);
+
+	/**
+	 * A reported message completed
+	 * @param m elapsed is the total processing time (within the
+	 *	polling period)
+	 */
+	void finished(SlowMessage m);
+    }
+
+    /**
+     * Sample of a slow message
+     */
+    public static class SlowMessage
+    {
+	public final Thread thread;
+	public final Object actor;
+	public final Class<?> actorClass;
+	public final Class<?> msgClass;
+	/** processing time so far, milliseconds */
+	public final long elapsedMillis;
+	/** 1 for the first report */
+	public final int sampleNo;
+	/** stack of thread when sampled; null in finished(..) */
+	public final StackTraceElement[] stack;
+
+	SlowMessage(Activity a, long elapsedMillis, int sampleNo,
+		StackTraceElement[] stack) {
+	    this.thread = a.thread;
+	    this.actor = a.actor;
+	    this.actorClass = a.actor instanceof ActorRef
+		    ? ((ActorRef<?>) a.actor).getImplClass() : null;
+	    this.msgClass = a.msgClass;
+	    this.elapsedMillis = elapsedMillis;
+	    this.sampleNo = sampleNo;
+	    this.stack = stack;
+	}
+
+	@Override
+	public String toString() {
+	    StringBuilder sb = new StringBuilder();
+	    sb.append(thread.getName()).append(": ")
+		    .append(actorClass == null ? "?" : actorClass.getName())
+		    .append(" processing ").append(msgClass.getName())
+		    .append(" for ").append(elapsedMillis).append(" ms (sample ")
+		    .append(sampleNo).append(')');
+	    if (stack != null) {
+		for (StackTraceElement e : stack) {
+		    sb.append("\n\tat ").append(e);
+		}
+	    }
+	    return sb.toString();
+	}
+    }
+
+    /**
+     * Tracked slow message
+     */
+    private static class Slow
+    {
+	Activity act;
+	SlowMessage last;
+	long nextSample;
+    }
+
+    /**
+     * @param thresholdMillis processing time to report
+     * @param sampleMillis time between later samples of the same message
+     */
+    public Watchdog(long thresholdMillis, long sampleMillis) {
+	this.thresholdNanos = thresholdMillis * 1000000;
+	this.sampleNanos = sampleMillis * 1000000;
+    }
+
+    public void addListener(IListener l) {
+	listeners.add(l);
+    }
+
+    public void removeListener(IListener l) {
+	listeners.remove(l);
+    }
+
+    /**
+     * Enable WorkerActivity (WorkerActivity.acquire()), and start
+     * watchdog daemon thread
+     */
+    public synchronized void start() {
+	if (thread != null) {
+	    return;
+	}
+	WorkerActivity.acquire();
+	final long period = Math.max(1, Math.min(thresholdNanos, sampleNanos) / 4000000);
+	thread = new Thread(new Runnable()
+	{
+	    public void run() {
+		try {
+		    while (!Thread.currentThread().isInterrupted()) {
+			Thread.sleep(period);
+			check();
+		    }
+		} catch (InterruptedException e) { //stop
+		}
+	    }
+	}, "glactor-watchdog");
+	thread.setDaemon(true);
+	thread.start();
+    }
+
+    /**
+     * Stop watchdog thread; WorkerActivity is disabled unless other
+     * watchdogs still run (WorkerActivity.release())
+     */
+    public synchronized void stop() {
+	if (thread != null) {
+	    thread.interrupt();
+	    thread = null;
+	    WorkerActivity.release();
+	}
+    }
+
+    /**
+     * Check all threads now
+     */
+    public synchronized void check() {
+	long now = System.nanoTime();
+	Set<Thread> seen = new HashSet<Thread>();
+	for (Slot s : WorkerActivity.slots()) {
+	    Activity a = s.read();
+	    if (a == null) {
+		continue;
+	    }
+	    Slow sl = slow.get(a.thread);
+	    if (sl != null && sl.act.start == a.start && sl.act.actor == a.actor) {
+		seen.add(a.thread); //same message
+		if (now >= sl.nextSample) {
+		    sample(sl, s, a, now);
+		}
+	    } else if (now - a.start >= thresholdNanos) {
+		if (sl != null) {
+		    finish(sl, now);
+		}
+		sl = new Slow();
+		slow.put(a.thread, sl);
+		seen.add(a.thread);
+		sample(sl, s, a, now);
+	    }
+	}
+	for (Iterator<Slow> it = slow.values().iterator(); it.hasNext();) {
+	    Slow sl = it.next();
+	    if (!seen.contains(sl.act.thread)) {
+		it.remove();
+		finish(sl, now);
+	    }
+	}
+    }
+
+    private void sample(Slow sl, Slot s, Activity a, long now) {
+	sl.act = a;
+	StackTraceElement[] st = a.thread.getStackTrace();
+	Activity b = s.read();
+	if (b == null || b.start != a.start) {
+	    return; //finished meanwhile; stack may be of another message
+	}
+	sl.last = new SlowMessage(a, (now - a.start) / 1000000,
+		sl.last == null ? 1 : sl.last.sampleNo + 1, st);
+	sl.nextSample = now + sampleNanos;
+	if (listeners.isEmpty()) {
+	    logger.log(Level.WARNING, "slow message: {0}", sl.last);
+	}
+	for (IListener l : listeners) {
+	    l.slow(sl.last);
+	}
+    }
+
+    private void finish(Slow sl, long now) {
+	if (sl.last == null) {
+	    return; //not reported
+	}
+	SlowMessage m = new SlowMessage(sl.act, (now - sl.act.start) / 1000000,
+		sl.last.sampleNo, null);
+	for (IListener l : listeners) {
+	    l.finished(m);
+	}
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.persist;
+
+/**
+ * Marker for state changing messages (IMessage) to a PersistentActorRef.
+ * Such messages are journaled before they act, and act again on
+ * recovery, so act(..) must be deterministic (depend only on the
+ * message and actor state) and the message encodable by the codec.
+ * @see PersistentActorRef
+ */
+public interface IPersistent
+{
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.persist;
+
+/**
+ * Actor implementation with snapshots, to shorten recovery.
+ * @see PersistentActorRef
+ */
+public interface ISnapshotable
+{
+    /**
+     * Copy of current state (called in actor thread; the copy is
+     * encoded and written in the background, so it must not change).
+     * @return state, encodable by codec
+     */
+    Object takeSnapshot();
+
+    /**
+     * Replace state with snapshot (at recovery, before replaying events)
+     * @param state from takeSnapshot()
+     */
+    void restoreSnapshot(Object state);
+}
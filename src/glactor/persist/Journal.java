@@ -0,0 +1,452 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.persist;
+
+import glactor.codec.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only event journal in memory-mapped segment files.
+ * <p>
+ * Events are encoded (IMsgCodec) straight into the mapped segment and
+ * numbered with increasing sequence numbers starting at 1. A record's
+ * length is written after its content, and each record carries a CRC32
+ * of its sequence number and payload. Reading stops at the first record
+ * with a zero or out of range length, an unexpected sequence number or
+ * a bad CRC, so torn appends (eg. mapped pages written back out of
+ * order before a crash) are ignored, and truncated when the journal is
+ * opened.
+ * <p>
+ * Group commit: appends return at once; a commit thread forces
+ * (fsync) the segment whenever there are new appends, so all events
+ * appended while the previous force was running become durable
+ * together. Callbacks passed to append(..) run after their event is
+ * durable.
+ * <pre>
+ * Segment file "%020d.seg" (first sequence number):
+ *  record = int length (8 + payload), int crc (of seq + payload),
+ *           long seq, codec payload
+ * </pre>
+ * @see PersistentActorRef
+ */
+public class Journal
+{
+    static final Logger logger = Logger.getLogger(Journal.class.toString());
+    public static final int SEGMENT_SIZE = 64 << 20;
+    private static final int HEADER = 8;	//length, crc
+    private static final int MIN_RECORD = HEADER + 8;
+    private final File dir;
+    private final IMsgCodec codec;
+    private final int segmentSize;
+    private MappedByteBuffer seg;	//current segment, guarded by this
+    private long segFirst;		//first seq of current segment
+    private long lastSeq, durableSeq;	//guarded by this
+    private final LinkedList<Long> waitSeq = new LinkedList<Long>();
+    private final LinkedList<Runnable> waitTask = new LinkedList<Runnable>();
+    private final Thread committer;
+    private volatile boolean closed;
+
+    /**
+     * Handler for replay(..)
+     */
+    public interface IReplay
+    {
+	void replay(long seq, Object event) throws Exception;
+    }
+
+    /**
+     * Open (or create) journal
+     * @param dir journal directory (created if missing)
+     * @param codec event codec
+     * @throws IOException
+     */
+    public Journal(File dir, IMsgCodec codec) throws IOException {
+	this(dir, codec, SEGMENT_SIZE);
+    }
+
+    /**
+     * @param dir journal directory (created if missing)
+     * @param codec event codec
+     * @param segmentSize bytes per segment file (max event size)
+     * @throws IOException
+     */
+    public Journal(File dir, IMsgCodec codec, int segmentSize) throws IOException {
+	this.dir = dir;
+	this.codec = codec;
+	this.segmentSize = segmentSize;
+	if (!dir.isDirectory() && !dir.mkdirs()) {
+	    throw new IOException("cannot create " + dir);
+	}
+	File[] segs = segments();
+	if (segs.length == 0) {
+	    openSegment(1);
+	} else { //find end of last segment
+	    File last = segs[segs.length - 1];
+	    seg = map(last, FileChannel.MapMode.READ_WRITE, segmentSize);
+	    segFirst = firstSeq(last);
+	    lastSeq = segFirst - 1;
+	    int len;
+	    while ((len = recordLength(seg, seg.position(), lastSeq + 1)) > 0) {
+		lastSeq++;
+		seg.position(seg.position() + HEADER + len);
+	    }
+	    truncate(last);
+	}
+	durableSeq = lastSeq;
+	committer = new Thread(new Runnable()
+	{
+	    public void run() {
+		commitLoop();
+	    }
+	}, "glactor-journal-" + dir.getName());
+	committer.setDaemon(true);
+	committer.start();
+    }
+
+    private File[] segments() {
+	File[] fs = dir.listFiles(new FilenameFilter()
+	{
+	    public boolean accept(File d, String name) {
+		return name.endsWith(".seg");
+	    }
+	});
+	if (fs == null) {
+	    return new File[0];
+	}
+	Arrays.sort(fs); //fixed width names
+	return fs;
+    }
+
+    private static long firstSeq(File seg) {
+	String n = seg.getName();
+	return Long.parseLong(n.substring(0, n.length() - 4));
+    }
+
+    private static MappedByteBuffer map(File f, FileChannel.MapMode mode, long size)
+	    throws IOException {
+	RandomAccessFile raf = new RandomAccessFile(f,
+		mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+	try {
+	    return raf.getChannel().map(mode, 0, size);
+	} finally {
+	    raf.close();
+	}
+    }
+
+    /**
+     * Length (seq + payload) of a valid record at pos, or -1 if there
+     * is none: zero or out of range length, other sequence number than
+     * seq, or CRC mismatch.
+     */
+    private static int recordLength(ByteBuffer b, int pos, long seq) {
+	if (b.limit() - pos < MIN_RECORD) {
+	    return -1;
+	}
+	int len = b.getInt(pos);
+	if (len < 8 || len > b.limit() - pos - HEADER
+		|| b.getLong(pos + HEADER) != seq) {
+	    return -1;
+	}
+	return crc(b, pos + HEADER, len) == b.getInt(pos + 4) ? len : -1;
+    }
+
+    private static int crc(ByteBuffer b, int pos, int len) {
+	CRC32 crc = new CRC32();
+	if (b.hasArray()) {
+	    crc.update(b.array(), b.arrayOffset() + pos, len);
+	    return (int) crc.getValue();
+	}
+	ByteBuffer d = b.duplicate(); //mapped: no array, copy in chunks
+	d.limit(pos + len);
+	d.position(pos);
+	byte[] chunk = new byte[Math.min(len, 4096)];
+	while (d.hasRemaining()) {
+	    int n = Math.min(chunk.length, d.remaining());
+	    d.get(chunk, 0, n);
+	    crc.update(chunk, 0, n);
+	}
+	return (int) crc.getValue();
+    }
+
+    /**
+     * Zero anything after the last valid record of the current
+     * segment (torn append)
+     */
+    private void truncate(File f) {
+	int pos = seg.position();
+	int i = pos;
+	while (i < segmentSize && seg.get(i) == 0) {
+	    i++;
+	}
+	if (i < segmentSize) {
+	    logger.log(Level.WARNING, "{0}: truncating torn record at {1}",
+		    new Object[]{f, pos});
+	    for (; i < segmentSize; i++) {
+		seg.put(i, (byte) 0);
+	    }
+	    seg.force();
+	}
+    }
+
+    private void openSegment(long first) throws IOException {
+	if (seg != null) {
+	    seg.force();
+	}
+	seg = map(new File(dir, String.format("%020d.seg", first)),
+		FileChannel.MapMode.READ_WRITE, segmentSize);
+	segFirst = first;
+    }
+
+    /**
+     * Append event
+     * @param event event, encodable by codec
+     * @return sequence number
+     * @throws IOException if encoding fails (nothing is appended)
+     */
+    public long append(Object event) throws IOException {
+	return append(event, null);
+    }
+
+    /**
+     * Append event
+     * @param event event, encodable by codec
+     * @param onDurable run (in commit thread) when event is durable; or null
+     * @return sequence number
+     * @throws IOException if encoding fails (nothing is appended)
+     */
+    public synchronized long append(Object event, Runnable onDurable)
+	    throws IOException {
+	if (closed) {
+	    throw new IOException("journal closed");
+	}
+	long seq = lastSeq + 1;
+	int pos = seg.position();
+	for (int attempt = 0;; attempt++) {
+	    try {
+		seg.position(pos + HEADER);
+		seg.putLong(seq);
+		codec.encode(event, seg);
+		break;
+	    } catch (BufferOverflowException e) {
+		clear(pos);
+		if (attempt > 0 || pos == 0) {
+		    throw new IOException("event larger than segment");
+		}
+		openSegment(seq); //roll
+		pos = 0;
+	    } catch (IOException e) {
+		clear(pos);
+		throw e;
+	    } catch (RuntimeException e) {
+		clear(pos);
+		throw e;
+	    }
+	}
+	int end = seg.position();
+	seg.putInt(pos + 4, crc(seg, pos + HEADER, end - pos - HEADER));
+	seg.putInt(pos, end - pos - HEADER); //commit record
+	if (end + MIN_RECORD > segmentSize) {
+	    openSegment(seq + 1);
+	}
+	lastSeq = seq;
+	if (onDurable != null) {
+	    waitSeq.add(seq); //in order
+	    waitTask.add(onDurable);
+	}
+	notifyAll();
+	return seq;
+    }
+
+    /**
+     * Run task when events up to seq are durable: at once (in calling
+     * thread) if already durable, else in the commit thread.
+     * @param seq sequence number
+     * @param task callback
+     */
+    public void whenDurable(long seq, Runnable task) {
+	synchronized (this) {
+	    if (durableSeq < seq && !closed) {
+		int i = waitSeq.size();
+		while (i > 0 && waitSeq.get(i - 1) > seq) {
+		    i--;
+		}
+		waitSeq.add(i, seq);
+		waitTask.add(i, task);
+		return;
+	    }
+	}
+	task.run();
+    }
+
+    /**
+     * Zero partly written record
+     */
+    private void clear(int pos) {
+	int end = Math.min(seg.position(), segmentSize);
+	for (int i = pos; i < end; i++) {
+	    seg.put(i, (byte) 0);
+	}
+	seg.position(pos);
+    }
+
+    public synchronized long getLastSeq() {
+	return lastSeq;
+    }
+
+    public synchronized long getDurableSeq() {
+	return durableSeq;
+    }
+
+    /**
+     * Wait until all appended events are durable
+     * @throws InterruptedException
+     */
+    public synchronized void sync() throws InterruptedException {
+	awaitDurable(lastSeq);
+    }
+
+    /**
+     * Wait until events up to seq are durable
+     * @param seq sequence number
+     * @throws InterruptedException
+     */
+    public synchronized void awaitDurable(long seq) throws InterruptedException {
+	while (durableSeq < seq && !closed) {
+	    wait();
+	}
+    }
+
+    private void commitLoop() {
+	while (true) {
+	    MappedByteBuffer b;
+	    long seq;
+	    synchronized (this) {
+		while (durableSeq == lastSeq && !closed) {
+		    try {
+			wait();
+		    } catch (InterruptedException e) {
+			return;
+		    }
+		}
+		if (durableSeq == lastSeq) {
+		    return; //closed
+		}
+		b = seg;
+		seq = lastSeq;
+	    }
+	    b.force(); //earlier segments were forced at roll
+	    List<Runnable> done = new ArrayList<Runnable>();
+	    synchronized (this) {
+		durableSeq = Math.max(durableSeq, seq);
+		while (!waitSeq.isEmpty() && waitSeq.getFirst() <= seq) {
+		    waitSeq.removeFirst();
+		    done.add(waitTask.removeFirst());
+		}
+		notifyAll();
+	    }
+	    for (Runnable r : done) {
+		try {
+		    r.run();
+		} catch (RuntimeException e) {
+		    logger.log(Level.WARNING, "durable callback", e);
+		}
+	    }
+	}
+    }
+
+    /**
+     * Read events in order (not concurrently with append)
+     * @param fromSeq first sequence number to deliver
+     * @param handler receives events
+     * @return last sequence number delivered, or fromSeq - 1 if none
+     * @throws Exception from decoding or handler
+     */
+    public long replay(long fromSeq, IReplay handler) throws Exception {
+	File[] segs = segments();
+	long last = fromSeq - 1;
+	for (int i = 0; i < segs.length; i++) {
+	    if (i + 1 < segs.length && firstSeq(segs[i + 1]) <= fromSeq) {
+		continue; //all before fromSeq
+	    }
+	    ByteBuffer b = map(segs[i], FileChannel.MapMode.READ_ONLY,
+		    segs[i].length());
+	    long seq = firstSeq(segs[i]);
+	    int len;
+	    while ((len = recordLength(b, b.position(), seq)) > 0) {
+		int end = b.position() + HEADER + len;
+		if (seq >= fromSeq) {
+		    b.position(b.position() + HEADER + 8);
+		    b.limit(end);
+		    handler.replay(seq, codec.decode(b));
+		    b.limit(b.capacity());
+		    last = seq;
+		}
+		b.position(end);
+		seq++;
+	    }
+	}
+	return last;
+    }
+
+    /**
+     * Delete segments holding only events up to seq (eg. covered by
+     * a snapshot). The current segment is kept.
+     * @param seq last sequence number no longer needed
+     */
+    public synchronized void deleteUpTo(long seq) {
+	File[] segs = segments();
+	for (int i = 0; i + 1 < segs.length; i++) {
+	    if (firstSeq(segs[i + 1]) - 1 <= seq && firstSeq(segs[i]) < segFirst) {
+		if (!segs[i].delete()) {
+		    logger.log(Level.WARNING, "cannot delete {0}", segs[i]);
+		}
+	    }
+	}
+    }
+
+    /**
+     * Make appended events durable and stop commit thread
+     */
+    public void close() {
+	List<Runnable> done;
+	synchronized (this) {
+	    if (closed) {
+		return;
+	    }
+	    seg.force();
+	    durableSeq = lastSeq;
+	    closed = true;
+	    done = new ArrayList<Runnable>(waitTask);
+	    waitSeq.clear();
+	    waitTask.clear();
+	    notifyAll();
+	}
+	try {
+	    committer.join(1000);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	for (Runnable r : done) {
+	    r.run();
+	}
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.persist;
+
+import glactor.codec.IMsgCodec;
+import glactor.core.*;
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Event sourced actor: state survives restarts by journaling its
+ * state changing messages.
+ * <p>
+ * Messages marked IPersistent are appended to a Journal in the actor
+ * thread, then act. Other messages (eg. queries) are not journaled.
+ * A call(..) with a persistent message completes after the message
+ * is durable (group commit), so acknowledged changes are never lost;
+ * send(..) does not wait.
+ * <p>
+ * On construction, state is recovered from the latest snapshot (if the
+ * implementation is ISnapshotable) followed by replay of the later
+ * messages. Every snapshotEvery persistent messages, a snapshot is
+ * taken in the actor thread, and encoded and written in a background
+ * thread after the journal is durable up to it; journal segments
+ * covered by the snapshot are then deleted.
+ * <pre>
+ * Usage:
+ *  class Add implements IMessage&lt;Account, Void>, IPersistent {..}
+ *  PersistentActorRef&lt;Account> acc = new PersistentActorRef&lt;Account>(
+ *	    new Account(), threadP, new File("data/acc1"), codec);
+ *  acc.call(new Add(100)).get(); //durable
+ * </pre>
+ * @param <A> actor implementation
+ * @see IPersistent
+ * @see ISnapshotable
+ */
+public class PersistentActorRef<A> extends ActorRef<A>
+{
+    static final Logger logger = Logger.getLogger(PersistentActorRef.class.toString());
+    public static final int SNAPSHOT_EVERY = 100000;
+    private static final ExecutorService snapshotter
+	    = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+	public Thread newThread(Runnable r) {
+	    Thread t = new Thread(r, "glactor-snapshot");
+	    t.setDaemon(true);
+	    return t;
+	}
+    });
+    private final Journal journal;
+    private final SnapshotStore snapshots;
+    private final int snapshotEvery;
+    private int sinceSnapshot;			//actor thread
+    private volatile boolean snapshotPending;
+    private long recovered;
+
+    /**
+     * Create actor, and recover state from dir
+     * @param impl actor implementation (initial state)
+     * @param threadP thread pool
+     * @param dir journal and snapshot directory (one per actor)
+     * @param codec message and snapshot codec
+     * @throws Exception if recovery fails
+     */
+    public PersistentActorRef(A impl, ActorThreadPool threadP, File dir,
+	    IMsgCodec codec) throws Exception {
+	this(impl, threadP, dir, codec, SNAPSHOT_EVERY);
+    }
+
+    /**
+     * @param impl actor implementation (initial state)
+     * @param threadP thread pool
+     * @param dir journal and snapshot directory (one per actor)
+     * @param codec message and snapshot codec
+     * @param snapshotEvery #persistent messages between snapshots
+     * @throws Exception if recovery fails
+     */
+    public PersistentActorRef(A impl, ActorThreadPool threadP, File dir,
+	    IMsgCodec codec, int snapshotEvery) throws Exception {
+	super(impl, threadP);
+	this.journal = new Journal(dir, codec);
+	this.snapshots = new SnapshotStore(dir, codec);
+	this.snapshotEvery = snapshotEvery;
+	recover();
+    }
+
+    private void recover() throws Exception {
+	long from = 1;
+	if (actorImpl instanceof ISnapshotable) {
+	    SnapshotStore.Snapshot s = snapshots.loadLatest();
+	    if (s != null) {
+		((ISnapshotable) actorImpl).restoreSnapshot(s.state);
+		from = s.seq + 1;
+	    }
+	}
+	synchronized (actorImpl) {
+	    long last = journal.replay(from, new Journal.IReplay()
+	    {
+		@SuppressWarnings("unchecked") //only IMessage<A, ?> are journaled
+		public void replay(long seq, Object event) {
+		    try {
+			((IMessage<A, ?>) event).act(actorImpl);
+		    } catch (Exception e) { //failed the first time too
+			logger.log(Level.FINE, "replay " + seq, e);
+		    }
+		}
+	    });
+	    recovered = last - from + 1;
+	}
+    }
+
+    /**
+     * @return #messages replayed at recovery (after snapshot)
+     */
+    public long getRecoveredCount() {
+	return recovered;
+    }
+
+    public Journal getJournal() {
+	return journal;
+    }
+
+    @Override
+    public void send(IMessage<A, ?> msg) {
+	if (msg instanceof IPersistent) {
+	    persist(msg);
+	} else {
+	    super.send(msg);
+	}
+    }
+
+    private <V> void persist(IMessage<A, V> msg) {
+	super.send(new Persist<V>(msg, null));
+    }
+
+    @Override
+    public <V> FutureRef<V> call(IMessage<A, V> msg) {
+	if (!(msg instanceof IPersistent)) {
+	    return super.call(msg);
+	}
+	FuturePromise<V> p = new FuturePromise<V>(core);
+	super.send(new Persist<V>(msg, p));
+	return p.getRef();
+    }
+
+    /**
+     * Journal, then act (actor thread)
+     */
+    private class Persist<V> implements IMessage<A, Void>
+    {
+	private final IMessage<A, V> msg;
+	private final FuturePromise<V> reply;
+
+	Persist(IMessage<A, V> msg, FuturePromise<V> reply) {
+	    this.msg = msg;
+	    this.reply = reply;
+	}
+
+	public Void act(A impl) throws Exception {
+	    final V v;
+	    try {
+		long seq = journal.append(msg, null);
+		v = msg.act(impl);
+		if (reply != null) {
+		    journal.whenDurable(seq, new Runnable()
+		    {
+			public void run() {
+			    reply.complete(v);
+			}
+		    });
+		}
+	    } catch (Exception e) {
+		if (reply == null) {
+		    throw e;
+		}
+		reply.fail(e);
+		return null;
+	    }
+	    if (++sinceSnapshot >= snapshotEvery) {
+		snapshot();
+	    }
+	    return null;
+	}
+    }
+
+    private void snapshot() {
+	if (!(actorImpl instanceof ISnapshotable) || snapshotPending) {
+	    return;
+	}
+	sinceSnapshot = 0;
+	final long seq = journal.getLastSeq();
+	final Object state = ((ISnapshotable) actorImpl).takeSnapshot();
+	snapshotPending = true;
+	snapshotter.execute(new Runnable()
+	{
+	    public void run() {
+		try {
+		    journal.awaitDurable(seq);
+		    snapshots.save(seq, state);
+		    journal.deleteUpTo(seq);
+		} catch (Exception e) {
+		    logger.log(Level.WARNING, "snapshot failed", e);
+		} finally {
+		    snapshotPending = false;
+		}
+	    }
+	});
+    }
+
+    /**
+     * Process pending messages, make journal durable and close it.
+     * Later persistent messages fail.
+     * @throws InterruptedException
+     */
+    public void close() throws InterruptedException {
+	awaitMessages(0);
+	journal.close();
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.persist;
+
+import glactor.codec.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * State snapshots in files "%020d.snap" (sequence number of last event
+ * included). Written to a temporary file and renamed when complete,
+ * so a crash never leaves a partial snapshot. The newest KEEP are kept.
+ */
+public class SnapshotStore
+{
+    static final Logger logger = Logger.getLogger(SnapshotStore.class.toString());
+    public static final int KEEP = 2;
+    private final File dir;
+    private final IMsgCodec codec;
+
+    /**
+     * Snapshot read by loadLatest()
+     */
+    public static class Snapshot
+    {
+	public final long seq;
+	public final Object state;
+
+	Snapshot(long seq, Object state) {
+	    this.seq = seq;
+	    this.state = state;
+	}
+    }
+
+    public SnapshotStore(File dir, IMsgCodec codec) throws IOException {
+	this.dir = dir;
+	this.codec = codec;
+	if (!dir.isDirectory() && !dir.mkdirs()) {
+	    throw new IOException("cannot create " + dir);
+	}
+    }
+
+    private File[] snapshots() {
+	File[] fs = dir.listFiles(new FilenameFilter()
+	{
+	    public boolean accept(File d, String name) {
+		return name.endsWith(".snap");
+	    }
+	});
+	if (fs == null) {
+	    return new File[0];
+	}
+	Arrays.sort(fs);
+	return fs;
+    }
+
+    /**
+     * Write snapshot durably
+     * @param seq last event included in state
+     * @param state state, encodable by codec
+     * @throws IOException
+     */
+    public void save(long seq, Object state) throws IOException {
+	ByteBuffer b = BufferPool.DEFAULT.acquire(64 << 10);
+	try {
+	    while (true) {
+		try {
+		    b.clear();
+		    codec.encode(state, b);
+		    break;
+		} catch (BufferOverflowException e) {
+		    int cap = b.capacity();
+		    BufferPool.DEFAULT.release(b);
+		    b = BufferPool.DEFAULT.acquire(cap * 2);
+		}
+	    }
+	    b.flip();
+	    String name = String.format("%020d.snap", seq);
+	    File tmp = new File(dir, name + ".tmp");
+	    FileOutputStream os = new FileOutputStream(tmp);
+	    try {
+		FileChannel ch = os.getChannel();
+		while (b.hasRemaining()) {
+		    ch.write(b);
+		}
+		ch.force(true);
+	    } finally {
+		os.close();
+	    }
+	    File f = new File(dir, name);
+	    if (!tmp.renameTo(f)) {
+		throw new IOException("cannot rename " + tmp);
+	    }
+	} finally {
+	    BufferPool.DEFAULT.release(b);
+	}
+	File[] all = snapshots();
+	for (int i = 0; i < all.length - KEEP; i++) {
+	    all[i].delete();
+	}
+    }
+
+    /**
+     * @return newest readable snapshot, or null if none
+     */
+    public Snapshot loadLatest() {
+	File[] all = snapshots();
+	for (int i = all.length - 1; i >= 0; i--) {
+	    String n = all[i].getName();
+	    try {
+		RandomAccessFile raf = new RandomAccessFile(all[i], "r");
+		try {
+		    ByteBuffer b = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+			    0, raf.length());
+		    return new Snapshot(Long.parseLong(n.substring(0, n.length() - 5)),
+			    codec.decode(b));
+		} finally {
+		    raf.close();
+		}
+	    } catch (IOException e) {
+		logger.log(Level.WARNING, "bad snapshot " + all[i], e);
+	    }
+	}
+	return null;
+    }
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.persist;
+
+import glactor.codec.*;
+import glactor.core.Mailbox;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+
+/**
+ * Mailbox keeping up to memLimit messages on the heap, and spilling
+ * the rest (encoded with a codec) to memory-mapped segment files.
+ * <p>
+ * Once messages have spilled, new messages also spill until the
+ * actor has caught up, so order stays FIFO: the heap queue is emptied
+ * first, then spilled messages are decoded in order as they are
+ * polled. Segment files are created with unique names
+ * (File.createTempFile), so mailboxes may share a directory and files
+ * left by a crashed process are never reused; they are deleted when
+ * read. Heap use is thus flat
+ * for any burst size; the cost is an encode (in send) and a decode
+ * (in receive) per spilled message.
+ * <p>
+ * Messages must be encodable by the codec. With ActorRef this means
+ * Runnable messages sent with send(Runnable) (IMessages are wrapped in
+ * local Runnables), so it is mostly useful with ActorCore subclasses
+ * taking data messages.
+ * <pre>
+ * Usage:
+ *  ActorCore&lt;Event> ingest = new ActorCore&lt;Event>(threadP,
+ *	new SpillMailbox&lt;Event>(10000, new File("spool"), codec)) {..};
+ * </pre>
+ * @param <T> message type
+ */
+public class SpillMailbox<T> extends Mailbox<T>
+{
+    public static final int SEGMENT_SIZE = 16 << 20;
+    private final int memLimit;
+    private final File dir;
+    private final IMsgCodec codec;
+    private final int segmentSize;
+    private final LinkedList<T> mem = new LinkedList<T>();
+    private final LinkedList<MappedByteBuffer> segs = new LinkedList<MappedByteBuffer>();
+    private final LinkedList<File> segFiles = new LinkedList<File>();
+    private int readPos;	//in first segment
+    private int spilled;	//#messages in segments
+    private long spilledTotal;
+    private Exception failure;	//of last poll
+
+    /**
+     * @param memLimit max messages on heap
+     * @param dir directory for segment files (created if missing)
+     * @param codec message codec
+     */
+    public SpillMailbox(int memLimit, File dir, IMsgCodec codec) {
+	this(memLimit, dir, codec, SEGMENT_SIZE);
+    }
+
+    /**
+     * @param memLimit max messages on heap
+     * @param dir directory for segment files (created if missing)
+     * @param codec message codec
+     * @param segmentSize bytes per segment file (max message size)
+     */
+    public SpillMailbox(int memLimit, File dir, IMsgCodec codec, int segmentSize) {
+	this.memLimit = memLimit;
+	this.dir = dir;
+	this.codec = codec;
+	this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a message to spill cannot be
+     *	    encoded
+     * @throws IllegalStateException if spill files cannot be written
+     */
+    public boolean offer(T msg) {
+	if (spilled == 0 && mem.size() < memLimit) {
+	    mem.add(msg);
+	    return true;
+	}
+	try {
+	    spill(msg);
+	} catch (IOException e) {
+	    if (e instanceof NotSerializableException) {
+		throw new IllegalArgumentException("cannot spill " + msg, e);
+	    }
+	    throw new IllegalStateException("spill failed", e);
+	}
+	return true;
+    }
+
+    private void spill(T msg) throws IOException {
+	MappedByteBuffer w = segs.isEmpty() ? null : segs.getLast();
+	for (int attempt = 0;; attempt++) {
+	    if (w == null) {
+		w = newSegment();
+	    }
+	    int pos = w.position();
+	    try {
+		if (w.remaining() < 8) {
+		    throw new BufferOverflowException();
+		}
+		w.position(pos + 4);
+		codec.encode(msg, w);
+		w.putInt(pos, w.position() - pos - 4);
+		break;
+	    } catch (BufferOverflowException e) {
+		rollback(w, pos);
+		if (attempt > 0) {
+		    throw new IOException("message larger than segment");
+		}
+		w = null;
+	    } catch (IOException e) {
+		rollback(w, pos);
+		throw e;
+	    } catch (RuntimeException e) {
+		rollback(w, pos);
+		throw e;
+	    }
+	}
+	spilled++;
+	spilledTotal++;
+    }
+
+    /**
+     * Drop partly written record at pos: the reader sees end of segment
+     * there until the next record is written in its place
+     */
+    private static void rollback(MappedByteBuffer w, int pos) {
+	w.position(pos);
+	if (w.remaining() >= 4) {
+	    w.putInt(pos, 0);
+	}
+    }
+
+    private MappedByteBuffer newSegment() throws IOException {
+	if (!dir.isDirectory() && !dir.mkdirs()) {
+	    throw new IOException("cannot create " + dir);
+	}
+	File f = File.createTempFile("spill-", ".seg", dir); //new, empty
+	MappedByteBuffer b;
+	try {
+	    RandomAccessFile raf = new RandomAccessFile(f, "rw");
+	    try {
+		b = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+	    } finally {
+		raf.close();
+	    }
+	} catch (IOException e) {
+	    f.delete();
+	    throw e;
+	}
+	segs.add(b);
+	segFiles.add(f);
+	return b;
+    }
+
+    /**
+     * A spilled message that cannot be decoded is skipped: poll()
+     * returns null and pollFailure() the cause (for
+     * ActorCore.onException).
+     */
+    @SuppressWarnings("unchecked") //only T is spilled
+    public T poll() {
+	if (!mem.isEmpty()) {
+	    return mem.poll();
+	}
+	if (spilled == 0) {
+	    return null;
+	}
+	ByteBuffer b = segs.getFirst().duplicate();
+	b.position(readPos);
+	int len = b.remaining() >= 4 ? b.getInt() : 0;
+	if (len == 0) { //end of segment; next
+	    segs.removeFirst();
+	    segFiles.removeFirst().delete();
+	    readPos = 0;
+	    return poll();
+	}
+	b.limit(b.position() + len);
+	T msg;
+	try {
+	    msg = (T) codec.decode(b);
+	} catch (IOException e) {
+	    msg = lost(e);
+	} catch (RuntimeException e) {
+	    msg = lost(e);
+	}
+	readPos = b.limit();
+	if (--spilled == 0) { //caught up; drop segments
+	    clear();
+	}
+	return msg;
+    }
+
+    /**
+     * Unreadable record: skipped, reported by pollFailure()
+     */
+    private T lost(Exception e) {
+	failure = new IllegalStateException("spilled message unreadable", e);
+	return null;
+    }
+
+    @Override
+    protected Exception pollFailure() {
+	Exception e = failure;
+	failure = null;
+	return e;
+    }
+
+    public int size() {
+	return mem.size() + spilled;
+    }
+
+    /**
+     * @return #messages currently spilled
+     */
+    public int getSpilled() {
+	return spilled;
+    }
+
+    /**
+     * @return #messages spilled since creation
+     */
+    public long getSpilledTotal() {
+	return spilledTotal;
+    }
+
+    /**
+     * Drop pending messages and delete segment files.
+     * Synchronized on this mailbox, as ActorCore's calls are.
+     */
+    public synchronized void clear() {
+	mem.clear();
+	segs.clear();
+	while (!segFiles.isEmpty()) {
+	    segFiles.removeFirst().delete();
+	}
+	readPos = 0;
+	spilled = 0;
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.remote;
+
+import glactor.core.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local actors by name. Messages arriving from other processes
+ * are routed to the actor registered under the target name.
+ */
+public class ActorRegistry
+{
+    private final ConcurrentHashMap<String, IActorRef<?>> actors
+	    = new ConcurrentHashMap<String, IActorRef<?>>();
+
+    /**
+     * Register actor (replaces any actor with same name)
+     * @param name actor name
+     * @param actor local actor
+     */
+    public void register(String name, IActorRef<?> actor) {
+	if (name == null || actor == null) {
+	    throw new NullPointerException();
+	}
+	actors.put(name, actor);
+    }
+
+    /**
+     * @param name actor name
+     * @return removed actor, or null
+     */
+    public IActorRef<?> unregister(String name) {
+	return actors.remove(name);
+    }
+
+    /**
+     * @param name actor name
+     * @return actor, or null if not registered
+     */
+    public IActorRef<?> get(String name) {
+	return actors.get(name);
+    }
+
+    /**
+     * @param name actor name
+     * @return actor as target of decoded (untyped) messages, or null
+     */
+    @SuppressWarnings("unchecked") //decoded messages are only checked when they act
+    IActorRef<Object> target(String name) {
+	return (IActorRef<Object>) actors.get(name);
+    }
+
+    /**
+     * @param msg decoded IMessage
+     * @return msg as message to an untyped target
+     */
+    @SuppressWarnings("unchecked") //see target(..)
+    static IMessage<Object, Object> asMessage(Object msg) {
+	return (IMessage<Object, Object>) msg;
+    }
+
+    public Set<String> names() {
+	return Collections.unmodifiableSet(actors.keySet());
+    }
+
+    /**
+     * Send message to named actor.
+     * @param name actor name
+     * @param msg IMessage or Runnable
+     * @return false if no such actor
+     */
+    public boolean send(String name, Object msg) {
+	IActorRef<Object> actor = target(name);
+	if (actor == null) {
+	    return false;
+	}
+	if (msg instanceof IMessage) {
+	    actor.send(asMessage(msg));
+	} else if (msg instanceof Runnable) {
+	    actor.send((Runnable) msg);
+	} else {
+	    throw new IllegalArgumentException("not a message: " + msg);
+	}
+	return true;
+    }
+}
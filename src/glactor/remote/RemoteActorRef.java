@@ -0,0 +1,141 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.remote;
+
+import glactor.core.*;
+import java.io.IOException;
+import java.util.concurrent.*;
+
+/**
+ * Reference to an actor in another process (see RemoteNode.lookup).
+ * Messages are encoded with the node's codec, so they must be
+ * self-contained (eg. Serializable with SerialCodec); anonymous
+ * inner classes would drag their enclosing instance along.
+ * <p>
+ * call(..) returns a FutureRef completed when the reply arrives, or
+ * failed with IOException if the connection is lost.
+ * send(..) throws IllegalArgumentException if the message cannot be
+ * encoded, and IllegalStateException if the connection is closed.
+ * @param <A> actor implementation type
+ */
+public class RemoteActorRef<A> implements IActorRef<A>
+{
+    private final RemoteNode node;
+    private final RemoteNode.Conn conn;
+    private final String name;
+    private final Class<A> cz;
+
+    RemoteActorRef(RemoteNode node, RemoteNode.Conn conn, String name,
+	    Class<A> cz) {
+	this.node = node;
+	this.conn = conn;
+	this.name = name;
+	this.cz = cz;
+    }
+
+    public String getName() {
+	return name;
+    }
+
+    /**
+     * @return false if connection is closed (a new lookup reconnects)
+     */
+    public boolean isConnected() {
+	return !conn.closed;
+    }
+
+    public void send(Runnable msg) {
+	post(msg);
+    }
+
+    public void send(IMessage<A, ?> msg) {
+	if (msg == null) {
+	    throw new NullPointerException("ICall message == null");
+	}
+	post(msg);
+    }
+
+    private void post(Object msg) {
+	try {
+	    conn.post(RemoteNode.SEND, 0, name, msg);
+	} catch (IOException e) {
+	    if (conn.closed) {
+		throw new IllegalStateException("connection closed", e);
+	    }
+	    throw new IllegalArgumentException("cannot encode " + msg, e);
+	}
+    }
+
+    @SuppressWarnings("unchecked") //the reply to an IMessage<A, V> is a V
+    public <V> FutureRef<V> call(IMessage<A, V> msg) {
+	if (msg == null) {
+	    throw new NullPointerException("ICall message == null");
+	}
+	return (FutureRef<V>) call(RemoteNode.CALL, msg);
+    }
+
+    private FutureRef<Object> call(byte type, Object msg) {
+	FuturePromise<Object> p = new FuturePromise<Object>();
+	long id = node.nextCallId();
+	conn.pending.put(id, p);
+	try {
+	    conn.post(type, id, name, msg);
+	} catch (IOException e) {
+	    conn.pending.remove(id);
+	    p.fail(e);
+	}
+	return p.getRef();
+    }
+
+    /**
+     * Wait until the remote actor has processed messages sent so far
+     * (from this node).
+     * @param timeout max wait time in milliseconds if >0 (infinity if <=0)
+     * @return true if consumed, false if timeout or failure
+     * @throws InterruptedException
+     */
+    public boolean awaitMessages(long timeout) throws InterruptedException {
+	FutureRef<Object> f = call(RemoteNode.SYNC, null);
+	try {
+	    if (timeout > 0) {
+		f.get(timeout, TimeUnit.MILLISECONDS);
+	    } else {
+		f.get();
+	    }
+	    return true;
+	} catch (ExecutionException e) {
+	    return false;
+	} catch (TimeoutException e) {
+	    return false;
+	}
+    }
+
+    /**
+     * @return local thread pool of node
+     */
+    public ActorThreadPool getThreadPool() {
+	return node.getThreadPool();
+    }
+
+    public Class<A> getImplClass() {
+	return cz;
+    }
+
+    @Override
+    public String toString() {
+	return "RemoteActorRef(" + name + ")";
+    }
+}
@@ -0,0 +1,706 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.remote;
+
+import glactor.codec.*;
+import glactor.core.*;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Endpoint connecting actors in different processes over TCP.
+ * <p>
+ * Local actors are registered by name (getRegistry()); actors in another
+ * node are reached through a RemoteActorRef from lookup(..).
+ * One I/O thread serves all connections with non-blocking channels.
+ * <p>
+ * Write combining: senders append encoded messages to the connection's
+ * output buffer, and the I/O thread writes everything accumulated so far
+ * as one frame. The I/O thread is woken at most once per frame, so
+ * under load many messages share one wakeup and one write system call.
+ * Frames are built in pooled direct buffers (BufferPool), so channels
+ * write them without an extra copy.
+ * <pre>
+ * Wire format:
+ *  frame  = int length, record*
+ *  record = int length, byte type, long callId, short nameLength,
+ *	     name (UTF-8), codec payload
+ * </pre>
+ * Call replies travel back on the connection the call came in on, and
+ * complete the FutureRef returned by RemoteActorRef.call(..).
+ * <p>
+ * Input from peers is not trusted: a malformed record closes only its
+ * connection, and the codec must not decode arbitrary classes (use
+ * BinaryCodec with registered classes, or SerialCodec with an
+ * allow-list).
+ * <pre>
+ * Usage:
+ *  //process 1
+ *  RemoteNode node = new RemoteNode(threadP, new SerialCodec("com.acme."));
+ *  node.getRegistry().register("counter", threadP.create(new Counter()));
+ *  node.bind(new InetSocketAddress(7070));
+ *  //process 2
+ *  IActorRef&lt;Counter> c = node2.lookup(
+ *	    new InetSocketAddress("localhost", 7070), "counter", Counter.class);
+ *  c.call(new GetCount()).get(); //messages must be encodable by codec
+ * </pre>
+ * @see RemoteActorRef
+ * @see ActorRegistry
+ */
+public class RemoteNode
+{
+    static final Logger logger = Logger.getLogger(RemoteNode.class.toString());
+    /** record types */
+    static final byte SEND = 1, CALL = 2, SYNC = 3, REPLY = 4, REPLY_ERR = 5;
+    static final int BUF_SIZE = 64 * 1024;
+    /** largest record accepted, bytes */
+    static final int MAX_RECORD = 64 << 20;
+    /** largest encoding buffer kept per sending thread */
+    static final int SCRATCH_KEEP = BUF_SIZE;
+    /** type, callId, nameLength */
+    static final int RECORD_HEADER = 1 + 8 + 2;
+    private final ActorThreadPool threadPool;
+    private final IMsgCodec codec;
+    private final ActorRegistry registry = new ActorRegistry();
+    private final Selector selector;
+    private final Thread ioThread;
+    private final ConcurrentLinkedQueue<Runnable> ioTasks
+	    = new ConcurrentLinkedQueue<Runnable>();
+    private final Map<InetSocketAddress, Conn> outgoing
+	    = new HashMap<InetSocketAddress, Conn>();
+    private final Set<Conn> conns = Collections.synchronizedSet(new HashSet<Conn>());
+    private final AtomicLong callIds = new AtomicLong();
+    private final BufferPool pool = BufferPool.DEFAULT;
+    private final ThreadLocal<ByteBuffer> scratch = new ThreadLocal<ByteBuffer>()
+    {
+	@Override
+	protected ByteBuffer initialValue() {
+	    return pool.acquire(BufferPool.MIN_SIZE);
+	}
+    };
+    private volatile boolean closed;
+
+    /**
+     * @param threadP local actor thread pool
+     * @param codec message codec (same in all nodes); decodes input
+     *	    from peers, so it should accept only message classes
+     * @throws IOException
+     */
+    public RemoteNode(ActorThreadPool threadP, IMsgCodec codec) throws IOException {
+	this.threadPool = threadP;
+	this.codec = codec;
+	selector = Selector.open();
+	ioThread = new Thread(new Runnable()
+	{
+	    public void run() {
+		ioLoop();
+	    }
+	}, "glactor-remote-io");
+	ioThread.setDaemon(true);
+	ioThread.start();
+    }
+
+    public ActorRegistry getRegistry() {
+	return registry;
+    }
+
+    public ActorThreadPool getThreadPool() {
+	return threadPool;
+    }
+
+    /**
+     * Accept connections from other nodes.
+     * @param addr local address (port 0: any free port)
+     * @return bound address
+     * @throws IOException
+     */
+    public InetSocketAddress bind(InetSocketAddress addr) throws IOException {
+	final ServerSocketChannel ssc = ServerSocketChannel.open();
+	ssc.socket().setReuseAddress(true);
+	ssc.socket().bind(addr);
+	ssc.configureBlocking(false);
+	ioRun(new Runnable()
+	{
+	    public void run() {
+		try {
+		    ssc.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+		    logger.log(Level.WARNING, "bind", e);
+		}
+	    }
+	});
+	return (InetSocketAddress) ssc.socket().getLocalSocketAddress();
+    }
+
+    /**
+     * Reference to actor registered in another node.
+     * Connects to the node if not already connected.
+     * @param <A> actor implementation type
+     * @param addr node address
+     * @param name actor name in remote registry
+     * @param cz actor implementation class
+     * @return actor reference
+     * @throws IOException if connect fails
+     */
+    public <A> RemoteActorRef<A> lookup(InetSocketAddress addr, String name,
+	    Class<A> cz) throws IOException {
+	return new RemoteActorRef<A>(this, connect(addr), name, cz);
+    }
+
+    /**
+     * Stop I/O thread and close all connections.
+     * Pending calls fail with IOException.
+     */
+    public void close() {
+	closed = true;
+	selector.wakeup();
+	try {
+	    ioThread.join(1000);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+    }
+
+    /**
+     * Connection to addr, shared by all lookups. Connects outside the
+     * lock, so a slow or unreachable peer only stalls its own callers;
+     * if two threads connect at once, the later channel is closed.
+     */
+    private Conn connect(InetSocketAddress addr) throws IOException {
+	if (closed) {
+	    throw new IOException("node closed");
+	}
+	synchronized (outgoing) {
+	    Conn c = outgoing.get(addr);
+	    if (c != null && !c.closed) {
+		return c;
+	    }
+	}
+	SocketChannel ch = SocketChannel.open(addr); //blocking
+	synchronized (outgoing) {
+	    Conn c = outgoing.get(addr);
+	    if (c != null && !c.closed) { //lost the race
+		ch.close();
+		return c;
+	    }
+	    try {
+		c = open(ch);
+	    } catch (IOException e) {
+		ch.close();
+		throw e;
+	    }
+	    final Conn conn = c;
+	    ioRun(new Runnable()
+	    {
+		public void run() {
+		    try {
+			conn.register();
+		    } catch (IOException e) {
+			conn.close(e);
+		    }
+		}
+	    });
+	    outgoing.put(addr, c);
+	    return c;
+	}
+    }
+
+    private Conn open(SocketChannel ch) throws IOException {
+	ch.socket().setTcpNoDelay(true);
+	ch.configureBlocking(false);
+	Conn c = new Conn(ch);
+	conns.add(c);
+	return c;
+    }
+
+    long nextCallId() {
+	return callIds.incrementAndGet();
+    }
+
+    /**
+     * Run task in I/O thread
+     */
+    private void ioRun(Runnable task) {
+	ioTasks.add(task);
+	selector.wakeup();
+    }
+
+    private void ioLoop() {
+	try {
+	    while (!closed) {
+		selector.select();
+		Runnable task;
+		while ((task = ioTasks.poll()) != null) {
+		    try {
+			task.run();
+		    } catch (RuntimeException e) {
+			logger.log(Level.WARNING, "I/O task", e);
+		    }
+		}
+		Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+		while (it.hasNext()) {
+		    SelectionKey k = it.next();
+		    it.remove();
+		    if (!k.isValid()) {
+			continue;
+		    }
+		    if (k.isAcceptable()) {
+			try {
+			    SocketChannel ch = ((ServerSocketChannel) k.channel()).accept();
+			    if (ch != null) {
+				open(ch).register();
+			    }
+			} catch (IOException e) {
+			    logger.log(Level.WARNING, "accept", e);
+			}
+			continue;
+		    }
+		    Conn c = (Conn) k.attachment();
+		    try {
+			if (k.isReadable()) {
+			    c.read();
+			}
+			if (k.isValid() && k.isWritable()) {
+			    c.flush();
+			}
+		    } catch (IOException e) {
+			c.close(e);
+		    } catch (RuntimeException e) { //bug or bad input: drop only this peer
+			logger.log(Level.WARNING, "connection failed", e);
+			c.close(new IOException(e.toString()));
+		    }
+		}
+	    }
+	} catch (IOException e) {
+	    logger.log(Level.SEVERE, "remote I/O thread", e);
+	} finally {
+	    closed = true;
+	    Conn[] all;
+	    synchronized (conns) {
+		all = conns.toArray(new Conn[conns.size()]);
+	    }
+	    for (Conn c : all) {
+		c.close(new IOException("node closed"));
+	    }
+	    for (SelectionKey k : selector.keys()) {
+		try {
+		    k.channel().close();
+		} catch (IOException e) {
+		}
+	    }
+	    try {
+		selector.close();
+	    } catch (IOException e) {
+	    }
+	}
+    }
+
+    /**
+     * Encode record in thread local buffer, or a larger pooled one
+     * (up to MAX_RECORD; only up to SCRATCH_KEEP is kept by the thread)
+     * @return record, ready to read; pass to recycle(..) when copied
+     * @throws IOException if msg cannot be encoded, or is too large
+     */
+    ByteBuffer record(byte type, long id, String name, Object msg)
+	    throws IOException {
+	byte[] nm = name.getBytes("UTF-8");
+	if (nm.length > 0xffff) {
+	    throw new IllegalArgumentException("name too long: " + name);
+	}
+	ByteBuffer b = scratch.get();
+	while (true) {
+	    try {
+		b.clear();
+		b.position(4);
+		b.put(type);
+		b.putLong(id);
+		b.putShort((short) nm.length);
+		b.put(nm);
+		codec.encode(msg, b);
+		b.putInt(0, b.position() - 4);
+		b.flip();
+		return b;
+	    } catch (BufferOverflowException e) {
+		if (b.capacity() - 4 >= MAX_RECORD) {
+		    recycle(b);
+		    throw new IOException("record too large: > " + MAX_RECORD);
+		}
+		ByteBuffer bigger = pool.acquire(Math.min(b.capacity() * 2, MAX_RECORD + 4));
+		if (b == scratch.get() && bigger.capacity() <= SCRATCH_KEEP) {
+		    scratch.set(bigger);
+		    pool.release(b);
+		} else {
+		    recycle(b);
+		}
+		b = bigger;
+	    } catch (IOException e) {
+		recycle(b);
+		throw e;
+	    } catch (RuntimeException e) {
+		recycle(b);
+		throw e;
+	    }
+	}
+    }
+
+    /**
+     * Release record buffer, unless kept by the thread
+     */
+    void recycle(ByteBuffer rec) {
+	if (rec != scratch.get()) {
+	    pool.release(rec);
+	}
+    }
+
+    /**
+     * Connection to another node (both directions)
+     */
+    final class Conn
+    {
+	final SocketChannel ch;
+	SelectionKey key;			    //I/O thread
+	private ByteBuffer in = pool.acquire(BUF_SIZE); //I/O thread
+	private int frameLeft;			    //I/O thread
+	private ByteBuffer writing;		    //I/O thread
+	private ByteBuffer out = newOut(BUF_SIZE);  //guarded by this
+	private ByteBuffer spare;		    //guarded by this
+	private boolean flushQueued;		    //guarded by this
+	volatile boolean closed;
+	final ConcurrentHashMap<Long, FuturePromise<Object>> pending
+		= new ConcurrentHashMap<Long, FuturePromise<Object>>();
+	private final Runnable flusher = new Runnable()
+	{
+	    public void run() {
+		try {
+		    flush();
+		} catch (IOException e) {
+		    close(e);
+		}
+	    }
+	};
+
+	Conn(SocketChannel ch) {
+	    this.ch = ch;
+	}
+
+	/**
+	 * Register with selector (I/O thread)
+	 */
+	void register() throws IOException {
+	    key = ch.register(selector, SelectionKey.OP_READ, this);
+	}
+
+	private ByteBuffer newOut(int size) {
+	    ByteBuffer b = pool.acquire(size);
+	    b.position(4); //frame length
+	    return b;
+	}
+
+	/**
+	 * Append record to output frame (any thread)
+	 */
+	void post(ByteBuffer rec) throws IOException {
+	    if (rec.remaining() - 4 > MAX_RECORD) {
+		throw new IOException("record too large: " + rec.remaining());
+	    }
+	    boolean wake = false;
+	    synchronized (this) {
+		if (closed) {
+		    throw new IOException("connection closed");
+		}
+		if (out.remaining() < rec.remaining()) {
+		    out = pool.grow(out, out.position() + rec.remaining());
+		}
+		out.put(rec);
+		if (!flushQueued) {
+		    flushQueued = wake = true;
+		}
+	    }
+	    if (wake) {
+		ioRun(flusher);
+	    }
+	}
+
+	/**
+	 * Encode and post record
+	 */
+	void post(byte type, long id, String name, Object msg) throws IOException {
+	    ByteBuffer rec = record(type, id, name, msg);
+	    try {
+		post(rec);
+	    } finally {
+		recycle(rec);
+	    }
+	}
+
+	/**
+	 * Write pending frames (I/O thread)
+	 */
+	void flush() throws IOException {
+	    while (!closed) {
+		if (writing == null) {
+		    synchronized (this) {
+			flushQueued = false;
+			if (out.position() <= 4) {
+			    return;
+			}
+			writing = out;
+			if (spare == null) {
+			    spare = newOut(BUF_SIZE);
+			}
+			out = spare;
+			spare = null;
+		    }
+		    writing.putInt(0, writing.position() - 4);
+		    writing.flip();
+		}
+		ch.write(writing);
+		if (writing.hasRemaining()) {
+		    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		    return;
+		}
+		key.interestOps(SelectionKey.OP_READ);
+		writing.clear();
+		writing.position(4);
+		synchronized (this) {
+		    spare = writing;
+		}
+		writing = null;
+	    }
+	}
+
+	/**
+	 * Read and process complete records (I/O thread).
+	 * Records are processed as they arrive, so only one record (not
+	 * a whole frame) has to fit in the input buffer.
+	 * @throws ProtocolException if lengths are inconsistent
+	 */
+	void read() throws IOException {
+	    if (ch.read(in) < 0) {
+		throw new EOFException("connection closed by peer");
+	    }
+	    in.flip();
+	    while (in.remaining() >= 4) {
+		if (frameLeft == 0) {
+		    frameLeft = in.getInt();
+		    if (frameLeft < 0) {
+			throw new ProtocolException("frame length " + frameLeft);
+		    }
+		    continue;
+		}
+		int len = in.getInt(in.position());
+		if (len < RECORD_HEADER || len > MAX_RECORD || len > frameLeft - 4) {
+		    throw new ProtocolException("record length " + len);
+		}
+		if (in.remaining() < 4 + len) {
+		    if (4 + len > in.capacity()) { //grow for large record
+			ByteBuffer b = pool.acquire(4 + len);
+			b.put(in);
+			b.flip();
+			pool.release(in);
+			in = b;
+		    }
+		    break;
+		}
+		in.position(in.position() + 4);
+		ByteBuffer rec = in.duplicate();
+		rec.limit(in.position() + len);
+		in.position(rec.limit());
+		frameLeft -= 4 + len;
+		receive(rec);
+	    }
+	    in.compact();
+	}
+
+	/**
+	 * Process one record
+	 * @throws ProtocolException if the name does not fit in the record
+	 */
+	private void receive(ByteBuffer rec) throws ProtocolException {
+	    byte type = rec.get();
+	    final long id = rec.getLong();
+	    int nameLen = rec.getShort() & 0xffff;
+	    if (nameLen > rec.remaining()) {
+		throw new ProtocolException("name length " + nameLen);
+	    }
+	    byte[] nm = new byte[nameLen];
+	    rec.get(nm);
+	    String name;
+	    Object msg;
+	    try {
+		name = new String(nm, "UTF-8");
+		msg = decode(rec);
+	    } catch (IOException e) {
+		if (type == CALL || type == SYNC) {
+		    reply(id, e);
+		} else if (type == REPLY || type == REPLY_ERR) {
+		    FuturePromise<Object> p = pending.remove(id);
+		    if (p != null) {
+			p.fail(e);
+		    }
+		} else {
+		    logger.log(Level.WARNING, "decode failed", e);
+		}
+		return;
+	    }
+	    switch (type) {
+		case SEND:
+		    if (!(msg instanceof IMessage || msg instanceof Runnable)) {
+			logger.log(Level.WARNING, "not a message: {0}", msg);
+		    } else if (!registry.send(name, msg)) {
+			logger.log(Level.WARNING, "no actor: {0}", name);
+		    }
+		    break;
+		case CALL:
+		case SYNC:
+		    IActorRef<Object> actor = registry.target(name);
+		    if (actor == null) {
+			reply(id, new IllegalArgumentException("no actor: " + name));
+		    } else if (type == CALL && !(msg instanceof IMessage)) {
+			reply(id, new IllegalArgumentException("not a message: " + msg));
+		    } else if (type == SYNC) {
+			actor.send(new Runnable()
+			{ //after messages sent before
+			    public void run() {
+				reply(id, REPLY, null);
+			    }
+			});
+		    } else {
+			actor.send(new CallTask(id, ActorRegistry.asMessage(msg)));
+		    }
+		    break;
+		case REPLY:
+		case REPLY_ERR:
+		    FuturePromise<Object> p = pending.remove(id);
+		    if (p == null) {
+			break;
+		    }
+		    if (type == REPLY) {
+			p.complete(msg);
+		    } else if (msg instanceof Throwable) {
+			p.fail((Throwable) msg);
+		    } else {
+			p.fail(new IOException("remote error: " + msg));
+		    }
+		    break;
+		default:
+		    logger.log(Level.WARNING, "unknown record type {0}", type);
+	    }
+	}
+
+	/**
+	 * Decode payload; codec failures on well framed input
+	 * (eg. truncated payload) fail only this record
+	 */
+	private Object decode(ByteBuffer rec) throws IOException {
+	    try {
+		return codec.decode(rec);
+	    } catch (RuntimeException e) {
+		throw new IOException("decode: " + e);
+	    }
+	}
+
+	void reply(long id, Throwable e) {
+	    try {
+		post(REPLY_ERR, id, "", e);
+	    } catch (IOException ex) { //not encodable
+		reply(id, REPLY_ERR, new IOException("remote: " + e));
+	    }
+	}
+
+	void reply(long id, byte type, Object value) {
+	    try {
+		post(type, id, "", value);
+	    } catch (IOException e) {
+		if (type == REPLY_ERR || closed) {
+		    logger.log(Level.WARNING, "reply failed", e);
+		} else {
+		    reply(id, e);
+		}
+	    }
+	}
+
+	/**
+	 * Close connection, release buffers and fail pending calls
+	 * (I/O thread)
+	 */
+	void close(IOException cause) {
+	    synchronized (this) {
+		if (closed) {
+		    return;
+		}
+		closed = true;
+		pool.release(out);
+		if (spare != null) {
+		    pool.release(spare);
+		}
+	    }
+	    pool.release(in);
+	    in = null;
+	    if (writing != null) {
+		pool.release(writing);
+		writing = null;
+	    }
+	    conns.remove(this);
+	    if (key != null) {
+		key.cancel();
+	    }
+	    try {
+		ch.close();
+	    } catch (IOException e) {
+	    }
+	    for (Long id : pending.keySet()) {
+		FuturePromise<Object> p = pending.remove(id);
+		if (p != null) {
+		    p.fail(cause);
+		}
+	    }
+	}
+
+	/**
+	 * Remote call, run by local actor; replies when done
+	 */
+	private final class CallTask implements IMessage<Object, Object>
+	{
+	    private final long id;
+	    private final IMessage<Object, Object> msg;
+
+	    CallTask(long id, IMessage<Object, Object> msg) {
+		this.id = id;
+		this.msg = msg;
+	    }
+
+	    public Object act(Object actorImpl) {
+		Object v;
+		try {
+		    v = msg.act(actorImpl);
+		} catch (Exception e) {
+		    reply(id, e);
+		    return null;
+		}
+		reply(id, REPLY, v);
+		return null;
+	    }
+	}
+    }
+}
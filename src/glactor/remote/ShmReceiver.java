@@ -0,0 +1,135 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.remote;
+
+import glactor.codec.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receives messages from a shared memory ring (see ShmSender) and
+ * routes them to actors in an ActorRegistry.
+ * <p>
+ * A polling thread decodes records directly from the mapped ring.
+ * When the ring is empty, it polls SPIN times, then yields YIELD
+ * times, and then parks PARK_NANOS between polls until a record
+ * arrives (the sender, possibly in another process, cannot wake it).
+ * Spinning gives sub-microsecond latency while busy; parking keeps an
+ * idle receiver cheap.
+ * <pre>
+ * Usage:
+ *  //receiving process
+ *  ShmReceiver r = new ShmReceiver(new File("/dev/shm/orders"), 1 &lt;&lt; 20,
+ *	    new SerialCodec(), registry);
+ *  //sending process
+ *  ShmSender s = new ShmSender(new File("/dev/shm/orders"), new SerialCodec());
+ *  s.send("orders", new NewOrder(..));
+ * </pre>
+ * @see ShmRing
+ */
+public class ShmReceiver
+{
+    static final Logger logger = Logger.getLogger(ShmReceiver.class.toString());
+    public static final int SPIN = 20000, YIELD = 100;
+    public static final long PARK_NANOS = 50000;
+    private static final int BATCH = 256;
+    private final ShmRing ring;
+    private final IMsgCodec codec;
+    private final ActorRegistry registry;
+    private final Thread thread;
+    private volatile boolean closed;
+    private volatile long received;
+
+    /**
+     * Create ring file and start receiving
+     * @param file ring file (eg. under /dev/shm)
+     * @param capacity ring bytes, power of 2
+     * @param codec message codec (same as sender)
+     * @param registry target actors
+     * @throws IOException
+     */
+    public ShmReceiver(File file, int capacity, IMsgCodec codec,
+	    ActorRegistry registry) throws IOException {
+	this.ring = ShmRing.create(file, capacity);
+	this.codec = codec;
+	this.registry = registry;
+	thread = new Thread(new Runnable()
+	{
+	    public void run() {
+		poll();
+	    }
+	}, "glactor-shm-" + file.getName());
+	thread.setDaemon(true);
+	thread.start();
+    }
+
+    /**
+     * @return #messages received
+     */
+    public long getReceived() {
+	return received;
+    }
+
+    public void close() {
+	closed = true;
+	LockSupport.unpark(thread);
+	try {
+	    thread.join(1000);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+    }
+
+    private void poll() {
+	int idle = 0;
+	while (!closed) {
+	    if (drain() > 0) {
+		idle = 0;
+	    } else if (++idle < SPIN) {
+	    } else if (idle < SPIN + YIELD) {
+		Thread.yield();
+	    } else {
+		LockSupport.parkNanos(PARK_NANOS);
+	    }
+	}
+    }
+
+    private int drain() {
+	int n = 0;
+	ByteBuffer rec;
+	while (n < BATCH && (rec = ring.peek()) != null) {
+	    n++;
+	    try {
+		byte[] nm = new byte[rec.getShort() & 0xffff];
+		rec.get(nm);
+		String name = new String(nm, "UTF-8");
+		if (!registry.send(name, codec.decode(rec))) {
+		    logger.log(Level.WARNING, "no actor: {0}", name);
+		}
+	    } catch (Exception e) {
+		logger.log(Level.WARNING, "receive failed", e);
+	    }
+	}
+	if (n > 0) {
+	    ring.release();
+	    received += n;
+	}
+	return n;
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.remote;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+
+/**
+ * Single producer, single consumer ring buffer of byte records in a
+ * memory-mapped file, shared between two processes (or threads).
+ * Place the file in memory (eg. /dev/shm) to avoid disk writes.
+ * <p>
+ * Producer and consumer positions are monotonically increasing byte
+ * sequences in the file header, on separate cache lines; each side
+ * writes only its own sequence, so no locks are needed. A record is
+ * written before the producer sequence is advanced past it, and read
+ * before the consumer sequence is advanced past it. Each side puts a
+ * full fence (fullFence()) between its record accesses and its access
+ * to the shared sequence: after reading the other side's sequence, and
+ * before writing its own.
+ * <p>
+ * Platform restriction: the Java memory model does not cover memory
+ * shared with another process, so the fence relies on the JVM compiling
+ * a volatile write followed by a volatile read to a hardware store-load
+ * fence, as HotSpot does on all its platforms (eg. x86: lock add,
+ * ARM: dmb). Other JVMs may need a different barrier.
+ * <pre>
+ * File layout:
+ *  0	int magic, int capacity
+ *  64	long producer sequence
+ *  128	long consumer sequence
+ *  192	data: records (int length, bytes), 8-byte aligned;
+ *	length -1 pads to end of ring
+ * </pre>
+ * @see ShmSender
+ * @see ShmReceiver
+ */
+public class ShmRing
+{
+    private static final int MAGIC = 0x674c5231; //"gLR1"
+    private static final int TAIL = 64, HEAD = 128, DATA = 192;
+    private static final int PAD = -1;
+    private static volatile int fence;
+    private final MappedByteBuffer buf;
+    private final int capacity, mask;
+    private long tail, headCache; //producer
+    private long head, tailCache; //consumer
+
+    private ShmRing(MappedByteBuffer buf) {
+	this.buf = buf;
+	capacity = buf.getInt(4);
+	mask = capacity - 1;
+	tail = buf.getLong(TAIL);
+	head = headCache = buf.getLong(HEAD);
+	tailCache = tail;
+    }
+
+    /**
+     * Create (or reset) ring file. Done by one side, before the other
+     * side opens it.
+     * @param file ring file
+     * @param capacity data bytes, power of 2
+     * @return ring
+     * @throws IOException
+     */
+    public static ShmRing create(File file, int capacity) throws IOException {
+	if (capacity < 64 || Integer.bitCount(capacity) != 1) {
+	    throw new IllegalArgumentException("capacity must be a power of 2");
+	}
+	MappedByteBuffer b = map(file, DATA + capacity);
+	b.putLong(TAIL, 0);
+	b.putLong(HEAD, 0);
+	b.putInt(4, capacity);
+	fullFence(); //header before magic
+	b.putInt(0, MAGIC);
+	return new ShmRing(b);
+    }
+
+    /**
+     * Open ring file made by create(..)
+     * @param file ring file
+     * @return ring
+     * @throws IOException if missing or not a ring file
+     */
+    public static ShmRing open(File file) throws IOException {
+	if (!file.exists()) {
+	    throw new FileNotFoundException(file.toString());
+	}
+	MappedByteBuffer b = map(file, (int) file.length());
+	if (b.capacity() < DATA || b.getInt(0) != MAGIC) {
+	    throw new IOException("not a ring file: " + file);
+	}
+	fullFence(); //magic before header
+	return new ShmRing(b);
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+	RandomAccessFile raf = new RandomAccessFile(file, "rw");
+	try {
+	    FileChannel ch = raf.getChannel();
+	    MappedByteBuffer b = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+	    b.order(ByteOrder.nativeOrder());
+	    return b;
+	} finally {
+	    raf.close(); //mapping stays valid
+	}
+    }
+
+    public int capacity() {
+	return capacity;
+    }
+
+    /**
+     * @return largest record length accepted by offer
+     */
+    public int maxRecord() {
+	return capacity / 2 - 8;
+    }
+
+    private static int align(int n) {
+	return (n + 7) & ~7;
+    }
+
+    /**
+     * Append record (producer thread only)
+     * @param rec record bytes, position to limit
+     * @return false if ring is full (rec is unchanged)
+     */
+    public boolean offer(ByteBuffer rec) {
+	int len = rec.remaining();
+	if (len > maxRecord()) {
+	    throw new IllegalArgumentException("record too large: " + len);
+	}
+	int need = align(4 + len);
+	int idx = (int) tail & mask;
+	int toEnd = capacity - idx;
+	int required = toEnd < need ? toEnd + need : need;
+	if (tail + required - headCache > capacity) {
+	    headCache = buf.getLong(HEAD);
+	    if (tail + required - headCache > capacity) {
+		return false;
+	    }
+	    fullFence(); //consumer done with space before it is overwritten
+	}
+	if (toEnd < need) {
+	    buf.putInt(DATA + idx, PAD);
+	    tail += toEnd;
+	    idx = 0;
+	}
+	buf.putInt(DATA + idx, len);
+	ByteBuffer dst = buf.duplicate();
+	dst.position(DATA + idx + 4);
+	dst.put(rec);
+	tail += need;
+	fullFence(); //record before sequence
+	buf.putLong(TAIL, tail);
+	return true;
+    }
+
+    /**
+     * Next record (consumer thread only). The returned view points into
+     * the ring and is valid until release() is called.
+     * @return record (position to limit), or null if empty
+     */
+    public ByteBuffer peek() {
+	if (head == tailCache) {
+	    tailCache = buf.getLong(TAIL);
+	    if (head == tailCache) {
+		return null;
+	    }
+	    fullFence(); //sequence before record
+	}
+	int idx = (int) head & mask;
+	int len = buf.getInt(DATA + idx);
+	if (len == PAD) {
+	    head += capacity - idx;
+	    idx = 0;
+	    len = buf.getInt(DATA);
+	}
+	ByteBuffer rec = buf.duplicate();
+	rec.limit(DATA + idx + 4 + len);
+	rec.position(DATA + idx + 4);
+	head += align(4 + len);
+	return rec;
+    }
+
+    /**
+     * Give the space of records returned by peek() back to the producer.
+     * Call once after a batch of peeks to reduce shared writes.
+     */
+    public void release() {
+	fullFence(); //record reads before sequence
+	buf.putLong(HEAD, head);
+    }
+
+    /**
+     * Volatile write, then volatile read: no earlier access can move
+     * after it and no later access before it
+     * @return unused
+     */
+    private static int fullFence() {
+	fence = 0;
+	return fence;
+    }
+}
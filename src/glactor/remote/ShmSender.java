@@ -0,0 +1,88 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.remote;
+
+import glactor.codec.*;
+import java.io.*;
+import java.nio.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends messages to named actors in another process through a shared
+ * memory ring (see ShmReceiver, which creates the ring file).
+ * One-way: there are no replies; use RemoteNode for calls.
+ * Thread safe; concurrent senders are serialized (the ring has a
+ * single producer). If the ring is full, send waits for the receiver.
+ * <pre>
+ * Record: short nameLength, name (UTF-8), codec payload
+ * </pre>
+ * @see ShmRing
+ */
+public class ShmSender
+{
+    private final ShmRing ring;
+    private final IMsgCodec codec;
+    private ByteBuffer scratch = ByteBuffer.allocate(1024);
+
+    /**
+     * @param file ring file created by ShmReceiver
+     * @param codec message codec (same as receiver)
+     * @throws IOException
+     */
+    public ShmSender(File file, IMsgCodec codec) throws IOException {
+	this.ring = ShmRing.open(file);
+	this.codec = codec;
+    }
+
+    /**
+     * Send message to actor registered under name at receiver
+     * @param name actor name
+     * @param msg IMessage or Runnable, encodable by codec
+     * @throws IOException if msg cannot be encoded
+     * @throws IllegalArgumentException if name is over 65535 bytes (UTF-8)
+     */
+    public synchronized void send(String name, Object msg) throws IOException {
+	byte[] nm = name.getBytes("UTF-8");
+	if (nm.length > 0xffff) {
+	    throw new IllegalArgumentException("name too long: " + name);
+	}
+	while (true) {
+	    try {
+		scratch.clear();
+		scratch.putShort((short) nm.length);
+		scratch.put(nm);
+		codec.encode(msg, scratch);
+		break;
+	    } catch (BufferOverflowException e) {
+		if (scratch.capacity() > ring.maxRecord()) {
+		    throw new IOException("message too large for ring");
+		}
+		scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+	    }
+	}
+	scratch.flip();
+	if (scratch.remaining() > ring.maxRecord()) {
+	    throw new IOException("message too large for ring");
+	}
+	for (int i = 0; !ring.offer(scratch); i++) {
+	    if (i < 100) {
+		Thread.yield();
+	    } else {
+		LockSupport.parkNanos(10000);
+	    }
+	}
+    }
+}
@@ -0,0 +1,28 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.stm;
+
+/**
+ * Transaction body for Transaction.atomic(..). May run several times
+ * (on conflict), so it should have no side effects other than through
+ * tx.set(..).
+ * @param <V> result type
+ * @see Transaction
+ */
+public interface ITxBlock<V>
+{
+    V run(Transaction tx) throws Exception;
+}
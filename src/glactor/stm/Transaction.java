@@ -0,0 +1,189 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.stm;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optimistic (STM) transaction over TxVars of several actors.
+ * <p>
+ * Updating two actors atomically with messages means a blocking call
+ * into one actor while it calls the other, which serializes the work
+ * and deadlocks easily. Instead, actors keep shared state in TxVars,
+ * and any thread (typically an actor processing a message) runs
+ * Transaction.atomic(..): reads see a consistent snapshot, writes are
+ * staged in the transaction, and commit validates the versions read
+ * and publishes all writes at once, or retries the block on conflict.
+ * Nothing waits for another actor, so no worker thread is blocked,
+ * and transactions touching different variables run in parallel.
+ * <p>
+ * Algorithm (TL2): a global version clock is sampled at start; a read
+ * of a variable locked or committed after that aborts. At commit, the
+ * write set is locked (in id order, abort if taken), the clock is
+ * incremented, the read set is validated, and the values are written
+ * back and unlocked with the new version. Read-only transactions
+ * commit without locking or touching the clock.
+ * <pre>
+ * Usage:
+ *  Transaction.atomic(new ITxBlock&lt;Void>() {
+ *	public Void run(Transaction tx) {
+ *	    long b = tx.get(from.balance);
+ *	    if (b &lt; amount) throw new IllegalStateException("funds");
+ *	    tx.set(from.balance, b - amount);
+ *	    tx.set(to.balance, tx.get(to.balance) + amount);
+ *	    return null;
+ *	}});
+ * </pre>
+ * @see TxVar
+ */
+public final class Transaction
+{
+    static final AtomicLong clock = new AtomicLong();
+    private static final Comparator<TxVar<?>> byId = new Comparator<TxVar<?>>()
+    {
+	public int compare(TxVar<?> a, TxVar<?> b) {
+	    return a.id < b.id ? -1 : a.id == b.id ? 0 : 1;
+	}
+    };
+    private long readVersion;
+    private int attempt;
+    private final ArrayList<TxVar<?>> reads = new ArrayList<TxVar<?>>();
+    private final HashMap<TxVar<?>, Object> writes = new HashMap<TxVar<?>, Object>();
+
+    /**
+     * Thrown (internally) to abort and retry
+     */
+    private static class Conflict extends RuntimeException
+    {
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public Throwable fillInStackTrace() {
+	    return this;
+	}
+    }
+    private static final Conflict conflict = new Conflict();
+
+    private Transaction() {
+    }
+
+    /**
+     * Run block as a transaction in the calling thread, retrying on
+     * conflict until it commits.
+     * @param <V> result type
+     * @param block transaction body
+     * @return result of the committed run
+     * @throws Exception from block; the transaction is then discarded
+     *	    (no writes are published)
+     */
+    public static <V> V atomic(ITxBlock<V> block) throws Exception {
+	Transaction tx = new Transaction();
+	for (;; tx.attempt++) {
+	    tx.begin();
+	    try {
+		V v = block.run(tx);
+		if (tx.commit()) {
+		    return v;
+		}
+	    } catch (Conflict c) {
+	    }
+	    if (tx.attempt > 2) {
+		Thread.yield(); //back off
+	    }
+	}
+    }
+
+    private void begin() {
+	reads.clear();
+	writes.clear();
+	readVersion = clock.get();
+    }
+
+    /**
+     * @return #earlier runs of this transaction that conflicted
+     */
+    public int getAttempt() {
+	return attempt;
+    }
+
+    /**
+     * Read variable: staged value if written in this transaction, else
+     * the value committed as of transaction start.
+     * @param <T> value type
+     * @param var variable
+     * @return value
+     */
+    @SuppressWarnings("unchecked") //staged by set(TxVar<T>, T)
+    public <T> T get(TxVar<T> var) {
+	if (!writes.isEmpty() && writes.containsKey(var)) {
+	    return (T) writes.get(var);
+	}
+	long l = var.lockWord();
+	T v = var.value();
+	if ((l & 1) != 0 || (l >>> 1) > readVersion || var.lockWord() != l) {
+	    throw conflict; //changed since start
+	}
+	reads.add(var);
+	return v;
+    }
+
+    /**
+     * Stage a write, published at commit
+     * @param <T> value type
+     * @param var variable
+     * @param value new value
+     */
+    public <T> void set(TxVar<T> var, T value) {
+	writes.put(var, value);
+    }
+
+    private boolean commit() {
+	if (writes.isEmpty()) {
+	    return true; //reads were consistent at readVersion
+	}
+	TxVar<?>[] ws = writes.keySet().toArray(new TxVar<?>[writes.size()]);
+	Arrays.sort(ws, byId); //no livelock between overlapping commits
+	int locked = 0;
+	try {
+	    for (; locked < ws.length; locked++) {
+		if (!ws[locked].tryLock()) {
+		    return false;
+		}
+	    }
+	    long wv = clock.incrementAndGet();
+	    if (wv != readVersion + 1) { //others committed meanwhile
+		for (TxVar<?> r : reads) {
+		    long l = r.lockWord();
+		    if ((l >>> 1) > readVersion
+			    || ((l & 1) != 0 && !writes.containsKey(r))) {
+			return false;
+		    }
+		}
+	    }
+	    for (TxVar<?> w : ws) {
+		w.write(writes.get(w));
+		w.unlock(wv);
+	    }
+	    locked = 0;
+	    return true;
+	} finally {
+	    for (int i = 0; i < locked; i++) { //aborted
+		ws[i].unlock();
+	    }
+	}
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.stm;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Transactional variable: a piece of actor state that transactions
+ * (Transaction.atomic) may read and write together with TxVars of
+ * other actors.
+ * <p>
+ * Each variable carries the version (global clock value) of its last
+ * commit, and a lock bit held only while a commit writes it back.
+ * get()/set(..) outside a transaction are atomic single variable
+ * reads/commits, so the owning actor may use them in its messages.
+ * <pre>
+ * Usage:
+ *  class Account { final TxVar&lt;Long> balance = new TxVar&lt;Long>(0L); }
+ * </pre>
+ * @param <T> value type (should be immutable)
+ * @see Transaction
+ */
+public class TxVar<T>
+{
+    private static final AtomicLong ids = new AtomicLong();
+    @SuppressWarnings("unchecked") //no class literal for TxVar<?>
+    private static final AtomicLongFieldUpdater<TxVar<?>> LOCK
+	    = AtomicLongFieldUpdater.newUpdater(
+		    (Class<TxVar<?>>) (Class<?>) TxVar.class, "lock");
+    final long id;		//lock order
+    private volatile long lock;	//version << 1 | locked
+    private volatile T value;
+
+    public TxVar(T initial) {
+	id = ids.incrementAndGet();
+	value = initial;
+    }
+
+    /**
+     * @return last committed value
+     */
+    public T get() {
+	for (;;) {
+	    long l = lock;
+	    T v = value;
+	    if ((l & 1) == 0 && lock == l) {
+		return v;
+	    }
+	    Thread.yield(); //commit writing back
+	}
+    }
+
+    /**
+     * Commit value (single variable transaction)
+     * @param v new value
+     */
+    public void set(T v) {
+	while (!tryLock()) {
+	    Thread.yield();
+	}
+	value = v;
+	unlock(Transaction.clock.incrementAndGet());
+    }
+
+    /**
+     * @return version of last commit
+     */
+    public long getVersion() {
+	return lock >>> 1;
+    }
+
+    long lockWord() {
+	return lock;
+    }
+
+    T value() {
+	return value;
+    }
+
+    @SuppressWarnings("unchecked") //staged by set(TxVar<T>, T)
+    void write(Object v) {
+	value = (T) v;
+    }
+
+    boolean tryLock() {
+	long l = lock;
+	return (l & 1) == 0 && LOCK.compareAndSet(this, l, l | 1);
+    }
+
+    /**
+     * Release lock, keeping version
+     */
+    void unlock() {
+	lock &= ~1L;
+    }
+
+    /**
+     * Release lock with new version
+     */
+    void unlock(long version) {
+	lock = version << 1;
+    }
+
+    @Override
+    public String toString() {
+	return "TxVar{" + get() + "}";
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.utils;
+
+import glactor.core.IActorRef;
+import java.util.*;
+
+/**
+ * Send proxy receiving bursts of values at once.
+ * <p>
+ * Values sent while a previous delivery is still pending are queued
+ * in the proxy, and handed over together (up to batchSize per call)
+ * to actBatch, in one message to the actor.
+ * @param <A> Actor implementation
+ * @param <T> Message type
+ */
+public abstract class BatchSendProxy<A, T> extends SendProxy<A, T>
+{
+    private final int batchSize;
+    private final ArrayList<T> pending = new ArrayList<T>();
+    private int head; //first value of pending not yet delivered
+    private final ArrayList<T> batch = new ArrayList<T>(); //actor side
+    private boolean scheduled;
+    private final MsgSend<A> drain = new MsgSend<A>()
+    {
+	@Override
+	public void recv(A actorImpl) throws Exception {
+	    drain(actorImpl);
+	}
+    };
+
+    /**
+     * @param aRef Actor reference
+     * @param batchSize max #values per actBatch call
+     */
+    public BatchSendProxy(IActorRef<A> aRef, int batchSize) {
+	super(aRef);
+	this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Act on sent values
+     * @param actorImpl actor implementation
+     * @param vals values, in send order (list is reused; do not keep it)
+     * @throws Exception
+     */
+    protected abstract void actBatch(A actorImpl, List<T> vals)
+	    throws Exception;
+
+    /**
+     * Act on a single value, as a batch of one
+     */
+    @Override
+    protected final void act(A actorImpl, T val) {
+	try {
+	    actBatch(actorImpl, Collections.singletonList(val));
+	} catch (RuntimeException e) {
+	    throw e;
+	} catch (Exception e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    /**
+     * Send message (value); delivered with other pending values
+     * @param val value
+     */
+    @Override
+    public void send(T val) {
+	synchronized (pending) {
+	    pending.add(val);
+	    if (scheduled) {
+		return;
+	    }
+	    scheduled = true;
+	}
+	actorRef.send(drain);
+    }
+
+    /**
+     * Send value, replacing the values from this proxy that are still
+     * pending (not yet handed to actBatch)
+     * @param val value
+     */
+    @Override
+    public void sendLatest(T val) {
+	synchronized (pending) {
+	    pending.clear();
+	    head = 0;
+	    pending.add(val);
+	    if (scheduled) {
+		return;
+	    }
+	    scheduled = true;
+	}
+	actorRef.send(drain);
+    }
+
+    /**
+     * Deliver next batch. Stays scheduled until pending is empty, so
+     * only one drain message is queued at a time.
+     */
+    private void drain(A actorImpl) throws Exception {
+	synchronized (pending) {
+	    int end = Math.min(head + batchSize, pending.size());
+	    batch.addAll(pending.subList(head, end));
+	    head = end;
+	    if (head == pending.size()) {
+		pending.clear();
+		head = 0;
+	    } else if (head > pending.size() / 2) { //amortized, not per batch
+		pending.subList(0, head).clear();
+		head = 0;
+	    }
+	}
+	try {
+	    if (!batch.isEmpty()) {
+		actBatch(actorImpl, batch);
+	    }
+	} finally {
+	    batch.clear();
+	    boolean more;
+	    synchronized (pending) {
+		more = !pending.isEmpty();
+		scheduled = more;
+	    }
+	    if (more) {
+		actorRef.send(drain);
+	    }
+	}
+    }
+}
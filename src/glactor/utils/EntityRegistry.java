@@ -0,0 +1,432 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.utils;
+
+import glactor.core.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sharded registry of entity actors, keyed by entity id.
+ * <p>
+ * Actors are created lazily on the first message to an id, and
+ * passivated (state saved, actor dropped) when idle longer than
+ * a TTL or when the number of resident actors exceeds a limit (LRU).
+ * A later message to a passivated id activates it again, through
+ * the user supplied IStore hooks.
+ * <p>
+ * Lookup is striped: ids are hashed to a fixed number of segments,
+ * each with its own lock and LRU ordered map. Passivation is done as
+ * a message to the actor itself, so it runs after all messages queued
+ * before it. Messages arriving while passivation is in progress
+ * cancel it (the actor stays resident), so no message is lost.
+ * <pre>
+ * Usage:
+ *  EntityRegistry&lt;String, Session> reg = new EntityRegistry&lt;String, Session>(
+ *	    threadP, store, 100000, 60000);
+ *  reg.send("user42", new MsgSend&lt;Session>() {..});
+ *  reg.startSweeper(1000); //passivate idle sessions every second
+ * </pre>
+ * @param <K> entity id type
+ * @param <A> actor implementation
+ */
+public class EntityRegistry<K, A>
+{
+    /**
+     * Activation / passivation hooks.
+     * activate is called from the thread sending the first message,
+     * passivate from the entity's own actor thread.
+     * @param <K> entity id type
+     * @param <A> actor implementation
+     */
+    public interface IStore<K, A>
+    {
+	/**
+	 * Load (or create) actor implementation for entity id.
+	 * @param id entity id
+	 * @return actor implementation, never null
+	 * @throws Exception
+	 */
+	A activate(K id) throws Exception;
+
+	/**
+	 * Save state of an idle actor before it is dropped.
+	 * If an exception is thrown the actor stays resident.
+	 * @param id entity id
+	 * @param actorImpl actor implementation
+	 * @throws Exception
+	 */
+	void passivate(K id, A actorImpl) throws Exception;
+    }
+
+    private static final Logger
+	    logger = Logger.getLogger(EntityRegistry.class.toString());
+
+    private final ActorThreadPool threadP;
+    private final IStore<K, A> store;
+    private final Segment[] segments;
+    private final int segmentLimit;
+    private final long ttlMs;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong activations = new AtomicLong();
+    private final AtomicLong passivations = new AtomicLong();
+    private ScheduledExecutorService sweeper;
+
+    /**
+     * Registry entry; guarded by its segment, except 'ref' (guarded by entry)
+     */
+    private class Entry
+    {
+	final K id;
+	volatile IActorRef<A> ref;
+	long lastAccess;
+	int users;		//#threads between lookup and send
+	boolean passivating;
+	boolean resumed;	//touched while passivating
+
+	Entry(K id) {
+	    this.id = id;
+	}
+    }
+
+    private class Segment
+    {
+	final LinkedHashMap<K, Entry> map
+		= new LinkedHashMap<K, Entry>(16, 0.75f, true); //LRU order
+	int passivating;	//#entries marked passivating
+
+	/**
+	 * @return true if more entries than limit stay resident
+	 */
+	boolean overLimit(int limit) {
+	    return map.size() - passivating > limit;
+	}
+    }
+
+    /**
+     * @param threadP thread pool for created actors
+     * @param store activation / passivation hooks
+     * @param maxActive max #resident actors (LRU limit), &lt;=0 for no limit
+     * @param ttlMs passivate actors idle longer than this (see sweep()),
+     *	    &lt;=0 for no TTL
+     */
+    public EntityRegistry(ActorThreadPool threadP, IStore<K, A> store,
+	    int maxActive, long ttlMs) {
+	this(threadP, store, maxActive, ttlMs, 64);
+    }
+
+    /**
+     * @param threadP thread pool for created actors
+     * @param store activation / passivation hooks
+     * @param maxActive max #resident actors (LRU limit), &lt;=0 for no limit;
+     *	    each segment keeps maxActive/noSegments
+     * @param ttlMs passivate actors idle longer than this, &lt;=0 for no TTL
+     * @param noSegments number of lock stripes (at most maxActive, so
+     *	    every segment may keep one actor)
+     */
+    public EntityRegistry(ActorThreadPool threadP, IStore<K, A> store,
+	    int maxActive, long ttlMs, int noSegments) {
+	this.threadP = threadP;
+	this.store = store;
+	this.ttlMs = ttlMs;
+	if (maxActive > 0 && noSegments > maxActive) {
+	    noSegments = maxActive;
+	}
+	segments = newSegments(noSegments);
+	for (int i = 0; i < noSegments; i++) {
+	    segments[i] = new Segment();
+	}
+	segmentLimit = maxActive > 0 ? maxActive / noSegments : Integer.MAX_VALUE;
+    }
+
+    @SuppressWarnings("unchecked") //no generic array creation; filled in constructor
+    private Segment[] newSegments(int n) {
+	return (Segment[]) new EntityRegistry<?, ?>.Segment[n];
+    }
+
+    private Segment segmentFor(Object id) {
+	int h = id.hashCode();
+	h ^= (h >>> 16);
+	return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    /**
+     * Send message to entity actor (activated if needed)
+     * @param id entity id
+     * @param msg message
+     * @throws Exception if activation failed
+     */
+    public void send(K id, IMessage<A, ?> msg) throws Exception {
+	Segment seg = segmentFor(id);
+	Entry e = acquire(seg, id);
+	try {
+	    activated(e).send(msg);
+	} finally {
+	    release(seg, e);
+	}
+    }
+
+    /**
+     * Call entity actor (activated if needed)
+     * @param <V> future type
+     * @param id entity id
+     * @param msg message
+     * @return Future value
+     * @throws Exception if activation failed
+     */
+    public <V> FutureRef<V> call(K id, IMessage<A, V> msg) throws Exception {
+	Segment seg = segmentFor(id);
+	Entry e = acquire(seg, id);
+	try {
+	    return activated(e).call(msg);
+	} finally {
+	    release(seg, e);
+	}
+    }
+
+    private Entry acquire(Segment seg, K id) {
+	Entry victim = null;
+	Entry e;
+	synchronized (seg) {
+	    e = seg.map.get(id);
+	    if (e == null) {
+		misses.incrementAndGet();
+		e = new Entry(id);
+		seg.map.put(id, e);
+	    } else {
+		hits.incrementAndGet();
+		if (e.passivating) {
+		    e.resumed = true;
+		}
+	    }
+	    e.lastAccess = System.currentTimeMillis();
+	    ++e.users;
+	    if (seg.overLimit(segmentLimit)) {
+		victim = eldestIdle(seg);
+	    }
+	}
+	if (victim != null) {
+	    passivate(seg, victim);
+	}
+	return e;
+    }
+
+    private void release(Segment seg, Entry e) {
+	Entry victim = null;
+	synchronized (seg) {
+	    if (--e.users == 0 && e.ref == null && seg.map.get(e.id) == e) {
+		seg.map.remove(e.id); //activation failed
+	    }
+	    if (seg.overLimit(segmentLimit)) { //no idle victim at acquire
+		victim = eldestIdle(seg);
+	    }
+	}
+	if (victim != null) {
+	    passivate(seg, victim);
+	}
+    }
+
+    private IActorRef<A> activated(Entry e) throws Exception {
+	IActorRef<A> ref = e.ref;
+	if (ref == null) {
+	    synchronized (e) {
+		ref = e.ref;
+		if (ref == null) {
+		    ref = threadP.create(store.activate(e.id));
+		    activations.incrementAndGet();
+		    e.ref = ref;
+		}
+	    }
+	}
+	return ref;
+    }
+
+    /**
+     * Find least recently used entry that can be passivated
+     * (called with segment lock held)
+     */
+    private Entry eldestIdle(Segment seg) {
+	for (Entry e : seg.map.values()) {
+	    if (!e.passivating && e.users == 0 && e.ref != null) {
+		markPassivating(seg, e);
+		return e;
+	    }
+	}
+	return null;
+    }
+
+    private void markPassivating(Segment seg, Entry e) {
+	e.passivating = true;
+	e.resumed = false;
+	seg.passivating++;
+    }
+
+    /**
+     * Passivate entry (already marked 'passivating').
+     * Runs as last message in actors queue; removes entry unless
+     * touched since marked. If touched, another victim is picked while
+     * the segment is still over its limit.
+     */
+    private void passivate(final Segment seg, final Entry e) {
+	e.ref.send(new MsgSend<A>()
+	{
+	    @Override
+	    public void recv(A actorImpl) {
+		boolean saved = false;
+		try {
+		    store.passivate(e.id, actorImpl);
+		    saved = true;
+		} catch (Exception ex) {
+		    logger.log(Level.WARNING, "passivate failed: " + e.id, ex);
+		}
+		Entry next = null;
+		synchronized (seg) {
+		    e.passivating = false;
+		    seg.passivating--;
+		    if (saved && !e.resumed && e.users == 0) {
+			seg.map.remove(e.id);
+			passivations.incrementAndGet();
+		    } else if (saved && seg.overLimit(segmentLimit)) { //cancelled
+			next = eldestIdle(seg);
+		    }
+		}
+		if (next != null) {
+		    passivate(seg, next);
+		}
+	    }
+	});
+    }
+
+    /**
+     * Passivate all actors idle longer than the TTL.
+     * @return number of actors passivation was started for
+     */
+    public int sweep() {
+	if (ttlMs <= 0) {
+	    return 0;
+	}
+	long tmin = System.currentTimeMillis() - ttlMs;
+	int count = 0;
+	List<Entry> idle = new ArrayList<Entry>();
+	for (Segment seg : segments) {
+	    synchronized (seg) {
+		for (Entry e : seg.map.values()) {
+		    if (e.lastAccess >= tmin) {
+			break; //rest is more recently used
+		    }
+		    if (!e.passivating && e.users == 0 && e.ref != null) {
+			markPassivating(seg, e);
+			idle.add(e);
+		    }
+		}
+	    }
+	    for (Entry e : idle) {
+		passivate(seg, e);
+	    }
+	    count += idle.size();
+	    idle.clear();
+	}
+	return count;
+    }
+
+    /**
+     * Run sweep() periodically from a daemon thread
+     * @param periodMs sweep period
+     */
+    public synchronized void startSweeper(long periodMs) {
+	if (sweeper != null) {
+	    return;
+	}
+	sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+	{
+	    public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, "EntityRegistry-sweeper");
+		t.setDaemon(true);
+		return t;
+	    }
+	});
+	sweeper.scheduleWithFixedDelay(new Runnable()
+	{
+	    public void run() {
+		sweep();
+	    }
+	}, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop periodic sweeping
+     */
+    public synchronized void stopSweeper() {
+	if (sweeper != null) {
+	    sweeper.shutdown();
+	    sweeper = null;
+	}
+    }
+
+    /**
+     * Get #resident entries (including those being passivated)
+     * @return #entries
+     */
+    public int size() {
+	int n = 0;
+	for (Segment seg : segments) {
+	    synchronized (seg) {
+		n += seg.map.size();
+	    }
+	}
+	return n;
+    }
+
+    public long getHitCount() {
+	return hits.get();
+    }
+
+    public long getMissCount() {
+	return misses.get();
+    }
+
+    /**
+     * Lookup hit rate: hits / (hits + misses)
+     * @return hit rate 0..1
+     */
+    public double getHitRate() {
+	long h = hits.get();
+	long n = h + misses.get();
+	return n == 0 ? 0 : (double) h / n;
+    }
+
+    public long getActivationCount() {
+	return activations.get();
+    }
+
+    public long getPassivationCount() {
+	return passivations.get();
+    }
+
+    /**
+     * Reset counters
+     */
+    public void resetStatistics() {
+	hits.set(0);
+	misses.set(0);
+	activations.set(0);
+	passivations.set(0);
+    }
+}
@@ -0,0 +1,337 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.utils;
+
+import glactor.core.*;
+import glactor.monitor.StripedCounter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publish/subscribe event bus for actors.
+ * <p>
+ * Subscriptions are made to a topic (any key object), or to an event
+ * class; publish(event) is then delivered to subscribers of the event's
+ * class and all its superclasses and interfaces.
+ * The same event instance is delivered to every subscriber, so events
+ * should be immutable.
+ * <p>
+ * Subscriber lists are copy-on-write arrays; publishing does not lock
+ * the bus. Each subscriber has its own event queue, drained in its
+ * actor by one reusable message (no wrapper allocated per delivery).
+ * A subscriber may have a bounded queue; events are then dropped
+ * (and counted) when it is full, instead of slowing down the publisher.
+ * <pre>
+ * Usage:
+ *  EventBus bus = new EventBus();
+ *  bus.subscribe(PriceEvent.class, actor, new EventBus.IHandler&lt;Impl, PriceEvent>() {
+ *	public void onEvent(Impl impl, PriceEvent e) {..}
+ *  });
+ *  bus.publish(new PriceEvent(..));
+ * </pre>
+ */
+public class EventBus
+{
+    /**
+     * Event handler, called in subscribing actor
+     * @param <A> actor implementation
+     * @param <E> event type
+     */
+    public interface IHandler<A, E>
+    {
+	void onEvent(A actorImpl, E event) throws Exception;
+    }
+
+    private static final Logger
+	    logger = Logger.getLogger(EventBus.class.toString());
+    private static final Subscription<?, ?>[] NONE = new Subscription<?, ?>[0];
+    /** max events processed per drain message, before yielding */
+    static final int DRAIN_MAX = 256;
+
+    private final ConcurrentHashMap<Object, Subscription<?, ?>[]> topics
+	    = new ConcurrentHashMap<Object, Subscription<?, ?>[]>();
+    /** publish(event) lookup cache: event class -> all matching subscriptions */
+    private final ConcurrentHashMap<Class<?>, Subscription<?, ?>[]> resolved
+	    = new ConcurrentHashMap<Class<?>, Subscription<?, ?>[]>();
+    private final StripedCounter published = new StripedCounter();
+
+    /**
+     * Subscription of one actor to one topic.
+     * Holds the subscriber's event queue.
+     * @param <A> actor implementation
+     * @param <E> event type
+     */
+    public final class Subscription<A, E>
+    {
+	private final Object topic;
+	private final IActorRef<A> actor;
+	private final IHandler<A, E> handler;
+	private final int capacity;
+	private Object[] queue;
+	private int head, size;
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private volatile boolean cancelled;
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final MsgSend<A> drain = new MsgSend<A>()
+	{
+	    @Override
+	    public void recv(A actorImpl) {
+		drain(actorImpl);
+	    }
+	};
+
+	Subscription(Object topic, IActorRef<A> actor,
+		IHandler<A, E> handler, int capacity) {
+	    this.topic = topic;
+	    this.actor = actor;
+	    this.handler = handler;
+	    this.capacity = capacity;
+	    queue = new Object[capacity > 0 ? capacity : 16];
+	}
+
+	void offer(Object event) {
+	    synchronized (this) {
+		if (size == queue.length) {
+		    if (capacity > 0) {
+			dropped.incrementAndGet();
+			return;
+		    }
+		    Object[] q = new Object[size * 2];
+		    for (int i = 0; i < size; i++) {
+			q[i] = queue[(head + i) % queue.length];
+		    }
+		    queue = q;
+		    head = 0;
+		}
+		queue[(head + size++) % queue.length] = event;
+	    }
+	    if (scheduled.compareAndSet(false, true)) {
+		actor.send(drain);
+	    }
+	}
+
+	/**
+	 * Process queued events (in subscriber actor)
+	 */
+	private void drain(A actorImpl) {
+	    boolean done = false;
+	    try {
+		done = drainSome(actorImpl);
+	    } finally {
+		if (!done) { //more, or Error from handler
+		    actor.send(drain); //still scheduled; let other messages in first
+		}
+	    }
+	}
+
+	/**
+	 * @return true if queue was emptied (and unscheduled)
+	 */
+	@SuppressWarnings("unchecked") //queue holds E
+	private boolean drainSome(A actorImpl) {
+	    for (int n = 0; n < DRAIN_MAX; n++) {
+		Object event;
+		synchronized (this) {
+		    if (size == 0) {
+			scheduled.set(false);
+			return true;
+		    }
+		    event = queue[head];
+		    queue[head] = null;
+		    head = (head + 1) % queue.length;
+		    --size;
+		}
+		if (cancelled) {
+		    continue;
+		}
+		try {
+		    handler.onEvent(actorImpl, (E) event);
+		    delivered.incrementAndGet();
+		} catch (Exception e) {
+		    if (actorImpl instanceof IExceptHandler) {
+			((IExceptHandler) actorImpl).handleException(e);
+		    } else {
+			logger.log(Level.WARNING, "event handler failed", e);
+		    }
+		}
+	    }
+	    return false;
+	}
+
+	/**
+	 * Stop receiving events. Queued events are discarded.
+	 */
+	public void cancel() {
+	    cancelled = true;
+	    unsubscribe(this);
+	}
+
+	public Object getTopic() {
+	    return topic;
+	}
+
+	/**
+	 * @return #events handled by subscriber
+	 */
+	public long getDeliveredCount() {
+	    return delivered.get();
+	}
+
+	/**
+	 * @return #events dropped because queue was full
+	 */
+	public long getDroppedCount() {
+	    return dropped.get();
+	}
+
+	/**
+	 * @return #events waiting in queue
+	 */
+	public synchronized int getQueueSize() {
+	    return size;
+	}
+    }
+
+    /**
+     * Subscribe actor to topic, unbounded queue
+     * @param <A> actor implementation
+     * @param <E> event type
+     * @param topic topic key, or event class
+     * @param actor subscriber
+     * @param handler event handler
+     * @return subscription
+     */
+    public <A, E> Subscription<A, E> subscribe(Object topic,
+	    IActorRef<A> actor, IHandler<A, E> handler) {
+	return subscribe(topic, actor, handler, 0);
+    }
+
+    /**
+     * Subscribe actor to topic
+     * @param <A> actor implementation
+     * @param <E> event type
+     * @param topic topic key, or event class
+     * @param actor subscriber
+     * @param handler event handler
+     * @param capacity max #queued events, &lt;=0 for unbounded
+     * @return subscription
+     */
+    public synchronized <A, E> Subscription<A, E> subscribe(Object topic,
+	    IActorRef<A> actor, IHandler<A, E> handler, int capacity) {
+	Subscription<A, E> s
+		= new Subscription<A, E>(topic, actor, handler, capacity);
+	Subscription<?, ?>[] old = topics.get(topic);
+	if (old == null) {
+	    old = NONE;
+	}
+	Subscription<?, ?>[] arr = new Subscription<?, ?>[old.length + 1];
+	System.arraycopy(old, 0, arr, 0, old.length);
+	arr[old.length] = s;
+	topics.put(topic, arr);
+	resolved.clear();
+	return s;
+    }
+
+    private synchronized void unsubscribe(Subscription<?, ?> s) {
+	Subscription<?, ?>[] old = topics.get(s.topic);
+	if (old == null) {
+	    return;
+	}
+	List<Subscription<?, ?>> lst = new ArrayList<Subscription<?, ?>>(Arrays.asList(old));
+	if (!lst.remove(s)) {
+	    return;
+	}
+	if (lst.isEmpty()) {
+	    topics.remove(s.topic);
+	} else {
+	    topics.put(s.topic, lst.toArray(NONE));
+	}
+	resolved.clear();
+    }
+
+    /**
+     * Publish event to subscribers of topic
+     * @param topic topic key
+     * @param event event (immutable)
+     * @return #subscribers event was offered to
+     */
+    public int publish(Object topic, Object event) {
+	return deliver(topics.get(topic), event);
+    }
+
+    /**
+     * Publish event to subscribers of its class, superclasses
+     * and interfaces
+     * @param event event (immutable)
+     * @return #subscribers event was offered to
+     */
+    public int publish(Object event) {
+	Class<?> cz = event.getClass();
+	Subscription<?, ?>[] subs = resolved.get(cz);
+	if (subs == null) {
+	    subs = resolve(cz);
+	}
+	return deliver(subs, event);
+    }
+
+    private int deliver(Subscription<?, ?>[] subs, Object event) {
+	published.increment(); //striped: every publisher thread hits it
+	if (subs == null) {
+	    return 0;
+	}
+	for (Subscription<?, ?> s : subs) {
+	    s.offer(event);
+	}
+	return subs.length;
+    }
+
+    private synchronized Subscription<?, ?>[] resolve(Class<?> cz) {
+	Set<Class<?>> types = new LinkedHashSet<Class<?>>();
+	for (Class<?> c = cz; c != null; c = c.getSuperclass()) {
+	    addWithInterfaces(c, types);
+	}
+	List<Subscription<?, ?>> lst = new ArrayList<Subscription<?, ?>>();
+	for (Class<?> c : types) {
+	    Subscription<?, ?>[] subs = topics.get(c);
+	    if (subs != null) {
+		lst.addAll(Arrays.asList(subs));
+	    }
+	}
+	Subscription<?, ?>[] arr = lst.toArray(NONE);
+	resolved.put(cz, arr);
+	return arr;
+    }
+
+    private static void addWithInterfaces(Class<?> c, Set<Class<?>> types) {
+	if (types.add(c)) {
+	    for (Class<?> i : c.getInterfaces()) {
+		addWithInterfaces(i, types);
+	    }
+	}
+    }
+
+    /**
+     * @return #publish calls (not an atomic snapshot while publishing)
+     */
+    public long getPublishCount() {
+	return published.sum();
+    }
+}
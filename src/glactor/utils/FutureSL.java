@@ -48,6 +48,21 @@ public class FutureSL<V> extends FutureTask<V>
 	return super.get();
     }
 
+    /**
+     * Join: get result, helping if possible.
+     * Runs the task in the calling thread if no worker has started it
+     * yet (then the queued copy does nothing), else waits for it.
+     * @return result
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    public V join() throws InterruptedException, ExecutionException {
+	if (!isDone()) {
+	    run();
+	}
+	return super.get();
+    }
+
     /*
     protected RunnableFuture <V> future;
     public FutureSL(ActorThreadPool atp) {
@@ -0,0 +1,41 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.utils;
+
+import glactor.core.IConflatable;
+
+/**
+ * Send-only message with conflation key.
+ * Sent to an actor with a ConflatingMailbox, it replaces a pending
+ * message with equal key (only the latest is received).
+ * @param <A> Receiving actor implementation
+ * @see glactor.core.ConflatingMailbox
+ */
+public abstract class MsgConflate<A> extends MsgSend<A> implements IConflatable
+{
+    private final Object key;
+
+    /**
+     * @param key conflation key
+     */
+    public MsgConflate(Object key) {
+	this.key = key;
+    }
+
+    public Object conflationKey() {
+	return key;
+    }
+}
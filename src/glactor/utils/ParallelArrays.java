@@ -0,0 +1,552 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.utils;
+
+import glactor.core.ActorThreadPool;
+import java.util.Arrays;
+
+/**
+ * Parallel array operations on int[], long[] and double[]:
+ * sort, map, reduce and prefix scan.
+ * <p>
+ * Built on RangeTask; works in place on index ranges of the given
+ * array, never on copies. Sorting uses one scratch array for all
+ * merge levels.
+ * <pre>
+ * Usage:
+ *  ParallelArrays pa = new ParallelArrays(threadP);
+ *  pa.sort(values);
+ *  long sum = pa.reduce(values, 0, new ParallelArrays.ILongOp() {
+ *	public long apply(long a, long b) { return a + b; }
+ *  });
+ * </pre>
+ * Operators given to reduce and prefixScan must be associative.
+ */
+public class ParallelArrays
+{
+    /** default minimum range length computed sequentially */
+    public static final int MIN_LEN = 8192;
+    private final ActorThreadPool threadP;
+    private final int minLen;
+
+    public ParallelArrays(ActorThreadPool threadP) {
+	this(threadP, MIN_LEN);
+    }
+
+    /**
+     * @param threadP thread pool
+     * @param minLen ranges this short or shorter are done sequentially
+     */
+    public ParallelArrays(ActorThreadPool threadP, int minLen) {
+	this.threadP = threadP;
+	this.minLen = Math.max(2, minLen);
+    }
+
+    /**
+     * Binary int operator
+     */
+    public interface IIntOp
+    {
+	int apply(int a, int b);
+    }
+
+    /**
+     * Unary int function
+     */
+    public interface IIntMap
+    {
+	int map(int v);
+    }
+
+    /**
+     * Binary long operator
+     */
+    public interface ILongOp
+    {
+	long apply(long a, long b);
+    }
+
+    /**
+     * Unary long function
+     */
+    public interface ILongMap
+    {
+	long map(long v);
+    }
+
+    /**
+     * Binary double operator
+     */
+    public interface IDoubleOp
+    {
+	double apply(double a, double b);
+    }
+
+    /**
+     * Unary double function
+     */
+    public interface IDoubleMap
+    {
+	double map(double v);
+    }
+
+    /**
+     * Sort array, ascending (same order as Arrays.sort)
+     * @param arr array
+     * @throws Exception
+     */
+    public void sort(final int[] arr) throws Exception {
+	final int[] tmp = new int[arr.length];
+	new RangeTask<Object>(threadP, minLen)
+	{
+	    @Override
+	    protected Object compute(int lo, int hi) {
+		Arrays.sort(arr, lo, hi);
+		return null;
+	    }
+
+	    @Override
+	    protected Object combine(Object l, Object r, int lo, int mid, int hi) {
+		merge(arr, tmp, lo, mid, hi);
+		return null;
+	    }
+	}.invoke(0, arr.length);
+    }
+
+    /**
+     * Merge sorted arr[lo, mid) and arr[mid, hi) in place,
+     * via tmp[lo, mid)
+     */
+    static void merge(int[] arr, int[] tmp, int lo, int mid, int hi) {
+	if (arr[mid - 1] <= arr[mid]) {
+	    return; //already in order
+	}
+	System.arraycopy(arr, lo, tmp, lo, mid - lo);
+	int i = lo, j = mid, k = lo;
+	while (i < mid && j < hi) {
+	    arr[k++] = (arr[j] < tmp[i]) ? arr[j++] : tmp[i++];
+	}
+	while (i < mid) {
+	    arr[k++] = tmp[i++];
+	}
+    }
+
+    /**
+     * Apply function to each element, in place
+     * @param arr array
+     * @param f function
+     * @throws Exception
+     */
+    public void map(final int[] arr, final IIntMap f) throws Exception {
+	new RangeTask<Object>(threadP, minLen)
+	{
+	    @Override
+	    protected Object compute(int lo, int hi) {
+		for (int i = lo; i < hi; i++) {
+		    arr[i] = f.map(arr[i]);
+		}
+		return null;
+	    }
+	}.invoke(0, arr.length);
+    }
+
+    /**
+     * Reduce array with associative operator
+     * @param arr array
+     * @param identity result for empty array
+     * @param op operator
+     * @return op(..op(op(arr[0], arr[1]), arr[2]).., arr[n-1])
+     * @throws Exception
+     */
+    public int reduce(final int[] arr, int identity, final IIntOp op)
+	    throws Exception {
+	if (arr.length == 0) {
+	    return identity;
+	}
+	return new RangeTask<Integer>(threadP, minLen)
+	{
+	    @Override
+	    protected Integer compute(int lo, int hi) {
+		return reduce(arr, lo, hi, op);
+	    }
+
+	    @Override
+	    protected Integer combine(Integer l, Integer r, int lo, int mid, int hi) {
+		return op.apply(l, r);
+	    }
+	}.invoke(0, arr.length);
+    }
+
+    static int reduce(int[] arr, int lo, int hi, IIntOp op) {
+	int acc = arr[lo];
+	for (int i = lo + 1; i < hi; i++) {
+	    acc = op.apply(acc, arr[i]);
+	}
+	return acc;
+    }
+
+    /**
+     * Inclusive prefix scan with associative operator, in place:
+     * arr[i] = op(..op(arr[0], arr[1]).., arr[i])
+     * @param arr array
+     * @param op operator
+     * @throws Exception
+     */
+    public void prefixScan(final int[] arr, final IIntOp op) throws Exception {
+	final int n = arr.length;
+	final int blockLen = minLen;
+	int noBlocks = (n + blockLen - 1) / blockLen;
+	if (noBlocks <= 1) {
+	    scan(arr, 0, n, op);
+	    return;
+	}
+	//1: reduce each block
+	final int[] carry = new int[noBlocks];
+	new RangeTask<Object>(threadP, 1)
+	{
+	    @Override
+	    protected Object compute(int b, int bEnd) {
+		for (; b < bEnd; b++) {
+		    int lo = b * blockLen;
+		    carry[b] = reduce(arr, lo, Math.min(lo + blockLen, n), op);
+		}
+		return null;
+	    }
+	}.invoke(0, noBlocks);
+	//2: scan block sums (few)
+	scan(carry, 0, noBlocks, op);
+	//3: scan each block, starting from carry of preceding blocks
+	new RangeTask<Object>(threadP, 1)
+	{
+	    @Override
+	    protected Object compute(int b, int bEnd) {
+		for (; b < bEnd; b++) {
+		    int lo = b * blockLen;
+		    int hi = Math.min(lo + blockLen, n);
+		    if (b > 0) {
+			arr[lo] = op.apply(carry[b - 1], arr[lo]);
+		    }
+		    scan(arr, lo, hi, op);
+		}
+		return null;
+	    }
+	}.invoke(0, noBlocks);
+    }
+
+    static void scan(int[] arr, int lo, int hi, IIntOp op) {
+	for (int i = lo + 1; i < hi; i++) {
+	    arr[i] = op.apply(arr[i - 1], arr[i]);
+	}
+    }
+
+    /**
+     * Sort array, ascending (same order as Arrays.sort)
+     * @param arr array
+     * @throws Exception
+     */
+    public void sort(final long[] arr) throws Exception {
+	final long[] tmp = new long[arr.length];
+	new RangeTask<Object>(threadP, minLen)
+	{
+	    @Override
+	    protected Object compute(int lo, int hi) {
+		Arrays.sort(arr, lo, hi);
+		return null;
+	    }
+
+	    @Override
+	    protected Object combine(Object l, Object r, int lo, int mid, int hi) {
+		merge(arr, tmp, lo, mid, hi);
+		return null;
+	    }
+	}.invoke(0, arr.length);
+    }
+
+    /**
+     * Merge sorted arr[lo, mid) and arr[mid, hi) in place,
+     * via tmp[lo, mid)
+     */
+    static void merge(long[] arr, long[] tmp, int lo, int mid, int hi) {
+	if (arr[mid - 1] <= arr[mid]) {
+	    return; //already in order
+	}
+	System.arraycopy(arr, lo, tmp, lo, mid - lo);
+	int i = lo, j = mid, k = lo;
+	while (i < mid && j < hi) {
+	    arr[k++] = (arr[j] < tmp[i]) ? arr[j++] : tmp[i++];
+	}
+	while (i < mid) {
+	    arr[k++] = tmp[i++];
+	}
+    }
+
+    /**
+     * Apply function to each element, in place
+     * @param arr array
+     * @param f function
+     * @throws Exception
+     */
+    public void map(final long[] arr, final ILongMap f) throws Exception {
+	new RangeTask<Object>(threadP, minLen)
+	{
+	    @Override
+	    protected Object compute(int lo, int hi) {
+		for (int i = lo; i < hi; i++) {
+		    arr[i] = f.map(arr[i]);
+		}
+		return null;
+	    }
+	}.invoke(0, arr.length);
+    }
+
+    /**
+     * Reduce array with associative operator
+     * @param arr array
+     * @param identity result for empty array
+     * @param op operator
+     * @return op(..op(op(arr[0], arr[1]), arr[2]).., arr[n-1])
+     * @throws Exception
+     */
+    public long reduce(final long[] arr, long identity, final ILongOp op)
+	    throws Exception {
+	if (arr.length == 0) {
+	    return identity;
+	}
+	return new RangeTask<Long>(threadP, minLen)
+	{
+	    @Override
+	    protected Long compute(int lo, int hi) {
+		return reduce(arr, lo, hi, op);
+	    }
+
+	    @Override
+	    protected Long combine(Long l, Long r, int lo, int mid, int hi) {
+		return op.apply(l, r);
+	    }
+	}.invoke(0, arr.length);
+    }
+
+    static long reduce(long[] arr, int lo, int hi, ILongOp op) {
+	long acc = arr[lo];
+	for (int i = lo + 1; i < hi; i++) {
+	    acc = op.apply(acc, arr[i]);
+	}
+	return acc;
+    }
+
+    /**
+     * Inclusive prefix scan with associative operator, in place:
+     * arr[i] = op(..op(arr[0], arr[1]).., arr[i])
+     * @param arr array
+     * @param op operator
+     * @throws Exception
+     */
+    public void prefixScan(final long[] arr, final ILongOp op) throws Exception {
+	final int n = arr.length;
+	final int blockLen = minLen;
+	int noBlocks = (n + blockLen - 1) / blockLen;
+	if (noBlocks <= 1) {
+	    scan(arr, 0, n, op);
+	    return;
+	}
+	//1: reduce each block
+	final long[] carry = new long[noBlocks];
+	new RangeTask<Object>(threadP, 1)
+	{
+	    @Override
+	    protected Object compute(int b, int bEnd) {
+		for (; b < bEnd; b++) {
+		    int lo = b * blockLen;
+		    carry[b] = reduce(arr, lo, Math.min(lo + blockLen, n), op);
+		}
+		return null;
+	    }
+	}.invoke(0, noBlocks);
+	//2: scan block sums (few)
+	scan(carry, 0, noBlocks, op);
+	//3: scan each block, starting from carry of preceding blocks
+	new RangeTask<Object>(threadP, 1)
+	{
+	    @Override
+	    protected Object compute(int b, int bEnd) {
+		for (; b < bEnd; b++) {
+		    int lo = b * blockLen;
+		    int hi = Math.min(lo + blockLen, n);
+		    if (b > 0) {
+			arr[lo] = op.apply(carry[b - 1], arr[lo]);
+		    }
+		    scan(arr, lo, hi, op);
+		}
+		return null;
+	    }
+	}.invoke(0, noBlocks);
+    }
+
+    static void scan(long[] arr, int lo, int hi, ILongOp op) {
+	for (int i = lo + 1; i < hi; i++) {
+	    arr[i] = op.apply(arr[i - 1], arr[i]);
+	}
+    }
+
+    /**
+     * Sort array, ascending (same order as Arrays.sort)
+     * @param arr array
+     * @throws Exception
+     */
+    public void sort(final double[] arr) throws Exception {
+	final double[] tmp = new double[arr.length];
+	new RangeTask<Object>(threadP, minLen)
+	{
+	    @Override
+	    protected Object compute(int lo, int hi) {
+		Arrays.sort(arr, lo, hi);
+		return null;
+	    }
+
+	    @Override
+	    protected Object combine(Object l, Object r, int lo, int mid, int hi) {
+		merge(arr, tmp, lo, mid, hi);
+		return null;
+	    }
+	}.invoke(0, arr.length);
+    }
+
+    /**
+     * Merge sorted arr[lo, mid) and arr[mid, hi) in place,
+     * via tmp[lo, mid)
+     */
+    static void merge(double[] arr, double[] tmp, int lo, int mid, int hi) {
+	if (Double.compare(arr[mid - 1], arr[mid]) <= 0) {
+	    return; //already in order
+	}
+	System.arraycopy(arr, lo, tmp, lo, mid - lo);
+	int i = lo, j = mid, k = lo;
+	while (i < mid && j < hi) {
+	    arr[k++] = (Double.compare(arr[j], tmp[i]) < 0) ? arr[j++] : tmp[i++];
+	}
+	while (i < mid) {
+	    arr[k++] = tmp[i++];
+	}
+    }
+
+    /**
+     * Apply function to each element, in place
+     * @param arr array
+     * @param f function
+     * @throws Exception
+     */
+    public void map(final double[] arr, final IDoubleMap f) throws Exception {
+	new RangeTask<Object>(threadP, minLen)
+	{
+	    @Override
+	    protected Object compute(int lo, int hi) {
+		for (int i = lo; i < hi; i++) {
+		    arr[i] = f.map(arr[i]);
+		}
+		return null;
+	    }
+	}.invoke(0, arr.length);
+    }
+
+    /**
+     * Reduce array with associative operator
+     * @param arr array
+     * @param identity result for empty array
+     * @param op operator
+     * @return op(..op(op(arr[0], arr[1]), arr[2]).., arr[n-1])
+     * @throws Exception
+     */
+    public double reduce(final double[] arr, double identity, final IDoubleOp op)
+	    throws Exception {
+	if (arr.length == 0) {
+	    return identity;
+	}
+	return new RangeTask<Double>(threadP, minLen)
+	{
+	    @Override
+	    protected Double compute(int lo, int hi) {
+		return reduce(arr, lo, hi, op);
+	    }
+
+	    @Override
+	    protected Double combine(Double l, Double r, int lo, int mid, int hi) {
+		return op.apply(l, r);
+	    }
+	}.invoke(0, arr.length);
+    }
+
+    static double reduce(double[] arr, int lo, int hi, IDoubleOp op) {
+	double acc = arr[lo];
+	for (int i = lo + 1; i < hi; i++) {
+	    acc = op.apply(acc, arr[i]);
+	}
+	return acc;
+    }
+
+    /**
+     * Inclusive prefix scan with associative operator, in place:
+     * arr[i] = op(..op(arr[0], arr[1]).., arr[i])
+     * @param arr array
+     * @param op operator
+     * @throws Exception
+     */
+    public void prefixScan(final double[] arr, final IDoubleOp op) throws Exception {
+	final int n = arr.length;
+	final int blockLen = minLen;
+	int noBlocks = (n + blockLen - 1) / blockLen;
+	if (noBlocks <= 1) {
+	    scan(arr, 0, n, op);
+	    return;
+	}
+	//1: reduce each block
+	final double[] carry = new double[noBlocks];
+	new RangeTask<Object>(threadP, 1)
+	{
+	    @Override
+	    protected Object compute(int b, int bEnd) {
+		for (; b < bEnd; b++) {
+		    int lo = b * blockLen;
+		    carry[b] = reduce(arr, lo, Math.min(lo + blockLen, n), op);
+		}
+		return null;
+	    }
+	}.invoke(0, noBlocks);
+	//2: scan block sums (few)
+	scan(carry, 0, noBlocks, op);
+	//3: scan each block, starting from carry of preceding blocks
+	new RangeTask<Object>(threadP, 1)
+	{
+	    @Override
+	    protected Object compute(int b, int bEnd) {
+		for (; b < bEnd; b++) {
+		    int lo = b * blockLen;
+		    int hi = Math.min(lo + blockLen, n);
+		    if (b > 0) {
+			arr[lo] = op.apply(carry[b - 1], arr[lo]);
+		    }
+		    scan(arr, lo, hi, op);
+		}
+		return null;
+	    }
+	}.invoke(0, noBlocks);
+    }
+
+    static void scan(double[] arr, int lo, int hi, IDoubleOp op) {
+	for (int i = lo + 1; i < hi; i++) {
+	    arr[i] = op.apply(arr[i - 1], arr[i]);
+	}
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.utils;
+
+import glactor.core.ActorThreadPool;
+import java.util.concurrent.*;
+
+/**
+ * Divide-and-conquer over an index range [lo, hi) of some shared
+ * array or buffer (no copies of the data are made).
+ * <p>
+ * invoke(lo, hi) splits the range in two halves until it is no longer
+ * than minLen; the left half is forked as a FutureSL on the thread pool,
+ * the right half computed inline, and the left half then joined with
+ * helping (run inline if not yet picked up by a worker).
+ * <pre>
+ * Usage:
+ *  final long[] arr = ..;
+ *  long sum = new RangeTask&lt;Long>(threadP, 10000) {
+ *	protected Long compute(int lo, int hi) {
+ *	    long s = 0;
+ *	    for (int i = lo; i &lt; hi; i++) s += arr[i];
+ *	    return s;
+ *	}
+ *	protected Long combine(Long l, Long r, int lo, int mid, int hi) {
+ *	    return l + r;
+ *	}
+ *  }.invoke(0, arr.length);
+ * </pre>
+ * Stateless; one instance may be invoked many times, concurrently.
+ * @param <V> result type
+ * @see ParallelArrays
+ */
+public abstract class RangeTask<V>
+{
+    protected final ActorThreadPool threadP;
+    protected final int minLen;
+
+    /**
+     * @param threadP thread pool for forked halves
+     * @param minLen ranges this short or shorter are computed directly
+     */
+    public RangeTask(ActorThreadPool threadP, int minLen) {
+	this.threadP = threadP;
+	this.minLen = Math.max(1, minLen);
+    }
+
+    /**
+     * Compute range directly
+     * @param lo start index
+     * @param hi end index (exclusive)
+     * @return result
+     * @throws Exception
+     */
+    protected abstract V compute(int lo, int hi) throws Exception;
+
+    /**
+     * Combine results of two adjacent ranges, [lo, mid) and [mid, hi).
+     * Default returns null (for tasks working in place).
+     * @return combined result
+     * @throws Exception
+     */
+    protected V combine(V left, V right, int lo, int mid, int hi)
+	    throws Exception {
+	return null;
+    }
+
+    /**
+     * Compute range [lo, hi), in parallel
+     * @param lo start index
+     * @param hi end index (exclusive)
+     * @return result
+     * @throws Exception thrown by compute or combine
+     */
+    public V invoke(final int lo, int hi) throws Exception {
+	if (hi - lo <= minLen) {
+	    return compute(lo, hi);
+	}
+	final int mid = (lo + hi) >>> 1;
+	FutureSL<V> left = FutureSL.create(threadP, new Callable<V>()
+	{
+	    public V call() throws Exception {
+		return invoke(lo, mid);
+	    }
+	});
+	V right = invoke(mid, hi);
+	V l;
+	try {
+	    l = left.join();
+	} catch (ExecutionException e) {
+	    Throwable c = e.getCause();
+	    if (c instanceof Exception) {
+		throw (Exception) c;
+	    }
+	    throw e;
+	}
+	return combine(l, right, lo, mid, hi);
+    }
+}
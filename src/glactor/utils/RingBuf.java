@@ -1,26 +1,33 @@
 package glactor.utils;
 
-import java.util.Iterator;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.*;
+import java.util.concurrent.atomic.*;
 
 /**
- * Threadsafe ringbuffer, linked list implementation.
- * Upon insertion, oldest elements are removed
- * while size > maxSize.
+ * Threadsafe ringbuffer, fixed array implementation.
+ * Keeps the last maxSize elements added; older elements are
+ * overwritten.
+ * <p>
+ * add(..) claims a sequence number with one atomic increment and
+ * writes its slot (array size is a power of two), without allocation.
+ * Each slot carries its sequence number, so a writer delayed until a
+ * newer element (a full ring later) has taken its slot drops its
+ * element instead of overwriting the newer one; two writers of the
+ * same slot briefly wait for each other. Readers take a snapshot,
+ * skipping slots being overwritten meanwhile.
  *
  * (Usage example: Debug a concurrent program
  *  by continuously storing the last N events)
  * @author torcbek
  * @param <T> element type.
  */
-public class RingBuf<T>
+public class RingBuf<T> implements Iterable<T>
 {
-//	private Queue<T> lst = new LinkedList<T>();
-//	private Queue<T> lst = new LinkedBlockingQueue<T>();
-    private Queue<T> lst = new ConcurrentLinkedQueue<T>();
-    private AtomicBoolean a = new AtomicBoolean();
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicLongArray seqs; //sequence of slot element; -1 = none
+    private static final long WRITING = -2;
+    private final int mask;
     public final int maxSize; //max ringbuffer size
 
     /**
@@ -28,7 +35,20 @@ public class RingBuf<T>
      * @param size max ringbuffer size
      */
     public RingBuf(int size) {
+	if (size < 1 || size > 1 << 30) {
+	    throw new IllegalArgumentException("size " + size);
+	}
 	maxSize = size;
+	int n = Integer.highestOneBit(size);
+	if (n < size) {
+	    n <<= 1;
+	}
+	mask = n - 1;
+	slots = new AtomicReferenceArray<T>(n);
+	seqs = new AtomicLongArray(n);
+	for (int i = 0; i < n; i++) {
+	    seqs.set(i, -1);
+	}
     }
 
     /**
@@ -36,20 +56,74 @@ public class RingBuf<T>
      * @param elem element to add
      */
     public void add(T elem) {
-	lst.add(elem);
-	if (a.compareAndSet(false, true)) {
-	    while (lst.size() > maxSize) {
-		lst.remove();
+	long s = next.getAndIncrement();
+	int i = (int) s & mask;
+	for (;;) {
+	    long cur = seqs.get(i);
+	    if (cur == WRITING) {
+		Thread.yield(); //other writer of slot
+	    } else if (cur > s) {
+		return; //newer element already there
+	    } else if (seqs.compareAndSet(i, cur, WRITING)) {
+		break;
 	    }
-	    a.set(false);
 	}
+	slots.set(i, elem);
+	seqs.set(i, s);
+    }
+
+    /**
+     * @return #elements added since creation (or clear)
+     */
+    public long getAddCount() {
+	return next.get();
+    }
+
+    /**
+     * @return #elements held
+     */
+    public int size() {
+	return (int) Math.min(next.get(), maxSize);
     }
 
     /**
-     * Get ringbuffer iterator
+     * Get last elements, oldest first. Elements added or overwritten
+     * during the call may be left out.
+     * @return copy of last (up to maxSize) elements
+     */
+    public List<T> snapshot() {
+	long end = next.get();
+	long s = Math.max(0, end - maxSize);
+	List<T> lst = new ArrayList<T>((int) (end - s));
+	for (; s < end; s++) {
+	    int i = (int) s & mask;
+	    if (seqs.get(i) != s) {
+		continue; //overwritten, or not yet written
+	    }
+	    T e = slots.get(i);
+	    if (seqs.get(i) == s) {
+		lst.add(e);
+	    }
+	}
+	return lst;
+    }
+
+    /**
+     * Get ringbuffer iterator (of snapshot())
      * @return iterator
      */
     public Iterator<T> iterator() {
-	return lst.iterator();
+	return snapshot().iterator();
+    }
+
+    /**
+     * Remove all elements (not concurrently with add)
+     */
+    public void clear() {
+	for (int i = 0; i <= mask; i++) {
+	    seqs.set(i, -1);
+	    slots.set(i, null);
+	}
+	next.set(0);
     }
 }
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2011 Tor C Bekkvik
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package glactor.utils;
+
+import glactor.core.*;
+import java.util.*;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Scatter-gather: send one message to a group of actors, and fold
+ * their replies into one result as they arrive (replies are not kept).
+ * The whole operation completes as a single Future.
+ * <pre>
+ * Usage:
+ *  FutureRef&lt;Integer> total = ScatterGather.call(shards,
+ *	new IMessage&lt;Shard, Integer>() {
+ *	    public Integer act(Shard s) { return s.count(); }
+ *	}, 0, new ScatterGather.IReducer&lt;Integer, Integer>() {
+ *	    public Integer reduce(Integer acc, Integer v) { return acc + v; }
+ *	}, 100, ScatterGather.Policy.PARTIAL);
+ * </pre>
+ */
+public class ScatterGather
+{
+    /**
+     * Fold replies into accumulated result.
+     * Calls are serialized (never concurrent), in arrival order.
+     * @param <V> reply type
+     * @param <R> result type
+     */
+    public interface IReducer<V, R>
+    {
+	R reduce(R acc, V value) throws Exception;
+    }
+
+    /**
+     * What to do on timeout or failed replies
+     */
+    public enum Policy
+    {
+	/** all replies required; timeout or failure fails the result */
+	ALL,
+	/** on timeout, complete with replies received so far;
+	 * failed replies are skipped */
+	PARTIAL
+    }
+
+    private static Timer timer;
+
+    private static synchronized Timer timer() {
+	if (timer == null) {
+	    timer = new Timer("ScatterGather-timeout", true);
+	}
+	return timer;
+    }
+
+    /**
+     * Gather state of one scatter-gather operation
+     */
+    private static class Gather<V, R>
+    {
+	final FuturePromise<R> promise;
+	final IReducer<V, R> reducer;
+	final Policy policy;
+	R acc;
+	int remaining, noReplies, noFailed;
+	TimerTask timeout;
+
+	Gather(R initial, IReducer<V, R> reducer, Policy policy,
+		Collection<? extends IActorRef<?>> actors) {
+	    acc = initial;
+	    this.reducer = reducer;
+	    this.policy = policy;
+	    remaining = actors.size();
+	    promise = new FuturePromise<R>(actors) //waiters run the actors
+	    {
+		@Override
+		protected void done() { //completed or cancelled
+		    super.done();
+		    cancelTimeout();
+		}
+	    };
+	}
+
+	synchronized void cancelTimeout() {
+	    if (timeout != null) {
+		timeout.cancel();
+	    }
+	}
+
+	synchronized void reply(V value) {
+	    if (promise.isDone()) {
+		return;
+	    }
+	    ++noReplies;
+	    try {
+		acc = reducer.reduce(acc, value);
+	    } catch (Exception e) {
+		finish(e);
+		return;
+	    }
+	    if (--remaining == 0) {
+		finish(null);
+	    }
+	}
+
+	synchronized void failed(Exception e) {
+	    if (promise.isDone()) {
+		return;
+	    }
+	    ++noFailed;
+	    if (policy == Policy.ALL) {
+		finish(e);
+	    } else if (--remaining == 0) {
+		finish(null);
+	    }
+	}
+
+	synchronized void timeout() {
+	    if (promise.isDone()) {
+		return;
+	    }
+	    if (policy == Policy.ALL) {
+		finish(new TimeoutException("scatter-gather: " + noReplies
+			+ " replies, " + remaining + " missing"));
+	    } else {
+		finish(null);
+	    }
+	}
+
+	void finish(Exception e) {
+	    if (e == null) {
+		promise.complete(acc);
+	    } else {
+		promise.fail(e);
+	    }
+	    acc = null;
+	}
+    }
+
+    /**
+     * Message sent to each actor in the group
+     */
+    private static class Scatter<A, V, R> implements IMessage<A, Object>
+    {
+	final IMessage<A, V> msg;
+	final Gather<V, R> g;
+
+	Scatter(IMessage<A, V> msg, Gather<V, R> g) {
+	    this.msg = msg;
+	    this.g = g;
+	}
+
+	public Object act(A actorImpl) {
+	    if (g.promise.isDone()) {
+		return null; //late, or cancelled
+	    }
+	    V v;
+	    try {
+		v = msg.act(actorImpl);
+	    } catch (Exception e) {
+		g.failed(e);
+		return null;
+	    }
+	    g.reply(v);
+	    return null;
+	}
+    }
+
+    /**
+     * Send msg to all actors, reduce replies.
+     * The same msg instance is acted on by all actors, possibly
+     * concurrently, so it should not have mutable state.
+     * @param <A> actor implementation
+     * @param <V> reply type
+     * @param <R> result type
+     * @param actors actor group
+     * @param msg message
+     * @param initial initial result (returned if no actors)
+     * @param reducer fold function
+     * @param timeoutMs max time until result is complete, &lt;=0 for none
+     * @param policy timeout / failure policy
+     * @return Future result
+     */
+    public static <A, V, R> FutureRef<R> call(
+	    Collection<? extends IActorRef<A>> actors,
+	    IMessage<A, V> msg, R initial, IReducer<V, R> reducer,
+	    long timeoutMs, Policy policy) {
+	if (msg == null) {
+	    throw new NullPointerException("ICall message == null");
+	}
+	final Gather<V, R> g
+		= new Gather<V, R>(initial, reducer, policy, actors);
+	if (actors.isEmpty()) {
+	    g.finish(null);
+	    return g.promise.getRef();
+	}
+	if (timeoutMs > 0) {
+	    TimerTask t = new TimerTask()
+	    {
+		@Override
+		public void run() {
+		    g.timeout();
+		}
+	    };
+	    synchronized (g) {
+		g.timeout = t;
+	    }
+	    timer().schedule(t, timeoutMs);
+	}
+	for (IActorRef<A> a : actors) {
+	    a.send(new Scatter<A, V, R>(msg, g)); //one each; send locks message
+	}
+	return g.promise.getRef();
+    }
+
+    /**
+     * Send msg to all actors, reduce replies; no timeout, all replies
+     * required.
+     * @see #call(Collection, IMessage, Object, IReducer, long, Policy)
+     */
+    public static <A, V, R> FutureRef<R> call(
+	    Collection<? extends IActorRef<A>> actors,
+	    IMessage<A, V> msg, R initial, IReducer<V, R> reducer) {
+	return call(actors, msg, initial, reducer, 0, Policy.ALL);
+    }
+}
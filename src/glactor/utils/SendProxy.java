@@ -42,5 +42,22 @@ public abstract class SendProxy<A, T>
 	    }
 	});
     }
+
+    /**
+     * Send message (value), replacing a value sent from this proxy
+     * that is still pending (not yet received).
+     * Requires an actor with ConflatingMailbox; else same as send(val).
+     * @param val value
+     */
+    public void sendLatest(final T val) {
+	final SendProxy<A, T> p = this;
+	actorRef.send(new MsgConflate<A>(this)
+	{
+	    @Override
+	    public void recv(A actorImpl) {
+		p.act(actorImpl, val);
+	    }
+	});
+    }
 }
 
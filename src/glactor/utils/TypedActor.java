@@ -1,10 +1,17 @@
 package glactor.utils;
 
 import glactor.core.*;
+import java.util.*;
 import java.util.concurrent.*;
 
 /**
  * TypedActor<T,U>: Actor wrapper around user defined 'U onReceive(T)' method.
+ * <p>
+ * If the implementation is an IBatchImpl, messages taken from the
+ * queue in one scheduling slice (up to batchSize) are handed over
+ * together to onReceiveBatch; call futures still complete individually.
+ * A probe or tracer (see ActorRef.setProbe) then sees each
+ * onReceiveBatch call as one message of class TypedActor.Batch.
  * @author torcbek
  * @param <T> message type
  * @param <U> return type
@@ -16,11 +23,50 @@ public class TypedActor<T, U> extends ActorRef<TypedActor.Impl<T, U>>
 	U onReceive(T msg);
     }
 
+    /**
+     * Implementation receiving bursts of messages at once.
+     * @param <T> message type
+     * @param <U> return type
+     */
+    public interface IBatchImpl<T, U> extends Impl<T, U>
+    {
+	/**
+	 * Process messages received in one scheduling slice, in order.
+	 * @param msgs messages (list is reused; do not keep it)
+	 * @return results, one per message in same order (for call futures),
+	 *	    or null if there are none
+	 */
+	List<U> onReceiveBatch(List<T> msgs);
+    }
+
+    /** default max #messages per onReceiveBatch */
+    public static final int BATCH_SIZE = 256;
+    private final IBatchImpl<T, U> batchImpl;
+    private int batchSize = BATCH_SIZE;
+    private final ArrayList<T> batch = new ArrayList<T>();
+    private final ArrayList<FuturePromise<U>> batchFut
+	    = new ArrayList<FuturePromise<U>>();
+    private final Batch batchTask = new Batch();
+
     public TypedActor(ActorThreadPool tp, Impl<T, U> impl) {
 	super(impl, tp);
+	batchImpl = impl instanceof IBatchImpl ? (IBatchImpl<T, U>) impl : null;
+    }
+
+    /**
+     * Set max #messages per onReceiveBatch call (IBatchImpl only).
+     * @param n batch size
+     */
+    public void setBatchSize(int n) {
+	batchSize = Math.max(1, n);
     }
 
     public Future<U> call(final T msg) {
+	if (batchImpl != null) {
+	    FuturePromise<U> fut = new FuturePromise<U>(core);
+	    core.send(new BatchMsg(msg, fut)); //instrumented per batch
+	    return fut.getRef();
+	}
 	return super.coreSendFuture(new Callable<U>()
 	{
 	    public U call() throws Exception {
@@ -30,6 +76,10 @@ public class TypedActor<T, U> extends ActorRef<TypedActor.Impl<T, U>>
     }
 
     public void send(final T msg) {
+	if (batchImpl != null) {
+	    core.send(new BatchMsg(msg, null));
+	    return;
+	}
 	super.send(new Runnable()
 	{
 	    public void run() {
@@ -37,4 +87,107 @@ public class TypedActor<T, U> extends ActorRef<TypedActor.Impl<T, U>>
 	    }
 	});
     }
+
+    /**
+     * Message to batch implementation
+     */
+    private class BatchMsg implements Runnable
+    {
+	final T msg;
+	final FuturePromise<U> fut;
+
+	BatchMsg(T msg, FuturePromise<U> fut) {
+	    this.msg = msg;
+	    this.fut = fut;
+	}
+
+	public void run() { //only queued to this actor; see receive
+	    throw new IllegalStateException("BatchMsg outside TypedActor");
+	}
+    }
+
+    @Override
+    @SuppressWarnings("unchecked") //BatchMsgs are only queued by this actor
+    protected void receive(Runnable task) {
+	if (task instanceof TypedActor.BatchMsg) {
+	    BatchMsg m = (BatchMsg) task;
+	    batch.add(m.msg);
+	    batchFut.add(m.fut);
+	    if (batch.size() >= batchSize) {
+		flush();
+	    }
+	    return;
+	}
+	flush(); //keep order
+	super.receive(task);
+    }
+
+    @Override
+    protected void onSliceEnd() {
+	flush();
+    }
+
+    private void flush() {
+	if (batch.isEmpty()) {
+	    return;
+	}
+	try {
+	    instrument(batchTask, batchTask).run();
+	} finally {
+	    batch.clear();
+	    batchFut.clear();
+	}
+    }
+
+    /**
+     * One onReceiveBatch call over the pending batch
+     */
+    public final class Batch implements Runnable
+    {
+	private Batch() {
+	}
+
+	public void run() {
+	    try {
+		List<U> res;
+		synchronized (actorImpl) {
+		    res = batchImpl.onReceiveBatch(batch);
+		}
+		int n = res == null ? 0 : res.size();
+		IllegalStateException missing = null;
+		for (int i = 0; i < batchFut.size(); i++) {
+		    FuturePromise<U> f = batchFut.get(i);
+		    if (f == null) {
+			continue;
+		    }
+		    if (i < n) {
+			f.complete(res.get(i));
+		    } else {
+			if (missing == null) {
+			    missing = new IllegalStateException("onReceiveBatch returned "
+				    + n + " results for " + batch.size() + " messages");
+			}
+			f.fail(missing);
+		    }
+		}
+		if (missing != null) {
+		    handleException(missing);
+		}
+	    } catch (RuntimeException e) {
+		failAll(e);
+		handleException(e);
+	    } catch (Error e) {
+		failAll(e);
+		throw e;
+	    }
+	}
+
+	private void failAll(Throwable e) {
+	    for (FuturePromise<U> f : batchFut) {
+		if (f != null) {
+		    f.fail(e); //no effect if already completed
+		}
+	    }
+	}
+    }
 }
@@ -0,0 +1,152 @@
+package glactor.apt;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import javax.tools.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Runs the processor on an annotated interface, compiles the generated
+ * proxy together with a driver, and calls the proxy through the driver.
+ */
+public class ActorProxyProcessorTest
+{
+    static final String STORE = "package gen;\n"
+	    + "import java.util.*;\n"
+	    + "import java.util.concurrent.*;\n"
+	    + "@glactor.apt.ActorInterface\n"
+	    + "public interface Store<K extends Comparable<K>, V> {\n"
+	    + "    void put(K key, V value);\n"
+	    + "    V get(K key);\n"
+	    + "    int size();\n"
+	    + "    long sum(int... xs);\n"
+	    + "    Future<List<K>> keys();\n"
+	    + "    glactor.core.FutureRef<Boolean> has(K key);\n"
+	    + "    Future<V> await(K key);\n"
+	    + "    <R> R apply(K key, Callable<R> f) throws Exception;\n"
+	    + "    boolean check(String s) throws java.io.IOException;\n"
+	    + "}\n";
+    static final String IMPL = "package gen;\n"
+	    + "import java.util.*;\n"
+	    + "import java.util.concurrent.*;\n"
+	    + "public class StoreImpl<K extends Comparable<K>, V> implements Store<K, V> {\n"
+	    + "    final TreeMap<K, V> map = new TreeMap<K, V>();\n"
+	    + "    final Map<K, glactor.core.FuturePromise<V>> waiting\n"
+	    + "        = new HashMap<K, glactor.core.FuturePromise<V>>();\n"
+	    + "    public void put(K key, V value) {\n"
+	    + "        map.put(key, value);\n"
+	    + "        glactor.core.FuturePromise<V> p = waiting.remove(key);\n"
+	    + "        if (p != null) p.complete(value);\n"
+	    + "    }\n"
+	    + "    public Future<V> await(K key) {\n"
+	    + "        glactor.core.FuturePromise<V> p = new glactor.core.FuturePromise<V>();\n"
+	    + "        waiting.put(key, p);\n"
+	    + "        return p.getRef();\n"
+	    + "    }\n"
+	    + "    public V get(K key) { return map.get(key); }\n"
+	    + "    public int size() { return map.size(); }\n"
+	    + "    public long sum(int... xs) { long s = 0; for (int x : xs) s += x; return s; }\n"
+	    + "    public Future<List<K>> keys() {\n"
+	    + "        return new glactor.utils.FutureDirect<List<K>>(new ArrayList<K>(map.keySet()));\n"
+	    + "    }\n"
+	    + "    public glactor.core.FutureRef<Boolean> has(K key) { return null; }\n"
+	    + "    public <R> R apply(K key, Callable<R> f) throws Exception { return f.call(); }\n"
+	    + "    public boolean check(String s) throws java.io.IOException {\n"
+	    + "        if (s.length() == 0) throw new java.io.IOException(\"empty\");\n"
+	    + "        return true;\n"
+	    + "    }\n"
+	    + "}\n";
+    static final String DRIVER = "package gen;\n"
+	    + "import java.util.concurrent.*;\n"
+	    + "public class Driver implements Callable<String> {\n"
+	    + "    public String call() throws Exception {\n"
+	    + "        glactor.core.ActorThreadPool tp = new glactor.core.ThrPoolBasicImpl(2);\n"
+	    + "        Store<String, Integer> s = StoreProxy.create(tp, new StoreImpl<String, Integer>());\n"
+	    + "        s.put(\"b\", 2);\n"
+	    + "        s.put(\"a\", 1);\n"
+	    + "        StringBuilder r = new StringBuilder();\n"
+	    + "        r.append(s.get(\"a\")).append(',').append(s.size()).append(',')\n"
+	    + "            .append(s.sum(1, 2, 3)).append(',').append(s.keys().get()).append(',')\n"
+	    + "            .append(s.has(\"a\").get()).append(',');\n"
+	    + "        r.append(s.apply(\"b\", new Callable<String>() {\n"
+	    + "            public String call() { return \"x\"; }\n"
+	    + "        }));\n"
+	    + "        r.append(',').append(s.check(\"ok\"));\n"
+	    + "        Future<Integer> w = s.await(\"c\");\n" //completed by a later message
+	    + "        s.put(\"c\", 3);\n"
+	    + "        r.append(',').append(w.get(5, TimeUnit.SECONDS));\n"
+	    + "        try {\n"
+	    + "            s.check(\"\");\n"
+	    + "        } catch (java.io.IOException e) {\n"
+	    + "            r.append(\",io:\").append(e.getMessage());\n"
+	    + "        }\n"
+	    + "        tp.shutdown();\n"
+	    + "        return r.toString();\n"
+	    + "    }\n"
+	    + "}\n";
+
+    static File write(File dir, String name, String src) throws IOException {
+	File f = new File(dir, name);
+	f.getParentFile().mkdirs();
+	Writer w = new FileWriter(f);
+	try {
+	    w.write(src);
+	} finally {
+	    w.close();
+	}
+	return f;
+    }
+
+    static void deleteAll(File f) {
+	File[] fs = f.listFiles();
+	if (fs != null) {
+	    for (File c : fs) {
+		deleteAll(c);
+	    }
+	}
+	f.delete();
+    }
+
+    @Test
+    public void testGeneratedProxy() throws Exception {
+	JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+	if (javac == null) {
+	    System.out.println("no system java compiler; skipped");
+	    return;
+	}
+	File dir = File.createTempFile("glactor-apt", "");
+	dir.delete();
+	File src = new File(dir, "src"), gen = new File(dir, "gen"),
+		cls = new File(dir, "cls");
+	gen.mkdirs();
+	cls.mkdirs();
+	try {
+	    List<File> files = Arrays.asList(
+		    write(src, "gen/Store.java", STORE),
+		    write(src, "gen/StoreImpl.java", IMPL),
+		    write(src, "gen/Driver.java", DRIVER));
+	    StandardJavaFileManager fm = javac.getStandardFileManager(null, null, null);
+	    DiagnosticCollector<JavaFileObject> diags = new DiagnosticCollector<JavaFileObject>();
+	    List<String> opts = Arrays.asList(
+		    "-cp", System.getProperty("java.class.path"),
+		    "-processor", ActorProxyProcessor.class.getName(),
+		    "-s", gen.getPath(), "-d", cls.getPath());
+	    boolean ok = javac.getTask(null, fm, diags, opts, null,
+		    fm.getJavaFileObjectsFromFiles(files)).call();
+	    fm.close();
+	    assertTrue(diags.getDiagnostics().toString(), ok);
+	    assertTrue(new File(gen, "gen/StoreProxy.java").isFile());
+
+	    URLClassLoader cl = new URLClassLoader(new URL[]{cls.toURI().toURL()},
+		    getClass().getClassLoader());
+	    Callable<?> driver = (Callable<?>) cl.loadClass("gen.Driver")
+		    .getDeclaredConstructor().newInstance();
+	    assertEquals("1,2,6,[a, b],null,x,true,3,io:empty", driver.call());
+	} finally {
+	    deleteAll(dir);
+	}
+    }
+}
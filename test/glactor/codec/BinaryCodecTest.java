@@ -0,0 +1,194 @@
+package glactor.codec;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class BinaryCodecTest
+{
+    static class Base
+    {
+	int id;
+    }
+
+    static class Order extends Base
+    {
+	final String symbol;
+	long qty;
+	double price;
+	boolean buy;
+	char side;
+	byte[] note;
+	Object extra;
+	transient int cache = 7;
+
+	Order() {
+	    symbol = null;
+	}
+
+	Order(int id, String symbol) {
+	    this.id = id;
+	    this.symbol = symbol;
+	}
+    }
+
+    static class Point
+    {
+	final int x, y;
+
+	Point(int x, int y) {
+	    this.x = x;
+	    this.y = y;
+	}
+    }
+
+    static class Pair
+    {
+	int z, a;
+    }
+
+    BinaryCodec codec = new BinaryCodec();
+
+    Object roundTrip(Object v, boolean direct) throws IOException {
+	ByteBuffer b = direct ? ByteBuffer.allocateDirect(4096) : ByteBuffer.allocate(4096);
+	codec.encode(v, b);
+	b.flip();
+	Object r = codec.decode(b);
+	assertFalse(b.hasRemaining());
+	return r;
+    }
+
+    @Test
+    public void testValues() throws Exception {
+	Object[] vals = {null, true, false, (byte) -3, (short) 300, 'x', 42,
+	    -7L, 1.5f, Math.PI, "", "abc", "\u00e6\u00f8 \u20ac \0 \ud83d\ude00",
+	    new Date(0)}; //Date via serialization fallback
+	for (boolean direct : new boolean[]{false, true}) {
+	    for (Object v : vals) {
+		assertEquals(v, roundTrip(v, direct));
+	    }
+	    assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) roundTrip(new byte[]{1, 2, 3}, direct));
+	    assertArrayEquals(new int[]{1, -2}, (int[]) roundTrip(new int[]{1, -2}, direct));
+	    assertArrayEquals(new long[]{5L}, (long[]) roundTrip(new long[]{5L}, direct));
+	    assertTrue(Arrays.equals(new double[]{.5}, (double[]) roundTrip(new double[]{.5}, direct)));
+	}
+    }
+
+    @Test
+    public void testRegistered() throws Exception {
+	codec.register(1, Order.class);
+	codec.register(2, Point.class, new BinaryCodec.IClassCodec<Point>()
+	{
+	    public void encode(Point p, BinaryCodec c, ByteBuffer out) {
+		out.putInt(p.x).putInt(p.y);
+	    }
+
+	    public Point decode(BinaryCodec c, ByteBuffer in) {
+		return new Point(in.getInt(), in.getInt());
+	    }
+	});
+	Order o = new Order(9, "ACME");
+	o.qty = 100;
+	o.price = 12.25;
+	o.buy = true;
+	o.side = 'B';
+	o.note = new byte[]{4};
+	o.extra = new Point(3, 4);
+	o.cache = 0;
+	Order r = (Order) roundTrip(o, true);
+	assertEquals(9, r.id);
+	assertEquals("ACME", r.symbol);
+	assertEquals(100, r.qty);
+	assertEquals(12.25, r.price, 0);
+	assertTrue(r.buy);
+	assertEquals('B', r.side);
+	assertArrayEquals(new byte[]{4}, r.note);
+	assertEquals(4, ((Point) r.extra).y);
+	assertEquals(7, r.cache); //transient: not sent
+	try {
+	    codec.register(2, Base.class);
+	    fail();
+	} catch (IllegalArgumentException e) {
+	}
+    }
+
+    @Test
+    public void testFieldLayout() throws Exception {
+	codec.register(3, Pair.class);
+	Pair p = new Pair();
+	p.z = 1;
+	p.a = 2;
+	ByteBuffer b = ByteBuffer.allocate(100);
+	codec.encode(p, b);
+	assertEquals(1 + 4 + 4 + 8, b.position());
+	assertEquals(2, b.getInt(9)); //sorted by name: a, z
+	assertEquals(1, b.getInt(13));
+	b.flip();
+	BinaryCodec other = new BinaryCodec();
+	other.register(3, Point.class, new BinaryCodec.IClassCodec<Point>()
+	{
+	    public void encode(Point pt, BinaryCodec c, ByteBuffer out) {
+		out.putInt(pt.x).putInt(pt.y);
+	    }
+
+	    public Point decode(BinaryCodec c, ByteBuffer in) {
+		return new Point(in.getInt(), in.getInt());
+	    }
+	});
+	try {
+	    other.decode(b);
+	    fail();
+	} catch (IOException e) { //same id, other schema
+	}
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+	try {
+	    codec.encode(new Object(), ByteBuffer.allocate(100));
+	    fail();
+	} catch (NotSerializableException e) {
+	}
+	try {
+	    codec.encode("0123456789", ByteBuffer.allocate(8));
+	    fail();
+	} catch (BufferOverflowException e) {
+	}
+	ByteBuffer b = ByteBuffer.allocate(100);
+	codec.encode("abcdef", b);
+	b.flip();
+	b.limit(b.limit() - 1);
+	try {
+	    codec.decode(b);
+	    fail();
+	} catch (IOException e) {
+	}
+	b.clear();
+	b.put(BinaryCodec.OBJECT).putInt(99).flip();
+	try {
+	    codec.decode(b);
+	    fail();
+	} catch (IOException e) {
+	}
+    }
+
+    @Test
+    public void testPool() throws Exception {
+	BufferPool pool = new BufferPool();
+	ByteBuffer b = pool.acquire(1500);
+	assertTrue(b.isDirect());
+	assertEquals(2048, b.capacity());
+	b.putInt(5);
+	pool.release(b);
+	ByteBuffer b2 = pool.acquire(2000);
+	assertSame(b, b2);
+	assertEquals(0, b2.position());
+	b2.putInt(1).putInt(2);
+	ByteBuffer b3 = pool.grow(b2, 3000);
+	assertEquals(4096, b3.capacity());
+	assertEquals(8, b3.position());
+	assertEquals(2, b3.getInt(4));
+    }
+}
@@ -3,11 +3,15 @@ package glactor.core;
 import glactor.core.ThrPoolBasicImpl;
 import glactor.core.ActorCore;
 import glactor.core.ActorThreadPool;
+import glactor.core.Mailbox;
+import glactor.monitor.ActorMetrics;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import glactor.utils.*;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.*;
 import org.junit.After.*;
 import static org.junit.Assert.*;
@@ -263,12 +267,350 @@ public class ActorCoreTest
 	System.out.println("done");
     }
 
+    @Test
+    public void testConflating() throws Exception {
+	System.out.println("\ntestConflating()");
+	ActorThreadPool threadP = new ThrPoolBasicImpl(1);
+	class Impl
+	{
+	    int value, count;
+	}
+	IActorRef<Impl> actor = threadP.create(new Impl(),
+		new ConflatingMailbox<Runnable>());
+	SendProxy<Impl, Integer> setProxy = new SendProxy<Impl, Integer>(actor)
+	{
+	    @Override
+	    protected void act(Impl impl, Integer value) {
+		impl.value = value;
+		++impl.count;
+	    }
+	};
+	final CountDownLatch gate = new CountDownLatch(1);
+	actor.send(new Runnable()
+	{
+	    public void run() {
+		try {
+		    gate.await();
+		} catch (InterruptedException ex) {
+		}
+	    }
+	});
+	for (int i = 1; i <= 100; i++) {
+	    setProxy.sendLatest(i);
+	}
+	setProxy.send(-1); //no key: not conflated
+	setProxy.sendLatest(200);
+	gate.countDown();
+	actor.awaitMessages(0);
+	Impl impl = actor.call(new IMessage<Impl, Impl>()
+	{
+	    public Impl act(Impl impl) {
+		return impl;
+	    }
+	}).get();
+	//-1 first; 200 replaced 1..100 and moved behind -1 (FIFO)
+	assertEquals(200, impl.value);
+	assertEquals(2, impl.count);
+	System.out.println("done");
+    }
+
+    @Test
+    public void testQuiescence() throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(4);
+	assertTrue(threadP.awaitQuiescence(1000));
+	final AtomicInteger received = new AtomicInteger();
+	final List<ActorCore<Integer>> ring = new ArrayList<ActorCore<Integer>>();
+	for (int i = 0; i < 8; i++) {
+	    final int next = (i + 1) % 8;
+	    ring.add(new ActorCore<Integer>(threadP)
+	    {
+		@Override
+		protected void receive(Integer hops) {
+		    received.incrementAndGet();
+		    if (hops > 0) { //spread work to other actors
+			ring.get(next).send(hops - 1);
+		    }
+		}
+	    });
+	}
+	for (int i = 0; i < 100; i++) {
+	    ring.get(i % 8).send(1000);
+	}
+	assertTrue(threadP.awaitQuiescence(10000));
+	assertEquals(100 * 1001, received.get());
+	assertEquals(0, threadP.getBusyActors());
+	//blocked slice => not quiescent
+	final CountDownLatch gate = new CountDownLatch(1);
+	IActorRef<Object> a = threadP.create(new Object());
+	a.send(new Runnable()
+	{
+	    public void run() {
+		try {
+		    gate.await();
+		} catch (InterruptedException ex) {
+		}
+	    }
+	});
+	assertFalse(threadP.awaitQuiescence(50));
+	assertEquals(1, threadP.getBusyActors());
+	gate.countDown();
+	assertTrue(threadP.awaitQuiescence(5000));
+	//callback failure still releases the actor
+	ActorCore<Integer> bad = new ActorCore<Integer>(threadP)
+	{
+	    @Override
+	    protected void receive(Integer msg) {
+	    }
+
+	    @Override
+	    protected void onEmpty() {
+		throw new IllegalStateException("onEmpty");
+	    }
+	};
+	bad.send(1);
+	assertTrue(threadP.awaitQuiescence(5000));
+	threadP.shutdown();
+	//actors dropped by shutdown are released
+	ActorThreadPool one = new ThrPoolBasicImpl(1);
+	final CountDownLatch gate2 = new CountDownLatch(1);
+	one.create(new Object()).send(new Runnable()
+	{
+	    public void run() {
+		try {
+		    gate2.await();
+		} catch (InterruptedException ex) {
+		}
+	    }
+	});
+	for (int i = 0; i < 3; i++) {
+	    one.create(new Object()).send(new Runnable()
+	    {
+		public void run() {
+		}
+	    });
+	}
+	one.shutdown();
+	gate2.countDown();
+	assertTrue(one.awaitQuiescence(5000));
+	//actors rejected after shutdown are released
+	ActorThreadPool exec = new ThrPoolExecImpl(2);
+	ActorCore<Integer> late = new ActorCore<Integer>(exec)
+	{
+	    @Override
+	    protected void receive(Integer msg) {
+	    }
+	};
+	late.send(1);
+	assertTrue(exec.awaitQuiescence(5000));
+	exec.shutdown();
+	try {
+	    late.send(2);
+	    fail();
+	} catch (RejectedExecutionException e) {
+	}
+	assertFalse(late.isScheduled());
+	assertEquals(0, exec.getBusyActors());
+	assertTrue(exec.awaitQuiescence(0));
+    }
+
+    static class Table implements IActSelf<Table>
+    {
+	final Map<String, Integer> map = new HashMap<String, Integer>();
+	IActorRef<Table> self;
+
+	public void initSelf(IActorRef<Table> self) {
+	    this.self = self;
+	}
+    }
+
+    static class Lookup implements IMessage<Table, Integer>, IReadOnly
+    {
+	final String key;
+	final CyclicBarrier barrier;
+
+	Lookup(String key, CyclicBarrier barrier) {
+	    this.key = key;
+	    this.barrier = barrier;
+	}
+
+	public Integer act(Table t) throws Exception {
+	    if (barrier != null) {
+		barrier.await(5, TimeUnit.SECONDS);
+	    }
+	    return t.map.get(key);
+	}
+    }
+
+    @Test
+    public void testReadOnly() throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(4);
+	IActorRef<Table> table = threadP.createRW(new Table());
+	ActorMetrics metrics = new ActorMetrics("table");
+	((ActorRef<Table>) table).setProbe(metrics);
+	//reads run concurrently: both must reach the barrier
+	CyclicBarrier both = new CyclicBarrier(2);
+	FutureRef<Integer> r1 = table.call(new Lookup("a", both));
+	FutureRef<Integer> r2 = table.call(new Lookup("a", both));
+	assertNull(r1.get(5, TimeUnit.SECONDS));
+	assertNull(r2.get(5, TimeUnit.SECONDS));
+	//a read sees writes sent before it
+	for (int i = 0; i < 1000; i++) {
+	    final int v = i;
+	    table.send(new IMessage<Table, Void>()
+	    {
+		public Void act(Table t) {
+		    t.map.put("a", v);
+		    return null;
+		}
+	    });
+	    assertEquals(i, (int) table.call(new Lookup("a", null)).get());
+	}
+	//write waits for running read
+	final CountDownLatch gate = new CountDownLatch(1);
+	final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+	class Slow implements IMessage<Table, Void>, IReadOnly
+	{
+	    public Void act(Table t) throws Exception {
+		gate.await();
+		order.add("read");
+		return null;
+	    }
+	}
+	table.send(new Slow());
+	Thread.sleep(20);
+	FutureRef<Void> w = table.call(new IMessage<Table, Void>()
+	{
+	    public Void act(Table t) {
+		order.add("write");
+		return null;
+	    }
+	});
+	Thread.sleep(20);
+	assertTrue(order.isEmpty());
+	gate.countDown();
+	w.get();
+	assertEquals(Arrays.asList("read", "write"), order);
+	assertTrue(threadP.awaitQuiescence(5000));
+	//reads are instrumented as other messages
+	assertEquals(2 + 2 * 1000 + 2, metrics.getProcessed());
+	assertTrue(metrics.getProcessingTime().containsKey(Slow.class));
+	assertSame(table, table.call(new IMessage<Table, IActorRef<Table>>()
+	{
+	    public IActorRef<Table> act(Table t) {
+		return t.self;
+	    }
+	}).get());
+	threadP.shutdown();
+    }
+
+    static class Put implements IMessage<Table, Void>
+    {
+	final int v;
+
+	Put(int v) {
+	    this.v = v;
+	}
+
+	public Void act(Table t) {
+	    t.map.put("a", v);
+	    return null;
+	}
+    }
+
+    /**
+     * A read sent while idle, then a write: the read never sees it
+     */
+    @Test
+    public void testReadThenWrite() throws Exception {
+	for (int threads = 1; threads <= 4; threads += 3) {
+	    ActorThreadPool threadP = new ThrPoolBasicImpl(threads);
+	    IActorRef<Table> table = threadP.createRW(new Table());
+	    final AtomicInteger bad = new AtomicInteger();
+	    class Peek implements IMessage<Table, Void>, IReadOnly
+	    {
+		final int expect;
+
+		Peek(int expect) {
+		    this.expect = expect;
+		}
+
+		public Void act(Table t) {
+		    if (t.map.get("a") != expect) {
+			bad.incrementAndGet();
+		    }
+		    return null;
+		}
+	    }
+	    table.call(new Put(-1)).get();
+	    for (int i = 0; i < 2000; i++) {
+		if (i % 4 == 0) {
+		    assertTrue(threadP.awaitQuiescence(5000)); //idle: direct read
+		}
+		table.send(new Peek(i - 1));
+		table.send(new Put(i));
+	    }
+	    assertEquals(Integer.valueOf(1999),
+		    table.call(new Lookup("a", null)).get(5, TimeUnit.SECONDS));
+	    assertEquals(0, bad.get());
+	    threadP.shutdown();
+	}
+    }
+
+    @Test
+    public void testFifoMailbox() {
+	Mailbox.Fifo<Integer> box = new Mailbox.Fifo<Integer>();
+	assertNull(box.poll());
+	int next = 0, expect = 0;
+	for (int round = 1; round < 100; round += 7) { //wrap around, grow, shrink
+	    for (int i = 0; i < round; i++) {
+		box.offer(next++);
+	    }
+	    for (int i = 0; i < round / 2 + 1; i++) {
+		assertEquals(expect++, (int) box.poll());
+	    }
+	    assertEquals(next - expect, box.size());
+	}
+	while (box.size() > 0) {
+	    assertEquals(expect++, (int) box.poll());
+	}
+	assertEquals(next, expect);
+	assertNull(box.poll());
+    }
+
+    @Test
+    public void testAwaitAnyKeepsListener() throws Exception {
+	final FuturePromise<Integer> a = new FuturePromise<Integer>();
+	FuturePromise<Integer> b = new FuturePromise<Integer>();
+	b.completeFrom(a.getRef()); //listener on a
+	final FutureRef<Integer> ra = a.getRef();
+	final FutureRef<Integer> never = new FuturePromise<Integer>().getRef();
+	final int[] any = {-1};
+	Thread t = new Thread()
+	{
+	    @Override
+	    @SuppressWarnings("unchecked") //generic varargs
+	    public void run() {
+		try {
+		    any[0] = FutureRef.awaitAny(never, ra); //adds a listener
+		} catch (InterruptedException e) {
+		}
+	    }
+	};
+	t.start();
+	Thread.sleep(50);
+	a.complete(7);
+	t.join(5000);
+	assertEquals(1, any[0]);
+	assertEquals(Integer.valueOf(7), b.get(5, TimeUnit.SECONDS));
+    }
+
     public static void main(String[] args) throws Exception {
 	ActorCoreTest tst = new ActorCoreTest();
 	tst.testPingpong();
 	tst.testCore0();
 	tst.testCore1();
 	tst.testCore7();
+	tst.testConflating();
 	/*
 	 * Each message sent & queued => processed exactly once:
 	 *	#messages sent == #processedMsgs
@@ -0,0 +1,292 @@
+package glactor.flow;
+
+import glactor.core.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Reactive streams rules (numbering as in the reactive streams spec)
+ * checked against ActorPublisher, ActorProcessor and ActorSubscriber.
+ */
+public class FlowTest
+{
+    final ActorThreadPool threadP = new ThrPoolBasicImpl(4);
+
+    /**
+     * Publishes 0,1,..,count-1
+     */
+    static class Range extends ActorPublisher<Integer>
+    {
+	final int count;
+	final AtomicInteger produced = new AtomicInteger();
+	volatile boolean cancelled;
+	int i;
+
+	Range(ActorThreadPool threadP, int count) {
+	    super(threadP);
+	    this.count = count;
+	}
+
+	@Override
+	protected Integer next() {
+	    if (i == count) {
+		complete();
+		return null;
+	    }
+	    produced.incrementAndGet();
+	    return i++;
+	}
+
+	@Override
+	protected void onCancel() {
+	    cancelled = true;
+	}
+    }
+
+    /**
+     * Records signals; requests manually
+     */
+    static class Probe<T> implements Flow.Subscriber<T>
+    {
+	final List<T> items = Collections.synchronizedList(new ArrayList<T>());
+	final CountDownLatch subscribed = new CountDownLatch(1);
+	final CountDownLatch terminated = new CountDownLatch(1);
+	volatile Flow.Subscription subscription;
+	volatile Throwable error;
+	volatile boolean completed;
+	final AtomicInteger concurrent = new AtomicInteger();
+	volatile boolean overlap;
+
+	void enter() {
+	    if (concurrent.incrementAndGet() > 1) {
+		overlap = true;
+	    }
+	}
+
+	void leave() {
+	    concurrent.decrementAndGet();
+	}
+
+	public void onSubscribe(Flow.Subscription s) {
+	    enter();
+	    subscription = s;
+	    subscribed.countDown();
+	    leave();
+	}
+
+	public void onNext(T item) {
+	    enter();
+	    items.add(item);
+	    leave();
+	}
+
+	public void onError(Throwable e) {
+	    enter();
+	    error = e;
+	    terminated.countDown();
+	    leave();
+	}
+
+	public void onComplete() {
+	    enter();
+	    completed = true;
+	    terminated.countDown();
+	    leave();
+	}
+
+	void await() throws InterruptedException {
+	    assertTrue(terminated.await(5, TimeUnit.SECONDS));
+	}
+    }
+
+    static void settle() throws InterruptedException {
+	Thread.sleep(50);
+    }
+
+    /** 1.1 never more onNext than requested; 1.3 serial signals */
+    @Test
+    public void testRequestedOnly() throws Exception {
+	Range pub = new Range(threadP, 100);
+	Probe<Integer> p = new Probe<Integer>();
+	pub.subscribe(p);
+	assertTrue(p.subscribed.await(5, TimeUnit.SECONDS));
+	p.subscription.request(3);
+	settle();
+	assertEquals(3, p.items.size());
+	p.subscription.request(200);
+	p.await();
+	assertTrue(p.completed);
+	assertEquals(100, p.items.size());
+	assertEquals(Integer.valueOf(99), p.items.get(99));
+	assertFalse(p.overlap);
+    }
+
+    /** 1.9 subscribe(null) throws NullPointerException */
+    @Test
+    public void testSubscribeNull() throws Exception {
+	try {
+	    new Range(threadP, 1).subscribe(null);
+	    fail("NPE expected");
+	} catch (NullPointerException e) {
+	}
+    }
+
+    /** 3.9 request(n &lt;= 0) signals IllegalArgumentException */
+    @Test
+    public void testRequestNonPositive() throws Exception {
+	Range pub = new Range(threadP, 10);
+	Probe<Integer> p = new Probe<Integer>();
+	pub.subscribe(p);
+	assertTrue(p.subscribed.await(5, TimeUnit.SECONDS));
+	p.subscription.request(0);
+	p.await();
+	assertTrue(p.error instanceof IllegalArgumentException);
+	assertTrue(pub.cancelled);
+    }
+
+    /** 3.6/3.7 after cancel no more items; request/cancel are no-ops */
+    @Test
+    public void testCancel() throws Exception {
+	Range pub = new Range(threadP, 1000);
+	Probe<Integer> p = new Probe<Integer>();
+	pub.subscribe(p);
+	assertTrue(p.subscribed.await(5, TimeUnit.SECONDS));
+	p.subscription.request(5);
+	p.subscription.cancel();
+	p.subscription.request(5);
+	p.subscription.cancel();
+	settle();
+	assertEquals(5, p.items.size());
+	assertTrue(pub.cancelled);
+	assertNull(p.error);
+	assertFalse(p.completed);
+    }
+
+    /** 1.5 empty publisher completes;
+     * unicast: second subscriber gets onError */
+    @Test
+    public void testEmptyAndSecondSubscriber() throws Exception {
+	Range pub = new Range(threadP, 0);
+	Probe<Integer> p = new Probe<Integer>();
+	Probe<Integer> p2 = new Probe<Integer>();
+	pub.subscribe(p);
+	pub.subscribe(p2);
+	assertTrue(p.subscribed.await(5, TimeUnit.SECONDS));
+	p.subscription.request(1);
+	p.await();
+	assertTrue(p.completed);
+	p2.await();
+	assertTrue(p2.error instanceof IllegalStateException);
+    }
+
+    /** 3.17 unbounded demand (Long.MAX_VALUE, and overflowing sums) */
+    @Test
+    public void testUnbounded() throws Exception {
+	Range pub = new Range(threadP, 1000);
+	Probe<Integer> p = new Probe<Integer>();
+	pub.subscribe(p);
+	assertTrue(p.subscribed.await(5, TimeUnit.SECONDS));
+	p.subscription.request(Long.MAX_VALUE);
+	p.subscription.request(Long.MAX_VALUE);
+	p.await();
+	assertEquals(1000, p.items.size());
+    }
+
+    /** 2.5 second onSubscribe is cancelled */
+    @Test
+    public void testSubscriberRejectsSecondSubscription() throws Exception {
+	final AtomicInteger cancels = new AtomicInteger();
+	ActorSubscriber<Integer> sub = new ActorSubscriber<Integer>(threadP, 4)
+	{
+	    @Override
+	    protected void onItem(Integer item) {
+	    }
+
+	    @Override
+	    protected void onDone(Throwable error) {
+	    }
+	};
+	Flow.Subscription s = new Flow.Subscription()
+	{
+	    public void request(long n) {
+	    }
+
+	    public void cancel() {
+		cancels.incrementAndGet();
+	    }
+	};
+	sub.onSubscribe(s);
+	sub.onSubscribe(s);
+	settle();
+	assertEquals(1, cancels.get());
+    }
+
+    /**
+     * Publisher -> processor -> processor -> slow subscriber.
+     * Items arrive in order and #items in flight stays bounded.
+     */
+    @Test
+    public void testPipelineBounded() throws Exception {
+	final int n = 20000, buf = 16;
+	final Range pub = new Range(threadP, n);
+	ActorProcessor<Integer, Integer> square
+		= new ActorProcessor<Integer, Integer>(threadP, buf)
+	{
+	    @Override
+	    protected Integer transform(Integer item) {
+		return item * 2;
+	    }
+	};
+	ActorProcessor<Integer, Integer> odd //drops every other item
+		= new ActorProcessor<Integer, Integer>(threadP, buf)
+	{
+	    @Override
+	    protected Integer transform(Integer item) {
+		return (item / 2) % 2 == 0 ? item : null;
+	    }
+	};
+	final AtomicInteger received = new AtomicInteger();
+	final AtomicInteger maxInFlight = new AtomicInteger();
+	final AtomicReference<String> err = new AtomicReference<String>();
+	final CountDownLatch done = new CountDownLatch(1);
+	ActorSubscriber<Integer> sink = new ActorSubscriber<Integer>(threadP, buf)
+	{
+	    int expect;
+
+	    @Override
+	    protected void onItem(Integer item) throws Exception {
+		if (item != expect) {
+		    err.set("expected " + expect + " got " + item);
+		}
+		expect += 4;
+		int seen = item / 2 + 1;
+		int inFlight = pub.produced.get() - seen;
+		if (inFlight > maxInFlight.get()) {
+		    maxInFlight.set(inFlight);
+		}
+		if (received.incrementAndGet() % 1000 == 0) {
+		    Thread.sleep(1);
+		}
+	    }
+
+	    @Override
+	    protected void onDone(Throwable error) {
+		if (error != null) {
+		    err.set(error.toString());
+		}
+		done.countDown();
+	    }
+	};
+	odd.subscribe(sink);
+	square.subscribe(odd);
+	pub.subscribe(square);
+	assertTrue(done.await(20, TimeUnit.SECONDS));
+	assertNull(err.get());
+	assertEquals(n / 2, received.get());
+	System.out.println("max in flight: " + maxInFlight.get());
+	assertTrue(maxInFlight.get() <= 6 * buf); //3 windows, half dropped
+    }
+}
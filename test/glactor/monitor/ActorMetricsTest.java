@@ -0,0 +1,124 @@
+package glactor.monitor;
+
+import glactor.core.*;
+import glactor.utils.MsgConflate;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class ActorMetricsTest
+{
+    static class Counter
+    {
+	int n;
+    }
+
+    static class Inc implements IMessage<Counter, Integer>
+    {
+	public Integer act(Counter c) throws Exception {
+	    Thread.sleep(1);
+	    return ++c.n;
+	}
+    }
+
+    static class Fail implements IMessage<Counter, Void>
+    {
+	public Void act(Counter c) throws Exception {
+	    throw new IllegalStateException("test");
+	}
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(2);
+	ActorRef<Counter> hot = new ActorRef<Counter>(new Counter(), threadP);
+	ActorRef<Counter> cold = new ActorRef<Counter>(new Counter(), threadP);
+	ActorMonitor mon = new ActorMonitor();
+	ActorMetrics m = mon.instrument(hot, "hot");
+	mon.instrument(cold, "cold");
+	for (int i = 0; i < 20; i++) {
+	    hot.send(new Inc());
+	}
+	assertEquals(21, (int) hot.call(new Inc()).get());
+	cold.call(new Inc()).get();
+	cold.send(new Fail());
+	cold.awaitMessages(0);
+
+	assertEquals(0, m.getBacklog());
+	assertEquals(21, m.getProcessed());
+	assertTrue(m.getCpuNanos() >= 21 * 1000000L);
+	assertEquals(21, m.getWaitTime().getCount());
+	assertEquals(21, m.getProcessingTime().get(Inc.class).getCount());
+	List<ActorMetrics> top = mon.topByCpu(1);
+	assertEquals(1, top.size());
+	assertSame(m, top.get(0));
+	assertEquals(1, mon.topByCpu(5).get(1).getExceptions());
+	try {
+	    cold.call(new Fail()).get();
+	    fail();
+	} catch (ExecutionException e) {
+	    assertTrue(e.getCause() instanceof IllegalStateException);
+	}
+	cold.awaitMessages(0); //counted after the future completed
+	assertEquals(2, mon.topByCpu(5).get(1).getExceptions());
+
+	mon.remove(hot);
+	assertNull(hot.getProbe());
+	hot.call(new Inc()).get();
+	assertEquals(21, m.getProcessed());
+	threadP.shutdown();
+    }
+
+    @Test
+    public void testConflated() throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(1);
+	ActorRef<Counter> a = new ActorRef<Counter>(new Counter(), threadP,
+		new ConflatingMailbox<Runnable>());
+	ActorMetrics m = new ActorMonitor().instrument(a, "a");
+	final CountDownLatch gate = new CountDownLatch(1);
+	a.send(new Runnable()
+	{
+	    public void run() {
+		try {
+		    gate.await();
+		} catch (InterruptedException ex) {
+		}
+	    }
+	});
+	for (int i = 0; i < 10; i++) {
+	    a.send(new MsgConflate<Counter>("k")
+	    {
+		@Override
+		public void recv(Counter c) {
+		    c.n++;
+		}
+	    });
+	}
+	assertEquals(9, m.getConflated());
+	gate.countDown();
+	a.awaitMessages(0);
+	assertEquals(2, m.getProcessed());
+	assertEquals(0, m.getBacklog());
+	threadP.shutdown();
+    }
+
+    @Test
+    public void testHistogram() {
+	LatencyHistogram h = new LatencyHistogram();
+	for (int i = 1; i <= 1000; i++) {
+	    h.record(i * 1000L);
+	}
+	assertEquals(1000, h.getCount());
+	assertEquals(1000000, h.getMax());
+	long p50 = h.getPercentile(50);
+	assertTrue("p50 " + p50, p50 >= 500000 && p50 <= 500000 * 1.07);
+	long p99 = h.getPercentile(99);
+	assertTrue("p99 " + p99, p99 >= 990000 && p99 <= 990000 * 1.07);
+	StripedCounter c = new StripedCounter();
+	c.add(5);
+	c.increment();
+	assertEquals(6, c.sum());
+    }
+}
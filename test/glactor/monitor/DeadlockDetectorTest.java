@@ -0,0 +1,109 @@
+package glactor.monitor;
+
+import glactor.core.*;
+import glactor.monitor.DeadlockDetector.Kind;
+import glactor.monitor.DeadlockDetector.Report;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class DeadlockDetectorTest
+{
+    static class Node
+    {
+	IActorRef<Node> peer;
+	CountDownLatch bothRunning;
+    }
+
+    /**
+     * Call peer and wait for reply (blocking the actor)
+     */
+    static class Ask implements IMessage<Node, Integer>
+    {
+	public Integer act(Node n) throws Exception {
+	    if (n.bothRunning != null) {
+		n.bothRunning.countDown();
+		n.bothRunning.await();
+	    }
+	    try {
+		return n.peer.call(new Reply()).get(1, TimeUnit.SECONDS);
+	    } catch (TimeoutException e) {
+		return -1;
+	    }
+	}
+    }
+
+    static class Reply implements IMessage<Node, Integer>
+    {
+	public Integer act(Node n) {
+	    return 1;
+	}
+    }
+
+    @Test
+    public void testDeadlock() throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(2);
+	Node na = new Node(), nb = new Node();
+	na.bothRunning = nb.bothRunning = new CountDownLatch(2);
+	ActorRef<Node> a = new ActorRef<Node>(na, threadP);
+	ActorRef<Node> b = new ActorRef<Node>(nb, threadP);
+	na.peer = b;
+	nb.peer = a;
+	FutureRef<Integer> fa = a.call(new Ask()), fb = b.call(new Ask());
+	DeadlockDetector dd = new DeadlockDetector(10, 10000);
+	List<Report> rs = Collections.emptyList();
+	for (int i = 0; i < 50 && rs.isEmpty(); i++) {
+	    Thread.sleep(10);
+	    rs = dd.check();
+	}
+	assertEquals(1, rs.size());
+	Report r = rs.get(0);
+	assertEquals(Kind.DEADLOCK, r.kind);
+	assertEquals(2, r.waits.size());
+	Set<Object> actors = new HashSet<Object>();
+	for (BlockedFutures.Wait w : r.waits) {
+	    actors.add(w.actor);
+	    assertEquals(Reply.class, w.msgClass);
+	}
+	assertEquals(new HashSet<Object>(Arrays.asList(a, b)), actors);
+	assertTrue(r.toString().contains("Reply"));
+	assertTrue(dd.check().isEmpty()); //reported once
+	assertEquals(-1, Math.min(fa.get(), fb.get())); //timed out
+	threadP.shutdown();
+    }
+
+    @Test
+    public void testStarvationCompensated() throws Exception {
+	final boolean[] busy = new boolean[1];
+	ThrPoolBasicImpl threadP = new ThrPoolBasicImpl(1)
+	{
+	    @Override
+	    public boolean isAllThreadsBusy() { //false while a starts waiting
+		return busy[0];
+	    }
+	};
+	Node na = new Node(), nb = new Node();
+	ActorRef<Node> a = new ActorRef<Node>(na, threadP);
+	ActorRef<Node> b = new ActorRef<Node>(nb, threadP);
+	na.peer = b;
+	FutureRef<Integer> fa = a.call(new Ask());
+	while (BlockedFutures.snapshot().isEmpty()) {
+	    Thread.sleep(1);
+	}
+	busy[0] = true; //only worker blocked in a, b queued
+	DeadlockDetector dd = new DeadlockDetector(10, 50);
+	dd.setCompensate(true);
+	List<Report> rs = Collections.emptyList();
+	for (int i = 0; i < 50 && rs.isEmpty(); i++) {
+	    Thread.sleep(20);
+	    rs = dd.check();
+	}
+	assertEquals(1, rs.size());
+	assertEquals(Kind.STARVATION, rs.get(0).kind);
+	assertSame(b, rs.get(0).waits.get(0).actor);
+	assertTrue(rs.get(0).compensated);
+	assertEquals(1, (int) fa.get()); //b ran in added worker
+	threadP.shutdown();
+    }
+}
@@ -0,0 +1,107 @@
+package glactor.monitor;
+
+import glactor.core.*;
+import glactor.monitor.TraceEvent.Kind;
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class FlightRecorderTest
+{
+    static class Worker
+    {
+	int n;
+    }
+
+    static class Step implements IMessage<Worker, Integer>
+    {
+	public Integer act(Worker w) {
+	    return ++w.n;
+	}
+    }
+
+    static class Fail implements IMessage<Worker, Void>
+    {
+	public Void act(Worker w) {
+	    throw new IllegalStateException("boom");
+	}
+    }
+
+    @After
+    public void tearDown() {
+	ActorRef.setTracer(null);
+    }
+
+    @Test
+    public void testRecord() throws Exception {
+	ActorThreadPool p1 = new ThrPoolBasicImpl(1), p2 = new ThrPoolBasicImpl(1);
+	ActorRef<Worker> a = new ActorRef<Worker>(new Worker(), p1);
+	ActorRef<Worker> b = new ActorRef<Worker>(new Worker(), p2);
+	FlightRecorder rec = new FlightRecorder(16);
+	ActorRef.setTracer(rec);
+	for (int i = 0; i < 100; i++) {
+	    a.send(new Step());
+	}
+	a.send(new Fail());
+	a.awaitMessages();
+	b.call(new Step()).get();
+	ActorRef.setTracer(null);
+
+	List<TraceEvent> ev = rec.getEvents(p1);
+	assertEquals(16, ev.size()); //last 16
+	boolean failed = false;
+	for (TraceEvent e : ev) {
+	    assertEquals(TraceEvent.actorName(a), e.actorName);
+	    if (e.kind == Kind.EXCEPTION) {
+		failed = true;
+		assertTrue(e.error instanceof IllegalStateException);
+	    }
+	}
+	assertTrue(failed);
+	boolean msg = false;
+	for (TraceEvent e : rec.getEvents(p2)) {
+	    assertEquals(TraceEvent.actorName(b), e.actorName);
+	    msg |= e.kind == Kind.MESSAGE && e.msgClass == Step.class;
+	}
+	assertTrue(msg);
+
+	StringWriter sw = new StringWriter();
+	rec.dump(new PrintWriter(sw));
+	assertTrue(sw.toString(), sw.toString().contains("boom"));
+	p1.shutdown();
+	p2.shutdown();
+    }
+
+    /**
+     * Recording does not keep shut down pools or their actors alive
+     */
+    @Test
+    public void testNotRetained() throws Exception {
+	FlightRecorder rec = new FlightRecorder(16);
+	ActorRef.setTracer(rec);
+	ActorThreadPool p = new ThrPoolBasicImpl(1);
+	ActorRef<Worker> a = new ActorRef<Worker>(new Worker(), p);
+	a.call(new Step()).get();
+	a.awaitMessages();
+	assertFalse(rec.getEvents(p).isEmpty());
+	p.shutdown();
+	WeakReference<Object> pool = new WeakReference<Object>(p);
+	WeakReference<Object> actor = new WeakReference<Object>(a);
+	p = null;
+	a = null;
+	for (int i = 0; i < 100 && (pool.get() != null || actor.get() != null); i++) {
+	    System.gc();
+	    Thread.sleep(20);
+	}
+	assertNull(actor.get());
+	assertNull(pool.get());
+	ActorThreadPool p2 = new ThrPoolBasicImpl(1);
+	new ActorRef<Worker>(new Worker(), p2).call(new Step()).get();
+	StringWriter sw = new StringWriter();
+	rec.dump(new PrintWriter(sw));
+	assertEquals(sw.toString(), 1, sw.toString().split("pool ").length - 1);
+	p2.shutdown();
+    }
+}
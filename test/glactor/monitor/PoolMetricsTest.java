@@ -0,0 +1,81 @@
+package glactor.monitor;
+
+import glactor.core.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.*;
+import javax.management.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class PoolMetricsTest
+{
+    static class Work
+    {
+	int n;
+    }
+
+    static class Step implements IMessage<Work, Integer>
+    {
+	public Integer act(Work w) throws Exception {
+	    Thread.sleep(1);
+	    return ++w.n;
+	}
+    }
+
+    @Test
+    public void testJmxAndPrometheus() throws Exception {
+	ThrPoolBasicImpl threadP = new ThrPoolBasicImpl(2);
+	PoolMetrics pm = new PoolMetrics("test \"pool\"", threadP);
+	ObjectName on = pm.register();
+	ActorMonitor mon = new ActorMonitor();
+	ActorRef<Work> a = new ActorRef<Work>(new Work(), threadP);
+	ActorRef<Work> b = new ActorRef<Work>(new Work(), threadP);
+	mon.instrument(a, "a");
+	for (int i = 0; i < 10; i++) {
+	    a.send(new Step());
+	    b.send(new Step());
+	}
+	a.call(new Step()).get();
+	b.call(new Step()).get();
+
+	assertTrue(pm.getSubmitCount() >= 2);
+	assertTrue(pm.getSpawnCount() >= 1);
+	assertTrue(pm.getBusyMillis() >= 10);
+	assertTrue(pm.getQueueWaitCount() >= 2);
+	MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+	assertEquals(pm.getSpawnCount(), mbs.getAttribute(on, "SpawnCount"));
+	assertEquals(2, mbs.getAttribute(on, "ThreadLimit"));
+
+	PrometheusExporter exp = new PrometheusExporter();
+	exp.add(pm);
+	exp.add(mon);
+	InetSocketAddress addr = exp.start(
+		new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+	try {
+	    HttpURLConnection c = (HttpURLConnection) new URL("http://127.0.0.1:"
+		    + addr.getPort() + "/metrics").openConnection();
+	    assertEquals(200, c.getResponseCode());
+	    assertTrue(c.getContentType().startsWith("text/plain"));
+	    BufferedReader r = new BufferedReader(
+		    new InputStreamReader(c.getInputStream(), "UTF-8"));
+	    StringBuilder sb = new StringBuilder();
+	    for (String l; (l = r.readLine()) != null;) {
+		sb.append(l).append('\n');
+	    }
+	    r.close();
+	    String text = sb.toString();
+	    assertTrue(text, text.contains("# TYPE glactor_pool_queue_length gauge\n"));
+	    assertTrue(text, text.contains("glactor_pool_threads_spawned_total{pool=\"test \\\"pool\\\"\"} "
+		    + pm.getSpawnCount() + "\n"));
+	    assertTrue(text, text.contains("glactor_pool_queue_wait_seconds{pool=\"test \\\"pool\\\"\",quantile=\"0.99\"} "));
+	    assertTrue(text, text.contains("glactor_actor_processed_total{actor=\"a\"} 11\n"));
+	} finally {
+	    exp.stop();
+	}
+	pm.close();
+	assertFalse(mbs.isRegistered(on));
+	assertNull(threadP.getProbe());
+	threadP.shutdown();
+    }
+}
@@ -0,0 +1,111 @@
+package glactor.monitor;
+
+import glactor.core.*;
+import glactor.monitor.TraceEvent.Kind;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class ThresholdTracerTest
+{
+    static class Sleeper
+    {
+	int sleep(int ms) throws InterruptedException {
+	    Thread.sleep(ms);
+	    return ms;
+	}
+    }
+
+    static class Sleep implements IMessage<Sleeper, Integer>
+    {
+	final int ms;
+
+	Sleep(int ms) {
+	    this.ms = ms;
+	}
+
+	public Integer act(Sleeper s) throws Exception {
+	    return s.sleep(ms);
+	}
+    }
+
+    static class Recorder extends ThresholdTracer
+    {
+	final List<TraceEvent> events = Collections.synchronizedList(new ArrayList<TraceEvent>());
+
+	@Override
+	protected void emit(TraceEvent e) {
+	    events.add(e);
+	}
+
+	int count(Kind kind) {
+	    int n = 0;
+	    synchronized (events) {
+		for (TraceEvent e : events) {
+		    n += e.kind == kind ? 1 : 0;
+		}
+	    }
+	    return n;
+	}
+    }
+
+    @After
+    public void tearDown() {
+	ActorRef.setTracer(null);
+    }
+
+    @Test
+    public void testThresholds() throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(2);
+	ActorRef<Sleeper> a = new ActorRef<Sleeper>(new Sleeper(), threadP);
+	Recorder tr = new Recorder();
+	tr.setThreshold(Kind.SCHEDULED, 0);
+	ActorRef.setTracer(tr);
+	for (int i = 0; i < 10; i++) {
+	    a.send(new Sleep(0));
+	}
+	assertEquals(30, (int) a.call(new Sleep(30)).get());
+	a.awaitMessages();
+	for (int i = 0; i < 500 && tr.count(Kind.SLICE) == 0; i++) {
+	    Thread.sleep(10); //slice event follows the message's reply
+	}
+	ActorRef.setTracer(null);
+
+	assertEquals(1, tr.count(Kind.MESSAGE));
+	TraceEvent e = null;
+	for (TraceEvent x : tr.events) {
+	    if (x.kind == Kind.MESSAGE) {
+		e = x;
+	    }
+	}
+	assertEquals(TraceEvent.actorName(a), e.actorName);
+	assertEquals(Sleeper.class, e.actorClass);
+	assertEquals(Sleep.class, e.msgClass);
+	assertTrue(e.nanos >= 30000000L);
+	assertTrue(e.toString().contains("Sleeper@"));
+	assertTrue(tr.count(Kind.SLICE) >= 1);
+	assertTrue(tr.count(Kind.SCHEDULED) >= 1);
+	assertEquals(1, tr.count(Kind.FUTURE_BLOCKED));
+	assertEquals(0, tr.count(Kind.RUN_CORE));
+	threadP.shutdown();
+    }
+
+    @Test
+    public void testRunCore() throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(1);
+	final ActorRef<Sleeper> b = new ActorRef<Sleeper>(new Sleeper(), threadP);
+	ActorRef<Sleeper> a = new ActorRef<Sleeper>(new Sleeper(), threadP);
+	Recorder tr = new Recorder();
+	ActorRef.setTracer(tr);
+	int v = a.call(new IMessage<Sleeper, Integer>()
+	{
+	    public Integer act(Sleeper s) throws Exception {
+		return b.call(new Sleep(1)).get(); //only thread is busy
+	    }
+	}).get();
+	assertEquals(1, v);
+	assertTrue(tr.count(Kind.RUN_CORE) >= 1); //and maybe main thread on a
+	assertEquals(TraceEvent.actorName(b), tr.events.get(0).actorName);
+	threadP.shutdown();
+    }
+}
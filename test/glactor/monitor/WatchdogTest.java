@@ -0,0 +1,78 @@
+package glactor.monitor;
+
+import glactor.core.*;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class WatchdogTest
+{
+    static class Slowpoke
+    {
+	void work(long ms) throws InterruptedException {
+	    Thread.sleep(ms);
+	}
+    }
+
+    static class Work implements IMessage<Slowpoke, Void>
+    {
+	final long ms;
+
+	Work(long ms) {
+	    this.ms = ms;
+	}
+
+	public Void act(Slowpoke s) throws Exception {
+	    s.work(ms);
+	    return null;
+	}
+    }
+
+    @Test
+    public void testSlowMessage() throws Exception {
+	final List<Watchdog.SlowMessage> slow
+		= Collections.synchronizedList(new ArrayList<Watchdog.SlowMessage>());
+	final List<Watchdog.SlowMessage> finished
+		= Collections.synchronizedList(new ArrayList<Watchdog.SlowMessage>());
+	Watchdog wd = new Watchdog(100, 50);
+	wd.addListener(new Watchdog.IListener()
+	{
+	    public void slow(Watchdog.SlowMessage m) {
+		slow.add(m);
+	    }
+
+	    public void finished(Watchdog.SlowMessage m) {
+		finished.add(m);
+	    }
+	});
+	wd.start();
+	ActorThreadPool threadP = new ThrPoolBasicImpl(2);
+	ActorRef<Slowpoke> a = new ActorRef<Slowpoke>(new Slowpoke(), threadP);
+	for (int i = 0; i < 100; i++) {
+	    a.send(new Work(0));
+	}
+	a.call(new Work(400)).get();
+	a.send(new Work(0));
+	a.awaitMessages();
+	Thread.sleep(100);
+	wd.stop();
+	assertFalse(WorkerActivity.isEnabled());
+
+	assertTrue("samples " + slow.size(), slow.size() >= 2);
+	Watchdog.SlowMessage m = slow.get(0);
+	assertEquals(1, m.sampleNo);
+	assertSame(a, m.actor);
+	assertEquals(Slowpoke.class, m.actorClass);
+	assertEquals(Work.class, m.msgClass);
+	assertTrue(m.elapsedMillis >= 100);
+	boolean inWork = false;
+	for (StackTraceElement e : m.stack) {
+	    inWork |= e.getMethodName().equals("work");
+	}
+	assertTrue(inWork);
+	assertEquals(2, slow.get(1).sampleNo);
+	assertEquals(1, finished.size());
+	assertTrue(finished.get(0).elapsedMillis >= 400);
+	threadP.shutdown();
+    }
+}
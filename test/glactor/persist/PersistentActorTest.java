@@ -0,0 +1,186 @@
+package glactor.persist;
+
+import glactor.codec.*;
+import glactor.core.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class PersistentActorTest
+{
+    public static class Account implements ISnapshotable
+    {
+	long balance;
+	int count;
+
+	public Object takeSnapshot() {
+	    return new long[]{balance, count};
+	}
+
+	public void restoreSnapshot(Object state) {
+	    long[] s = (long[]) state;
+	    balance = s[0];
+	    count = (int) s[1];
+	}
+    }
+
+    static class Add implements IMessage<Account, Long>, IPersistent
+    {
+	long v;
+
+	Add() {
+	}
+
+	Add(long v) {
+	    this.v = v;
+	}
+
+	public Long act(Account a) {
+	    if (a.balance + v < 0) {
+		throw new IllegalArgumentException("overdraft");
+	    }
+	    a.balance += v;
+	    a.count++;
+	    return a.balance;
+	}
+    }
+
+    static class Get implements IMessage<Account, Long>
+    {
+	public Long act(Account a) {
+	    return a.balance;
+	}
+    }
+
+    ActorThreadPool threadP = new ThrPoolBasicImpl(2);
+    BinaryCodec codec = new BinaryCodec();
+    File dir;
+
+    @Before
+    public void setUp() throws Exception {
+	codec.register(1, Add.class);
+	dir = File.createTempFile("glactor-journal", "");
+	dir.delete();
+    }
+
+    @After
+    public void tearDown() {
+	File[] fs = dir.listFiles();
+	if (fs != null) {
+	    for (File f : fs) {
+		f.delete();
+	    }
+	}
+	dir.delete();
+	threadP.shutdown();
+    }
+
+    @Test
+    public void testJournalSegments() throws Exception {
+	Journal j = new Journal(dir, codec, 4096);
+	for (int i = 1; i <= 10000; i++) {
+	    assertEquals(i, j.append(i));
+	}
+	j.sync();
+	assertEquals(10000, j.getDurableSeq());
+	j.close();
+	assertTrue(dir.list().length > 10);
+	j = new Journal(dir, codec, 4096);
+	assertEquals(10000, j.getLastSeq());
+	assertEquals(10001, j.append("x"));
+	final List<Object> got = new ArrayList<Object>();
+	j.deleteUpTo(5000);
+	assertEquals(10001, j.replay(5001, new Journal.IReplay()
+	{
+	    public void replay(long seq, Object event) {
+		got.add(event);
+	    }
+	}));
+	assertEquals(5001, got.size());
+	assertEquals(5001, got.get(0));
+	assertEquals("x", got.get(5000));
+	final CountDownLatch durable = new CountDownLatch(1);
+	j.whenDurable(10001, new Runnable()
+	{
+	    public void run() {
+		durable.countDown();
+	    }
+	});
+	assertTrue(durable.await(5, TimeUnit.SECONDS));
+	j.close();
+    }
+
+    @Test
+    public void testJournalTornRecord() throws Exception {
+	Journal j = new Journal(dir, codec, 4096);
+	for (int i = 1; i <= 3; i++) {
+	    j.append("event" + i);
+	}
+	j.close();
+	File seg = dir.listFiles()[0];
+	RandomAccessFile raf = new RandomAccessFile(seg, "rw");
+	int pos2 = 8 + raf.readInt();
+	raf.seek(pos2);
+	int pos3 = pos2 + 8 + raf.readInt();
+	raf.seek(pos3);
+	int len3 = raf.readInt();
+	raf.seek(pos3 + 8 + len3 - 1); //payload lost, length reached disk
+	int b = raf.readByte();
+	raf.seek(pos3 + 8 + len3 - 1);
+	raf.write(b ^ 1);
+	raf.close();
+	j = new Journal(dir, codec, 4096);
+	assertEquals(2, j.getLastSeq());
+	assertEquals(3, j.append("x"));
+	final List<Object> got = new ArrayList<Object>();
+	Journal.IReplay collect = new Journal.IReplay()
+	{
+	    public void replay(long seq, Object event) {
+		got.add(event);
+	    }
+	};
+	assertEquals(3, j.replay(1, collect));
+	assertEquals(Arrays.<Object>asList("event1", "event2", "x"), got);
+	j.close();
+
+	raf = new RandomAccessFile(seg, "rw");
+	raf.seek(pos2);
+	raf.writeInt(Integer.MAX_VALUE); //corrupt length
+	raf.close();
+	j = new Journal(dir, codec, 4096);
+	assertEquals(1, j.getLastSeq());
+	got.clear();
+	assertEquals(1, j.replay(1, collect));
+	assertEquals(Arrays.<Object>asList("event1"), got);
+	j.close();
+    }
+
+    @Test
+    public void testRecover() throws Exception {
+	PersistentActorRef<Account> acc = new PersistentActorRef<Account>(
+		new Account(), threadP, dir, codec, 1000);
+	for (int i = 0; i < 5000; i++) {
+	    acc.send(new Add(2));
+	}
+	try {
+	    acc.call(new Add(-1000000)).get();
+	    fail();
+	} catch (ExecutionException e) {
+	    assertTrue(e.getCause() instanceof IllegalArgumentException);
+	}
+	assertEquals(Long.valueOf(10001), acc.call(new Add(1)).get());
+	assertTrue(acc.getJournal().getDurableSeq() >= 5002);
+	acc.close();
+
+	Account a2 = new Account();
+	PersistentActorRef<Account> acc2 = new PersistentActorRef<Account>(
+		a2, threadP, dir, codec, 1000);
+	assertEquals(Long.valueOf(10001), acc2.call(new Get()).get());
+	assertEquals(5001, a2.count);
+	assertTrue(acc2.getRecoveredCount() <= 5002);
+	acc2.call(new Add(1)).get();
+	acc2.close();
+    }
+}
@@ -0,0 +1,180 @@
+package glactor.persist;
+
+import glactor.codec.BinaryCodec;
+import glactor.core.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class SpillMailboxTest
+{
+    @Test
+    public void testFifo() throws Exception {
+	File dir = File.createTempFile("glactor-spill", "");
+	dir.delete();
+	SpillMailbox<Object> box = new SpillMailbox<Object>(10, dir,
+		new BinaryCodec(), 1024);
+	for (int i = 0; i < 1000; i++) {
+	    box.offer(i % 7 == 0 ? "s" + i : i);
+	}
+	assertEquals(1000, box.size());
+	assertEquals(990, box.getSpilled());
+	assertTrue(dir.list().length > 1); //several segments
+	for (int i = 0; i < 500; i++) {
+	    assertEquals(i % 7 == 0 ? "s" + i : i, box.poll());
+	}
+	box.offer(-1); //still spills (FIFO)
+	for (int i = 500; i < 1000; i++) {
+	    assertEquals(i % 7 == 0 ? "s" + i : i, box.poll());
+	}
+	assertEquals(-1, box.poll());
+	assertNull(box.poll());
+	assertEquals(0, dir.list().length);
+	box.offer(5); //in memory again
+	assertEquals(0, box.getSpilled());
+	assertEquals(991, box.getSpilledTotal());
+	dir.delete();
+    }
+
+    /**
+     * Mailboxes sharing a directory, with a stale segment file, keep
+     * their own messages
+     */
+    @Test
+    public void testSharedDir() throws Exception {
+	File dir = File.createTempFile("glactor-spill", "");
+	dir.delete();
+	dir.mkdirs();
+	File stale = new File(dir, "spill-0.seg");
+	java.io.FileOutputStream out = new java.io.FileOutputStream(stale);
+	out.write(new byte[]{0, 0, 0, 9, 1, 2, 3});
+	out.close();
+	SpillMailbox<Object> a = new SpillMailbox<Object>(0, dir, new BinaryCodec(), 1024);
+	SpillMailbox<Object> b = new SpillMailbox<Object>(0, dir, new BinaryCodec(), 1024);
+	for (int i = 0; i < 300; i++) {
+	    a.offer("a" + i);
+	    b.offer("b" + i);
+	}
+	for (int i = 0; i < 300; i++) {
+	    assertEquals("a" + i, a.poll());
+	    assertEquals("b" + i, b.poll());
+	}
+	assertNull(a.poll());
+	assertNull(b.poll());
+	assertArrayEquals(new String[]{"spill-0.seg"}, dir.list());
+	stale.delete();
+	dir.delete();
+    }
+
+    /**
+     * Failed encode leaves no partial record
+     */
+    @Test
+    public void testEncodeFailure() throws Exception {
+	File dir = File.createTempFile("glactor-spill", "");
+	dir.delete();
+	SpillMailbox<Object> box = new SpillMailbox<Object>(0, dir,
+		new BinaryCodec(), 1024);
+	box.offer("a");
+	try {
+	    box.offer(new Object());
+	    fail();
+	} catch (IllegalArgumentException e) {
+	}
+	box.offer("b");
+	box.offer("c");
+	assertEquals(3, box.size());
+	assertEquals("a", box.poll());
+	assertEquals("b", box.poll());
+	assertEquals("c", box.poll());
+	assertNull(box.poll());
+	dir.delete();
+    }
+
+    /**
+     * Unreadable spilled message is skipped and reported; the actor
+     * keeps receiving
+     */
+    @Test
+    public void testDecodeFailure() throws Exception {
+	File dir = File.createTempFile("glactor-spill", "");
+	dir.delete();
+	BinaryCodec codec = new BinaryCodec()
+	{
+	    @Override
+	    public Object decode(ByteBuffer in) throws IOException {
+		Object o = super.decode(in);
+		if ("bad".equals(o)) {
+		    throw new IOException("bad");
+		}
+		return o;
+	    }
+	};
+	final List<Object> got = new ArrayList<Object>();
+	final List<Exception> errors = new ArrayList<Exception>();
+	final CountDownLatch done = new CountDownLatch(1);
+	ActorThreadPool threadP = new ThrPoolBasicImpl(2);
+	ActorCore<String> actor = new ActorCore<String>(threadP,
+		new SpillMailbox<String>(0, dir, codec, 1024))
+	{
+	    @Override
+	    protected void receive(String msg) {
+		got.add(msg);
+		if ("d".equals(msg)) {
+		    done.countDown();
+		}
+	    }
+
+	    @Override
+	    protected void onException(Exception e) {
+		errors.add(e);
+	    }
+	};
+	actor.send("a");
+	actor.send("bad");
+	actor.send("c");
+	threadP.awaitQuiescence(5000);
+	actor.send("d"); //still scheduled
+	assertTrue(done.await(5, TimeUnit.SECONDS));
+	assertEquals(Arrays.<Object>asList("a", "c", "d"), got);
+	assertEquals(1, errors.size());
+	assertTrue(errors.get(0).getCause() instanceof IOException);
+	threadP.shutdown();
+	dir.delete();
+    }
+
+    /**
+     * Burst into slow actor, in order
+     */
+    @Test
+    public void testActorBurst() throws Exception {
+	File dir = File.createTempFile("glactor-spill", "");
+	dir.delete();
+	final int n = 200000;
+	final CountDownLatch done = new CountDownLatch(1);
+	final int[] next = {0};
+	final SpillMailbox<Integer> box = new SpillMailbox<Integer>(100, dir,
+		new BinaryCodec());
+	ActorThreadPool threadP = new ThrPoolBasicImpl(2);
+	ActorCore<Integer> actor = new ActorCore<Integer>(threadP, box)
+	{
+	    @Override
+	    protected void receive(Integer msg) {
+		assertEquals(next[0]++, msg.intValue());
+		if (next[0] == n) {
+		    done.countDown();
+		}
+	    }
+	};
+	for (int i = 0; i < n; i++) {
+	    actor.send(i);
+	}
+	assertTrue(done.await(30, TimeUnit.SECONDS));
+	assertTrue(box.getSpilledTotal() > 0);
+	threadP.shutdown();
+	dir.delete();
+    }
+}
@@ -0,0 +1,255 @@
+package glactor.remote;
+
+import glactor.codec.SerialCodec;
+import glactor.core.*;
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Two nodes in one process, connected over loopback
+ */
+public class RemoteNodeTest
+{
+    public static class Counter
+    {
+	long sum;
+	int count;
+    }
+
+    static class Add implements IMessage<Counter, Void>, Serializable
+    {
+	private static final long serialVersionUID = 1L;
+
+	final long v;
+
+	Add(long v) {
+	    this.v = v;
+	}
+
+	public Void act(Counter c) {
+	    c.sum += v;
+	    c.count++;
+	    return null;
+	}
+    }
+
+    static class Get implements IMessage<Counter, Long>, Serializable
+    {
+	private static final long serialVersionUID = 1L;
+
+	public Long act(Counter c) {
+	    return c.sum;
+	}
+    }
+
+    static class Fail implements IMessage<Counter, Long>, Serializable
+    {
+	private static final long serialVersionUID = 1L;
+
+	public Long act(Counter c) {
+	    throw new IllegalStateException("fail");
+	}
+    }
+
+    static class Size implements IMessage<Counter, Integer>, Serializable
+    {
+	private static final long serialVersionUID = 1L;
+
+	final byte[] data;
+
+	Size(int n) {
+	    data = new byte[n];
+	}
+
+	public Integer act(Counter c) {
+	    return data.length;
+	}
+    }
+
+    ActorThreadPool threadP;
+    RemoteNode server, client;
+    InetSocketAddress addr;
+    Counter counter;
+
+    @Before
+    public void setUp() throws Exception {
+	threadP = new ThrPoolBasicImpl(4);
+	server = new RemoteNode(threadP, new SerialCodec("glactor.remote."));
+	client = new RemoteNode(threadP, new SerialCodec("glactor.remote."));
+	counter = new Counter();
+	server.getRegistry().register("counter", threadP.create(counter));
+	addr = server.bind(new InetSocketAddress("localhost", 0));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+	client.close();
+	server.close();
+	threadP.shutdown();
+    }
+
+    @Test
+    public void testSendCall() throws Exception {
+	IActorRef<Counter> c = client.lookup(addr, "counter", Counter.class);
+	int n = 10000;
+	for (int i = 1; i <= n; i++) {
+	    c.send(new Add(i));
+	}
+	assertEquals(Long.valueOf((long) n * (n + 1) / 2),
+		c.call(new Get()).get(5, TimeUnit.SECONDS));
+	assertTrue(c.awaitMessages(5000));
+	assertEquals(n, counter.count);
+    }
+
+    /**
+     * Messages larger than the kept encoding buffer
+     */
+    @Test
+    public void testLargeMessage() throws Exception {
+	IActorRef<Counter> c = client.lookup(addr, "counter", Counter.class);
+	for (int n = 1 << 10; n <= 1 << 22; n <<= 4) {
+	    assertEquals(Integer.valueOf(n),
+		    c.call(new Size(n)).get(5, TimeUnit.SECONDS));
+	}
+	assertEquals(Long.valueOf(0), c.call(new Get()).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testManyCallers() throws Exception {
+	final IActorRef<Counter> c = client.lookup(addr, "counter", Counter.class);
+	ExecutorService ex = Executors.newFixedThreadPool(4);
+	Future<?>[] fs = new Future<?>[4];
+	for (int t = 0; t < fs.length; t++) {
+	    fs[t] = ex.submit(new Callable<Void>()
+	    {
+		public Void call() throws Exception {
+		    for (int i = 0; i < 500; i++) {
+			c.call(new Add(1)).get(5, TimeUnit.SECONDS);
+		    }
+		    return null;
+		}
+	    });
+	}
+	for (Future<?> f : fs) {
+	    f.get();
+	}
+	ex.shutdown();
+	assertEquals(Long.valueOf(2000), c.call(new Get()).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+	IActorRef<Counter> c = client.lookup(addr, "counter", Counter.class);
+	try {
+	    c.call(new Fail()).get(5, TimeUnit.SECONDS);
+	    fail();
+	} catch (ExecutionException e) {
+	    assertTrue(e.getCause() instanceof IllegalStateException);
+	}
+	IActorRef<Counter> none = client.lookup(addr, "none", Counter.class);
+	try {
+	    none.call(new Get()).get(5, TimeUnit.SECONDS);
+	    fail();
+	} catch (ExecutionException e) {
+	    assertTrue(e.getCause() instanceof IllegalArgumentException);
+	}
+	try {
+	    c.send(new IMessage<Counter, Void>() //not serializable
+	    {
+		public Void act(Counter actorImpl) {
+		    return null;
+		}
+	    });
+	    fail();
+	} catch (IllegalArgumentException e) {
+	}
+    }
+
+    @Test
+    public void testConnectionLost() throws Exception {
+	IActorRef<Counter> c = client.lookup(addr, "counter", Counter.class);
+	assertEquals(Long.valueOf(0), c.call(new Get()).get(5, TimeUnit.SECONDS));
+	server.getRegistry().register("slow", threadP.create(new Counter()));
+	IActorRef<Counter> slow = client.lookup(addr, "slow", Counter.class);
+	Future<Long> f = slow.call(new Get());
+	server.close();
+	try {
+	    f.get(5, TimeUnit.SECONDS);
+	} catch (ExecutionException e) { //or replied before close
+	    assertTrue(e.getCause() instanceof IOException);
+	}
+	Future<Long> f2 = c.call(new Get());
+	try {
+	    f2.get(5, TimeUnit.SECONDS);
+	    fail();
+	} catch (ExecutionException e) {
+	    assertTrue(e.getCause() instanceof IOException);
+	}
+    }
+
+    /**
+     * Frame with one record, as written by RemoteNode
+     */
+    static ByteBuffer frame(byte type, long id, String name, Object msg)
+	    throws IOException {
+	ByteBuffer b = ByteBuffer.allocate(4096);
+	b.position(8);
+	b.put(type).putLong(id);
+	byte[] nm = name.getBytes("UTF-8");
+	b.putShort((short) nm.length).put(nm);
+	new SerialCodec().encode(msg, b);
+	b.putInt(0, b.position() - 4);
+	b.putInt(4, b.position() - 8);
+	b.flip();
+	return b;
+    }
+
+    /**
+     * Bad input from a peer closes only its connection
+     */
+    @Test
+    public void testMalformedInput() throws Exception {
+	IActorRef<Counter> c = client.lookup(addr, "counter", Counter.class);
+	SocketChannel raw = SocketChannel.open(addr);
+	DataInputStream in = new DataInputStream(raw.socket().getInputStream());
+	//not a message, class not in allow-list: error replies
+	raw.write(frame(RemoteNode.SEND, 0, "counter", "not a message"));
+	raw.write(frame(RemoteNode.CALL, 1, "counter", "not a message"));
+	raw.write(frame(RemoteNode.CALL, 2, "counter", new URL("http://localhost/")));
+	for (int got = 0; got < 2;) {
+	    int left = in.readInt();
+	    while (left > 0) {
+		int len = in.readInt();
+		in.readFully(new byte[len]);
+		left -= 4 + len;
+		got++;
+	    }
+	}
+	ByteBuffer url = frame(RemoteNode.CALL, 2, "counter", new URL("http://localhost/"));
+	url.position(19 + "counter".length());
+	try {
+	    new SerialCodec("glactor.remote.").decode(url);
+	    fail();
+	} catch (InvalidClassException e) {
+	}
+	//name longer than record
+	ByteBuffer bad = frame(RemoteNode.SEND, 0, "counter", new Add(1));
+	bad.putShort(17, Short.MAX_VALUE);
+	raw.write(bad);
+	assertEquals(-1, in.read());
+	raw.close();
+	//negative frame length
+	raw = SocketChannel.open(addr);
+	ByteBuffer neg = ByteBuffer.allocate(4).putInt(-1);
+	neg.flip();
+	raw.write(neg);
+	assertEquals(-1, raw.socket().getInputStream().read());
+	raw.close();
+	assertEquals(Long.valueOf(0), c.call(new Get()).get(5, TimeUnit.SECONDS));
+    }
+}
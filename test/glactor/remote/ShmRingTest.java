@@ -0,0 +1,134 @@
+package glactor.remote;
+
+import glactor.codec.SerialCodec;
+import glactor.core.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class ShmRingTest
+{
+    /**
+     * Variable length records through a small ring (many wraps),
+     * producer and consumer in separate threads and mappings
+     */
+    @Test
+    public void testWrapAround() throws Exception {
+	File f = File.createTempFile("glactor-ring", ".shm");
+	f.deleteOnExit();
+	final ShmRing prod = ShmRing.create(f, 256);
+	ShmRing cons = ShmRing.open(f);
+	final int n = 100000;
+	Thread t = new Thread()
+	{
+	    @Override
+	    public void run() {
+		ByteBuffer b = ByteBuffer.allocate(prod.maxRecord());
+		for (int i = 0; i < n; i++) {
+		    b.clear();
+		    int len = 4 + i % 50;
+		    for (int k = 0; k < len; k += 4) {
+			b.putInt(i);
+		    }
+		    b.flip();
+		    while (!prod.offer(b)) {
+			Thread.yield();
+		    }
+		}
+	    }
+	};
+	t.start();
+	for (int i = 0; i < n; i++) {
+	    ByteBuffer r;
+	    while ((r = cons.peek()) == null) {
+		Thread.yield();
+	    }
+	    int len = 4 + i % 50;
+	    assertEquals((len + 3) / 4 * 4, r.remaining());
+	    while (r.hasRemaining()) {
+		assertEquals(i, r.getInt());
+	    }
+	    if (i % 3 == 0) {
+		cons.release();
+	    }
+	}
+	cons.release();
+	t.join();
+	assertNull(cons.peek());
+	f.delete();
+    }
+
+    @Test
+    public void testReceiver() throws Exception {
+	File f = File.createTempFile("glactor-ring", ".shm");
+	f.deleteOnExit();
+	final StringBuffer got = new StringBuffer();
+	ActorRegistry reg = new ActorRegistry();
+	reg.register("log", new ThrPoolBasicImpl(1).create(got));
+	ShmReceiver r = new ShmReceiver(f, 1 << 12, new SerialCodec(), reg);
+	ShmSender s = new ShmSender(f, new SerialCodec());
+	for (int i = 0; i < 1000; i++) {
+	    s.send("log", new Append(i % 10));
+	}
+	long t = System.currentTimeMillis() + 5000;
+	while (r.getReceived() < 1000 && System.currentTimeMillis() < t) {
+	    Thread.sleep(1);
+	}
+	reg.get("log").awaitMessages(5000);
+	r.close();
+	assertEquals(1000, got.length());
+	assertEquals("0123456789", got.substring(990));
+	f.delete();
+    }
+
+    /**
+     * Names of 32K..64K bytes (unsigned length), longer ones rejected
+     */
+    @Test
+    public void testLongName() throws Exception {
+	File f = File.createTempFile("glactor-ring", ".shm");
+	f.deleteOnExit();
+	final StringBuffer got = new StringBuffer();
+	char[] c = new char[40000];
+	Arrays.fill(c, 'n');
+	String name = new String(c);
+	ActorRegistry reg = new ActorRegistry();
+	ActorThreadPool threadP = new ThrPoolBasicImpl(1);
+	reg.register(name, threadP.create(got));
+	ShmReceiver r = new ShmReceiver(f, 1 << 17, new SerialCodec(), reg);
+	ShmSender s = new ShmSender(f, new SerialCodec());
+	s.send(name, new Append(7));
+	try {
+	    s.send(name + name, new Append(8));
+	    fail();
+	} catch (IllegalArgumentException e) {
+	}
+	long t = System.currentTimeMillis() + 5000;
+	while (r.getReceived() < 1 && System.currentTimeMillis() < t) {
+	    Thread.sleep(1);
+	}
+	reg.get(name).awaitMessages(5000);
+	r.close();
+	assertEquals("7", got.toString());
+	threadP.shutdown();
+	f.delete();
+    }
+
+    static class Append implements IMessage<StringBuffer, Void>, Serializable
+    {
+	private static final long serialVersionUID = 1L;
+
+	final int v;
+
+	Append(int v) {
+	    this.v = v;
+	}
+
+	public Void act(StringBuffer sb) {
+	    sb.append(v);
+	    return null;
+	}
+    }
+}
@@ -0,0 +1,125 @@
+package glactor.stm;
+
+import glactor.core.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TransactionTest
+{
+    static class Account
+    {
+	final TxVar<Long> balance = new TxVar<Long>(1000L);
+    }
+
+    static void transfer(final Account from, final Account to, final long amount)
+	    throws Exception {
+	Transaction.atomic(new ITxBlock<Void>()
+	{
+	    public Void run(Transaction tx) {
+		long b = tx.get(from.balance);
+		if (b < amount) {
+		    return null; //insufficient funds
+		}
+		tx.set(from.balance, b - amount);
+		tx.set(to.balance, tx.get(to.balance) + amount);
+		return null;
+	    }
+	});
+    }
+
+    static long total(final Account[] accs) throws Exception {
+	return Transaction.atomic(new ITxBlock<Long>()
+	{
+	    public Long run(Transaction tx) {
+		long sum = 0;
+		for (Account a : accs) {
+		    sum += tx.get(a.balance);
+		}
+		return sum;
+	    }
+	});
+    }
+
+    /**
+     * Concurrent transfers between account actors; reads always see
+     * the same total
+     */
+    @Test
+    public void testTransfers() throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(4);
+	final Account[] accs = new Account[8];
+	List<IActorRef<Account>> refs = new ArrayList<IActorRef<Account>>(accs.length);
+	for (int i = 0; i < accs.length; i++) {
+	    accs[i] = new Account();
+	    refs.add(threadP.create(accs[i]));
+	}
+	Random rnd = new Random(1);
+	for (int i = 0; i < 40000; i++) {
+	    final Account to = accs[rnd.nextInt(accs.length)];
+	    final long amount = rnd.nextInt(300);
+	    refs.get(rnd.nextInt(accs.length)).send(new IMessage<Account, Void>()
+	    {
+		public Void act(Account from) throws Exception {
+		    transfer(from, to, amount); //does not block this actor
+		    return null;
+		}
+	    });
+	}
+	do {
+	    assertEquals(8000L, total(accs));
+	} while (!threadP.awaitQuiescence(1));
+	assertEquals(8000L, total(accs));
+	for (Account a : accs) {
+	    assertTrue(a.balance.get() >= 0);
+	}
+	threadP.shutdown();
+    }
+
+    @Test
+    public void testAbort() throws Exception {
+	final TxVar<Integer> a = new TxVar<Integer>(1), b = new TxVar<Integer>(2);
+	try {
+	    Transaction.atomic(new ITxBlock<Void>()
+	    {
+		public Void run(Transaction tx) throws Exception {
+		    tx.set(a, 10);
+		    assertEquals(10, (int) tx.get(a)); //own write
+		    tx.set(b, 20);
+		    throw new IllegalStateException("abort");
+		}
+	    });
+	    fail();
+	} catch (IllegalStateException e) {
+	}
+	assertEquals(1, (int) a.get());
+	assertEquals(2, (int) b.get());
+	long v = a.getVersion();
+	a.set(5);
+	assertTrue(a.getVersion() > v);
+	assertEquals(5, (int) a.get());
+    }
+
+    /**
+     * Conflicting write between read and commit => retry
+     */
+    @Test
+    public void testRetry() throws Exception {
+	final TxVar<Integer> x = new TxVar<Integer>(0);
+	final AtomicBoolean interfered = new AtomicBoolean();
+	int attempts = Transaction.atomic(new ITxBlock<Integer>()
+	{
+	    public Integer run(Transaction tx) {
+		int v = tx.get(x);
+		if (!interfered.getAndSet(true)) {
+		    x.set(100); //concurrent commit
+		}
+		tx.set(x, v + 1);
+		return tx.getAttempt();
+	    }
+	});
+	assertEquals(1, attempts);
+	assertEquals(101, (int) x.get());
+    }
+}
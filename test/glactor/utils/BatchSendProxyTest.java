@@ -0,0 +1,104 @@
+package glactor.utils;
+
+import glactor.core.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class BatchSendProxyTest
+{
+    static class Sink
+    {
+	final List<Integer> got = new ArrayList<Integer>();
+	int batches, empty;
+    }
+
+    static Sink stateOf(IActorRef<Sink> a) throws Exception {
+	return a.call(new IMessage<Sink, Sink>()
+	{
+	    public Sink act(Sink s) {
+		return s;
+	    }
+	}).get();
+    }
+
+    @Test
+    public void testBatchAndLatest() throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(4);
+	final IActorRef<Sink> a = threadP.create(new Sink());
+	final BatchSendProxy<Sink, Integer> proxy = new BatchSendProxy<Sink, Integer>(a, 8)
+	{
+	    @Override
+	    protected void actBatch(Sink s, List<Integer> vals) {
+		s.batches++;
+		if (vals.isEmpty()) {
+		    s.empty++;
+		}
+		s.got.addAll(vals);
+	    }
+	};
+	ExecutorService exec = Executors.newFixedThreadPool(4);
+	final int n = 10000;
+	for (int t = 0; t < 4; t++) {
+	    final int base = t * n;
+	    exec.execute(new Runnable()
+	    {
+		public void run() {
+		    for (int i = 0; i < n; i++) {
+			proxy.send(base + i);
+		    }
+		}
+	    });
+	}
+	exec.shutdown();
+	assertTrue(exec.awaitTermination(10, TimeUnit.SECONDS));
+	assertTrue(threadP.awaitQuiescence(10000));
+	Sink s = stateOf(a);
+	assertEquals(4 * n, s.got.size());
+	assertEquals(0, s.empty);
+	assertTrue(s.batches < 4 * n);
+	//sendLatest replaces pending values
+	final CountDownLatch gate = new CountDownLatch(1);
+	a.send(new Runnable()
+	{
+	    public void run() {
+		try {
+		    gate.await();
+		} catch (InterruptedException ex) {
+		}
+	    }
+	});
+	s.got.clear();
+	for (int i = 0; i < 5; i++) {
+	    proxy.send(i);
+	}
+	proxy.sendLatest(99);
+	gate.countDown();
+	assertTrue(threadP.awaitQuiescence(10000));
+	assertEquals(Arrays.asList(99), stateOf(a).got);
+	//backlog larger than batchSize drains in order, batchSize at a time
+	final CountDownLatch gate2 = new CountDownLatch(1);
+	a.send(new Runnable()
+	{
+	    public void run() {
+		try {
+		    gate2.await();
+		} catch (InterruptedException ex) {
+		}
+	    }
+	});
+	s.got.clear();
+	s.batches = 0;
+	List<Integer> sent = new ArrayList<Integer>();
+	for (int i = 0; i < 100; i++) {
+	    proxy.send(i);
+	    sent.add(i);
+	}
+	gate2.countDown();
+	assertTrue(threadP.awaitQuiescence(10000));
+	assertEquals(sent, stateOf(a).got);
+	assertEquals(13, s.batches);
+	threadP.shutdown();
+    }
+}
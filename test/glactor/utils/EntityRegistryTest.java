@@ -0,0 +1,119 @@
+package glactor.utils;
+
+import glactor.core.*;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class EntityRegistryTest
+{
+    static class Counter
+    {
+	int count;
+    }
+
+    /**
+     * Saves counter values on passivation, restores on activation
+     */
+    static class Store implements EntityRegistry.IStore<Integer, Counter>
+    {
+	final Map<Integer, Integer> saved
+		= new ConcurrentHashMap<Integer, Integer>();
+	final AtomicInteger noSaved = new AtomicInteger();
+
+	public Counter activate(Integer id) {
+	    Counter c = new Counter();
+	    Integer v = saved.get(id);
+	    if (v != null) {
+		c.count = v;
+	    }
+	    return c;
+	}
+
+	public void passivate(Integer id, Counter actorImpl) {
+	    saved.put(id, actorImpl.count);
+	    noSaved.incrementAndGet();
+	}
+    }
+
+    static final MsgSend<Counter> incr = new MsgSend<Counter>()
+    {
+	@Override
+	public void recv(Counter actorImpl) {
+	    ++actorImpl.count;
+	}
+    };
+
+    static final IMessage<Counter, Integer> get = new IMessage<Counter, Integer>()
+    {
+	public Integer act(Counter actorImpl) {
+	    return actorImpl.count;
+	}
+    };
+
+    @Test
+    public void testLruPassivation() throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(4);
+	Store store = new Store();
+	EntityRegistry<Integer, Counter> reg
+		= new EntityRegistry<Integer, Counter>(threadP, store, 8, 0, 1);
+	int noIds = 100, noRounds = 20;
+	for (int r = 0; r < noRounds; r++) {
+	    for (int id = 0; id < noIds; id++) {
+		reg.send(id, incr);
+	    }
+	}
+	for (int id = 0; id < noIds; id++) {
+	    assertEquals(noRounds, (int) reg.call(id, get).get());
+	}
+	assertTrue(threadP.awaitQuiescence(10000)); //passivations done
+	assertTrue(reg.size() <= 8);
+	assertTrue(store.noSaved.get() > 0);
+	assertTrue(reg.getActivationCount() > noIds);
+	assertTrue(reg.getPassivationCount() > 0);
+	System.out.println("hitRate: " + reg.getHitRate()
+		+ " activations: " + reg.getActivationCount()
+		+ " passivations: " + reg.getPassivationCount());
+    }
+
+    /**
+     * maxActive below the default segment count still holds
+     */
+    @Test
+    public void testSmallLimit() throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(4);
+	EntityRegistry<Integer, Counter> reg
+		= new EntityRegistry<Integer, Counter>(threadP, new Store(), 3, 0);
+	for (int id = 0; id < 100; id++) {
+	    reg.send(id, incr);
+	}
+	assertTrue(threadP.awaitQuiescence(10000)); //passivations done
+	assertTrue("size " + reg.size(), reg.size() <= 3);
+    }
+
+    @Test
+    public void testTtlSweep() throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(2);
+	Store store = new Store();
+	EntityRegistry<Integer, Counter> reg
+		= new EntityRegistry<Integer, Counter>(threadP, store, 0, 1);
+	for (int id = 0; id < 10; id++) {
+	    reg.send(id, incr);
+	}
+	Thread.sleep(20);
+	assertEquals(10, reg.sweep());
+	for (int i = 0; i < 100 && reg.size() > 0; i++) {
+	    Thread.sleep(10);
+	}
+	assertEquals(0, reg.size());
+	assertEquals(10, store.noSaved.get());
+	reg.send(3, incr);
+	assertEquals(2, (int) reg.call(3, get).get());
+	assertEquals(11, reg.getActivationCount());
+    }
+}
@@ -0,0 +1,100 @@
+package glactor.utils;
+
+import glactor.core.*;
+import java.util.concurrent.CountDownLatch;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class EventBusTest
+{
+    static class Sub
+    {
+	int noNumbers, noInts, noTopic;
+	Object last;
+    }
+
+    @Test
+    public void testClassAndTopic() throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(4);
+	EventBus bus = new EventBus();
+	IActorRef<Sub> a = threadP.create(new Sub());
+	IActorRef<Sub> b = threadP.create(new Sub());
+	EventBus.IHandler<Sub, Number> onNumber = new EventBus.IHandler<Sub, Number>()
+	{
+	    public void onEvent(Sub impl, Number e) {
+		++impl.noNumbers;
+		impl.last = e;
+	    }
+	};
+	EventBus.IHandler<Sub, Integer> onInt = new EventBus.IHandler<Sub, Integer>()
+	{
+	    public void onEvent(Sub impl, Integer e) {
+		++impl.noInts;
+	    }
+	};
+	EventBus.IHandler<Sub, Object> onTopic = new EventBus.IHandler<Sub, Object>()
+	{
+	    public void onEvent(Sub impl, Object e) {
+		++impl.noTopic;
+	    }
+	};
+	bus.subscribe(Number.class, a, onNumber);
+	bus.subscribe(Integer.class, b, onInt);
+	EventBus.Subscription<Sub, Object> st = bus.subscribe("t", b, onTopic);
+	final Integer ev = 7;
+	assertEquals(2, bus.publish(ev));
+	assertEquals(1, bus.publish(3.5));
+	assertEquals(0, bus.publish("no subscribers"));
+	assertEquals(1, bus.publish("t", ev));
+	b.awaitMessages(0); //cancel discards queued events
+	st.cancel();
+	assertEquals(0, bus.publish("t", ev));
+	a.awaitMessages(0);
+	b.awaitMessages(0);
+	Sub sa = a.call(new IMessage<Sub, Sub>()
+	{
+	    public Sub act(Sub impl) {
+		return impl;
+	    }
+	}).get();
+	Sub sb = b.call(new IMessage<Sub, Sub>()
+	{
+	    public Sub act(Sub impl) {
+		return impl;
+	    }
+	}).get();
+	assertEquals(2, sa.noNumbers);
+	assertEquals(3.5, sa.last);
+	assertEquals(1, sb.noInts);
+	assertEquals(1, sb.noTopic);
+    }
+
+    @Test
+    public void testBoundedDrops() throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(2);
+	EventBus bus = new EventBus();
+	final CountDownLatch gate = new CountDownLatch(1);
+	IActorRef<Sub> slow = threadP.create(new Sub());
+	EventBus.Subscription<Sub, Integer> s = bus.subscribe(Integer.class, slow,
+		new EventBus.IHandler<Sub, Integer>()
+		{
+		    public void onEvent(Sub impl, Integer e) throws Exception {
+			gate.await();
+			++impl.noInts;
+		    }
+		}, 10);
+	for (int i = 0; i < 100; i++) {
+	    bus.publish(i);
+	}
+	gate.countDown();
+	while (s.getQueueSize() > 0) {
+	    Thread.sleep(1);
+	}
+	slow.awaitMessages(0);
+	assertTrue(s.getDroppedCount() >= 89);
+	assertEquals(100, s.getDroppedCount() + s.getDeliveredCount());
+    }
+}
@@ -0,0 +1,68 @@
+package glactor.utils;
+
+import glactor.core.*;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ParallelArraysTest
+{
+    final ParallelArrays pa = new ParallelArrays(new ThrPoolBasicImpl(4), 1000);
+
+    @Test
+    public void testSort() throws Exception {
+	Random r = new Random(1);
+	for (int n : new int[]{0, 1, 999, 1000, 1001, 100000}) {
+	    int[] a = new int[n];
+	    long[] b = new long[n];
+	    double[] c = new double[n];
+	    for (int i = 0; i < n; i++) {
+		a[i] = r.nextInt(n / 3 + 1);
+		b[i] = r.nextLong();
+		c[i] = r.nextGaussian();
+	    }
+	    int[] a2 = a.clone();
+	    long[] b2 = b.clone();
+	    double[] c2 = c.clone();
+	    pa.sort(a);
+	    pa.sort(b);
+	    pa.sort(c);
+	    Arrays.sort(a2);
+	    Arrays.sort(b2);
+	    Arrays.sort(c2);
+	    assertArrayEquals(a2, a);
+	    assertArrayEquals(b2, b);
+	    assertTrue(Arrays.equals(c2, c));
+	}
+    }
+
+    @Test
+    public void testMapReduceScan() throws Exception {
+	int n = 54321;
+	long[] a = new long[n];
+	for (int i = 0; i < n; i++) {
+	    a[i] = i;
+	}
+	pa.map(a, new ParallelArrays.ILongMap()
+	{
+	    public long map(long v) {
+		return v * 2;
+	    }
+	});
+	ParallelArrays.ILongOp add = new ParallelArrays.ILongOp()
+	{
+	    public long apply(long x, long y) {
+		return x + y;
+	    }
+	};
+	assertEquals((long) n * (n - 1), pa.reduce(a, 0, add));
+	assertEquals(-1, pa.reduce(new long[0], -1, add));
+	pa.prefixScan(a, add);
+	for (int i = 0; i < n; i++) {
+	    assertEquals((long) i * (i + 1), a[i]);
+	}
+    }
+}
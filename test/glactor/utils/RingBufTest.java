@@ -0,0 +1,68 @@
+package glactor.utils;
+
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class RingBufTest
+{
+    @Test
+    public void testLast() {
+	RingBuf<Integer> rb = new RingBuf<Integer>(5); //array of 8
+	assertEquals(0, rb.snapshot().size());
+	for (int i = 0; i < 3; i++) {
+	    rb.add(i);
+	}
+	assertEquals(Arrays.asList(0, 1, 2), rb.snapshot());
+	for (int i = 3; i < 100; i++) {
+	    rb.add(i);
+	}
+	assertEquals(Arrays.asList(95, 96, 97, 98, 99), rb.snapshot());
+	assertEquals(5, rb.size());
+	assertEquals(100, rb.getAddCount());
+	rb.clear();
+	assertEquals(0, rb.size());
+	assertFalse(rb.iterator().hasNext());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+	final RingBuf<long[]> rb = new RingBuf<long[]>(1024);
+	final int noThreads = 4, noAdds = 100000;
+	Thread[] ts = new Thread[noThreads];
+	for (int t = 0; t < noThreads; t++) {
+	    final int id = t;
+	    ts[t] = new Thread()
+	    {
+		@Override
+		public void run() {
+		    for (int i = 0; i < noAdds; i++) {
+			rb.add(new long[]{id, i});
+		    }
+		}
+	    };
+	    ts[t].start();
+	}
+	while (ts[0].isAlive()) { //read while writing
+	    checkOrder(rb.snapshot());
+	}
+	for (Thread t : ts) {
+	    t.join();
+	}
+	List<long[]> last = rb.snapshot();
+	assertEquals(1024, last.size());
+	checkOrder(last);
+	assertEquals(noThreads * noAdds, rb.getAddCount());
+    }
+
+    /**
+     * Elements of each thread in increasing order
+     */
+    private static void checkOrder(List<long[]> lst) {
+	Map<Long, Long> prev = new HashMap<Long, Long>();
+	for (long[] e : lst) {
+	    Long p = prev.put(e[0], e[1]);
+	    assertTrue(p == null || p < e[1]);
+	}
+    }
+}
@@ -0,0 +1,122 @@
+package glactor.utils;
+
+import glactor.core.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ScatterGatherTest
+{
+    static class Shard
+    {
+	final int value;
+	final long delayMs;
+
+	Shard(int value, long delayMs) {
+	    this.value = value;
+	    this.delayMs = delayMs;
+	}
+    }
+
+    static final IMessage<Shard, Integer> getValue = new IMessage<Shard, Integer>()
+    {
+	public Integer act(Shard s) throws Exception {
+	    if (s.delayMs > 0) {
+		Thread.sleep(s.delayMs);
+	    }
+	    if (s.value < 0) {
+		throw new IllegalStateException("negative");
+	    }
+	    return s.value;
+	}
+    };
+
+    static final ScatterGather.IReducer<Integer, Integer> sum
+	    = new ScatterGather.IReducer<Integer, Integer>()
+    {
+	public Integer reduce(Integer acc, Integer v) {
+	    return acc + v;
+	}
+    };
+
+    List<IActorRef<Shard>> group(ActorThreadPool threadP, Shard... shards) {
+	List<IActorRef<Shard>> lst = new ArrayList<IActorRef<Shard>>();
+	for (Shard s : shards) {
+	    lst.add(threadP.create(s));
+	}
+	return lst;
+    }
+
+    @Test
+    public void testSum() throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(4);
+	List<IActorRef<Shard>> g = new ArrayList<IActorRef<Shard>>();
+	for (int i = 1; i <= 100; i++) {
+	    g.add(threadP.create(new Shard(i, 0)));
+	}
+	assertEquals(5050, (int) ScatterGather.call(g, getValue, 0, sum).get());
+	assertEquals(7, (int) ScatterGather.call(new ArrayList<IActorRef<Shard>>(),
+		getValue, 7, sum).get());
+    }
+
+    @Test
+    public void testTimeoutPolicy() throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(4);
+	List<IActorRef<Shard>> g = group(threadP,
+		new Shard(1, 0), new Shard(2, 0), new Shard(100, 2000));
+	FutureRef<Integer> partial = ScatterGather.call(g, getValue, 0, sum,
+		100, ScatterGather.Policy.PARTIAL);
+	assertEquals(3, (int) partial.get(1, TimeUnit.SECONDS));
+	FutureRef<Integer> all = ScatterGather.call(g, getValue, 0, sum,
+		100, ScatterGather.Policy.ALL);
+	try {
+	    all.get(1, TimeUnit.SECONDS);
+	    fail("ExecutionException expected");
+	} catch (ExecutionException e) {
+	    assertTrue(e.getCause() instanceof TimeoutException);
+	}
+    }
+
+    @Test
+    public void testFailurePolicy() throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(4);
+	List<IActorRef<Shard>> g = group(threadP,
+		new Shard(1, 0), new Shard(-1, 0), new Shard(2, 0));
+	assertEquals(3, (int) ScatterGather.call(g, getValue, 0, sum,
+		0, ScatterGather.Policy.PARTIAL).get());
+	try {
+	    ScatterGather.call(g, getValue, 0, sum).get();
+	    fail("ExecutionException expected");
+	} catch (ExecutionException e) {
+	    assertTrue(e.getCause() instanceof IllegalStateException);
+	}
+    }
+
+    /**
+     * Gather awaited in the only worker thread: no threadlock
+     */
+    @Test
+    public void testGetInWorker() throws Exception {
+	ActorThreadPool threadP = new ThrPoolBasicImpl(1);
+	final List<IActorRef<Shard>> g = group(threadP,
+		new Shard(1, 0), new Shard(2, 0), new Shard(3, 0));
+	final int[] res = new int[1];
+	final CountDownLatch done = new CountDownLatch(1);
+	IActorRef<Object> caller = threadP.create(new Object());
+	caller.send(new IMessage<Object, Void>() //not call: keep it in the worker
+	{
+	    public Void act(Object o) throws Exception {
+		res[0] = ScatterGather.call(g, getValue, 0, sum).get(5, TimeUnit.SECONDS);
+		done.countDown();
+		return null;
+	    }
+	});
+	assertTrue(done.await(10, TimeUnit.SECONDS));
+	assertEquals(6, res[0]);
+	threadP.shutdown();
+    }
+}
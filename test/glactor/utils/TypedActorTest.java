@@ -0,0 +1,135 @@
+package glactor.utils;
+
+import glactor.core.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TypedActorTest
+{
+    static class Doubler implements TypedActor.IBatchImpl<Integer, Integer>
+    {
+	int batches, drop;
+	boolean error;
+
+	public Integer onReceive(Integer msg) {
+	    return msg * 2;
+	}
+
+	public List<Integer> onReceiveBatch(List<Integer> msgs) {
+	    batches++;
+	    if (error) {
+		throw new AssertionError("boom");
+	    }
+	    List<Integer> res = new ArrayList<Integer>();
+	    for (int i = 0; i < msgs.size() - drop; i++) {
+		res.add(msgs.get(i) * 2);
+	    }
+	    return res;
+	}
+    }
+
+    static class BatchCounter implements IActorTracer
+    {
+	final AtomicInteger batches = new AtomicInteger();
+
+	public void scheduled(Object actor) {
+	}
+
+	public void slice(Object actor, long start, long nanos) {
+	}
+
+	public void message(Object actor, Class<?> msgClass, long start, long nanos) {
+	    if (msgClass == TypedActor.Batch.class) {
+		batches.incrementAndGet();
+	    }
+	}
+
+	public void futureBlocked(Object actor, long start, long nanos) {
+	}
+
+	public void runCore(Object actor) {
+	}
+
+	public void exception(Object actor, Exception e) {
+	}
+    }
+
+    ActorThreadPool threadP = new ThrPoolBasicImpl(2);
+
+    @After
+    public void tearDown() {
+	ActorRef.setTracer(null);
+	threadP.shutdown();
+    }
+
+    /**
+     * Block actor until gate opens, so messages queue up
+     */
+    static void hold(TypedActor<?, ?> a, final CountDownLatch gate) {
+	a.send(new Runnable()
+	{
+	    public void run() {
+		try {
+		    gate.await();
+		} catch (InterruptedException ex) {
+		}
+	    }
+	});
+    }
+
+    @Test
+    public void testBatchedWhenTraced() throws Exception {
+	BatchCounter tracer = new BatchCounter();
+	ActorRef.setTracer(tracer);
+	Doubler impl = new Doubler();
+	TypedActor<Integer, Integer> a = new TypedActor<Integer, Integer>(threadP, impl);
+	CountDownLatch gate = new CountDownLatch(1);
+	hold(a, gate);
+	List<Future<Integer>> fs = new ArrayList<Future<Integer>>();
+	for (int i = 0; i < 100; i++) {
+	    fs.add(a.call(i));
+	}
+	gate.countDown();
+	for (int i = 0; i < 100; i++) {
+	    assertEquals(2 * i, (int) fs.get(i).get(5, TimeUnit.SECONDS));
+	}
+	assertTrue(threadP.awaitQuiescence(5000));
+	assertTrue(impl.batches < 100);
+	assertEquals(impl.batches, tracer.batches.get());
+    }
+
+    @Test
+    public void testMissingResults() throws Exception {
+	Doubler impl = new Doubler();
+	impl.drop = 1;
+	TypedActor<Integer, Integer> a = new TypedActor<Integer, Integer>(threadP, impl);
+	CountDownLatch gate = new CountDownLatch(1);
+	hold(a, gate);
+	Future<Integer> f1 = a.call(1);
+	Future<Integer> f2 = a.call(2);
+	gate.countDown();
+	assertEquals(2, (int) f1.get(5, TimeUnit.SECONDS));
+	try {
+	    f2.get(5, TimeUnit.SECONDS);
+	    fail();
+	} catch (ExecutionException e) {
+	    assertTrue(e.getCause() instanceof IllegalStateException);
+	}
+    }
+
+    @Test
+    public void testError() throws Exception {
+	Doubler impl = new Doubler();
+	impl.error = true;
+	TypedActor<Integer, Integer> a = new TypedActor<Integer, Integer>(threadP, impl);
+	try {
+	    a.call(1).get(5, TimeUnit.SECONDS);
+	    fail();
+	} catch (ExecutionException e) {
+	    assertTrue(e.getCause() instanceof AssertionError);
+	}
+    }
+}